@@ -0,0 +1,72 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * Steers the variant selection of an HLS chunk source with an {@link AbrStrategy}, since it can't
+ * be replaced: the chunk source picks the highest variant within a fraction of the bandwidth
+ * estimate, so the estimate answered is the one making it pick the strategy's choice.
+ *
+ * The chunk source still switches up only with some media buffered and down only with little.
+ */
+final class AbrBandwidthMeter implements BandwidthMeter {
+
+	/**
+	 * Fraction of the estimate considered available by <code>HlsChunkSource</code>.
+	 */
+	private static final float HLS_BANDWIDTH_FRACTION = 0.8f;
+
+	/**
+	 * Media buffered ahead of the playback position (ex. {@link ExoplayerWrapper#getBufferedDurationUs()}).
+	 */
+	interface BufferLevel {
+		long getBufferedDurationUs();
+	}
+
+	private final BandwidthMeter meter;
+	private final AbrStrategy strategy;
+	private final int[] bitrates;
+	private final BufferLevel bufferLevel;
+
+	/**
+	 * @param meter Measures the bandwidth
+	 * @param strategy Picks the variants
+	 * @param bitrates Bitrates of the variants
+	 * @param bufferLevel Buffer level of the stream's player
+	 */
+	AbrBandwidthMeter(BandwidthMeter meter, AbrStrategy strategy, int[] bitrates, BufferLevel bufferLevel) {
+		this.meter = meter;
+		this.strategy = strategy;
+		this.bitrates = bitrates;
+		this.bufferLevel = bufferLevel;
+	}
+
+	@Override
+	public long getBitrateEstimate() {
+		final int index = strategy.select(bitrates, bufferLevel.getBufferedDurationUs(), meter.getBitrateEstimate());
+		return getSteeringEstimate(bitrates[index]);
+	}
+
+	/**
+	 * @return The lowest estimate whose HLS fraction covers the bitrate (plus a margin for the
+	 * float rounding of <code>HlsChunkSource</code>)
+	 */
+	static long getSteeringEstimate(int bitrate) {
+		return (long) Math.ceil(bitrate/HLS_BANDWIDTH_FRACTION) + 1;
+	}
+
+	@Override
+	public void onTransferStart() {
+		meter.onTransferStart();
+	}
+
+	@Override
+	public void onBytesTransferred(int bytes) {
+		meter.onBytesTransferred(bytes);
+	}
+
+	@Override
+	public void onTransferEnd() {
+		meter.onTransferEnd();
+	}
+}
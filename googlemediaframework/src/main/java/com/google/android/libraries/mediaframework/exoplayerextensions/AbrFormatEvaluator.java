@@ -0,0 +1,50 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.List;
+
+/**
+ * A DASH {@link FormatEvaluator} delegating the choice of the next representation to an
+ * {@link AbrStrategy}, with the media buffered ahead measured from the chunk queue.
+ * Chunks already loaded are never discarded.
+ */
+final class AbrFormatEvaluator implements FormatEvaluator {
+
+	private final AbrStrategy strategy;
+	private final BandwidthMeter bandwidthMeter;
+
+	AbrFormatEvaluator(AbrStrategy strategy, BandwidthMeter bandwidthMeter) {
+		this.strategy = strategy;
+		this.bandwidthMeter = bandwidthMeter;
+	}
+
+	@Override
+	public void enable() {}
+
+	@Override
+	public void disable() {}
+
+	@Override
+	public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs, Format[] formats,
+						 Evaluation evaluation) {
+		final long bufferedUs = queue.isEmpty() ? 0 : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+		final int[] bitrates = new int[formats.length];
+
+		for (int i = 0; i < formats.length; ++i)
+			bitrates[i] = formats[i].bitrate;
+
+		final Format format = formats[strategy.select(bitrates, Math.max(bufferedUs, 0),
+				bandwidthMeter.getBitrateEstimate())];
+
+		if (evaluation.format != null && !evaluation.format.equals(format))
+			evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+
+		evaluation.format = format;
+		evaluation.queueSize = queue.size();
+	}
+}
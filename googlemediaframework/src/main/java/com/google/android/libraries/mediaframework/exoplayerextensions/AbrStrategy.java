@@ -0,0 +1,27 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+/**
+ * Picks the rendition of an adaptive stream (DASH representation or HLS variant) to load next.
+ *
+ * A strategy is created per playback (see {@link Factory}) and called from the loading thread,
+ * so it may keep state between calls. The ExoPlayer default (throughput only) is used for videos
+ * without a strategy.
+ */
+public interface AbrStrategy {
+
+	/**
+	 * Creates the strategy of each playback of a video (see {@link Video#getAbrStrategy()}).
+	 */
+	interface Factory {
+		AbrStrategy create();
+	}
+
+	/**
+	 * @param bitrates Bitrates of the renditions in bits per second (in no particular order)
+	 * @param bufferedUs Media loaded ahead of the playback position in microseconds
+	 * @param bitrateEstimate Bandwidth estimate in bits per second or
+	 *                        <code>BandwidthMeter.NO_ESTIMATE</code>
+	 * @return Index of the rendition to load next
+	 */
+	int select(int[] bitrates, long bufferedUs, long bitrateEstimate);
+}
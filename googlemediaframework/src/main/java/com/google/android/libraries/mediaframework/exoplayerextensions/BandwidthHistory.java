@@ -0,0 +1,308 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Throughput samples of past playbacks per network (Wi-Fi access point or carrier and radio
+ * technology), so that a new playback starts at the rendition its network usually sustains
+ * instead of the players' default.
+ *
+ * Each network keeps a sliding window of its latest samples; its estimate is their median
+ * weighted by the square root of their sizes (as ExoPlayer's <code>DefaultBandwidthMeter</code>).
+ * Samples older than a week are discarded. Networks are identified by hashes only.
+ *
+ * Samples are written in background, every 30s while recording and when a player is released.
+ */
+public final class BandwidthHistory {
+
+	private static final String FILE_NAME = "samba_bandwidth";
+	private static final int MAX_SAMPLES = 30;
+	private static final int MAX_NETWORKS = 16;
+	private static final long MAX_AGE = 7*24*60*60*1000L;
+	private static final long SAVE_INTERVAL = 30*1000;
+
+	private static BandwidthHistory instance;
+
+	private final Context context;
+	private final File file;
+	private final Executor executor;
+	private final LinkedHashMap<String, ArrayDeque<Sample>> networks =
+			new LinkedHashMap<String, ArrayDeque<Sample>>(MAX_NETWORKS, .75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<Sample>> eldest) {
+					return size() > MAX_NETWORKS;
+				}
+			};
+
+	private long lastSave;
+	private boolean dirty;
+
+	private BandwidthHistory(Context context) {
+		this(context, new File(context.getFilesDir(), FILE_NAME), Executors.newSingleThreadExecutor());
+	}
+
+	/**
+	 * @param context Used to identify the active network
+	 * @param file Where the samples are kept
+	 * @param executor Runs the writes, in order
+	 */
+	BandwidthHistory(Context context, File file, Executor executor) {
+		this.context = context;
+		this.file = file;
+		this.executor = executor;
+		load();
+	}
+
+	public static synchronized BandwidthHistory getInstance(Context context) {
+		if (instance == null)
+			instance = new BandwidthHistory(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Forgets every sample.
+	 */
+	public synchronized void clear() {
+		networks.clear();
+		dirty = false;
+
+		// after the writes already queued
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				file.delete();
+			}
+		});
+	}
+
+	/**
+	 * Writes the samples recorded since the last write (in background).
+	 */
+	public synchronized void flush() {
+		if (!dirty)
+			return;
+
+		final StringBuilder data = new StringBuilder();
+
+		for (Map.Entry<String, ArrayDeque<Sample>> e : networks.entrySet())
+			for (Sample sample : e.getValue())
+				data.append(e.getKey()).append('\t').append(sample.time).append('\t')
+						.append(sample.elapsedMs).append('\t').append(sample.bytes).append('\n');
+
+		dirty = false;
+		lastSave = SystemClock.elapsedRealtime();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				write(data.toString());
+			}
+		});
+	}
+
+	/**
+	 * @return Key of the active network or null if unknown (or offline)
+	 */
+	String getNetworkKey() {
+		try {
+			final NetworkInfo info = ((ConnectivityManager) context.getSystemService(
+					Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
+
+			if (info == null || !info.isConnected())
+				return null;
+
+			switch (info.getType()) {
+				case ConnectivityManager.TYPE_WIFI:
+				case ConnectivityManager.TYPE_ETHERNET:
+					// extra info holds the SSID
+					return "wifi:" + hash(info.getExtraInfo());
+				case ConnectivityManager.TYPE_MOBILE:
+					return "mobile:" + info.getSubtype() + ":" + hash(((TelephonyManager) context.getSystemService(
+							Context.TELEPHONY_SERVICE)).getNetworkOperator());
+				default:
+					return "other:" + info.getType();
+			}
+		}
+		catch (Exception e) {
+			Log.w(getClass().getSimpleName(), "Failed to identify the network", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param network Network key
+	 * @return The bitrate estimate in bits per second or {@link BandwidthMeter#NO_ESTIMATE}
+	 */
+	synchronized long getEstimate(String network) {
+		final ArrayDeque<Sample> samples = network != null ? networks.get(network) : null;
+
+		if (samples == null)
+			return BandwidthMeter.NO_ESTIMATE;
+
+		final long now = System.currentTimeMillis();
+		final ArrayList<Sample> valid = new ArrayList<>();
+		float totalWeight = 0;
+
+		for (Sample sample : samples) {
+			if (now - sample.time < MAX_AGE) {
+				valid.add(sample);
+				totalWeight += sample.getWeight();
+			}
+		}
+
+		if (valid.isEmpty())
+			return BandwidthMeter.NO_ESTIMATE;
+
+		Collections.sort(valid, new Comparator<Sample>() {
+			@Override
+			public int compare(Sample a, Sample b) {
+				return a.getBitrate() < b.getBitrate() ? -1 : a.getBitrate() > b.getBitrate() ? 1 : 0;
+			}
+		});
+
+		float weight = 0;
+
+		for (Sample sample : valid) {
+			weight += sample.getWeight();
+
+			if (weight >= totalWeight/2)
+				return sample.getBitrate();
+		}
+
+		return valid.get(valid.size() - 1).getBitrate();
+	}
+
+	/**
+	 * Records a transfer measured on a network.
+	 * @param network Network key
+	 * @param elapsedMs Transfer duration
+	 * @param bytes Bytes transferred
+	 */
+	synchronized void addSample(String network, int elapsedMs, long bytes) {
+		if (network == null || elapsedMs <= 0 || bytes <= 0)
+			return;
+
+		ArrayDeque<Sample> samples = networks.get(network);
+
+		if (samples == null)
+			networks.put(network, samples = new ArrayDeque<>());
+
+		samples.addLast(new Sample(System.currentTimeMillis(), elapsedMs, bytes));
+
+		while (samples.size() > MAX_SAMPLES)
+			samples.removeFirst();
+
+		dirty = true;
+
+		if (SystemClock.elapsedRealtime() - lastSave >= SAVE_INTERVAL)
+			flush();
+	}
+
+	private static String hash(String value) {
+		return value != null ? Integer.toHexString(value.hashCode()) : "";
+	}
+
+	private void load() {
+		if (!file.exists())
+			return;
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+			for (String line; (line = reader.readLine()) != null;) {
+				final String[] fields = line.split("\t");
+
+				if (fields.length != 4)
+					continue;
+
+				try {
+					ArrayDeque<Sample> samples = networks.get(fields[0]);
+
+					if (samples == null)
+						networks.put(fields[0], samples = new ArrayDeque<>());
+
+					samples.addLast(new Sample(Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+							Long.parseLong(fields[3])));
+				}
+				catch (NumberFormatException ignored) {}
+			}
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to load bandwidth history", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	private void write(String data) {
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write(data);
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to save bandwidth history", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	private static final class Sample {
+
+		final long time;
+		final int elapsedMs;
+		final long bytes;
+
+		Sample(long time, int elapsedMs, long bytes) {
+			this.time = time;
+			this.elapsedMs = elapsedMs;
+			this.bytes = bytes;
+		}
+
+		long getBitrate() {
+			return bytes*8000/elapsedMs;
+		}
+
+		float getWeight() {
+			return (float) Math.sqrt(bytes);
+		}
+	}
+}
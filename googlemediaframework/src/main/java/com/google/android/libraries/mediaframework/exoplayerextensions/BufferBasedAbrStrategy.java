@@ -0,0 +1,63 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+/**
+ * A buffer-based {@link AbrStrategy} (BOLA-BASIC): the fuller the buffer, the higher the rendition,
+ * regardless of the bandwidth estimate, so that throughput fluctuations don't make it oscillate.
+ *
+ * Each rendition is scored by <code>(V*(utility + gamma) - buffer)/bitrate</code>, where the
+ * utility is the log of its bitrate relative to the lowest one. V and gamma are derived from a
+ * buffer target (as in dash.js), so that the lowest rendition is picked below 10 seconds
+ * of buffer and the highest one before the target is reached.
+ */
+public final class BufferBasedAbrStrategy implements AbrStrategy {
+
+	public static final Factory FACTORY = new Factory() {
+		@Override
+		public AbrStrategy create() {
+			return new BufferBasedAbrStrategy();
+		}
+	};
+
+	private static final double MIN_BUFFER_S = 10;
+	private static final double BUFFER_PER_LEVEL_S = 2;
+	private static final double STABLE_BUFFER_S = 12;
+
+	@Override
+	public int select(int[] bitrates, long bufferedUs, long bitrateEstimate) {
+		int lowest = 0;
+		int highest = 0;
+
+		for (int i = 1; i < bitrates.length; ++i) {
+			if (bitrates[i] < bitrates[lowest])
+				lowest = i;
+
+			if (bitrates[i] > bitrates[highest])
+				highest = i;
+		}
+
+		if (bitrates[highest] == bitrates[lowest])
+			return lowest;
+
+		final double bufferTarget = Math.max(STABLE_BUFFER_S, MIN_BUFFER_S + BUFFER_PER_LEVEL_S*bitrates.length);
+		final double gamma = (getUtility(bitrates[highest], bitrates[lowest]) - 1)/(bufferTarget/MIN_BUFFER_S - 1);
+		final double v = MIN_BUFFER_S/gamma;
+		final double buffer = bufferedUs/1000000d;
+		double bestScore = -Double.MAX_VALUE;
+		int best = lowest;
+
+		for (int i = 0; i < bitrates.length; ++i) {
+			final double score = (v*(getUtility(bitrates[i], bitrates[lowest]) + gamma) - buffer)/bitrates[i];
+
+			if (score > bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+
+		return best;
+	}
+
+	private static double getUtility(int bitrate, int lowestBitrate) {
+		return Math.log((double) bitrate/lowestBitrate) + 1;
+	}
+}
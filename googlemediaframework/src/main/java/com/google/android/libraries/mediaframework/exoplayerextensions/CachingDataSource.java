@@ -0,0 +1,249 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads HTTP(S) URIs through the {@link MediaDataCache} tiers, any other scheme straight
+ * from the default data source.
+ *
+ * Only network transfers are reported to the listener, so cache hits don't inflate the
+ * bandwidth estimate. A live manifest makes the following segments of this source skip
+ * the disk tier as well (HLS reads playlists and segments through the same source),
+ * and HLS keys are always read from the network.
+ */
+final class CachingDataSource implements UriDataSource {
+
+	private final MediaDataCache cache;
+	private final UriDataSource network;
+	private DataSource disk;
+
+	private DataSource current;
+	private String uri;
+	private boolean live;
+
+	// memory tier reads
+	private byte[] data;
+	private int dataPosition;
+
+	// memory tier writes
+	private String hotKey;
+	private byte[] record;
+	private int recorded;
+
+	// disk tier stream read without a length, journaled once fully read
+	private String lengthKey;
+	private long lengthBase;
+
+	private long totalRead;
+	private long networkRead;
+
+	CachingDataSource(MediaDataCache cache, Context context, final TransferListener listener, String userAgent) {
+		this.cache = cache;
+		network = new DefaultUriDataSource(context, new TransferListener() {
+			@Override
+			public void onTransferStart() {
+				if (listener != null)
+					listener.onTransferStart();
+			}
+
+			@Override
+			public void onBytesTransferred(int bytes) {
+				networkRead += bytes;
+
+				if (listener != null)
+					listener.onBytesTransferred(bytes);
+			}
+
+			@Override
+			public void onTransferEnd() {
+				if (listener != null)
+					listener.onTransferEnd();
+			}
+		}, userAgent);
+	}
+
+	@Override
+	public long open(DataSpec dataSpec) throws IOException {
+		final String scheme = dataSpec.uri.getScheme();
+
+		totalRead = networkRead = 0;
+		uri = dataSpec.uri.toString();
+
+		// local files, POST requests
+		if (!("http".equals(scheme) || "https".equals(scheme)) || dataSpec.postBody != null) {
+			current = network;
+			return network.open(dataSpec);
+		}
+
+		if (cache.isKey(uri)) {
+			current = network;
+			return network.open(dataSpec);
+		}
+
+		final String key = dataSpec.key != null ? dataSpec.key : uri;
+		final String memoryKey = key + '@' + dataSpec.absoluteStreamPosition + '+' + dataSpec.length;
+		final MediaDataCache.Entry entry = cache.getHot(memoryKey);
+
+		if (entry != null) {
+			data = entry.data;
+			dataPosition = 0;
+			uri = entry.uri;
+			return data.length;
+		}
+
+		if (isManifest(dataSpec)) {
+			data = readManifest(dataSpec);
+			dataPosition = 0;
+
+			if (!live && data.length <= MediaDataCache.MAX_HOT_MANIFEST_SIZE)
+				cache.putHot(memoryKey, new MediaDataCache.Entry(data, uri));
+
+			return data.length;
+		}
+
+		if (live) {
+			current = network;
+			return network.open(dataSpec);
+		}
+
+		// opens the disk tier on the loader thread
+		if (disk == null)
+			disk = new CacheDataSource(cache.getDisk(), network, false, true);
+
+		// small ranges (ex. initialization segments) are also kept in memory
+		if (dataSpec.length != C.LENGTH_UNBOUNDED && dataSpec.length <= MediaDataCache.MAX_HOT_SIZE) {
+			hotKey = memoryKey;
+			record = new byte[(int) dataSpec.length];
+			recorded = 0;
+		}
+
+		long length = dataSpec.length;
+
+		if (length == C.LENGTH_UNBOUNDED) {
+			final long total = cache.getLength(key);
+
+			if (total > dataSpec.position)
+				length = total - dataSpec.position;
+			else {
+				lengthKey = key;
+				lengthBase = dataSpec.position;
+			}
+		}
+
+		current = disk;
+		return disk.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, dataSpec.position,
+				length, key, dataSpec.flags));
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int readLength) throws IOException {
+		if (data != null) {
+			if (dataPosition == data.length)
+				return C.RESULT_END_OF_INPUT;
+
+			final int n = Math.min(readLength, data.length - dataPosition);
+
+			System.arraycopy(data, dataPosition, buffer, offset, n);
+			dataPosition += n;
+			totalRead += n;
+			return n;
+		}
+
+		final int n = current.read(buffer, offset, readLength);
+
+		if (n == C.RESULT_END_OF_INPUT && lengthKey != null) {
+			cache.putLength(lengthKey, lengthBase + totalRead);
+			lengthKey = null;
+		}
+		else if (n > 0) {
+			totalRead += n;
+
+			if (record != null && recorded + n <= record.length) {
+				System.arraycopy(buffer, offset, record, recorded, n);
+				recorded += n;
+			}
+		}
+
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (record != null && recorded == record.length)
+			cache.putHot(hotKey, new MediaDataCache.Entry(record, uri));
+
+		cache.onRead(totalRead, networkRead);
+
+		data = null;
+		record = null;
+		hotKey = null;
+		lengthKey = null;
+		totalRead = networkRead = 0;
+
+		if (current != null) {
+			final DataSource source = current;
+
+			current = null;
+			source.close();
+		}
+	}
+
+	@Override
+	public String getUri() {
+		return current == network ? network.getUri() : uri;
+	}
+
+	/**
+	 * Reads a whole manifest from the network, checking whether it may change (live).
+	 */
+	private byte[] readManifest(DataSpec dataSpec) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8*1024];
+
+		try {
+			network.open(dataSpec);
+			uri = network.getUri();
+
+			for (int n; (n = network.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT;)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			network.close();
+		}
+
+		final String text = out.toString("UTF-8");
+
+		// HLS media playlists without an end are live, masters don't tell (their media playlists do)
+		if (text.startsWith("#EXTM3U")) {
+			live = !text.contains("#EXT-X-STREAM-INF") && !text.contains("#EXT-X-ENDLIST");
+
+			// resolved against the requested URI, as the playlist parser does
+			cache.putKeys(dataSpec.uri.toString(), text);
+		}
+		else live = text.contains("type=\"dynamic\"");
+
+		return out.toByteArray();
+	}
+
+	private static boolean isManifest(DataSpec dataSpec) {
+		final String path = dataSpec.uri.getPath();
+
+		if (path == null)
+			return false;
+
+		final String lower = path.toLowerCase();
+
+		return lower.endsWith(".m3u8") || lower.endsWith(".m3u") || lower.endsWith(".mpd");
+	}
+}
@@ -20,7 +20,6 @@
  */
 package com.google.android.libraries.mediaframework.exoplayerextensions;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -29,24 +28,27 @@ import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.DashTrackSelector;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
 import com.google.android.exoplayer.dash.mpd.Period;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver.UtcTimingCallback;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.upstream.UriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
@@ -78,24 +80,41 @@ public class DashRendererBuilder implements RendererBuilder {
   private static final int SECURITY_LEVEL_1 = 1;
   private static final int SECURITY_LEVEL_3 = 3;
 
+  /**
+   * The Widevine security level of the device, queried once per process.
+   */
+  private static String securityLevelProperty;
+
   private final Context context;
   private final String userAgent;
   private final String url;
   private final MediaDrmCallback drmCallback;
+  private final AbrStrategy.Factory abrStrategy;
 
   private AsyncRendererBuilder currentAsyncBuilder;
 
   public DashRendererBuilder(Context context, String userAgent, String url,
                              MediaDrmCallback drmCallback) {
+    this(context, userAgent, url, drmCallback, null);
+  }
+
+  /**
+   * @param abrStrategy Selects the video representations (or null for ExoPlayer's
+   *                    {@link AdaptiveEvaluator}).
+   */
+  public DashRendererBuilder(Context context, String userAgent, String url,
+                             MediaDrmCallback drmCallback, AbrStrategy.Factory abrStrategy) {
     this.context = context;
     this.userAgent = userAgent;
     this.url = url;
     this.drmCallback = drmCallback;
+    this.abrStrategy = abrStrategy;
   }
 
   @Override
   public void buildRenderers(ExoplayerWrapper player) {
-    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
+    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback,
+        abrStrategy, player);
     currentAsyncBuilder.init();
   }
 
@@ -113,7 +132,9 @@ public class DashRendererBuilder implements RendererBuilder {
 
     private final Context context;
     private final String userAgent;
+    private final String url;
     private final MediaDrmCallback drmCallback;
+    private final AbrStrategy.Factory abrStrategy;
     private final ExoplayerWrapper player;
     private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
     private final UriDataSource manifestDataSource;
@@ -123,17 +144,29 @@ public class DashRendererBuilder implements RendererBuilder {
     private long elapsedRealtimeOffset;
 
     public AsyncRendererBuilder(Context context, String userAgent, String url,
-                                MediaDrmCallback drmCallback, ExoplayerWrapper player) {
+                                MediaDrmCallback drmCallback, AbrStrategy.Factory abrStrategy,
+                                ExoplayerWrapper player) {
       this.context = context;
       this.userAgent = userAgent;
+      this.url = url;
       this.drmCallback = drmCallback;
+      this.abrStrategy = abrStrategy;
       this.player = player;
       MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-      manifestDataSource = new DefaultUriDataSource(context, userAgent);
+      manifestDataSource = RendererBuilderFactory.createDataSource(context, null, userAgent);
       manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
     }
 
     public void init() {
+      // A static manifest parsed before (ex. the player is being recreated) is used right away.
+      MediaPresentationDescription manifest =
+          ManifestCache.getInstance().get(url, MediaPresentationDescription.class);
+      if (manifest != null) {
+        this.manifest = manifest;
+        prefetchLicense();
+        buildRenderers();
+        return;
+      }
       manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
     }
 
@@ -148,6 +181,8 @@ public class DashRendererBuilder implements RendererBuilder {
       }
 
       this.manifest = manifest;
+      ManifestCache.getInstance().put(url, manifest);
+      prefetchLicense();
       if (manifest.dynamic && manifest.utcTiming != null) {
         UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
                 manifestFetcher.getManifestLoadCompleteTimestamp(), this);
@@ -189,8 +224,8 @@ public class DashRendererBuilder implements RendererBuilder {
     private void buildRenderers() {
       Period period = manifest.getPeriod(0);
       Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+      LoadControl loadControl = player.newLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+      BandwidthMeter bandwidthMeter = new HistoryBandwidthMeter(context, mainHandler, player);
 
       boolean hasContentProtection = false;
       for (int i = 0; i < period.adaptationSets.size(); i++) {
@@ -202,7 +237,7 @@ public class DashRendererBuilder implements RendererBuilder {
 
       // Check drm support if necessary.
       boolean filterHdContent = false;
-      StreamingDrmSessionManager drmSessionManager = null;
+      DrmSessionManager drmSessionManager = null;
       if (hasContentProtection) {
         if (Util.SDK_INT < 18) {
           player.onRenderersError(
@@ -210,9 +245,33 @@ public class DashRendererBuilder implements RendererBuilder {
           return;
         }
         try {
-          drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
-                  player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-          filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
+          // Contents identified by the DRM request keep their licenses across sessions.
+          // A recreated player keeps the session manager (and session) of the same content.
+          String contentId = getContentId(drmCallback);
+          if (contentId != null) {
+            PersistentDrmSessionManager persistentSessionManager = player.getDrmSessionManager();
+            if (persistentSessionManager == null
+                    || !contentId.equals(persistentSessionManager.getContentId())) {
+              persistentSessionManager = new PersistentDrmSessionManager(context,
+                      player.getPlaybackLooper(), drmCallback, contentId, mainHandler, player);
+              player.setDrmSessionManager(persistentSessionManager);
+            } else {
+              // the reused session requests its licenses with the current DRM info
+              persistentSessionManager.setCallback(drmCallback);
+            }
+            if (securityLevelProperty == null) {
+              securityLevelProperty = persistentSessionManager.getPropertyString("securityLevel");
+            }
+            drmSessionManager = persistentSessionManager;
+          } else {
+            StreamingDrmSessionManager streamingSessionManager = StreamingDrmSessionManager.newWidevineInstance(
+                    player.getPlaybackLooper(), drmCallback, null, mainHandler, player);
+            if (securityLevelProperty == null) {
+              securityLevelProperty = streamingSessionManager.getPropertyString("securityLevel");
+            }
+            drmSessionManager = streamingSessionManager;
+          }
+          filterHdContent = getWidevineSecurityLevel(securityLevelProperty) != SECURITY_LEVEL_1;
         } catch (UnsupportedDrmException e) {
           player.onRenderersError(e);
           return;
@@ -220,11 +279,13 @@ public class DashRendererBuilder implements RendererBuilder {
       }
 
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
+      DataSource videoDataSource = RendererBuilderFactory.createDataSource(context, bandwidthMeter, userAgent);
+      FormatEvaluator videoEvaluator = abrStrategy != null
+              ? new AbrFormatEvaluator(abrStrategy.create(), bandwidthMeter)
+              : new AdaptiveEvaluator(bandwidthMeter);
+      ChunkSource videoChunkSource = newChunkSource(
               DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-              videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
-              elapsedRealtimeOffset, mainHandler, player, ExoplayerWrapper.TYPE_VIDEO);
+              videoDataSource, videoEvaluator, ExoplayerWrapper.TYPE_VIDEO);
       ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
               VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               ExoplayerWrapper.TYPE_VIDEO);
@@ -233,10 +294,9 @@ public class DashRendererBuilder implements RendererBuilder {
               mainHandler, player, 50);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
-              DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null, LIVE_EDGE_LATENCY_MS,
-              elapsedRealtimeOffset, mainHandler, player, ExoplayerWrapper.TYPE_AUDIO);
+      DataSource audioDataSource = RendererBuilderFactory.createDataSource(context, bandwidthMeter, userAgent);
+      ChunkSource audioChunkSource = newChunkSource(DefaultDashTrackSelector.newAudioInstance(),
+              audioDataSource, null, ExoplayerWrapper.TYPE_AUDIO);
       ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
               AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               ExoplayerWrapper.TYPE_AUDIO);
@@ -245,10 +305,9 @@ public class DashRendererBuilder implements RendererBuilder {
               AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
-              DefaultDashTrackSelector.newTextInstance(), textDataSource, null, LIVE_EDGE_LATENCY_MS,
-              elapsedRealtimeOffset, mainHandler, player, ExoplayerWrapper.TYPE_TEXT);
+      DataSource textDataSource = RendererBuilderFactory.createDataSource(context, bandwidthMeter, userAgent);
+      ChunkSource textChunkSource = newChunkSource(DefaultDashTrackSelector.newTextInstance(),
+              textDataSource, null, ExoplayerWrapper.TYPE_TEXT);
       ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
               TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               ExoplayerWrapper.TYPE_TEXT);
@@ -263,8 +322,48 @@ public class DashRendererBuilder implements RendererBuilder {
       player.onRenderers(renderers, bandwidthMeter);
     }
 
-    private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
-      String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
+    private ChunkSource newChunkSource(DashTrackSelector trackSelector, DataSource dataSource,
+                                       FormatEvaluator formatEvaluator, int type) {
+      // A cached manifest (always static) wasn't loaded by the fetcher, nor needs refreshing.
+      if (manifestFetcher.getManifest() == null) {
+        return new DashChunkSource(manifest, trackSelector, dataSource, formatEvaluator);
+      }
+      return new DashChunkSource(manifestFetcher, trackSelector, dataSource, formatEvaluator,
+              LIVE_EDGE_LATENCY_MS, elapsedRealtimeOffset, player.getMainHandler(), player, type);
+    }
+
+    /**
+     * Starts acquiring the license of a protected content from the Widevine initialization data
+     * in its manifest (if any), while the renderers are being built and the init segments loaded.
+     */
+    private void prefetchLicense() {
+      String contentId = getContentId(drmCallback);
+      if (contentId == null || Util.SDK_INT < 18) {
+        return;
+      }
+      for (AdaptationSet adaptationSet : manifest.getPeriod(0).adaptationSets) {
+        for (ContentProtection contentProtection : adaptationSet.contentProtections) {
+          if (ExoplayerUtil.WIDEVINE_UUID.equals(contentProtection.uuid)
+                  && contentProtection.data != null) {
+            OfflineLicenseStore store = OfflineLicenseStore.getInstance(context);
+            store.putInitData(contentId, contentProtection.data);
+            store.acquireIfNeeded(contentId, contentProtection.data, drmCallback);
+            return;
+          }
+        }
+      }
+    }
+
+    private static String getContentId(MediaDrmCallback drmCallback) {
+      if (!(drmCallback instanceof WidevineMediaDrmCallback)) {
+        return null;
+      }
+      DrmRequest drmRequest = ((WidevineMediaDrmCallback) drmCallback).getDrmRequest();
+      String contentId = drmRequest != null ? drmRequest.getLicenseParam("ContentId") : null;
+      return contentId != null && !contentId.isEmpty() ? contentId : null;
+    }
+
+    private static int getWidevineSecurityLevel(String securityLevelProperty) {
       return securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1 : securityLevelProperty
           .equals("L3") ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
     }
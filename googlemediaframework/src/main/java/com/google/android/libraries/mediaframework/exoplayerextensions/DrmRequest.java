@@ -16,6 +16,15 @@ public class DrmRequest {
 		this.licenseUrl = licenseUrl;
 	}
 
+	/**
+	 * @param other The request to copy (params are copied, not shared).
+	 */
+	public DrmRequest(DrmRequest other) {
+		licenseUrl = other.licenseUrl;
+		urlParams.putAll(other.urlParams);
+		headerParams.putAll(other.headerParams);
+	}
+
 	public String getLicenseUrl() {
 		String params = licenseUrl.contains("?") ? "" : "?";
 		String sep = "";
@@ -30,19 +30,12 @@ import android.util.Log;
 
 import com.google.android.exoplayer.ExoPlayerLibraryInfo;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.UUID;
 
 /**
@@ -80,117 +73,41 @@ public class ExoplayerUtil {
 
   /**
    * Do an HTTP POST and return the data as a byte array.
+   * Goes through {@link HttpTransport}, so the license server connection is kept alive.
    */
   public static byte[] executePost(String url, byte[] data, Map<String, String> requestProperties)
       throws UnsupportedDrmException, IOException {
-    HttpURLConnection urlConnection = null;
-    //long d = new Date().getTime();
+    HttpTransport.Response response = HttpTransport.post(url, data, requestProperties,
+        HttpTransport.DEFAULT_TIMEOUT);
     try {
-      urlConnection = (HttpURLConnection) new URL(url).openConnection();
-      urlConnection.setRequestMethod("POST");
-      urlConnection.setDoOutput(data != null);
-      urlConnection.setDoInput(true);
-      if (requestProperties != null) {
-        for (Map.Entry<String, String> requestProperty : requestProperties.entrySet()) {
-          urlConnection.setRequestProperty(requestProperty.getKey(), requestProperty.getValue());
-        }
-      }
-      if (data != null) {
-        OutputStream out = new BufferedOutputStream(urlConnection.getOutputStream());
-        out.write(data);
-        out.close();
-      }
-
-      urlConnection.connect();
-
-      int responseCode = urlConnection.getResponseCode();
-
-      if (responseCode < 200 || responseCode > 299) {
-        printRequestData(urlConnection);
+      if (!response.isSuccessful()) {
+        printRequestData(response);
         throw new UnsupportedDrmException(UnsupportedDrmException.REASON_INVALID_SERVER_CODE);
       }
 
-      InputStream in = new BufferedInputStream(urlConnection.getInputStream());
-      return convertInputStreamToByteArray(in);
+      return response.readBytes();
     } finally {
-      if (urlConnection != null) {
-        urlConnection.disconnect();
-      }
-      //Log.i("asdf", String.format("%d", (new Date()).getTime() - d));
-    }
-  }
-
-  /**
-   * Write the contents of an input stream into a byte array.
-   * @param inputStream The stream to convert into a byte array.
-   * @return A byte array containing the contents of the input stream.
-   * @throws IOException
-   */
-  private static byte[] convertInputStreamToByteArray(InputStream inputStream) throws IOException {
-    byte[] bytes = null;
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    byte data[] = new byte[1024];
-    int count;
-    while ((count = inputStream.read(data)) != -1) {
-      bos.write(data, 0, count);
+      response.close();
     }
-    bos.flush();
-    bos.close();
-    inputStream.close();
-    bytes = bos.toByteArray();
-    return bytes;
   }
 
-  private static void printRequestData(HttpURLConnection con) {
-    if (con == null) return;
-
+  private static void printRequestData(HttpTransport.Response response) {
+    HttpURLConnection con = response.getConnection();
     String headers = "";
-    String content = "";
     String error = "";
-    String requestMethod = "";
-    String permission = "";
-    int responseCode = -1;
-    String responseMessage = "";
-
-    Scanner ctn = null;
-    Scanner ctnd = null;
-    Scanner escn = null;
-    Scanner escnd = null;
 
     try {
-      requestMethod = con.getRequestMethod();
-      permission = con.getPermission().toString();
-      responseCode = con.getResponseCode();
-      responseMessage = con.getResponseMessage();
-
       for (Map.Entry<String, List<String>> kv : con.getHeaderFields().entrySet())
         headers += kv.getKey() + ": " + kv.getValue() + "\n";
 
-      ctn = new Scanner((InputStream) con.getContent());
-      ctnd = ctn.useDelimiter("\\A");
-
-      content = ctnd.hasNext() ? ctnd.next() : "";
-
-      InputStream err = con.getErrorStream();
-
-      if (err != null) {
-        escn = new Scanner(err);
-        escnd = escn.useDelimiter("\\A");
-
-        error = escnd.hasNext() ? escnd.next() : "";
-      }
+      error = response.readString();
     }
     catch (Exception e) {
       error = "DRM connection failed.";
     }
     finally {
-      Log.i("DRM", String.format("URL: %s\nRequest method: %s\nPermission: %s\nResponse code: %s\nResponse msg: %s\nHeaders: %s\nContent: %s\nError: %s",
-              con.getURL(), requestMethod, permission, responseCode, responseMessage, headers, content, error));
-
-      if (ctn != null) ctn.close();
-      if (ctnd != null) ctnd.close();
-      if (escn != null) escn.close();
-      if (escnd != null) escnd.close();
+      Log.i("DRM", String.format("URL: %s\nRequest method: %s\nResponse code: %s\nHeaders: %s\nError: %s",
+              con.getURL(), con.getRequestMethod(), response.getCode(), headers, error));
     }
   }
 }
\ No newline at end of file
@@ -23,12 +23,15 @@ package com.google.android.libraries.mediaframework.exoplayerextensions;
 import android.media.MediaCodec.CryptoException;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 
 import com.google.android.exoplayer.CodecCounters;
+import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.DummyTrackRenderer;
 import com.google.android.exoplayer.ExoPlaybackException;
 import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecTrackRenderer;
 import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
@@ -47,6 +50,7 @@ import com.google.android.exoplayer.metadata.MetadataTrackRenderer.MetadataRende
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.text.Cue;
 import com.google.android.exoplayer.text.TextRenderer;
+import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 
@@ -261,6 +265,17 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     void onId3Metadata(List<Id3Frame> metadata);
   }
 
+  /**
+   * A listener for the first frame rendered after the playback was requested.
+   */
+  public interface FirstFrameListener {
+
+    /**
+     * @param timeToFirstFrameMs Milliseconds since {@link #markStartRequested()}.
+     */
+    void onFirstFrame(long timeToFirstFrameMs);
+  }
+
   /**
    * Exoplayer renderers are managed in an array (the array representation is used throughout the
    * Exoplayer library).
@@ -332,7 +347,7 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
    * By modifying the renderer builder, we can support different video formats like DASH, MP4, and
    * SmoothStreaming.
    */
-  private final RendererBuilder rendererBuilder;
+  private RendererBuilder rendererBuilder;
 
   /**
    * The underlying Exoplayer instance responsible for playing the video.
@@ -422,14 +437,43 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
    */
   private InfoListener infoListener;
 
+  private FirstFrameListener firstFrameListener;
+
+  /**
+   * When the playback was requested and how long it took to render the first frame (-1 if not
+   * yet).
+   */
+  private long startRequestedMs;
+  private long timeToFirstFrameMs = -1;
+
+  /**
+   * How far ahead of the playback position media is loaded (-1 for the load control default), read
+   * by the loading threads.
+   */
+  private volatile long bufferLimitUs = -1;
+
+  /**
+   * DRM session manager of protected contents with persistent licenses, kept across
+   * {@link #recreate(RendererBuilder)} calls along with its session.
+   */
+  private PersistentDrmSessionManager drmSessionManager;
+
   /**
    * @param rendererBuilder Responsible for loading the data from the source, processing it,
    *                        and providing byte streams. By modifying the renderer builder, we can
    *                        support different video formats like DASH, MP4, and SmoothStreaming.
    */
   public ExoplayerWrapper(RendererBuilder rendererBuilder) {
+    this(rendererBuilder, ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000));
+  }
+
+  /**
+   * @param rendererBuilder Responsible for loading the data from the source.
+   * @param player The player the renderers are given to (ex. a fake one in tests).
+   */
+  /* package */ ExoplayerWrapper(RendererBuilder rendererBuilder, ExoPlayer player) {
     this.rendererBuilder = rendererBuilder;
-    player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
+    this.player = player;
     player.addListener(this);
     playerControl = new ObservablePlayerControl(player);
     mainHandler = new Handler();
@@ -503,6 +547,75 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     id3MetadataListener = listener;
   }
 
+  public void setFirstFrameListener(FirstFrameListener listener) {
+    firstFrameListener = listener;
+  }
+
+  /**
+   * Start measuring the time to the first frame (ex. when a view asks for playback, whether this
+   * player was prepared before or not).
+   */
+  public void markStartRequested() {
+    startRequestedMs = SystemClock.elapsedRealtime();
+    timeToFirstFrameMs = -1;
+  }
+
+  /**
+   * Returns the milliseconds from {@link #markStartRequested()} to the first rendered frame, or -1
+   * if not rendered yet.
+   */
+  public long getTimeToFirstFrame() {
+    return timeToFirstFrameMs;
+  }
+
+  /**
+   * Limit how much media is loaded ahead of the playback position (ex. to pre-buffer only the
+   * first seconds of a media that may not be played).
+   * @param limitMs The limit in milliseconds or -1 to load as much as the load control allows.
+   */
+  public void setBufferLimit(long limitMs) {
+    bufferLimitUs = limitMs < 0 ? -1 : limitMs * 1000;
+  }
+
+  /**
+   * Create the load control used by the renderers, honoring {@link #setBufferLimit(long)}.
+   * @param allocator The allocator of the media buffers.
+   */
+  public LoadControl newLoadControl(Allocator allocator) {
+    final LoadControl loadControl = new DefaultLoadControl(allocator);
+
+    return new LoadControl() {
+      @Override
+      public void register(Object loader, int bufferSizeContribution) {
+        loadControl.register(loader, bufferSizeContribution);
+      }
+
+      @Override
+      public void unregister(Object loader) {
+        loadControl.unregister(loader);
+      }
+
+      @Override
+      public void trimAllocator() {
+        loadControl.trimAllocator();
+      }
+
+      @Override
+      public Allocator getAllocator() {
+        return loadControl.getAllocator();
+      }
+
+      @Override
+      public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+                            boolean loading) {
+        long limitUs = bufferLimitUs;
+        boolean load = loadControl.update(loader, playbackPositionUs, nextLoadPositionUs, loading);
+        return load && (limitUs < 0 || nextLoadPositionUs == -1
+            || nextLoadPositionUs - playbackPositionUs < limitUs);
+      }
+    };
+  }
+
   public void setSurface(Surface surface) {
     this.surface = surface;
     pushSurfaceAndVideoTrack(false);
@@ -604,6 +717,39 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     rendererBuilder.buildRenderers(this);
   }
 
+  /**
+   * Reloads the player from another source (ex. another output of the same media, or the same one
+   * after a transient error), keeping this player, its surface, listeners and DRM session, which
+   * is faster than releasing it and preparing a new one. The track selection is reset.
+   * @param rendererBuilder Builds the renderers of the new source.
+   */
+  public void recreate(RendererBuilder rendererBuilder) {
+    this.rendererBuilder.cancel();
+    this.rendererBuilder = rendererBuilder;
+    player.setSelectedTrack(TYPE_VIDEO, ExoPlayer.TRACK_DEFAULT);
+    player.setSelectedTrack(TYPE_AUDIO, ExoPlayer.TRACK_DEFAULT);
+    markStartRequested();
+    prepare();
+  }
+
+  /**
+   * Returns the DRM session manager kept by this player (or null), for the renderer builders to
+   * reuse it.
+   */
+  /* package */ PersistentDrmSessionManager getDrmSessionManager() {
+    return drmSessionManager;
+  }
+
+  /**
+   * Keeps a DRM session manager (releasing the previous one) until this player is released.
+   */
+  /* package */ void setDrmSessionManager(PersistentDrmSessionManager drmSessionManager) {
+    if (this.drmSessionManager != null && this.drmSessionManager != drmSessionManager) {
+      this.drmSessionManager.release();
+    }
+    this.drmSessionManager = drmSessionManager;
+  }
+
   /**
    * Invoked with the results from a {@link RendererBuilder}.
    *
@@ -679,10 +825,15 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
    */
   public void release() {
     playbackListeners.clear();
+    firstFrameListener = null;
     rendererBuilder.cancel();
     rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
     surface = null;
     player.release();
+    setDrmSessionManager(null);
+    if (bandwidthMeter instanceof HistoryBandwidthMeter) {
+      ((HistoryBandwidthMeter) bandwidthMeter).flush();
+    }
   }
 
   /**
@@ -736,6 +887,18 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     return player.getBufferedPercentage();
   }
 
+  /**
+   * Returns the number of microseconds of the video buffered ahead of the playback position.
+   * Called from the loading thread (ex. by {@link AbrBandwidthMeter}).
+   */
+  /* package */ long getBufferedDurationUs() {
+    long bufferedPosition = player.getBufferedPosition();
+    if (bufferedPosition == ExoPlayer.UNKNOWN_TIME) {
+      return 0;
+    }
+    return Math.max(bufferedPosition - player.getCurrentPosition(), 0) * 1000;
+  }
+
   /**
    * Returns true if the video is set to start as soon as it is set up, returns false otherwise.
    */
@@ -932,7 +1095,13 @@ public class ExoplayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
   @Override
   public void onDrawnToSurface(Surface surface) {
-    // Do nothing.
+    if (timeToFirstFrameMs != -1 || startRequestedMs == 0) {
+      return;
+    }
+    timeToFirstFrameMs = SystemClock.elapsedRealtime() - startRequestedMs;
+    if (firstFrameListener != null) {
+      firstFrameListener.onFirstFrame(timeToFirstFrameMs);
+    }
   }
 
   @Override
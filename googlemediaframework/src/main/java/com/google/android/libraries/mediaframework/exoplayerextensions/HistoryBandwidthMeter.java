@@ -0,0 +1,69 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+
+/**
+ * A <code>DefaultBandwidthMeter</code> that estimates the bandwidth from the {@link BandwidthHistory}
+ * of the active network until it has samples of its own, and records its samples into it.
+ */
+final class HistoryBandwidthMeter implements BandwidthMeter {
+
+	private final DefaultBandwidthMeter meter;
+	private final BandwidthHistory history;
+	private final long initialEstimate;
+
+	/**
+	 * @param context The context
+	 * @param eventHandler Handler to deliver samples to (also where they are recorded)
+	 * @param eventListener Listener of samples (or null)
+	 */
+	HistoryBandwidthMeter(Context context, Handler eventHandler,
+						  final DefaultBandwidthMeter.EventListener eventListener) {
+		history = BandwidthHistory.getInstance(context);
+
+		final String network = history.getNetworkKey();
+
+		initialEstimate = history.getEstimate(network);
+		meter = new DefaultBandwidthMeter(eventHandler, new DefaultBandwidthMeter.EventListener() {
+			@Override
+			public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+				history.addSample(network, elapsedMs, bytes);
+
+				if (eventListener != null)
+					eventListener.onBandwidthSample(elapsedMs, bytes, bitrate);
+			}
+		});
+	}
+
+	/**
+	 * Writes the samples recorded so far (ex. once the player is released).
+	 */
+	void flush() {
+		history.flush();
+	}
+
+	@Override
+	public long getBitrateEstimate() {
+		final long estimate = meter.getBitrateEstimate();
+		return estimate != NO_ESTIMATE ? estimate : initialEstimate;
+	}
+
+	@Override
+	public void onTransferStart() {
+		meter.onTransferStart();
+	}
+
+	@Override
+	public void onBytesTransferred(int bytes) {
+		meter.onBytesTransferred(bytes);
+	}
+
+	@Override
+	public void onTransferEnd() {
+		meter.onTransferEnd();
+	}
+}
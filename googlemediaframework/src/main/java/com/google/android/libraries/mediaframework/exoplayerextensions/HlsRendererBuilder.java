@@ -20,7 +20,6 @@
  */
 package com.google.android.libraries.mediaframework.exoplayerextensions;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -41,10 +40,9 @@ import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.metadata.id3.Id3Parser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 import com.google.android.libraries.mediaframework.exoplayerextensions.ExoplayerWrapper.RendererBuilder;
@@ -69,21 +67,31 @@ public class HlsRendererBuilder implements RendererBuilder {
   private final Context context;
   private final String userAgent;
   private final String url;
+  private final AbrStrategy.Factory abrStrategy;
 
   private ExoplayerWrapper player;
 
   private AsyncRendererBuilder currentAsyncBuilder;
 
   public HlsRendererBuilder(Context context, String userAgent, String url) {
+    this(context, userAgent, url, null);
+  }
+
+  /**
+   * @param abrStrategy Selects the variants (or null for ExoPlayer's default selection).
+   */
+  public HlsRendererBuilder(Context context, String userAgent, String url,
+                            AbrStrategy.Factory abrStrategy) {
     this.context = context;
     this.userAgent = userAgent;
     this.url = url;
+    this.abrStrategy = abrStrategy;
   }
 
   @Override
   public void buildRenderers(ExoplayerWrapper player) {
     this.player = player;
-    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, abrStrategy, player);
     currentAsyncBuilder.init();
   }
 
@@ -100,22 +108,31 @@ public class HlsRendererBuilder implements RendererBuilder {
     private final Context context;
     private final String userAgent;
     private final String url;
+    private final AbrStrategy.Factory abrStrategy;
     private final ExoplayerWrapper player;
     private final ManifestFetcher<HlsPlaylist> playlistFetcher;
 
     private boolean canceled;
 
-    public AsyncRendererBuilder(Context context, String userAgent, String url, ExoplayerWrapper player) {
+    public AsyncRendererBuilder(Context context, String userAgent, String url,
+                                AbrStrategy.Factory abrStrategy, ExoplayerWrapper player) {
       this.context = context;
       this.userAgent = userAgent;
       this.url = url;
+      this.abrStrategy = abrStrategy;
       this.player = player;
       HlsPlaylistParser parser = new HlsPlaylistParser();
-      playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
-              parser);
+      playlistFetcher = new ManifestFetcher<>(url,
+              RendererBuilderFactory.createDataSource(context, null, userAgent), parser);
     }
 
     public void init() {
+      // A playlist parsed before (ex. the player is being recreated) is used right away.
+      HlsPlaylist manifest = ManifestCache.getInstance().get(url, HlsPlaylist.class);
+      if (manifest != null) {
+        onSingleManifest(manifest);
+        return;
+      }
       playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
     }
 
@@ -138,10 +155,13 @@ public class HlsRendererBuilder implements RendererBuilder {
         return;
       }
 
+      ManifestCache.getInstance().put(url, manifest);
+
       Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+      LoadControl loadControl = player.newLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+      BandwidthMeter bandwidthMeter = new HistoryBandwidthMeter(context, mainHandler, null);
 
+      BandwidthMeter videoBandwidthMeter = bandwidthMeter;
       int[] variantIndices = null;
       if (manifest instanceof HlsMasterPlaylist) {
         HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) manifest;
@@ -156,12 +176,26 @@ public class HlsRendererBuilder implements RendererBuilder {
           player.onRenderersError(new IllegalStateException("No variants selected."));
           return;
         }
+        if (abrStrategy != null && variantIndices.length > 1) {
+          // The chunk source selects the variants itself, steered through its bandwidth estimate.
+          int[] bitrates = new int[variantIndices.length];
+          for (int i = 0; i < variantIndices.length; i++) {
+            bitrates[i] = masterPlaylist.variants.get(variantIndices[i]).format.bitrate;
+          }
+          videoBandwidthMeter = new AbrBandwidthMeter(bandwidthMeter, abrStrategy.create(),
+                  bitrates, new AbrBandwidthMeter.BufferLevel() {
+            @Override
+            public long getBufferedDurationUs() {
+              return player.getBufferedDurationUs();
+            }
+          });
+        }
       }
 
       PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
-      DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource dataSource = RendererBuilderFactory.createDataSource(context, bandwidthMeter, userAgent);
       HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource, url,
-              manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
+              manifest, DefaultHlsTrackSelector.newDefaultInstance(context), videoBandwidthMeter,
               timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
       HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
               MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, ExoplayerWrapper.TYPE_VIDEO);
@@ -181,7 +215,7 @@ public class HlsRendererBuilder implements RendererBuilder {
       }
       TrackRenderer textRenderer;
       if (preferWebvtt) {
-        DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource textDataSource = RendererBuilderFactory.createDataSource(context, bandwidthMeter, userAgent);
         HlsChunkSource textChunkSource = new HlsChunkSource(false /* isMaster */, textDataSource,
                 url, manifest, DefaultHlsTrackSelector.newSubtitleInstance(), bandwidthMeter,
                 timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
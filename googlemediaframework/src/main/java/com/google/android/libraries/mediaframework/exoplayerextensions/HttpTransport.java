@@ -0,0 +1,208 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * HTTP transport shared by every request of the SDK (media API, captions, tracking, DRM).
+ *
+ * Connections are kept alive and reused from the platform pool, which only happens when
+ * the response body is consumed up to its end and closed, never disconnected.
+ * Hence every body must be released through {@link Response#close()}.
+ *
+ * The pool settings are the platform's (keep-alive on by default): the process-wide
+ * <code>http.*</code> properties belong to the host app and are left untouched.
+ */
+public final class HttpTransport {
+
+	/**
+	 * Default connect and read timeout in milliseconds.
+	 */
+	public static final int DEFAULT_TIMEOUT = 15000;
+
+	/**
+	 * Bodies left larger than this are dropped along with the connection instead of drained.
+	 */
+	private static final int MAX_DRAIN = 64*1024;
+
+	private HttpTransport() {}
+
+	/**
+	 * Streamed response, must be closed to give the connection back to the pool.
+	 */
+	public static final class Response extends FilterInputStream {
+
+		private final HttpURLConnection connection;
+		private final int code;
+		private boolean closed;
+
+		private Response(HttpURLConnection connection, int code, InputStream body) {
+			super(body);
+			this.connection = connection;
+			this.code = code;
+		}
+
+		/**
+		 * @return The HTTP status code
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * @return Whether the status code is 2xx
+		 */
+		public boolean isSuccessful() {
+			return code >= 200 && code < 300;
+		}
+
+		/**
+		 * @return The underlying connection (headers only, the body is this stream)
+		 */
+		public HttpURLConnection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Reads the remaining body.
+		 * @return The body bytes
+		 */
+		public byte[] readBytes() throws IOException {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 256));
+			final byte[] buffer = new byte[4096];
+			int n;
+
+			while ((n = read(buffer)) != -1)
+				out.write(buffer, 0, n);
+
+			return out.toByteArray();
+		}
+
+		/**
+		 * Reads the remaining body as UTF-8 text.
+		 * @return The body text
+		 */
+		public String readString() throws IOException {
+			return new String(readBytes(), "UTF-8");
+		}
+
+		/**
+		 * Drains what is left of a small body and closes it, so the connection is reused.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+
+			closed = true;
+
+			try {
+				final byte[] buffer = new byte[4096];
+				int total = 0;
+				int n;
+
+				while (total <= MAX_DRAIN && (n = in.read(buffer)) != -1)
+					total += n;
+
+				in.close();
+
+				if (total > MAX_DRAIN)
+					connection.disconnect();
+			}
+			catch (IOException e) {
+				connection.disconnect();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Opens a pooled connection (nothing is sent until it's executed).
+	 * @param url The URL
+	 * @param timeout Connect and read timeout in milliseconds
+	 * @return The connection, may be further configured (headers, method)
+	 */
+	public static HttpURLConnection open(String url, int timeout) throws IOException {
+		final HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+
+		con.setConnectTimeout(timeout);
+		con.setReadTimeout(timeout);
+		con.setDoInput(true);
+		return con;
+	}
+
+	/**
+	 * Sends the request of an opened connection.
+	 * @param con Connection returned by {@link #open(String, int)}
+	 * @param data Request body or null
+	 * @return The response, body streamed (error body on failure statuses)
+	 */
+	public static Response execute(HttpURLConnection con, byte[] data) throws IOException {
+		try {
+			if (data != null) {
+				con.setDoOutput(true);
+				con.setFixedLengthStreamingMode(data.length);
+
+				final OutputStream out = con.getOutputStream();
+
+				out.write(data);
+				out.close();
+			}
+
+			final int code = con.getResponseCode();
+			final InputStream body = code >= 400 ? con.getErrorStream() : con.getInputStream();
+
+			return new Response(con, code, body != null ? body : new ByteArrayInputStream(new byte[0]));
+		}
+		catch (IOException e) {
+			con.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the request of an opened connection.
+	 * @param con Connection returned by {@link #open(String, int)}
+	 * @return The response, body streamed (error body on failure statuses)
+	 */
+	public static Response execute(HttpURLConnection con) throws IOException {
+		return execute(con, null);
+	}
+
+	/**
+	 * Performs a GET request.
+	 * @param url The URL
+	 * @param timeout Connect and read timeout in milliseconds
+	 * @return The response, body streamed
+	 */
+	public static Response get(String url, int timeout) throws IOException {
+		return execute(open(url, timeout));
+	}
+
+	/**
+	 * Performs a POST request.
+	 * @param url The URL
+	 * @param data Request body or null
+	 * @param headers Request headers or null
+	 * @param timeout Connect and read timeout in milliseconds
+	 * @return The response, body streamed
+	 */
+	public static Response post(String url, byte[] data, Map<String, String> headers, int timeout) throws IOException {
+		final HttpURLConnection con = open(url, timeout);
+
+		con.setRequestMethod("POST");
+
+		if (headers != null)
+			for (Map.Entry<String, String> kv : headers.entrySet())
+				con.setRequestProperty(kv.getKey(), kv.getValue());
+
+		return execute(con, data);
+	}
+}
@@ -0,0 +1,80 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * A throughput and buffer {@link AbrStrategy}: the bandwidth estimate drives the choice while the
+ * buffer is short (startup, after a seek or a stall), the {@link BufferBasedAbrStrategy} once it
+ * is long enough, though never above what the estimate sustains.
+ */
+public final class HybridAbrStrategy implements AbrStrategy {
+
+	public static final Factory FACTORY = new Factory() {
+		@Override
+		public AbrStrategy create() {
+			return new HybridAbrStrategy();
+		}
+	};
+
+	/**
+	 * Buffer levels switching to the throughput and buffer modes respectively.
+	 */
+	private static final long LOW_BUFFER_US = 6000000;
+	private static final long HIGH_BUFFER_US = 10000000;
+
+	/**
+	 * Fraction of the estimate considered available in the throughput mode.
+	 */
+	private static final float BANDWIDTH_FRACTION = 0.8f;
+
+	/**
+	 * Estimate assumed before the first sample (as ExoPlayer's <code>AdaptiveEvaluator</code>).
+	 */
+	private static final long DEFAULT_BITRATE_ESTIMATE = 800000;
+
+	private final BufferBasedAbrStrategy bufferBased = new BufferBasedAbrStrategy();
+	private boolean isBufferMode;
+
+	@Override
+	public int select(int[] bitrates, long bufferedUs, long bitrateEstimate) {
+		final boolean hasEstimate = bitrateEstimate != BandwidthMeter.NO_ESTIMATE;
+		final int safe = getHighestWithin(bitrates,
+				(long) ((hasEstimate ? bitrateEstimate : DEFAULT_BITRATE_ESTIMATE)*BANDWIDTH_FRACTION));
+
+		if (bufferedUs >= HIGH_BUFFER_US)
+			isBufferMode = true;
+		else if (bufferedUs < LOW_BUFFER_US)
+			isBufferMode = false;
+
+		if (!isBufferMode)
+			return safe;
+
+		final int buffer = bufferBased.select(bitrates, bufferedUs, bitrateEstimate);
+		final int selected = bitrates[buffer] > bitrates[safe] ? buffer : safe;
+
+		if (!hasEstimate)
+			return selected;
+
+		final int ceiling = getHighestWithin(bitrates, bitrateEstimate);
+
+		return bitrates[selected] > bitrates[ceiling] ? ceiling : selected;
+	}
+
+	/**
+	 * @return Index of the highest bitrate within a budget (or the lowest bitrate)
+	 */
+	private static int getHighestWithin(int[] bitrates, long budget) {
+		int lowest = 0;
+		int best = -1;
+
+		for (int i = 0; i < bitrates.length; ++i) {
+			if (bitrates[i] < bitrates[lowest])
+				lowest = i;
+
+			if (bitrates[i] <= budget && (best == -1 || bitrates[i] > bitrates[best]))
+				best = i;
+		}
+
+		return best != -1 ? best : lowest;
+	}
+}
@@ -0,0 +1,152 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * Parsed HLS playlists and DASH manifests per URL, so that recreating a player (error recovery,
+ * output changes) or playing a prefetched media skips the manifest fetch and parsing.
+ *
+ * VOD manifests are kept for a long time; live HLS media playlists only until their next refresh
+ * (target duration). Dynamic DASH manifests are not kept, since the chunk sources refresh them
+ * through their own fetcher.
+ *
+ * Must be used from the main thread.
+ */
+public final class ManifestCache {
+
+	private static final int MAX_ENTRIES = 16;
+	private static final long VOD_TTL = 30*60*1000;
+
+	private static ManifestCache instance;
+
+	private final LruCache<String, Entry> entries = new LruCache<>(MAX_ENTRIES);
+	private final HashSet<String> inFlight = new HashSet<>();
+
+	private ManifestCache() {}
+
+	public static ManifestCache getInstance() {
+		if (instance == null)
+			instance = new ManifestCache();
+
+		return instance;
+	}
+
+	/**
+	 * Fetches and parses the manifest of an HLS or DASH video in background, if not cached yet.
+	 * @param context The context
+	 * @param video The video
+	 */
+	public void prefetch(Context context, Video video) {
+		final String url = video.getUrl();
+
+		if (url == null || get(url, Object.class) != null || inFlight.contains(url))
+			return;
+
+		final String userAgent = ExoplayerUtil.getUserAgent(context);
+
+		switch (video.getVideoType()) {
+			case HLS:
+				load(url, new ManifestFetcher<>(url,
+						RendererBuilderFactory.createDataSource(context, null, userAgent), new HlsPlaylistParser()));
+				break;
+			case DASH:
+				load(url, new ManifestFetcher<>(url,
+						RendererBuilderFactory.createDataSource(context, null, userAgent),
+						new MediaPresentationDescriptionParser()));
+				break;
+		}
+	}
+
+	/**
+	 * Removes every manifest.
+	 */
+	public void clear() {
+		entries.evictAll();
+	}
+
+	/**
+	 * @return The manifest if cached and fresh or null
+	 */
+	<T> T get(String url, Class<T> type) {
+		final Entry entry = entries.get(url);
+
+		if (entry == null)
+			return null;
+
+		if (SystemClock.elapsedRealtime() >= entry.expiresAt) {
+			entries.remove(url);
+			return null;
+		}
+
+		return type.isInstance(entry.manifest) ? type.cast(entry.manifest) : null;
+	}
+
+	/**
+	 * Keeps a manifest just fetched (a manifest served from the cache keeps its expiration).
+	 */
+	void put(String url, Object manifest) {
+		final Entry entry = entries.get(url);
+
+		if (entry != null && entry.manifest == manifest)
+			return;
+
+		final long ttl = getTtl(manifest);
+
+		if (ttl > 0)
+			entries.put(url, new Entry(manifest, SystemClock.elapsedRealtime() + ttl));
+		else entries.remove(url);
+	}
+
+	private <T> void load(final String url, ManifestFetcher<T> fetcher) {
+		inFlight.add(url);
+
+		fetcher.singleLoad(Looper.getMainLooper(), new ManifestFetcher.ManifestCallback<T>() {
+			@Override
+			public void onSingleManifest(T manifest) {
+				inFlight.remove(url);
+				put(url, manifest);
+			}
+
+			@Override
+			public void onSingleManifestError(IOException e) {
+				inFlight.remove(url);
+				Log.w(getClass().getSimpleName(), "Failed to prefetch manifest: " + url, e);
+			}
+		});
+	}
+
+	private static long getTtl(Object manifest) {
+		if (manifest instanceof HlsMediaPlaylist && ((HlsMediaPlaylist) manifest).live)
+			return ((HlsMediaPlaylist) manifest).targetDurationSecs*1000L;
+
+		if (manifest instanceof MediaPresentationDescription)
+			return ((MediaPresentationDescription) manifest).dynamic ? 0 : VOD_TTL;
+
+		return manifest instanceof HlsPlaylist ? VOD_TTL : 0;
+	}
+
+	private static final class Entry {
+
+		final Object manifest;
+		final long expiresAt;
+
+		Entry(Object manifest, long expiresAt) {
+			this.manifest = manifest;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
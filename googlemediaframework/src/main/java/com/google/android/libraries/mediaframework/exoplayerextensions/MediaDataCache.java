@@ -0,0 +1,360 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the media data (manifests, segments, byte ranges) read by the renderer builders,
+ * so that seeking back, replaying or recreating a player doesn't download it again.
+ *
+ * Two tiers: a memory LRU for small hot objects (VOD manifests, initialization segments, keys)
+ * and a disk LRU (ExoPlayer's <code>SimpleCache</code>) for everything else, both keyed by
+ * the stream cache key (content ID + format for DASH representations) or by the URL.
+ * Live manifests are never cached.
+ *
+ * Since the disk tier doesn't know where a stream read without a length (ex. HLS segments) ends,
+ * the lengths of fully read streams are journaled, so that they are requested with a bounded
+ * length later (otherwise a cached stream would be continued from the network past its end).
+ *
+ * Off by default, see {@link #enable(Context)}. The disk tier and the journal are opened
+ * on first use, from the loader threads.
+ */
+public final class MediaDataCache implements RendererBuilderFactory.DataSourceFactory {
+
+	private static final String DIR_NAME = "samba_media";
+	private static final String LENGTHS_FILE_NAME = "samba_media.lengths";
+	private static final int MAX_LENGTHS = 4096;
+	private static final int MAX_KEYS = 256;
+
+	/**
+	 * Largest object kept in memory (manifests aside).
+	 */
+	static final int MAX_HOT_SIZE = 64*1024;
+
+	/**
+	 * Largest manifest kept in memory.
+	 */
+	static final int MAX_HOT_MANIFEST_SIZE = 512*1024;
+
+	private static MediaDataCache instance;
+
+	private static long diskSize = 100*1024*1024;
+	private static int memorySize = 2*1024*1024;
+
+	private final LruCache<String, Entry> memory;
+	private final AtomicLong networkBytes = new AtomicLong();
+	private final AtomicLong cacheBytes = new AtomicLong();
+	private final LinkedHashMap<String, Long> lengths = new LinkedHashMap<>();
+	private final File diskDir;
+	private final File lengthsFile;
+	private Cache disk;
+	private boolean lengthsLoaded;
+
+	// HLS key URIs, never cached (a rotated or revoked key must be fetched again)
+	private final LinkedHashMap<String, Boolean> keys = new LinkedHashMap<String, Boolean>(16, .75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_KEYS;
+		}
+	};
+
+	private MediaDataCache(Context context) {
+		this(context.getCacheDir());
+	}
+
+	/**
+	 * @param dir Directory holding the disk tier and the lengths journal
+	 */
+	MediaDataCache(File dir) {
+		memory = new LruCache<String, Entry>(memorySize) {
+			@Override
+			protected int sizeOf(String key, Entry value) {
+				return value.data.length;
+			}
+		};
+
+		diskDir = new File(dir, DIR_NAME);
+		lengthsFile = new File(dir, LENGTHS_FILE_NAME);
+	}
+
+	public static synchronized MediaDataCache getInstance(Context context) {
+		if (instance == null)
+			instance = new MediaDataCache(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Makes every player created from now on read its media data through the cache,
+	 * replacing any data source factory set before.
+	 * @param context The context
+	 */
+	public static void enable(Context context) {
+		RendererBuilderFactory.setDataSourceFactory(getInstance(context));
+	}
+
+	/**
+	 * Configures the cache, must be called before it is first used.
+	 * @param diskBytes Disk tier size cap in bytes
+	 * @param memoryBytes Memory tier size cap in bytes
+	 */
+	public static synchronized void configure(long diskBytes, int memoryBytes) {
+		diskSize = diskBytes;
+		memorySize = memoryBytes;
+	}
+
+	@Override
+	public UriDataSource createDataSource(Context context, TransferListener listener, String userAgent) {
+		return new CachingDataSource(this, context, listener, userAgent);
+	}
+
+	/**
+	 * @return Bytes read from the network since the process started (or the last reset)
+	 */
+	public long getNetworkBytes() {
+		return networkBytes.get();
+	}
+
+	/**
+	 * @return Bytes served from either tier since the process started (or the last reset)
+	 */
+	public long getCachedBytes() {
+		return cacheBytes.get();
+	}
+
+	public void resetStats() {
+		networkBytes.set(0);
+		cacheBytes.set(0);
+	}
+
+	/**
+	 * Removes every entry from both tiers (entries being read are kept).
+	 * Does disk I/O, so it shouldn't be called from the main thread.
+	 */
+	public void clear() {
+		memory.evictAll();
+
+		final Cache disk;
+
+		synchronized (this) {
+			lengths.clear();
+			lengthsLoaded = true;
+			lengthsFile.delete();
+			disk = getDisk();
+		}
+
+		for (String key : new ArrayList<>(disk.getKeys())) {
+			for (CacheSpan span : new ArrayList<>(disk.getCachedSpans(key))) {
+				try {
+					disk.removeSpan(span);
+				}
+				catch (Exception e) {
+					Log.w(getClass().getSimpleName(), "Failed to remove cached span", e);
+				}
+			}
+		}
+	}
+
+	synchronized Cache getDisk() {
+		if (disk == null)
+			disk = new SimpleCache(diskDir, new LeastRecentlyUsedCacheEvictor(diskSize));
+
+		return disk;
+	}
+
+	Entry getHot(String key) {
+		return memory.get(key);
+	}
+
+	void putHot(String key, Entry entry) {
+		memory.put(key, entry);
+	}
+
+	/**
+	 * @return Length of a fully read stream or -1 if unknown
+	 */
+	synchronized long getLength(String key) {
+		loadLengths();
+
+		final Long length = lengths.get(key);
+		return length != null ? length : -1;
+	}
+
+	/**
+	 * Journals the length of a fully read stream.
+	 */
+	synchronized void putLength(String key, long length) {
+		loadLengths();
+
+		final Long previous = lengths.put(key, length);
+
+		if (previous != null && previous == length)
+			return;
+
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(lengthsFile, true), "UTF-8");
+			writer.write(key + '\t' + length + '\n');
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to journal stream length", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * Registers the key URIs of an HLS media playlist.
+	 * @param baseUri URI the playlist was requested with
+	 * @param playlist The playlist
+	 */
+	void putKeys(String baseUri, String playlist) {
+		int i = 0;
+
+		while ((i = playlist.indexOf("#EXT-X-KEY", i)) != -1) {
+			final int end = playlist.indexOf('\n', i);
+			final String line = playlist.substring(i, end != -1 ? end : playlist.length());
+			final int start = line.indexOf("URI=\"");
+
+			i += line.length();
+
+			if (start == -1 || line.indexOf('"', start + 5) == -1)
+				continue;
+
+			final String uri = UriUtil.resolve(baseUri, line.substring(start + 5, line.indexOf('"', start + 5)));
+
+			synchronized (keys) {
+				keys.put(uri, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether the URI belongs to an HLS key (never cached)
+	 */
+	boolean isKey(String uri) {
+		synchronized (keys) {
+			return keys.get(uri) != null;
+		}
+	}
+
+	void onRead(long total, long network) {
+		networkBytes.addAndGet(network);
+		cacheBytes.addAndGet(Math.max(total - network, 0));
+	}
+
+	private synchronized void loadLengths() {
+		if (lengthsLoaded)
+			return;
+
+		lengthsLoaded = true;
+
+		if (!lengthsFile.exists())
+			return;
+
+		BufferedReader reader = null;
+		int tab;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(lengthsFile), "UTF-8"));
+
+			for (String line; (line = reader.readLine()) != null;) {
+				if ((tab = line.lastIndexOf('\t')) == -1)
+					continue;
+
+				try {
+					lengths.remove(line.substring(0, tab));
+					lengths.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+				}
+				catch (NumberFormatException ignored) {}
+			}
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to load stream lengths", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException ignored) {}
+		}
+
+		if (lengths.size() <= MAX_LENGTHS)
+			return;
+
+		// keeps the most recent half
+		final Iterator<String> it = lengths.keySet().iterator();
+
+		for (int i = lengths.size() - MAX_LENGTHS/2; i > 0; --i) {
+			it.next();
+			it.remove();
+		}
+
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(lengthsFile), "UTF-8");
+
+			for (Map.Entry<String, Long> e : lengths.entrySet())
+				writer.write(e.getKey() + '\t' + e.getValue() + '\n');
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to compact stream lengths", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * An object of the memory tier.
+	 */
+	static final class Entry {
+
+		final byte[] data;
+
+		/**
+		 * URI it was read from (after redirects), manifests resolve relative URIs against it.
+		 */
+		final String uri;
+
+		Entry(byte[] data, String uri) {
+			this.data = data;
+			this.uri = uri;
+		}
+	}
+}
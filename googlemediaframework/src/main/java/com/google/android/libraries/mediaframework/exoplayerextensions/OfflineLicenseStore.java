@@ -0,0 +1,392 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaDrm;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent (offline) Widevine licenses per content ID, so that replaying a media, changing its
+ * output or recovering from an error restores its keys without a license request.
+ *
+ * Licenses are renewed in background once less than a quarter of their duration remains, and
+ * are never restored past their expiration. Contents whose license server answers with
+ * non-persistent licenses are remembered (for the process lifetime) and get streaming licenses
+ * instead; failed requests (network, authorization) are not taken as such.
+ *
+ * Licenses may also be acquired ahead of playback (see {@link #prefetch(DrmRequest)}), from the
+ * Widevine initialization data of the content: the one seen by a previous session or the one
+ * found in its manifest. A session opened meanwhile waits for the acquisition in flight instead
+ * of requesting a license of its own.
+ */
+@TargetApi(18)
+public final class OfflineLicenseStore {
+
+	private static final String FILE_NAME = "samba_licenses";
+
+	/**
+	 * A license is not restored when it expires sooner than this.
+	 */
+	private static final long MIN_REMAINING = 60*1000;
+
+	/**
+	 * Duration assumed when the CDM doesn't tell it.
+	 */
+	static final long DEFAULT_DURATION = 24*60*60*1000;
+
+	private static OfflineLicenseStore instance;
+
+	private final File file;
+	private final HashMap<String, License> licenses = new HashMap<>();
+	private final HashSet<String> streamingOnly = new HashSet<>();
+	private final HashMap<String, List<Runnable>> pending = new HashMap<>();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	OfflineLicenseStore(File file) {
+		this.file = file;
+		load();
+	}
+
+	public static synchronized OfflineLicenseStore getInstance(Context context) {
+		if (instance == null)
+			instance = new OfflineLicenseStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+
+		return instance;
+	}
+
+	/**
+	 * Acquires the license of a content in background, if missing (or close to its expiration) and
+	 * its Widevine initialization data is known from a previous session.
+	 * @param drmRequest DRM info of the content (identified by its "ContentId" license param),
+	 *                   copied so that later changes don't reach the request in flight
+	 */
+	public void prefetch(DrmRequest drmRequest) {
+		final DrmRequest snapshot = new DrmRequest(drmRequest);
+		final String contentId = snapshot.getLicenseParam("ContentId");
+		final DrmInitData.SchemeInitData schemeInitData;
+
+		if (contentId == null || contentId.isEmpty())
+			return;
+
+		synchronized (this) {
+			final License license = licenses.get(contentId);
+
+			if (license == null || license.initData == null)
+				return;
+
+			schemeInitData = new DrmInitData.SchemeInitData(license.mimeType, license.initData);
+		}
+
+		acquireIfNeeded(contentId, schemeInitData, new WidevineMediaDrmCallback(snapshot));
+	}
+
+	/**
+	 * Forgets the license of a content (ex. the user lost access to it).
+	 * @param contentId The content ID
+	 */
+	public synchronized void remove(String contentId) {
+		if (licenses.remove(contentId) != null)
+			save();
+	}
+
+	/**
+	 * Forgets every license.
+	 */
+	public synchronized void clear() {
+		licenses.clear();
+		streamingOnly.clear();
+		file.delete();
+	}
+
+	/**
+	 * @return The key set ID of a license still valid for a while or null
+	 */
+	synchronized byte[] get(String contentId) {
+		final License license = licenses.get(contentId);
+
+		if (license == null || license.keySetId == null)
+			return null;
+
+		if (license.expiresAt - System.currentTimeMillis() < MIN_REMAINING) {
+			licenses.put(contentId, new License(null, 0, 0, license.mimeType, license.initData));
+			save();
+			return null;
+		}
+
+		return license.keySetId;
+	}
+
+	/**
+	 * Keeps a license just acquired.
+	 * @param durationMs Time left before it expires
+	 */
+	synchronized void put(String contentId, byte[] keySetId, long durationMs) {
+		final License license = licenses.get(contentId);
+		final long now = System.currentTimeMillis();
+
+		licenses.put(contentId, new License(keySetId, now, now + durationMs,
+				license != null ? license.mimeType : null, license != null ? license.initData : null));
+		save();
+	}
+
+	/**
+	 * Keeps the Widevine initialization data of a content, for acquiring its next licenses ahead.
+	 */
+	synchronized void putInitData(String contentId, DrmInitData.SchemeInitData schemeInitData) {
+		final License license = licenses.get(contentId);
+
+		if (license != null && Arrays.equals(license.initData, schemeInitData.data))
+			return;
+
+		licenses.put(contentId, license != null ?
+				new License(license.keySetId, license.obtainedAt, license.expiresAt,
+						schemeInitData.mimeType, schemeInitData.data) :
+				new License(null, 0, 0, schemeInitData.mimeType, schemeInitData.data));
+		save();
+	}
+
+	/**
+	 * Whether the license server of a content refused a persistent license.
+	 */
+	synchronized boolean isStreamingOnly(String contentId) {
+		return streamingOnly.contains(contentId);
+	}
+
+	synchronized void setStreamingOnly(String contentId) {
+		streamingOnly.add(contentId);
+	}
+
+	/**
+	 * Acquires a license in background if missing or close to its expiration (renewal).
+	 * @param contentId The content ID
+	 * @param schemeInitData Widevine initialization data of the content
+	 * @param callback Performs the license request
+	 */
+	synchronized void acquireIfNeeded(final String contentId, final DrmInitData.SchemeInitData schemeInitData,
+									  final MediaDrmCallback callback) {
+		final License license = licenses.get(contentId);
+
+		if (pending.containsKey(contentId) || streamingOnly.contains(contentId) ||
+				license != null && license.keySetId != null &&
+				license.expiresAt - System.currentTimeMillis() > (license.expiresAt - license.obtainedAt)/4)
+			return;
+
+		pending.put(contentId, new ArrayList<Runnable>());
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<Runnable> listeners;
+
+				try {
+					acquire(contentId, schemeInitData, callback);
+				}
+				catch (Exception e) {
+					Log.w(getClass().getSimpleName(), "Failed to acquire license of " + contentId, e);
+				}
+				finally {
+					synchronized (OfflineLicenseStore.this) {
+						listeners = pending.remove(contentId);
+					}
+				}
+
+				for (Runnable listener : listeners)
+					listener.run();
+			}
+		});
+	}
+
+	/**
+	 * Waits for the license acquisition of a content in flight, if any.
+	 * @param contentId The content ID
+	 * @param listener Runs (on a background thread) once the acquisition ends, whether it succeeded or not
+	 * @return Whether an acquisition is in flight (otherwise the listener is not run)
+	 */
+	synchronized boolean whenAcquired(String contentId, Runnable listener) {
+		final List<Runnable> listeners = pending.get(contentId);
+
+		if (listeners == null)
+			return false;
+
+		listeners.add(listener);
+		return true;
+	}
+
+	/**
+	 * Performs an offline license request in a session of its own.
+	 */
+	private void acquire(String contentId, DrmInitData.SchemeInitData schemeInitData,
+						 MediaDrmCallback callback) throws Exception {
+		final MediaDrm mediaDrm = new MediaDrm(ExoplayerUtil.WIDEVINE_UUID);
+		byte[] sessionId = null;
+
+		try {
+			sessionId = mediaDrm.openSession();
+
+			final MediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, schemeInitData.data,
+					schemeInitData.mimeType, MediaDrm.KEY_TYPE_OFFLINE, null);
+			final byte[] response = callback.executeKeyRequest(ExoplayerUtil.WIDEVINE_UUID, request);
+			final byte[] keySetId;
+
+			try {
+				keySetId = mediaDrm.provideKeyResponse(sessionId, response);
+			}
+			catch (Exception e) {
+				// the license server answered with a license that can't be persisted
+				setStreamingOnly(contentId);
+				throw e;
+			}
+
+			// or with a streaming one
+			if (keySetId == null || keySetId.length == 0) {
+				setStreamingOnly(contentId);
+				return;
+			}
+
+			put(contentId, keySetId, getDuration(mediaDrm, sessionId));
+		}
+		finally {
+			if (sessionId != null)
+				mediaDrm.closeSession(sessionId);
+
+			mediaDrm.release();
+		}
+	}
+
+	/**
+	 * @return Time left before the keys of a session expire (as told by the CDM) in milliseconds
+	 */
+	static long getDuration(MediaDrm mediaDrm, byte[] sessionId) {
+		long duration = Long.MAX_VALUE;
+
+		try {
+			final HashMap<String, String> status = mediaDrm.queryKeyStatus(sessionId);
+
+			for (String key : new String[]{"LicenseDurationRemaining", "PlaybackDurationRemaining"}) {
+				final String value = status.get(key);
+
+				// zero (or the largest value) means unlimited
+				if (value != null && Long.parseLong(value) > 0)
+					duration = Math.min(duration, Long.parseLong(value));
+			}
+		}
+		catch (Exception e) {
+			Log.w(OfflineLicenseStore.class.getSimpleName(), "Failed to query key status", e);
+		}
+
+		return duration < Long.MAX_VALUE/1000 ? duration*1000 : DEFAULT_DURATION;
+	}
+
+	private void load() {
+		if (!file.exists())
+			return;
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+			for (String line; (line = reader.readLine()) != null;) {
+				final String[] fields = line.split("\t", -1);
+
+				if (fields.length != 6)
+					continue;
+
+				try {
+					licenses.put(fields[0], new License(decode(fields[1]), Long.parseLong(fields[2]),
+							Long.parseLong(fields[3]), fields[4].isEmpty() ? null : fields[4], decode(fields[5])));
+				}
+				catch (IllegalArgumentException ignored) {}
+			}
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to load licenses", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	private void save() {
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+			for (Map.Entry<String, License> e : licenses.entrySet()) {
+				final License license = e.getValue();
+
+				writer.write(e.getKey() + '\t' + encode(license.keySetId) + '\t' + license.obtainedAt + '\t' +
+						license.expiresAt + '\t' + (license.mimeType != null ? license.mimeType : "") + '\t' +
+						encode(license.initData) + '\n');
+			}
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to save licenses", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	private static String encode(byte[] data) {
+		return data != null ? Base64.encodeToString(data, Base64.NO_WRAP) : "";
+	}
+
+	private static byte[] decode(String data) {
+		return data.isEmpty() ? null : Base64.decode(data, Base64.NO_WRAP);
+	}
+
+	/**
+	 * What is known about the license of a content (either part may be missing).
+	 */
+	private static final class License {
+
+		final byte[] keySetId;
+		final long obtainedAt;
+		final long expiresAt;
+
+		/**
+		 * Widevine initialization data of the content.
+		 */
+		final String mimeType;
+		final byte[] initData;
+
+		License(byte[] keySetId, long obtainedAt, long expiresAt, String mimeType, byte[] initData) {
+			this.keySetId = keySetId;
+			this.obtainedAt = obtainedAt;
+			this.expiresAt = expiresAt;
+			this.mimeType = mimeType;
+			this.initData = initData;
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCrypto;
+import android.media.MediaDrm;
+import android.media.NotProvisionedException;
+import android.media.UnsupportedSchemeException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.UnsupportedDrmException;
+
+import java.util.Arrays;
+
+/**
+ * A Widevine {@link DrmSessionManager} that requests persistent licenses and keeps them in the
+ * {@link OfflineLicenseStore}, so that the next sessions of the same content restore its keys
+ * without a license request.
+ *
+ * Behaves like ExoPlayer's <code>StreamingDrmSessionManager</code> otherwise: license and
+ * provisioning requests are performed on a thread of their own, their responses and the CDM
+ * events are handled on the playback thread.
+ *
+ * A session outlives its renderers for a few seconds, so that the renderers of a recreated
+ * player (ex. output change, error recovery) keep its keys. {@link #release()} must be called
+ * once the player is released.
+ */
+@TargetApi(18)
+public final class PersistentDrmSessionManager implements DrmSessionManager {
+
+	private static final long KEEP_ALIVE_MS = 5000;
+
+	private final Handler eventHandler;
+	private final StreamingDrmSessionManager.EventListener eventListener;
+	private final MediaDrm mediaDrm;
+	private final OfflineLicenseStore store;
+	private final String contentId;
+	private final Handler responseHandler;
+	private final Runnable closeRunnable = new Runnable() {
+		@Override
+		public void run() {
+			closeSession();
+		}
+	};
+
+	private HandlerThread requestThread;
+	private Handler requestHandler;
+
+	// replaced by a recreated player (ex. a renewed token), read on the request thread
+	private volatile MediaDrmCallback callback;
+
+	private int openCount;
+	private boolean provisioning;
+	private boolean closing;
+	private int state;
+	private int keyType;
+	private MediaCrypto mediaCrypto;
+	private Exception lastException;
+	private DrmInitData.SchemeInitData schemeInitData;
+	private byte[] sessionId;
+
+	/**
+	 * @param context The context
+	 * @param playbackLooper The looper of the playback thread
+	 * @param callback Performs the license and provisioning requests
+	 * @param contentId Key of the persisted license (without it, streaming licenses are requested)
+	 * @param eventHandler Handler to deliver events to (or null)
+	 * @param eventListener Listener of events (or null)
+	 * @throws UnsupportedDrmException If Widevine is not supported by the device
+	 */
+	public PersistentDrmSessionManager(Context context, Looper playbackLooper, MediaDrmCallback callback,
+									   String contentId, Handler eventHandler,
+									   StreamingDrmSessionManager.EventListener eventListener)
+			throws UnsupportedDrmException {
+		this(createMediaDrm(), OfflineLicenseStore.getInstance(context), playbackLooper, callback, contentId,
+				eventHandler, eventListener);
+	}
+
+	PersistentDrmSessionManager(MediaDrm mediaDrm, OfflineLicenseStore store, Looper playbackLooper,
+								MediaDrmCallback callback, String contentId, Handler eventHandler,
+								StreamingDrmSessionManager.EventListener eventListener) {
+		this.mediaDrm = mediaDrm;
+		this.store = store;
+		this.callback = callback;
+		this.contentId = contentId;
+		this.eventHandler = eventHandler;
+		this.eventListener = eventListener;
+		responseHandler = new Handler(playbackLooper);
+
+		mediaDrm.setOnEventListener(new MediaDrm.OnEventListener() {
+			@Override
+			public void onEvent(MediaDrm md, byte[] sessionId, final int event, int extra, byte[] data) {
+				responseHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onDrmEvent(event);
+					}
+				});
+			}
+		});
+
+		state = STATE_CLOSED;
+	}
+
+	private static MediaDrm createMediaDrm() throws UnsupportedDrmException {
+		try {
+			return new MediaDrm(ExoplayerUtil.WIDEVINE_UUID);
+		}
+		catch (UnsupportedSchemeException e) {
+			throw new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME, e);
+		}
+		catch (Exception e) {
+			throw new UnsupportedDrmException(UnsupportedDrmException.REASON_INSTANTIATION_ERROR, e);
+		}
+	}
+
+	/**
+	 * @return Key of the persisted license
+	 */
+	public String getContentId() {
+		return contentId;
+	}
+
+	/**
+	 * Replaces the callback of the next requests, when the session is reused by another player.
+	 * @param callback Performs the license and provisioning requests
+	 */
+	public void setCallback(MediaDrmCallback callback) {
+		this.callback = callback;
+	}
+
+	/**
+	 * @return A property of the CDM (ex. "securityLevel")
+	 */
+	public String getPropertyString(String key) {
+		return mediaDrm.getPropertyString(key);
+	}
+
+	@Override
+	public int getState() {
+		return state;
+	}
+
+	@Override
+	public MediaCrypto getMediaCrypto() {
+		if (state != STATE_OPENED && state != STATE_OPENED_WITH_KEYS)
+			throw new IllegalStateException();
+
+		return mediaCrypto;
+	}
+
+	@Override
+	public boolean requiresSecureDecoderComponent(String mimeType) {
+		if (state != STATE_OPENED && state != STATE_OPENED_WITH_KEYS)
+			throw new IllegalStateException();
+
+		return mediaCrypto.requiresSecureDecoderComponent(mimeType);
+	}
+
+	@Override
+	public Exception getError() {
+		return state == STATE_ERROR ? lastException : null;
+	}
+
+	@Override
+	public void open(DrmInitData drmInitData) {
+		if (++openCount != 1)
+			return;
+
+		if (closing) {
+			responseHandler.removeCallbacks(closeRunnable);
+			closing = false;
+
+			// the same content is being played again
+			if (state == STATE_OPENED_WITH_KEYS && schemeInitData != null &&
+					Arrays.equals(schemeInitData.data, getData(drmInitData)))
+				return;
+
+			closeSession();
+		}
+
+		if (requestThread == null) {
+			requestThread = new HandlerThread("DrmRequestHandler");
+			requestThread.start();
+			requestHandler = new Handler(requestThread.getLooper());
+		}
+
+		if (schemeInitData == null) {
+			schemeInitData = drmInitData.get(ExoplayerUtil.WIDEVINE_UUID);
+
+			if (schemeInitData == null) {
+				onError(new IllegalStateException("Media does not support Widevine"));
+				return;
+			}
+
+			if (contentId != null)
+				store.putInitData(contentId, schemeInitData);
+		}
+
+		state = STATE_OPENING;
+		openInternal(true);
+	}
+
+	@Override
+	public void close() {
+		if (--openCount != 0)
+			return;
+
+		if (state == STATE_OPENED_WITH_KEYS) {
+			closing = true;
+			responseHandler.postDelayed(closeRunnable, KEEP_ALIVE_MS);
+			return;
+		}
+
+		closeSession();
+	}
+
+	/**
+	 * Closes the session kept alive (if any) and releases the CDM. Must be called after the player
+	 * is released.
+	 */
+	public void release() {
+		if (closing) {
+			responseHandler.removeCallbacks(closeRunnable);
+			closeSession();
+		}
+
+		mediaDrm.release();
+	}
+
+	private void closeSession() {
+		closing = false;
+		state = STATE_CLOSED;
+		provisioning = false;
+		responseHandler.removeCallbacksAndMessages(null);
+
+		if (requestHandler != null) {
+			requestHandler.removeCallbacksAndMessages(null);
+			requestHandler = null;
+		}
+
+		if (requestThread != null) {
+			requestThread.quit();
+			requestThread = null;
+		}
+		schemeInitData = null;
+		mediaCrypto = null;
+		lastException = null;
+
+		if (sessionId != null) {
+			mediaDrm.closeSession(sessionId);
+			sessionId = null;
+		}
+	}
+
+	private void openInternal(boolean allowProvisioning) {
+		try {
+			sessionId = mediaDrm.openSession();
+			mediaCrypto = new MediaCrypto(ExoplayerUtil.WIDEVINE_UUID, sessionId);
+			state = STATE_OPENED;
+
+			if (!restoreKeys() && !awaitAcquisition())
+				postKeyRequest();
+		}
+		catch (NotProvisionedException e) {
+			if (allowProvisioning)
+				postProvisionRequest();
+			else onError(e);
+		}
+		catch (Exception e) {
+			onError(e);
+		}
+	}
+
+	private static byte[] getData(DrmInitData drmInitData) {
+		final DrmInitData.SchemeInitData data = drmInitData.get(ExoplayerUtil.WIDEVINE_UUID);
+		return data != null ? data.data : null;
+	}
+
+	/**
+	 * Loads the persisted license of the content into the session, if any.
+	 * @return Whether the keys were restored
+	 */
+	private boolean restoreKeys() {
+		if (contentId == null)
+			return false;
+
+		final byte[] keySetId = store.get(contentId);
+
+		if (keySetId == null)
+			return false;
+
+		try {
+			mediaDrm.restoreKeys(sessionId, keySetId);
+		}
+		catch (Exception e) {
+			// ex. the CDM storage was wiped
+			Log.w(getClass().getSimpleName(), "Failed to restore license of " + contentId, e);
+			store.remove(contentId);
+			return false;
+		}
+
+		onKeysLoaded();
+		store.acquireIfNeeded(contentId, schemeInitData, callback);
+		return true;
+	}
+
+	/**
+	 * Waits for the license being acquired ahead of the session (see {@link OfflineLicenseStore}), if any.
+	 * @return Whether an acquisition is in flight
+	 */
+	private boolean awaitAcquisition() {
+		if (contentId == null)
+			return false;
+
+		final byte[] openedSessionId = sessionId;
+
+		return store.whenAcquired(contentId, new Runnable() {
+			@Override
+			public void run() {
+				responseHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						// not closed (nor reopened) meanwhile
+						if (state == STATE_OPENED && sessionId == openedSessionId && !restoreKeys())
+							postKeyRequest();
+					}
+				});
+			}
+		});
+	}
+
+	private void postKeyRequest() {
+		keyType = contentId != null && !store.isStreamingOnly(contentId) ?
+				MediaDrm.KEY_TYPE_OFFLINE : MediaDrm.KEY_TYPE_STREAMING;
+
+		final MediaDrm.KeyRequest request;
+
+		try {
+			request = mediaDrm.getKeyRequest(sessionId, schemeInitData.data, schemeInitData.mimeType,
+					keyType, null);
+		}
+		catch (Exception e) {
+			onKeysError(e);
+			return;
+		}
+
+		requestHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				Object response;
+
+				try {
+					response = callback.executeKeyRequest(ExoplayerUtil.WIDEVINE_UUID, request);
+				}
+				catch (Exception e) {
+					response = e;
+				}
+
+				final Object result = response;
+
+				responseHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onKeyResponse(result);
+					}
+				});
+			}
+		});
+	}
+
+	private void onKeyResponse(Object response) {
+		if (state != STATE_OPENED && state != STATE_OPENED_WITH_KEYS)
+			return;
+
+		// failed requests (network, authorization) don't tell whether persistent licenses are supported
+		if (response instanceof Exception) {
+			onKeysError((Exception) response);
+			return;
+		}
+
+		final byte[] keySetId;
+
+		try {
+			keySetId = mediaDrm.provideKeyResponse(sessionId, (byte[]) response);
+		}
+		catch (Exception e) {
+			// the license server answered with a license that can't be persisted
+			if (keyType == MediaDrm.KEY_TYPE_OFFLINE) {
+				store.setStreamingOnly(contentId);
+				postKeyRequest();
+			}
+			else onKeysError(e);
+
+			return;
+		}
+
+		if (keyType == MediaDrm.KEY_TYPE_OFFLINE) {
+			// or with a streaming one, whose keys are loaded nonetheless
+			if (keySetId == null || keySetId.length == 0)
+				store.setStreamingOnly(contentId);
+			else store.put(contentId, keySetId, OfflineLicenseStore.getDuration(mediaDrm, sessionId));
+		}
+
+		onKeysLoaded();
+	}
+
+	private void postProvisionRequest() {
+		if (provisioning)
+			return;
+
+		provisioning = true;
+
+		final MediaDrm.ProvisionRequest request = mediaDrm.getProvisionRequest();
+
+		requestHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				Object response;
+
+				try {
+					response = callback.executeProvisionRequest(ExoplayerUtil.WIDEVINE_UUID, request);
+				}
+				catch (Exception e) {
+					response = e;
+				}
+
+				final Object result = response;
+
+				responseHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onProvisionResponse(result);
+					}
+				});
+			}
+		});
+	}
+
+	private void onProvisionResponse(Object response) {
+		provisioning = false;
+
+		if (state != STATE_OPENING && state != STATE_OPENED && state != STATE_OPENED_WITH_KEYS)
+			return;
+
+		if (response instanceof Exception) {
+			onError((Exception) response);
+			return;
+		}
+
+		try {
+			mediaDrm.provideProvisionResponse((byte[]) response);
+		}
+		catch (Exception e) {
+			onError(e);
+			return;
+		}
+
+		if (state == STATE_OPENING)
+			openInternal(false);
+		else postKeyRequest();
+	}
+
+	private void onDrmEvent(int event) {
+		if (state != STATE_OPENED && state != STATE_OPENED_WITH_KEYS)
+			return;
+
+		switch (event) {
+			case MediaDrm.EVENT_KEY_REQUIRED:
+				state = STATE_OPENED;
+				postKeyRequest();
+				break;
+			case MediaDrm.EVENT_KEY_EXPIRED:
+				state = STATE_OPENED;
+
+				if (contentId != null)
+					store.remove(contentId);
+
+				onError(new IllegalStateException("License expired"));
+				break;
+			case MediaDrm.EVENT_PROVISION_REQUIRED:
+				state = STATE_OPENED;
+				postProvisionRequest();
+				break;
+		}
+	}
+
+	private void onKeysLoaded() {
+		state = STATE_OPENED_WITH_KEYS;
+
+		if (eventHandler != null && eventListener != null) {
+			eventHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					eventListener.onDrmKeysLoaded();
+				}
+			});
+		}
+	}
+
+	private void onKeysError(Exception e) {
+		if (e instanceof NotProvisionedException)
+			postProvisionRequest();
+		else onError(e);
+	}
+
+	private void onError(final Exception e) {
+		lastException = e;
+		state = STATE_ERROR;
+
+		if (eventHandler != null && eventListener != null) {
+			eventHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					eventListener.onDrmSessionManagerError(e);
+				}
+			});
+		}
+	}
+}
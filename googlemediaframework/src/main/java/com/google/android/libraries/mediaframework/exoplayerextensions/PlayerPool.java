@@ -0,0 +1,206 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Players prepared ahead of being displayed (ex. the next items of a feed), so that a view
+ * starts playing them with near zero wait.
+ *
+ * A prepared player fetches its manifest, builds its renderers and loads the first seconds
+ * of media, paused and without a surface, until a view takes it over through {@link #acquire(Video)}.
+ * The least recently prepared players are released beyond the pool size.
+ *
+ * Must be used from the main thread.
+ */
+public final class PlayerPool {
+
+	/**
+	 * Prepared players kept by default.
+	 */
+	public static final int DEFAULT_SIZE = 1;
+
+	/**
+	 * Creates the players of the pool.
+	 */
+	interface PlayerFactory {
+		/**
+		 * @return The player (not prepared yet) or null if the video isn't supported
+		 */
+		ExoplayerWrapper create(Context context, Video video);
+	}
+
+	private static final PlayerFactory DEFAULT_FACTORY = new PlayerFactory() {
+		@Override
+		public ExoplayerWrapper create(Context context, Video video) {
+			final ExoplayerWrapper.RendererBuilder rendererBuilder =
+					RendererBuilderFactory.createRendererBuilder(context.getApplicationContext(), video);
+
+			return rendererBuilder != null ? new ExoplayerWrapper(rendererBuilder) : null;
+		}
+	};
+
+	private static PlayerPool instance;
+
+	private final LinkedHashMap<String, Entry> players = new LinkedHashMap<>();
+	private final PlayerFactory factory;
+	private int size = DEFAULT_SIZE;
+
+	PlayerPool(PlayerFactory factory) {
+		this.factory = factory;
+	}
+
+	public static PlayerPool getInstance() {
+		if (instance == null)
+			instance = new PlayerPool(DEFAULT_FACTORY);
+
+		return instance;
+	}
+
+	/**
+	 * Sets how many prepared players are kept (each one holds its decoders and buffers).
+	 * @param size Maximum amount of prepared players (0 disables the pool)
+	 */
+	public void setSize(int size) {
+		this.size = size;
+		trim();
+	}
+
+	/**
+	 * Prepares a player for a video, if not prepared yet.
+	 * DRM protected videos are not supported (their licenses are bound to the session that plays them).
+	 * @param context The context
+	 * @param video The video
+	 * @param bufferMs Amount of media loaded ahead in milliseconds
+	 * @return Whether the video is (or was already) being prepared
+	 */
+	public boolean prebuffer(Context context, Video video, long bufferMs) {
+		if (size == 0 || video.getDrmRequest() != null || video.getUrl() == null)
+			return false;
+
+		final String key = getKey(video);
+
+		if (players.containsKey(key))
+			return true;
+
+		final ExoplayerWrapper player = factory.create(context, video);
+
+		if (player == null)
+			return false;
+
+		final Entry entry = new Entry(player);
+
+		// a failed player is dropped, the view will build its own
+		entry.listener = new ExoplayerWrapper.PlaybackListener() {
+			@Override
+			public void onStateChanged(boolean playWhenReady, int playbackState) {}
+
+			@Override
+			public void onError(Exception e) {
+				Log.w(getClass().getSimpleName(), "Failed to prepare " + key, e);
+
+				if (players.get(key) == entry) {
+					players.remove(key);
+					player.release();
+				}
+			}
+
+			@Override
+			public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+										   float pixelWidthHeightRatio) {}
+		};
+
+		player.addListener(entry.listener);
+		player.setBufferLimit(bufferMs);
+		player.prepare();
+		players.put(key, entry);
+		trim();
+		return true;
+	}
+
+	/**
+	 * Whether a player is prepared (or being prepared) for a video.
+	 * @param video The video
+	 */
+	public boolean contains(Video video) {
+		return players.containsKey(getKey(video));
+	}
+
+	/**
+	 * Takes over the prepared player of a video, removing it from the pool.
+	 * @param video The video
+	 * @return The player (caller must release it) or null if not prepared
+	 */
+	public ExoplayerWrapper acquire(Video video) {
+		if (video.getUrl() == null)
+			return null;
+
+		final Entry entry = players.remove(getKey(video));
+
+		if (entry == null)
+			return null;
+
+		entry.player.removeListener(entry.listener);
+		entry.player.setBufferLimit(-1);
+		return entry.player;
+	}
+
+	/**
+	 * Releases every prepared player, except for the given videos.
+	 * @param keep Videos whose players are kept
+	 */
+	public void retain(Video... keep) {
+		final ArrayList<String> keys = new ArrayList<>();
+
+		for (Video video : keep)
+			keys.add(getKey(video));
+
+		for (Iterator<String> it = players.keySet().iterator(); it.hasNext();) {
+			final String key = it.next();
+
+			if (!keys.contains(key)) {
+				players.get(key).player.release();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Releases every prepared player.
+	 */
+	public void clear() {
+		retain();
+	}
+
+	private void trim() {
+		for (Iterator<Entry> it = players.values().iterator(); it.hasNext() && players.size() > size;) {
+			it.next().player.release();
+			it.remove();
+		}
+	}
+
+	/**
+	 * A prepared player only serves a video with the same ABR strategy and DRM setup
+	 * (its renderers are built for them).
+	 */
+	private static String getKey(Video video) {
+		final DrmRequest drmRequest = video.getDrmRequest();
+
+		return video.getVideoType() + ":" + video.getAbrStrategy() + ":" +
+				(drmRequest != null ? drmRequest.getLicenseUrl() : null) + ":" + video.getUrl();
+	}
+
+	private static final class Entry {
+
+		final ExoplayerWrapper player;
+		ExoplayerWrapper.PlaybackListener listener;
+
+		Entry(ExoplayerWrapper player) {
+			this.player = player;
+		}
+	}
+}
@@ -19,11 +19,67 @@ package com.google.android.libraries.mediaframework.exoplayerextensions;
 import android.content.Context;
 import android.net.Uri;
 
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
 /**
  * Generate a renderer builder appropriate for rendering a video.
  */
 public class RendererBuilderFactory {
 
+  /**
+   * Maps remote video URLs to local copies (ex. offline downloads).
+   */
+  public interface UrlResolver {
+    /**
+     * @param url The remote URL of the video.
+     * @return The URL to play instead (ex. file://) or null to play the remote one.
+     */
+    String resolve(String url);
+  }
+
+  /**
+   * Creates the data sources used by the renderer builders (ex. caching ones).
+   */
+  public interface DataSourceFactory {
+    /**
+     * @param context The context.
+     * @param listener Listener of network transfers (ex. the bandwidth meter) or null.
+     * @param userAgent The user agent.
+     * @return A data source able to read every URI scheme.
+     */
+    UriDataSource createDataSource(Context context, TransferListener listener, String userAgent);
+  }
+
+  private static volatile UrlResolver urlResolver;
+  private static volatile DataSourceFactory dataSourceFactory;
+
+  /**
+   * Set the resolver consulted before building renderers for a video.
+   * @param resolver The resolver or null to always play remote URLs.
+   */
+  public static void setUrlResolver(UrlResolver resolver) {
+    urlResolver = resolver;
+  }
+
+  /**
+   * Set the factory of the data sources used to load manifests and media.
+   * @param factory The factory or null to read everything straight from the network.
+   */
+  public static void setDataSourceFactory(DataSourceFactory factory) {
+    dataSourceFactory = factory;
+  }
+
+  /**
+   * Create a data source through the current factory.
+   */
+  static UriDataSource createDataSource(Context ctx, TransferListener listener, String userAgent) {
+    DataSourceFactory factory = dataSourceFactory;
+    return factory != null ? factory.createDataSource(ctx, listener, userAgent)
+        : new DefaultUriDataSource(ctx, listener, userAgent);
+  }
+
   /**
    * Create a renderer builder which can build the given video.
    * @param ctx The context (ex {@link android.app.Activity} in whicb the video has been created.
@@ -31,20 +87,29 @@ public class RendererBuilderFactory {
    */
   public static ExoplayerWrapper.RendererBuilder createRendererBuilder(Context ctx,
                                                                        Video video) {
+    String url = resolveUrl(video.getUrl());
+
     switch (video.getVideoType()) {
       case HLS:
         return new HlsRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx),
-                                      video.getUrl());
+                                      url, video.getAbrStrategy());
       case DASH:
         return new DashRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx),
-                                       video.getUrl(),
-                                       new WidevineMediaDrmCallback(video.getDrmRequest()));
+                                       url,
+                                       new WidevineMediaDrmCallback(video.getDrmRequest()),
+                                       video.getAbrStrategy());
       case MP4:
-        return new ExtractorRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx), Uri.parse(video.getUrl()));
+        return new ExtractorRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx), Uri.parse(url));
       case OTHER:
-        return new ExtractorRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx), Uri.parse(video.getUrl()));
+        return new ExtractorRendererBuilder(ctx, ExoplayerUtil.getUserAgent(ctx), Uri.parse(url));
       default:
         return null;
     }
   }
+
+  private static String resolveUrl(String url) {
+    UrlResolver resolver = urlResolver;
+    String local = resolver != null && url != null ? resolver.resolve(url) : null;
+    return local != null ? local : url;
+  }
 }
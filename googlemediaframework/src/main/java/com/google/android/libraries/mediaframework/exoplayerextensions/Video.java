@@ -46,6 +46,11 @@ public class Video {
    */
   private final DrmRequest drmRequest;
 
+  /**
+   * Selects the renditions of adaptive streams (DASH/HLS).
+   */
+  private final AbrStrategy.Factory abrStrategy;
+
   /**
    * @param url The URL pointing to the video.
    * @param videoType The video format of the video.
@@ -60,9 +65,28 @@ public class Video {
    * @param drmRequest DRM content info (for DASH/DRM).
    */
   public Video(String url, VideoType videoType, DrmRequest drmRequest) {
+    this(url, videoType, drmRequest, null);
+  }
+
+  /**
+   * @param url The URL pointing to the video.
+   * @param videoType The video format of the video.
+   * @param drmRequest DRM content info (for DASH/DRM).
+   * @param abrStrategy Selects the renditions of adaptive streams (or null for ExoPlayer's default).
+   */
+  public Video(String url, VideoType videoType, DrmRequest drmRequest,
+               AbrStrategy.Factory abrStrategy) {
     this.url = url;
     this.videoType = videoType;
     this.drmRequest = drmRequest;
+    this.abrStrategy = abrStrategy;
+  }
+
+  /**
+   * Returns the selector of the renditions of adaptive streams (or null for ExoPlayer's default).
+   */
+  public AbrStrategy.Factory getAbrStrategy() {
+    return abrStrategy;
   }
 
   /**
@@ -55,6 +55,13 @@ public class WidevineMediaDrmCallback implements MediaDrmCallback {
 		this.drmRequest = drmRequest;
 	}
 
+	/**
+	 * @return DRM info to play encrypted media (or null).
+	 */
+	public DrmRequest getDrmRequest() {
+		return drmRequest;
+	}
+
 	@Override
 	public byte[] executeProvisionRequest(UUID uuid, ProvisionRequest request)
 			throws UnsupportedDrmException, IOException {
@@ -25,6 +25,7 @@ import android.widget.FrameLayout;
 
 import com.google.android.libraries.mediaframework.exoplayerextensions.ExoplayerWrapper;
 import com.google.android.libraries.mediaframework.exoplayerextensions.ObservablePlayerControl;
+import com.google.android.libraries.mediaframework.exoplayerextensions.PlayerPool;
 import com.google.android.libraries.mediaframework.exoplayerextensions.RendererBuilderFactory;
 import com.google.android.libraries.mediaframework.exoplayerextensions.Video;
 
@@ -78,11 +79,20 @@ public class LayerManager {
     this.container = container;
     container.setBackgroundColor(Color.BLACK);
 
-    ExoplayerWrapper.RendererBuilder rendererBuilder =
-        RendererBuilderFactory.createRendererBuilder(activity, video);
+    // Take over a player prepared ahead, if any.
+    ExoplayerWrapper preparedWrapper = PlayerPool.getInstance().acquire(video);
 
-    exoplayerWrapper = new ExoplayerWrapper(rendererBuilder);
-    exoplayerWrapper.prepare();
+    if (preparedWrapper != null) {
+      exoplayerWrapper = preparedWrapper;
+      exoplayerWrapper.markStartRequested();
+    } else {
+      ExoplayerWrapper.RendererBuilder rendererBuilder =
+          RendererBuilderFactory.createRendererBuilder(activity, video);
+
+      exoplayerWrapper = new ExoplayerWrapper(rendererBuilder);
+      exoplayerWrapper.markStartRequested();
+      exoplayerWrapper.prepare();
+    }
 
     this.control = exoplayerWrapper.getPlayerControl();
 
@@ -130,6 +140,15 @@ public class LayerManager {
     return exoplayerWrapper;
   }
 
+  /**
+   * Reloads the player from another video (ex. another output of the same video, or the same one
+   * after a transient error), keeping the player and the views created by the layers.
+   * @param video The video to play.
+   */
+  public void recreate(Video video) {
+    exoplayerWrapper.recreate(RendererBuilderFactory.createRendererBuilder(activity, video));
+  }
+
   /**
    * When the video player is no longer needed, call this method.
    */
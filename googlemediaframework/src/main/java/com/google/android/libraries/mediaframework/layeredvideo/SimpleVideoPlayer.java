@@ -498,6 +498,15 @@ public class SimpleVideoPlayer {
         playbackControlLayer.closeCaptionMenu();
     }
 
+	/**
+	 * Reloads the player from another video (ex. another output of the same video, or the same one
+	 * after a transient error), keeping its views, surface and DRM session.
+	 * @param video The video to play
+	 */
+	public void recreate(Video video) {
+		layerManager.recreate(video);
+	}
+
     /**
 	 * When you are finished using this {@link SimpleVideoPlayer}, make sure to call this method.
 	 */
@@ -516,6 +525,14 @@ public class SimpleVideoPlayer {
 		layerManager.getExoplayerWrapper().setInfoListener(listener);
 	}
 
+	/**
+	 * Set a listener to respond to the first frame rendered (time to first frame).
+	 * @param listener Listens to the first frame rendered since the player was created.
+	 */
+	public void setFirstFrameListener(ExoplayerWrapper.FirstFrameListener listener) {
+		layerManager.getExoplayerWrapper().setFirstFrameListener(listener);
+	}
+
 	/**
 	 * Sets a interceptable listener able to cancel both API and user actions.
 	 * @param interceptableListener The listener instance
@@ -0,0 +1,119 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AbrBandwidthMeterTest {
+
+	private static final int[][] LADDERS = {
+			{300000, 800000, 1500000, 3000000},
+			{64000, 150000, 232370, 440000, 1234567, 2000001, 4500000},
+			{5000000, 12000001, 25000003, 40000007}
+	};
+
+	@Test
+	public void estimateCoversBitrate() {
+		assertEquals(375001, AbrBandwidthMeter.getSteeringEstimate(300000));
+		assertEquals(1250001, AbrBandwidthMeter.getSteeringEstimate(1000000));
+		assertEquals(1543210, AbrBandwidthMeter.getSteeringEstimate(1234567));
+	}
+
+	@Test
+	public void estimateSteersHlsSelection() {
+		for (int[] bitrates : LADDERS) {
+			for (int index = 0; index < bitrates.length; ++index) {
+				final FixedStrategy strategy = new FixedStrategy(index);
+				final BandwidthMeter meter = new AbrBandwidthMeter(new FixedMeter(100000000), strategy,
+						bitrates, new FixedBufferLevel(0));
+
+				assertEquals(bitrates[index], bitrates[selectHlsVariant(bitrates, meter.getBitrateEstimate())]);
+			}
+		}
+	}
+
+	@Test
+	public void strategyGetsBufferAndEstimate() {
+		final FixedStrategy strategy = new FixedStrategy(2);
+		final BandwidthMeter meter = new AbrBandwidthMeter(new FixedMeter(900000), strategy,
+				LADDERS[0], new FixedBufferLevel(7000000));
+
+		assertEquals(AbrBandwidthMeter.getSteeringEstimate(1500000), meter.getBitrateEstimate());
+		assertEquals(7000000, strategy.bufferedUs);
+		assertEquals(900000, strategy.bitrateEstimate);
+	}
+
+	/**
+	 * The variant selection of ExoPlayer 1.5's <code>HlsChunkSource</code>: the highest variant
+	 * within 80% of the estimate (variants sorted by bitrate, highest first).
+	 */
+	private static int selectHlsVariant(int[] bitrates, long bitrateEstimate) {
+		final int effectiveBitrate = (int) (bitrateEstimate*0.8f);
+		int best = -1;
+		int lowest = 0;
+
+		for (int i = 0; i < bitrates.length; ++i) {
+			if (bitrates[i] < bitrates[lowest])
+				lowest = i;
+
+			if (bitrates[i] <= effectiveBitrate && (best == -1 || bitrates[i] > bitrates[best]))
+				best = i;
+		}
+
+		return best != -1 ? best : lowest;
+	}
+
+	private static final class FixedStrategy implements AbrStrategy {
+		final int index;
+		long bufferedUs;
+		long bitrateEstimate;
+
+		FixedStrategy(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int select(int[] bitrates, long bufferedUs, long bitrateEstimate) {
+			this.bufferedUs = bufferedUs;
+			this.bitrateEstimate = bitrateEstimate;
+			return index;
+		}
+	}
+
+	private static final class FixedMeter implements BandwidthMeter {
+		final long estimate;
+
+		FixedMeter(long estimate) {
+			this.estimate = estimate;
+		}
+
+		@Override
+		public long getBitrateEstimate() {
+			return estimate;
+		}
+
+		@Override
+		public void onTransferStart() {}
+
+		@Override
+		public void onBytesTransferred(int bytes) {}
+
+		@Override
+		public void onTransferEnd() {}
+	}
+
+	private static final class FixedBufferLevel implements AbrBandwidthMeter.BufferLevel {
+		final long bufferedUs;
+
+		FixedBufferLevel(long bufferedUs) {
+			this.bufferedUs = bufferedUs;
+		}
+
+		@Override
+		public long getBufferedDurationUs() {
+			return bufferedUs;
+		}
+	}
+}
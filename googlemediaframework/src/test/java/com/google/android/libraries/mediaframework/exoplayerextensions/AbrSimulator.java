@@ -0,0 +1,112 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * Replays a throughput trace through an {@link AbrStrategy}, offline: segments are loaded one
+ * after the other (up to a maximum buffer) while the buffer drains in real time.
+ */
+final class AbrSimulator {
+
+	/**
+	 * Weight of the last segment's throughput in the bandwidth estimate.
+	 */
+	private static final double ESTIMATE_WEIGHT = 0.5;
+
+	static final class Result {
+		/** Bitrate of the loaded media in bits per second. */
+		double averageBitrate;
+		/** Rendition changes between consecutive segments. */
+		int switches;
+		/** Stalled time (after startup) over the session time. */
+		double rebufferRatio;
+	}
+
+	private final int[] bitrates;
+	private final double segmentS;
+	private final double maxBufferS;
+
+	/**
+	 * @param bitrates Bitrates of the renditions
+	 * @param segmentS Segment duration in seconds
+	 * @param maxBufferS Buffer level at which loading pauses in seconds
+	 */
+	AbrSimulator(int[] bitrates, double segmentS, double maxBufferS) {
+		this.bitrates = bitrates;
+		this.segmentS = segmentS;
+		this.maxBufferS = maxBufferS;
+	}
+
+	/**
+	 * @param strategy The strategy (a new instance per run)
+	 * @param trace Throughput of each second in bits per second (repeated if shorter than the session)
+	 * @param segments Segments of the video
+	 */
+	Result run(AbrStrategy strategy, double[] trace, int segments) {
+		final Result result = new Result();
+		double time = 0;
+		double buffer = 0;
+		double stalled = 0;
+		double estimate = BandwidthMeter.NO_ESTIMATE;
+		double bits = 0;
+		int previous = -1;
+
+		for (int i = 0; i < segments; ++i) {
+			// waits for room in the buffer
+			if (buffer + segmentS > maxBufferS) {
+				final double wait = buffer + segmentS - maxBufferS;
+
+				time += wait;
+				buffer -= wait;
+			}
+
+			final int index = strategy.select(bitrates, (long) (buffer*1000000), (long) estimate);
+			final double size = bitrates[index]*segmentS;
+			final double elapsed = download(trace, time, size);
+
+			time += elapsed;
+
+			if (i > 0) {
+				stalled += Math.max(elapsed - buffer, 0);
+				buffer = Math.max(buffer - elapsed, 0);
+			}
+
+			buffer += segmentS;
+			bits += size;
+
+			final double sample = size/elapsed;
+
+			estimate = estimate == BandwidthMeter.NO_ESTIMATE ? sample :
+					ESTIMATE_WEIGHT*sample + (1 - ESTIMATE_WEIGHT)*estimate;
+
+			if (previous != -1 && bitrates[index] != bitrates[previous])
+				++result.switches;
+
+			previous = index;
+		}
+
+		final double duration = segments*segmentS;
+
+		result.averageBitrate = bits/duration;
+		result.rebufferRatio = stalled/(duration + stalled);
+		return result;
+	}
+
+	/**
+	 * @return Seconds taken to load a number of bits starting at a time
+	 */
+	private static double download(double[] trace, double start, double bits) {
+		double time = start;
+
+		while (true) {
+			final double rate = trace[(int) time % trace.length];
+			final double left = Math.floor(time) + 1 - time;
+
+			if (bits <= rate*left)
+				return time + bits/rate - start;
+
+			bits -= rate*left;
+			time = Math.floor(time) + 1;
+		}
+	}
+}
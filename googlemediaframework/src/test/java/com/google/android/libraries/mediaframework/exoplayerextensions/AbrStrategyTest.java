@@ -0,0 +1,156 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AbrStrategyTest {
+
+	private static final int[] LADDER = {300000, 800000, 1500000, 3000000};
+
+	/** Same ladder in another order (renditions come in manifest order). */
+	private static final int[] SHUFFLED = {1500000, 300000, 3000000, 800000};
+
+	/**
+	 * Only the bandwidth estimate (as ExoPlayer's <code>AdaptiveEvaluator</code>).
+	 */
+	private static final AbrStrategy.Factory THROUGHPUT = new AbrStrategy.Factory() {
+		@Override
+		public AbrStrategy create() {
+			return new AbrStrategy() {
+				@Override
+				public int select(int[] bitrates, long bufferedUs, long bitrateEstimate) {
+					final long budget = (long) ((bitrateEstimate == BandwidthMeter.NO_ESTIMATE ? 800000 : bitrateEstimate)*0.75f);
+					int best = 0;
+
+					for (int i = 0; i < bitrates.length; ++i)
+						if (bitrates[i] <= budget && bitrates[i] > bitrates[best])
+							best = i;
+
+					return best;
+				}
+			};
+		}
+	};
+
+	@Test
+	public void bufferBasedPicksLowestOnShortBuffer() {
+		final AbrStrategy strategy = BufferBasedAbrStrategy.FACTORY.create();
+
+		for (long bufferedMs = 0; bufferedMs < 10000; bufferedMs += 500)
+			assertEquals(300000, LADDER[strategy.select(LADDER, bufferedMs*1000, 100000000)]);
+	}
+
+	@Test
+	public void bufferBasedPicksHighestAtTarget() {
+		final AbrStrategy strategy = BufferBasedAbrStrategy.FACTORY.create();
+
+		// target of 10s plus 2s per rendition
+		assertEquals(3000000, LADDER[strategy.select(LADDER, 18000000, BandwidthMeter.NO_ESTIMATE)]);
+		assertEquals(3000000, LADDER[strategy.select(LADDER, 60000000, 100000)]);
+	}
+
+	@Test
+	public void bufferBasedClimbsWithBuffer() {
+		final AbrStrategy strategy = BufferBasedAbrStrategy.FACTORY.create();
+		int previous = 0;
+
+		for (long bufferedMs = 0; bufferedMs <= 30000; bufferedMs += 100) {
+			final int bitrate = LADDER[strategy.select(LADDER, bufferedMs*1000, BandwidthMeter.NO_ESTIMATE)];
+
+			assertTrue(bitrate >= previous);
+			assertEquals(bitrate, SHUFFLED[strategy.select(SHUFFLED, bufferedMs*1000, BandwidthMeter.NO_ESTIMATE)]);
+			previous = bitrate;
+		}
+	}
+
+	@Test
+	public void hybridFollowsEstimateOnShortBuffer() {
+		final AbrStrategy strategy = HybridAbrStrategy.FACTORY.create();
+
+		assertEquals(1500000, SHUFFLED[strategy.select(SHUFFLED, 2000000, 3000000)]);
+		assertEquals(3000000, SHUFFLED[strategy.select(SHUFFLED, 2000000, 3750000)]);
+		assertEquals(300000, SHUFFLED[strategy.select(SHUFFLED, 2000000, 100000)]);
+
+		// 800kbps assumed before the first sample
+		assertEquals(300000, SHUFFLED[strategy.select(SHUFFLED, 0, BandwidthMeter.NO_ESTIMATE)]);
+	}
+
+	@Test
+	public void hybridSwitchesModesWithBuffer() {
+		final AbrStrategy strategy = HybridAbrStrategy.FACTORY.create();
+
+		// the buffer mode goes above the fraction of the estimate, up to the estimate itself
+		assertEquals(3000000, LADDER[strategy.select(LADDER, 18000000, 3200000)]);
+		assertEquals(1500000, LADDER[strategy.select(LADDER, 18000000, 2000000)]);
+
+		// never below the throughput choice
+		assertEquals(1500000, LADDER[strategy.select(LADDER, 11000000, 2000000)]);
+
+		// back to the throughput mode after draining
+		assertEquals(1500000, LADDER[strategy.select(LADDER, 4000000, 3200000)]);
+	}
+
+	@Test
+	public void simulationStableThroughput() {
+		final AbrSimulator simulator = new AbrSimulator(LADDER, 4, 30);
+		final double[] trace = {6000000};
+
+		for (AbrStrategy.Factory factory : new AbrStrategy.Factory[] {BufferBasedAbrStrategy.FACTORY, HybridAbrStrategy.FACTORY}) {
+			final AbrSimulator.Result result = simulator.run(factory.create(), trace, 150);
+
+			assertEquals(0, result.rebufferRatio, 0);
+			assertTrue(result.averageBitrate > 2800000);
+		}
+
+		// the hybrid starts on the estimate rather than the lowest rendition
+		final AbrSimulator.Result hybrid = simulator.run(HybridAbrStrategy.FACTORY.create(), trace, 150);
+		final AbrSimulator.Result bufferBased = simulator.run(BufferBasedAbrStrategy.FACTORY.create(), trace, 150);
+
+		assertTrue(hybrid.averageBitrate > bufferBased.averageBitrate);
+		assertTrue(hybrid.switches <= bufferBased.switches);
+	}
+
+	@Test
+	public void simulationFluctuatingThroughput() {
+		final AbrSimulator simulator = new AbrSimulator(LADDER, 4, 30);
+		final double[] trace = fluctuating(new double[] {4500000, 1200000}, 6);
+		final AbrSimulator.Result throughput = simulator.run(THROUGHPUT.create(), trace, 150);
+		final AbrSimulator.Result hybrid = simulator.run(HybridAbrStrategy.FACTORY.create(), trace, 150);
+		final AbrSimulator.Result bufferBased = simulator.run(BufferBasedAbrStrategy.FACTORY.create(), trace, 150);
+
+		// the hybrid is still capped by the (oscillating) estimate, the buffer-based one isn't
+		assertTrue(bufferBased.switches < throughput.switches/2);
+		assertTrue(hybrid.averageBitrate > throughput.averageBitrate);
+		assertTrue(hybrid.rebufferRatio <= throughput.rebufferRatio);
+		assertEquals(0, bufferBased.rebufferRatio, 0);
+	}
+
+	@Test
+	public void simulationThroughputDrop() {
+		final AbrSimulator simulator = new AbrSimulator(LADDER, 4, 30);
+		final double[] trace = new double[600];
+
+		for (int i = 0; i < trace.length; ++i)
+			trace[i] = i < 120 ? 5000000 : 700000;
+
+		final AbrSimulator.Result hybrid = simulator.run(HybridAbrStrategy.FACTORY.create(), trace, 150);
+
+		assertTrue(hybrid.rebufferRatio < 0.05);
+		assertTrue(hybrid.averageBitrate < 1000000);
+	}
+
+	/**
+	 * @return A trace alternating the given throughputs every few seconds
+	 */
+	private static double[] fluctuating(double[] levels, int periodS) {
+		final double[] trace = new double[levels.length*periodS];
+
+		for (int i = 0; i < trace.length; ++i)
+			trace[i] = levels[i/periodS];
+
+		return trace;
+	}
+}
@@ -0,0 +1,146 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class BandwidthHistoryTest {
+
+	private static final long DAY = 24*60*60*1000L;
+
+	private File file;
+	private final List<Runnable> writes = new ArrayList<>();
+	private final Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			writes.add(command);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		file = new File(System.getProperty("java.io.tmpdir"), "bandwidth" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void unknownNetwork() {
+		final BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate(null));
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:1"));
+
+		history.addSample(null, 1000, 1000);
+		history.addSample("wifi:1", 0, 1000);
+		history.addSample("wifi:1", 1000, 0);
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:1"));
+	}
+
+	@Test
+	public void medianIsWeightedBySize() {
+		final BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		// 800kbps, weight 100 each
+		for (int i = 0; i < 3; ++i)
+			history.addSample("wifi:1", 100, 10000);
+
+		assertEquals(800000, history.getEstimate("wifi:1"));
+
+		// 8Mbps, weight 1000
+		history.addSample("wifi:1", 1000, 1000000);
+		assertEquals(8000000, history.getEstimate("wifi:1"));
+
+		// networks don't mix
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:2"));
+	}
+
+	@Test
+	public void windowKeepsLatestSamples() {
+		final BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		for (int i = 0; i < 30; ++i)
+			history.addSample("mobile:13:1", 1000, 125000);
+
+		assertEquals(1000000, history.getEstimate("mobile:13:1"));
+
+		for (int i = 0; i < 30; ++i)
+			history.addSample("mobile:13:1", 1000, 500000);
+
+		assertEquals(4000000, history.getEstimate("mobile:13:1"));
+	}
+
+	@Test
+	public void leastRecentNetworksAreDropped() {
+		final BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		for (int i = 0; i <= 16; ++i)
+			history.addSample("wifi:" + i, 1000, 1000);
+
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:0"));
+		assertEquals(8000, history.getEstimate("wifi:1"));
+		assertEquals(8000, history.getEstimate("wifi:16"));
+	}
+
+	@Test
+	public void flushWritesInBackground() {
+		BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		history.addSample("wifi:1", 1000, 250000);
+		history.flush();
+
+		// nothing written on the calling thread, nor twice when unchanged
+		history.flush();
+		assertEquals(1, writes.size());
+		assertFalse(file.exists());
+		runWrites();
+		assertTrue(file.exists());
+
+		history = new BandwidthHistory(null, file, executor);
+		assertEquals(2000000, history.getEstimate("wifi:1"));
+
+		history.clear();
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:1"));
+		runWrites();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void expiredSamplesAreIgnored() throws IOException {
+		final long now = System.currentTimeMillis();
+		final Writer writer = new FileWriter(file);
+
+		writer.write("wifi:1\t" + (now - 8*DAY) + "\t1000\t1000000\n");
+		writer.write("wifi:1\t" + (now - DAY) + "\t1000\t125000\n");
+		writer.write("wifi:2\t" + (now - 8*DAY) + "\t1000\t125000\n");
+		writer.write("wifi:1\tgarbage\n");
+		writer.close();
+
+		final BandwidthHistory history = new BandwidthHistory(null, file, executor);
+
+		assertEquals(1000000, history.getEstimate("wifi:1"));
+		assertEquals(BandwidthMeter.NO_ESTIMATE, history.getEstimate("wifi:2"));
+	}
+
+	private void runWrites() {
+		for (Runnable write : writes)
+			write.run();
+
+		writes.clear();
+	}
+}
@@ -0,0 +1,215 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HttpTransportTest {
+
+	private static final int TIMEOUT = 5000;
+
+	private HttpServer server;
+	private String url;
+
+	/**
+	 * Client port of every request, the same one for requests sharing a connection.
+	 */
+	private final List<Integer> ports = Collections.synchronizedList(new ArrayList<Integer>());
+	private volatile int size;
+	private volatile int status = 200;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ports.add(exchange.getRemoteAddress().getPort());
+
+				final byte[] body = new byte[size];
+
+				exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void unreadBodyIsDrainedAndConnectionReused() throws IOException {
+		final RecordingConnection con = open();
+
+		size = 32*1024;
+		HttpTransport.execute(con).close();
+		assertFalse(con.disconnected);
+		assertEquals(16, readAndClose());
+
+		assertConnections(1);
+	}
+
+	@Test
+	public void bodyUpToDrainLimitKeepsConnection() throws IOException {
+		final RecordingConnection con = open();
+
+		size = 64*1024;
+		HttpTransport.execute(con).close();
+		assertFalse(con.disconnected);
+		assertEquals(16, readAndClose());
+
+		assertConnections(1);
+	}
+
+	@Test
+	public void bodyPastDrainLimitDropsConnection() throws IOException {
+		final RecordingConnection con = open();
+		final HttpTransport.Response response;
+
+		size = 1024*1024;
+		response = HttpTransport.execute(con);
+
+		// a few bytes read, the rest is too large to drain
+		assertEquals(0, response.read());
+		response.close();
+		assertTrue(con.disconnected);
+		assertEquals(16, readAndClose());
+
+		assertConnections(2);
+	}
+
+	@Test
+	public void errorBodyIsDrainedAndConnectionReused() throws IOException {
+		final RecordingConnection con = open();
+		final HttpTransport.Response response;
+
+		status = 404;
+		size = 1024;
+		response = HttpTransport.execute(con);
+		assertFalse(response.isSuccessful());
+		response.close();
+		assertFalse(con.disconnected);
+
+		status = 200;
+		assertEquals(16, readAndClose());
+
+		assertConnections(1);
+	}
+
+	@Test
+	public void closingTwiceIsHarmless() throws IOException {
+		final RecordingConnection con = open();
+		final HttpTransport.Response response;
+
+		size = 1024;
+		response = HttpTransport.execute(con);
+		response.close();
+		response.close();
+		assertFalse(con.disconnected);
+		assertEquals(16, readAndClose());
+
+		assertConnections(1);
+	}
+
+	private RecordingConnection open() throws IOException {
+		return new RecordingConnection(HttpTransport.open(url, TIMEOUT));
+	}
+
+	/**
+	 * Requests a body of 16 bytes, reading it to the end.
+	 * @return The body length
+	 */
+	private int readAndClose() throws IOException {
+		size = 16;
+
+		final HttpTransport.Response response = HttpTransport.get(url, TIMEOUT);
+
+		try {
+			return response.readBytes().length;
+		}
+		finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * @param count Connections the two requests made
+	 */
+	private void assertConnections(int count) {
+		assertEquals(2, ports.size());
+		assertEquals(count, new HashSet<>(ports).size());
+	}
+
+	/**
+	 * The opened connection, recording whether it was disconnected.
+	 */
+	private static final class RecordingConnection extends HttpURLConnection {
+		private final HttpURLConnection connection;
+		boolean disconnected;
+
+		RecordingConnection(HttpURLConnection connection) {
+			super(connection.getURL());
+			this.connection = connection;
+		}
+
+		@Override
+		public void connect() throws IOException {
+			connection.connect();
+		}
+
+		@Override
+		public void disconnect() {
+			disconnected = true;
+			connection.disconnect();
+		}
+
+		@Override
+		public boolean usingProxy() {
+			return connection.usingProxy();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return connection.getResponseCode();
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return connection.getInputStream();
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return connection.getErrorStream();
+		}
+
+		@Override
+		public int getContentLength() {
+			return connection.getContentLength();
+		}
+	}
+}
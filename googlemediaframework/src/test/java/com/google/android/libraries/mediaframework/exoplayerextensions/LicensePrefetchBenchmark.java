@@ -0,0 +1,184 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.media.MediaDrm;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Startup latency of a DRM protected media against local stand-ins of the media API, the manifest
+ * server and the license server, each answering after a fixed delay: the license requested once the
+ * manifest is in (sequential, as the DRM session does on its own) against requested by the license
+ * store as soon as the media is in, overlapping the manifest fetch (as <code>prefetchLicense</code> does).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 18)
+public class LicensePrefetchBenchmark {
+
+	private static final long API_TIME = 100;
+	private static final long MANIFEST_TIME = 100;
+	private static final long LICENSE_TIME = 150;
+	private static final int RUNS = 10;
+	private static final String CONTENT_ID = "content";
+	private static final DrmInitData.SchemeInitData INIT_DATA = new DrmInitData.SchemeInitData("video/mp4", new byte[] {1});
+
+	private String url;
+
+	private final MediaDrmCallback callback = new MediaDrmCallback() {
+		@Override
+		public byte[] executeProvisionRequest(UUID uuid, MediaDrm.ProvisionRequest request) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public byte[] executeKeyRequest(UUID uuid, MediaDrm.KeyRequest request) throws Exception {
+			return ExoplayerUtil.executePost(url + "license", new byte[] {2}, null);
+		}
+	};
+
+	@Test
+	public void sequentialVersusOverlapped() throws Exception {
+		final File file = new File(System.getProperty("java.io.tmpdir"), "licenses" + System.nanoTime());
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		final long[] sequential = new long[RUNS];
+		final long[] overlapped = new long[RUNS];
+
+		server.createContext("/media", new DelayedHandler(API_TIME));
+		server.createContext("/manifest", new DelayedHandler(MANIFEST_TIME));
+		server.createContext("/license", new DelayedHandler(LICENSE_TIME));
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+		try {
+			// a warm-up run each
+			for (int i = -1; i < RUNS; ++i) {
+				final long a = startSequential();
+				final long b = startOverlapped(file);
+
+				if (i >= 0) {
+					sequential[i] = a;
+					overlapped[i] = b;
+				}
+			}
+		}
+		finally {
+			server.stop(0);
+			file.delete();
+		}
+
+		Arrays.sort(sequential);
+		Arrays.sort(overlapped);
+		System.out.println(String.format(Locale.US,
+				"Startup (median of %d; API %d ms, manifest %d ms, license %d ms): sequential %.1f ms, overlapped %.1f ms",
+				RUNS, API_TIME, MANIFEST_TIME, LICENSE_TIME, sequential[RUNS/2]/1e6, overlapped[RUNS/2]/1e6));
+
+		// the manifest fetch is hidden behind the license request
+		assertTrue(sequential[RUNS/2] - overlapped[RUNS/2] > TimeUnit.MILLISECONDS.toNanos(MANIFEST_TIME/2));
+	}
+
+	/**
+	 * @return Time to the license in nanoseconds, requested after the manifest
+	 */
+	private long startSequential() throws Exception {
+		final long start = System.nanoTime();
+
+		get("media");
+		get("manifest");
+		callback.executeKeyRequest(ExoplayerUtil.WIDEVINE_UUID, null);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * @return Time to the license in nanoseconds, acquired by the store while the manifest is fetched
+	 */
+	private long startOverlapped(File file) throws Exception {
+		// init data seen by a previous session, no license kept
+		final OfflineLicenseStore store = new OfflineLicenseStore(file);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final long start = System.nanoTime();
+
+		get("media");
+		store.acquireIfNeeded(CONTENT_ID, INIT_DATA, callback);
+		get("manifest");
+
+		// the session waits for the acquisition in flight
+		if (store.whenAcquired(CONTENT_ID, new Runnable() {
+			@Override
+			public void run() {
+				acquired.countDown();
+			}
+		}))
+			assertTrue(acquired.await(5, TimeUnit.SECONDS));
+
+		return System.nanoTime() - start;
+	}
+
+	private void get(String path) throws IOException {
+		final HttpTransport.Response response = HttpTransport.get(url + path, HttpTransport.DEFAULT_TIMEOUT);
+
+		try {
+			assertTrue(response.isSuccessful());
+			response.readBytes();
+		}
+		finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Answers with a small body after a fixed delay.
+	 */
+	private static final class DelayedHandler implements HttpHandler {
+		private final long delay;
+
+		DelayedHandler(long delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			final InputStream in = exchange.getRequestBody();
+
+			while (in.read() != -1);
+
+			try {
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+
+			final byte[] body = new byte[256];
+
+			exchange.sendResponseHeaders(200, body.length);
+
+			final OutputStream out = exchange.getResponseBody();
+
+			out.write(body);
+			out.close();
+		}
+	}
+}
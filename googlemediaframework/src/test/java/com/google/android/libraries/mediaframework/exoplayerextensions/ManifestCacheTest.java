@@ -0,0 +1,173 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+// real LruCache, XML parser and a clock advanced by SystemClock.sleep()
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ManifestCacheTest {
+
+	private static final long VOD_TTL = 30*60*1000;
+
+	private static final String VOD_PLAYLIST = "#EXTM3U\n" +
+			"#EXT-X-TARGETDURATION:10\n" +
+			"#EXTINF:10,\n0.ts\n" +
+			"#EXTINF:10,\n1.ts\n" +
+			"#EXT-X-ENDLIST\n";
+
+	private static final String LIVE_PLAYLIST = "#EXTM3U\n" +
+			"#EXT-X-TARGETDURATION:6\n" +
+			"#EXT-X-MEDIA-SEQUENCE:100\n" +
+			"#EXTINF:6,\n100.ts\n" +
+			"#EXTINF:6,\n101.ts\n";
+
+	private static final String MASTER_PLAYLIST = "#EXTM3U\n" +
+			"#EXT-X-STREAM-INF:BANDWIDTH=500000\nlow.m3u8\n" +
+			"#EXT-X-STREAM-INF:BANDWIDTH=1500000\nhigh.m3u8\n";
+
+	private static final String MPD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"%s\" minBufferTime=\"PT2S\"" +
+			" availabilityStartTime=\"1970-01-01T00:00:00Z\" mediaPresentationDuration=\"PT20S\">\n" +
+			"<Period id=\"0\" start=\"PT0S\">\n" +
+			"<AdaptationSet mimeType=\"video/mp4\" codecs=\"avc1.4d401e\">\n" +
+			"<SegmentTemplate timescale=\"1000\" duration=\"2000\" startNumber=\"1\"" +
+			" initialization=\"init.mp4\" media=\"$Number$.m4s\"/>\n" +
+			"<Representation id=\"1\" bandwidth=\"500000\" width=\"640\" height=\"360\"/>\n" +
+			"</AdaptationSet>\n" +
+			"</Period>\n" +
+			"</MPD>\n";
+
+	private final ManifestCache cache = ManifestCache.getInstance();
+
+	@After
+	public void tearDown() {
+		cache.clear();
+	}
+
+	@Test
+	public void vodPlaylistIsKeptForThirtyMinutes() throws IOException {
+		final HlsPlaylist playlist = parseHls(VOD_PLAYLIST);
+
+		assertFalse(((HlsMediaPlaylist) playlist).live);
+		cache.put("vod", playlist);
+
+		SystemClock.sleep(VOD_TTL - 1);
+		assertSame(playlist, cache.get("vod", HlsPlaylist.class));
+
+		SystemClock.sleep(1);
+		assertNull(cache.get("vod", HlsPlaylist.class));
+	}
+
+	@Test
+	public void masterPlaylistIsKeptForThirtyMinutes() throws IOException {
+		final HlsPlaylist playlist = parseHls(MASTER_PLAYLIST);
+
+		assertTrue(playlist instanceof HlsMasterPlaylist);
+		cache.put("master", playlist);
+
+		SystemClock.sleep(VOD_TTL - 1);
+		assertSame(playlist, cache.get("master", HlsPlaylist.class));
+
+		SystemClock.sleep(1);
+		assertNull(cache.get("master", HlsPlaylist.class));
+	}
+
+	@Test
+	public void livePlaylistIsKeptForOneTargetDuration() throws IOException {
+		final HlsPlaylist playlist = parseHls(LIVE_PLAYLIST);
+
+		assertTrue(((HlsMediaPlaylist) playlist).live);
+		cache.put("live", playlist);
+
+		SystemClock.sleep(6000 - 1);
+		assertSame(playlist, cache.get("live", HlsPlaylist.class));
+
+		SystemClock.sleep(1);
+		assertNull(cache.get("live", HlsPlaylist.class));
+	}
+
+	@Test
+	public void staticMpdIsKeptForThirtyMinutes() throws IOException {
+		final MediaPresentationDescription manifest = parseDash("static");
+
+		assertFalse(manifest.dynamic);
+		cache.put("static", manifest);
+
+		SystemClock.sleep(VOD_TTL - 1);
+		assertSame(manifest, cache.get("static", MediaPresentationDescription.class));
+
+		SystemClock.sleep(1);
+		assertNull(cache.get("static", MediaPresentationDescription.class));
+	}
+
+	@Test
+	public void dynamicMpdIsNotKept() throws IOException {
+		final MediaPresentationDescription manifest = parseDash("dynamic");
+
+		assertTrue(manifest.dynamic);
+		cache.put("dynamic", manifest);
+		assertNull(cache.get("dynamic", MediaPresentationDescription.class));
+
+		// nor replaces a static one under the same URL
+		cache.put("dynamic", parseDash("static"));
+		cache.put("dynamic", manifest);
+		assertNull(cache.get("dynamic", MediaPresentationDescription.class));
+	}
+
+	@Test
+	public void servedManifestKeepsItsExpiration() throws IOException {
+		final HlsPlaylist playlist = parseHls(LIVE_PLAYLIST);
+
+		cache.put("live", playlist);
+		SystemClock.sleep(5000);
+
+		// a player built from the cached playlist puts it back
+		cache.put("live", cache.get("live", HlsPlaylist.class));
+
+		SystemClock.sleep(1000);
+		assertNull(cache.get("live", HlsPlaylist.class));
+	}
+
+	@Test
+	public void otherTypeIsNotServed() throws IOException {
+		cache.put("vod", parseHls(VOD_PLAYLIST));
+
+		assertNull(cache.get("vod", MediaPresentationDescription.class));
+		assertNotNull(cache.get("vod", Object.class));
+
+		cache.clear();
+		assertNull(cache.get("vod", Object.class));
+	}
+
+	private static HlsPlaylist parseHls(String playlist) throws IOException {
+		return new HlsPlaylistParser().parse("http://localhost/playlist.m3u8", toStream(playlist));
+	}
+
+	private static MediaPresentationDescription parseDash(String type) throws IOException {
+		return new MediaPresentationDescriptionParser().parse("http://localhost/manifest.mpd",
+				toStream(String.format(MPD, type)));
+	}
+
+	private static ByteArrayInputStream toStream(String text) {
+		return new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8")));
+	}
+}
@@ -0,0 +1,251 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// real Uri and LruCache for the data source tests
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MediaDataCacheTest {
+
+	private static final int MEDIA_SIZE = 1024*1024;
+
+	private File dir;
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "media" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		if (server != null)
+			server.stop(0);
+
+		delete(dir);
+	}
+
+	@Test
+	public void constructionTouchesNoStorage() {
+		final MediaDataCache cache = new MediaDataCache(dir);
+
+		assertEquals(-1, cache.getLength("a"));
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void lengthsSurviveRestart() {
+		MediaDataCache cache = new MediaDataCache(dir);
+
+		cache.putLength("a", 100);
+		cache.putLength("b", 200);
+		cache.putLength("a", 150);
+		assertEquals(150, cache.getLength("a"));
+
+		cache = new MediaDataCache(dir);
+		assertEquals(150, cache.getLength("a"));
+		assertEquals(200, cache.getLength("b"));
+		assertEquals(-1, cache.getLength("c"));
+	}
+
+	@Test
+	public void lengthsJournalIsCompacted() throws IOException {
+		final File journal = new File(dir, "samba_media.lengths");
+		final Writer writer = new FileWriter(journal);
+
+		for (int i = 0; i < 5000; ++i)
+			writer.write("key" + i + '\t' + i + '\n');
+
+		// malformed lines are skipped
+		writer.write("garbage\nkey\tNaN\n");
+		writer.close();
+
+		final MediaDataCache cache = new MediaDataCache(dir);
+
+		assertEquals(-1, cache.getLength("key0"));
+		assertEquals(-1, cache.getLength("key2951"));
+		assertEquals(2952, cache.getLength("key2952"));
+		assertEquals(4999, cache.getLength("key4999"));
+		assertEquals(2048, countLines(journal));
+	}
+
+	@Test
+	public void hlsKeysAreRecognized() {
+		final MediaDataCache cache = new MediaDataCache(dir);
+
+		cache.putKeys("http://cdn/v/720p/index.m3u8", "#EXTM3U\n" +
+				"#EXT-X-KEY:METHOD=AES-128,URI=\"key1\",IV=0x1\n" +
+				"#EXTINF:4.0,\nseg1.ts\n" +
+				"#EXT-X-KEY:METHOD=NONE\n" +
+				"#EXTINF:4.0,\nseg2.ts\n" +
+				"#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys/v/key2\"\n" +
+				"#EXTINF:4.0,\nseg3.ts\n#EXT-X-ENDLIST");
+
+		assertTrue(cache.isKey("http://cdn/v/720p/key1"));
+		assertTrue(cache.isKey("https://keys/v/key2"));
+		assertFalse(cache.isKey("http://cdn/v/720p/seg1.ts"));
+		assertFalse(cache.isKey("http://cdn/v/720p/index.m3u8"));
+	}
+
+	@Test
+	public void diskTierServesSeekBackAndRecreate() throws IOException {
+		// larger than the memory tier takes
+		assertRangeReadOnce(100000, 256*1024);
+	}
+
+	@Test
+	public void memoryTierServesSeekBackAndRecreate() throws IOException {
+		// ex. an initialization segment
+		assertRangeReadOnce(0, 1024);
+	}
+
+	/**
+	 * Reads a range three times: first, seeking back with the same source, then with the source
+	 * of a recreated player.
+	 */
+	private void assertRangeReadOnce(int position, int length) throws IOException {
+		final MediaDataCache cache = new MediaDataCache(dir);
+		final DataSpec dataSpec = new DataSpec(Uri.parse(startServer() + "/v/video.mp4"), position, length, null);
+		final byte[] expected = Arrays.copyOfRange(getMedia(), position, position + length);
+
+		UriDataSource source = cache.createDataSource(RuntimeEnvironment.application, null, "test");
+
+		assertArrayEquals(expected, read(source, dataSpec));
+		assertEquals(length, cache.getNetworkBytes());
+		assertEquals(0, cache.getCachedBytes());
+
+		assertArrayEquals(expected, read(source, dataSpec));
+		assertEquals(length, cache.getNetworkBytes());
+		assertEquals(length, cache.getCachedBytes());
+
+		source = cache.createDataSource(RuntimeEnvironment.application, null, "test");
+
+		assertArrayEquals(expected, read(source, dataSpec));
+		assertEquals(length, cache.getNetworkBytes());
+		assertEquals(2*length, cache.getCachedBytes());
+		assertEquals(1, requests.get());
+	}
+
+	/**
+	 * Serves ranges of a media.
+	 * @return Base URL
+	 */
+	private String startServer() throws IOException {
+		final byte[] media = getMedia();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v/video.mp4", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final String range = exchange.getRequestHeaders().getFirst("Range");
+				int from = 0;
+				int to = media.length - 1;
+
+				requests.incrementAndGet();
+
+				if (range != null) {
+					final String[] bounds = range.substring(6).split("-", -1);
+
+					from = Integer.parseInt(bounds[0]);
+
+					if (!bounds[1].isEmpty())
+						to = Math.min(to, Integer.parseInt(bounds[1]));
+
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + media.length);
+				}
+
+				exchange.sendResponseHeaders(range != null ? 206 : 200, to - from + 1);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				out.write(media, from, to - from + 1);
+				out.close();
+			}
+		});
+		server.start();
+
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private static byte[] getMedia() {
+		final byte[] media = new byte[MEDIA_SIZE];
+
+		for (int i = 0; i < media.length; ++i)
+			media[i] = (byte) (i*31);
+
+		return media;
+	}
+
+	private static byte[] read(UriDataSource source, DataSpec dataSpec) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[16*1024];
+
+		try {
+			source.open(dataSpec);
+
+			for (int n; (n = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT;)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			source.close();
+		}
+
+		return out.toByteArray();
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+
+		if (files != null)
+			for (File child : files)
+				delete(child);
+
+		file.delete();
+	}
+
+	private static int countLines(File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		int count = 0;
+
+		try {
+			while (reader.readLine() != null)
+				++count;
+		}
+		finally {
+			reader.close();
+		}
+
+		return count;
+	}
+}
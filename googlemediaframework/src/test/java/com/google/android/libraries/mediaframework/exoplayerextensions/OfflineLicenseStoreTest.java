@@ -0,0 +1,224 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.media.MediaDrm;
+import android.util.Base64;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// real Base64 and a MediaDrm whose native calls do nothing (so a license response is never persistent)
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 18)
+public class OfflineLicenseStoreTest {
+
+	private static final String CONTENT_ID = "content";
+	private static final byte[] KEY_SET_ID = {1, 2, 3};
+	private static final long MINUTE = 60*1000;
+	private static final DrmInitData.SchemeInitData INIT_DATA = new DrmInitData.SchemeInitData("video/mp4", new byte[] {4});
+
+	private File file;
+	private OfflineLicenseStore store;
+
+	/**
+	 * License requests performed.
+	 */
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile Exception error;
+	private volatile CountDownLatch response;
+
+	private final MediaDrmCallback callback = new MediaDrmCallback() {
+		@Override
+		public byte[] executeProvisionRequest(UUID uuid, MediaDrm.ProvisionRequest request) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public byte[] executeKeyRequest(UUID uuid, MediaDrm.KeyRequest request) throws Exception {
+			requests.incrementAndGet();
+
+			if (response != null)
+				response.await(5, TimeUnit.SECONDS);
+
+			if (error != null)
+				throw error;
+
+			return new byte[] {5};
+		}
+	};
+
+	@Before
+	public void setUp() {
+		file = new File(System.getProperty("java.io.tmpdir"), "licenses" + System.nanoTime());
+		store = new OfflineLicenseStore(file);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void validLicenseIsRestoredAfterRestart() {
+		store.put(CONTENT_ID, KEY_SET_ID, 2*MINUTE);
+		assertArrayEquals(KEY_SET_ID, store.get(CONTENT_ID));
+
+		assertArrayEquals(KEY_SET_ID, new OfflineLicenseStore(file).get(CONTENT_ID));
+		assertNull(store.get("other"));
+	}
+
+	@Test
+	public void licenseCloseToExpirationIsDropped() throws IOException {
+		store.putInitData(CONTENT_ID, INIT_DATA);
+		store.put(CONTENT_ID, KEY_SET_ID, MINUTE - 1000);
+
+		assertNull(store.get(CONTENT_ID));
+		assertNull(new OfflineLicenseStore(file).get(CONTENT_ID));
+
+		// the initialization data is kept, for acquiring the next license ahead
+		assertTrue(read().contains(CONTENT_ID + "\t\t"));
+		assertTrue(read().contains(Base64.encodeToString(INIT_DATA.data, Base64.NO_WRAP)));
+	}
+
+	@Test
+	public void expiredLicenseIsNotRestored() throws IOException {
+		final long now = System.currentTimeMillis();
+
+		write(now - 2*60*MINUTE, now - MINUTE);
+		assertNull(new OfflineLicenseStore(file).get(CONTENT_ID));
+	}
+
+	@Test
+	public void licenseIsRenewedInLastQuarter() throws Exception {
+		final long now = System.currentTimeMillis();
+
+		// 30 of 100 minutes left
+		write(now - 70*MINUTE, now + 30*MINUTE);
+		store = new OfflineLicenseStore(file);
+		acquire();
+		assertEquals(0, requests.get());
+
+		// 20 of 100 minutes left, still restored meanwhile
+		write(now - 80*MINUTE, now + 20*MINUTE);
+		store = new OfflineLicenseStore(file);
+		acquire();
+		assertEquals(1, requests.get());
+		assertArrayEquals(KEY_SET_ID, store.get(CONTENT_ID));
+	}
+
+	@Test
+	public void nonPersistentLicenseMarksStreamingOnly() throws Exception {
+		assertFalse(store.isStreamingOnly(CONTENT_ID));
+		acquire();
+
+		assertEquals(1, requests.get());
+		assertTrue(store.isStreamingOnly(CONTENT_ID));
+		assertNull(store.get(CONTENT_ID));
+
+		// no further offline requests for the content
+		acquire();
+		assertEquals(1, requests.get());
+
+		// remembered for the process lifetime only
+		assertFalse(new OfflineLicenseStore(file).isStreamingOnly(CONTENT_ID));
+
+		store.clear();
+		assertFalse(store.isStreamingOnly(CONTENT_ID));
+	}
+
+	@Test
+	public void failedRequestIsNotStreamingOnly() throws Exception {
+		error = new IOException("unreachable");
+		acquire();
+		assertFalse(store.isStreamingOnly(CONTENT_ID));
+
+		// tried again on the next session
+		acquire();
+		assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void acquisitionInFlightIsShared() throws Exception {
+		final CountDownLatch done = new CountDownLatch(2);
+
+		response = new CountDownLatch(1);
+		store.acquireIfNeeded(CONTENT_ID, INIT_DATA, callback);
+		store.acquireIfNeeded(CONTENT_ID, INIT_DATA, callback);
+
+		// a session opened meanwhile waits for it
+		assertTrue(store.whenAcquired(CONTENT_ID, countDown(done)));
+		assertTrue(store.whenAcquired(CONTENT_ID, countDown(done)));
+
+		response.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, requests.get());
+		assertFalse(store.whenAcquired(CONTENT_ID, countDown(done)));
+	}
+
+	/**
+	 * Acquires the license of the content, waiting for the request (if any) to end.
+	 */
+	private void acquire() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+
+		store.acquireIfNeeded(CONTENT_ID, INIT_DATA, callback);
+
+		if (store.whenAcquired(CONTENT_ID, countDown(done)))
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Writes the license of the content as the store keeps it.
+	 */
+	private void write(long obtainedAt, long expiresAt) throws IOException {
+		final Writer writer = new FileWriter(file);
+
+		try {
+			writer.write(CONTENT_ID + '\t' + Base64.encodeToString(KEY_SET_ID, Base64.NO_WRAP) + '\t' +
+					obtainedAt + '\t' + expiresAt + '\t' + INIT_DATA.mimeType + '\t' +
+					Base64.encodeToString(INIT_DATA.data, Base64.NO_WRAP) + '\n');
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private String read() throws IOException {
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			return reader.readLine();
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+}
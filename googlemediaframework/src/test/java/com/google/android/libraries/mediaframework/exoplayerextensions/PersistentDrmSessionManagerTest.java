@@ -0,0 +1,108 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.media.MediaCrypto;
+import android.media.MediaDrm;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class PersistentDrmSessionManagerTest {
+
+	private static final String CONTENT_ID = "content";
+
+	private File file;
+	private OfflineLicenseStore store;
+	private PersistentDrmSessionManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(System.getProperty("java.io.tmpdir"), "licenses" + System.nanoTime());
+		store = new OfflineLicenseStore(file);
+
+		// a persisted license, so that opening a session restores its keys right away
+		store.put(CONTENT_ID, new byte[] {1}, 60*60*1000);
+
+		manager = new PersistentDrmSessionManager(new MediaDrm(ExoplayerUtil.WIDEVINE_UUID), store, null, null,
+				CONTENT_ID, null, null);
+	}
+
+	@After
+	public void tearDown() {
+		manager.release();
+		file.delete();
+	}
+
+	@Test
+	public void reusesKeptAliveSessionForSameContent() {
+		manager.open(initData(1));
+		assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, manager.getState());
+
+		final MediaCrypto mediaCrypto = manager.getMediaCrypto();
+
+		// the renderers of a reload release the session before the new ones open it
+		manager.close();
+		assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, manager.getState());
+
+		manager.open(initData(1));
+		assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, manager.getState());
+		assertSame(mediaCrypto, manager.getMediaCrypto());
+	}
+
+	@Test
+	public void closesKeptAliveSessionForOtherContent() {
+		manager.open(initData(1));
+
+		final MediaCrypto mediaCrypto = manager.getMediaCrypto();
+
+		manager.close();
+		manager.open(initData(2));
+
+		// a session of its own, with the keys restored again
+		assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, manager.getState());
+		assertNotSame(mediaCrypto, manager.getMediaCrypto());
+	}
+
+	@Test
+	public void sharedUntilLastClose() {
+		manager.open(initData(1));
+
+		final MediaCrypto mediaCrypto = manager.getMediaCrypto();
+
+		// audio and video renderers
+		manager.open(initData(1));
+		manager.close();
+
+		assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, manager.getState());
+		assertSame(mediaCrypto, manager.getMediaCrypto());
+	}
+
+	@Test
+	public void sessionWithoutKeysIsNotKeptAlive() {
+		store.remove(CONTENT_ID);
+		manager.open(initData(1));
+
+		// waiting for the license
+		assertEquals(DrmSessionManager.STATE_OPENED, manager.getState());
+
+		manager.close();
+		assertEquals(DrmSessionManager.STATE_CLOSED, manager.getState());
+	}
+
+	private static DrmInitData initData(final int pssh) {
+		return new DrmInitData() {
+			@Override
+			public SchemeInitData get(UUID schemeUuid) {
+				return new SchemeInitData("video/mp4", new byte[] {(byte) pssh});
+			}
+		};
+	}
+}
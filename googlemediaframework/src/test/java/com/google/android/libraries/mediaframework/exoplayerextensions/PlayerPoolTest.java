@@ -0,0 +1,184 @@
+package com.google.android.libraries.mediaframework.exoplayerextensions;
+
+import android.content.Context;
+
+import com.google.android.exoplayer.ExoPlaybackException;
+import com.google.android.exoplayer.ExoPlayer;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PlayerPoolTest {
+
+	private static final ExoplayerWrapper.RendererBuilder NO_RENDERERS = new ExoplayerWrapper.RendererBuilder() {
+		@Override
+		public void buildRenderers(ExoplayerWrapper player) {}
+
+		@Override
+		public void cancel() {}
+	};
+
+	private final List<ExoplayerWrapper> created = new ArrayList<>();
+	private final Map<ExoplayerWrapper, FakePlayer> fakes = new IdentityHashMap<>();
+	private final PlayerPool pool = new PlayerPool(new PlayerPool.PlayerFactory() {
+		@Override
+		public ExoplayerWrapper create(Context context, Video video) {
+			if (video.getVideoType() == Video.VideoType.OTHER)
+				return null;
+
+			final FakePlayer fake = new FakePlayer();
+			final ExoplayerWrapper player = new ExoplayerWrapper(NO_RENDERERS, (ExoPlayer) Proxy.newProxyInstance(
+					ExoPlayer.class.getClassLoader(), new Class<?>[] {ExoPlayer.class}, fake));
+
+			created.add(player);
+			fakes.put(player, fake);
+			return player;
+		}
+	});
+
+	@Test
+	public void keySeparatesSetups() {
+		pool.setSize(4);
+		assertTrue(pool.prebuffer(null, hls("a"), 5000));
+
+		// prepared once per setup
+		assertTrue(pool.prebuffer(null, hls("a"), 5000));
+		assertEquals(1, created.size());
+		assertTrue(pool.contains(hls("a")));
+
+		// renderers are built for the type and ABR strategy, DRM sessions aren't shared
+		assertFalse(pool.contains(new Video("a", Video.VideoType.DASH)));
+		assertFalse(pool.contains(new Video("a", Video.VideoType.HLS, null, HybridAbrStrategy.FACTORY)));
+		assertNull(pool.acquire(new Video("a", Video.VideoType.HLS, new DrmRequest("http://license"))));
+		assertFalse(pool.contains(hls("b")));
+	}
+
+	@Test
+	public void unsupportedVideosAreNotPrepared() {
+		assertFalse(pool.prebuffer(null, new Video("a", Video.VideoType.HLS, new DrmRequest("http://license")), 5000));
+		assertFalse(pool.prebuffer(null, hls(null), 5000));
+		assertFalse(pool.prebuffer(null, new Video("a", Video.VideoType.OTHER), 5000));
+		assertFalse(pool.contains(new Video("a", Video.VideoType.OTHER)));
+
+		pool.setSize(0);
+		assertFalse(pool.prebuffer(null, hls("a"), 5000));
+		assertEquals(0, created.size());
+	}
+
+	@Test
+	public void trimReleasesLeastRecentlyPrepared() {
+		pool.setSize(2);
+		pool.prebuffer(null, hls("a"), 5000);
+		pool.prebuffer(null, hls("b"), 5000);
+		pool.prebuffer(null, hls("c"), 5000);
+
+		assertReleased(true, false, false);
+		assertFalse(pool.contains(hls("a")));
+
+		pool.setSize(1);
+		assertReleased(true, true, false);
+		assertTrue(pool.contains(hls("c")));
+
+		pool.setSize(0);
+		assertReleased(true, true, true);
+	}
+
+	@Test
+	public void retainReleasesOthers() {
+		pool.setSize(3);
+		pool.prebuffer(null, hls("a"), 5000);
+		pool.prebuffer(null, hls("b"), 5000);
+		pool.prebuffer(null, hls("c"), 5000);
+
+		pool.retain(hls("b"), hls("d"));
+		assertReleased(true, false, true);
+		assertTrue(pool.contains(hls("b")));
+
+		pool.clear();
+		assertReleased(true, true, true);
+	}
+
+	@Test
+	public void acquireTakesOverPlayer() {
+		pool.prebuffer(null, hls("a"), 5000);
+
+		final ExoplayerWrapper player = pool.acquire(hls("a"));
+
+		assertSame(created.get(0), player);
+		assertFalse(pool.contains(hls("a")));
+		assertNull(pool.acquire(hls("a")));
+
+		// no longer watched by the pool
+		player.onPlayerError(new ExoPlaybackException("failed"));
+		pool.clear();
+		assertReleased(false);
+	}
+
+	@Test
+	public void failedPlayerIsDropped() {
+		pool.prebuffer(null, hls("a"), 5000);
+		created.get(0).onPlayerError(new ExoPlaybackException("failed"));
+
+		assertReleased(true);
+		assertFalse(pool.contains(hls("a")));
+
+		// prepared again on request
+		assertTrue(pool.prebuffer(null, hls("a"), 5000));
+		assertEquals(2, created.size());
+	}
+
+	private void assertReleased(boolean... released) {
+		assertEquals(released.length, created.size());
+
+		for (int i = 0; i < released.length; ++i)
+			assertEquals("player " + i, released[i], fakes.get(created.get(i)).released);
+	}
+
+	private static Video hls(String url) {
+		return new Video(url, Video.VideoType.HLS);
+	}
+
+	/**
+	 * Player doing nothing but recording its release.
+	 */
+	private static final class FakePlayer implements InvocationHandler {
+		boolean released;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+				case "release":
+					released = true;
+					return null;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return "FakePlayer";
+			}
+
+			final Class<?> type = method.getReturnType();
+
+			if (type == boolean.class)
+				return false;
+
+			if (type == int.class)
+				return 0;
+
+			if (type == long.class)
+				return 0L;
+
+			return null;
+		}
+	}
+}
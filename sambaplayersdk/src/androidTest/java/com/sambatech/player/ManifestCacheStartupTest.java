@@ -0,0 +1,112 @@
+package com.sambatech.player;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.libraries.mediaframework.exoplayerextensions.ExoplayerUtil;
+import com.google.android.libraries.mediaframework.exoplayerextensions.ExoplayerWrapper;
+import com.google.android.libraries.mediaframework.exoplayerextensions.HlsRendererBuilder;
+import com.google.android.libraries.mediaframework.exoplayerextensions.ManifestCache;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Time from <code>prepare()</code> to the renderers of an HLS player, fetching and parsing the master
+ * playlist (cold) against taking it from the manifest cache (as a recreated or prefetched player does).
+ * Needs network access: plays a public HLS stream.
+ */
+public class ManifestCacheStartupTest extends ActivityInstrumentationTestCase2<Activity> {
+
+	private static final String URL = "https://devstreaming-cdn.apple.com/videos/streaming/examples/bipbop_4x3/bipbop_4x3_variant.m3u8";
+	private static final int RUNS = 5;
+	private static final long TIMEOUT = 30000;
+
+	public ManifestCacheStartupTest() {
+		super(Activity.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ManifestCache.getInstance().clear();
+		super.tearDown();
+	}
+
+	public void testColdVersusCached() {
+		final long[] cold = new long[RUNS];
+		final long[] cached = new long[RUNS];
+
+		for (int i = 0; i < RUNS; ++i) {
+			ManifestCache.getInstance().clear();
+			cold[i] = measure();
+
+			// kept by the cold player
+			cached[i] = measure();
+		}
+
+		Arrays.sort(cold);
+		Arrays.sort(cached);
+		Log.i(getClass().getSimpleName(), String.format(Locale.US,
+				"Time to renderers (median of %d): cold %d ms, cached %d ms", RUNS, cold[RUNS/2], cached[RUNS/2]));
+
+		assertTrue(cold[0] >= 0);
+		assertTrue(cached[0] >= 0);
+	}
+
+	/**
+	 * @return Time to renderers in milliseconds
+	 */
+	private long measure() {
+		final Activity activity = getActivity();
+		final TimedPlayer[] player = new TimedPlayer[1];
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player[0] = new TimedPlayer(new HlsRendererBuilder(activity,
+						ExoplayerUtil.getUserAgent(activity), URL));
+				player[0].start = SystemClock.elapsedRealtime();
+				player[0].prepare();
+			}
+		});
+
+		final long end = SystemClock.elapsedRealtime() + TIMEOUT;
+
+		while (player[0].time == -1 && SystemClock.elapsedRealtime() < end)
+			SystemClock.sleep(5);
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player[0].release();
+			}
+		});
+
+		if (player[0].time == -1)
+			fail("Timed out");
+
+		return player[0].time;
+	}
+
+	/**
+	 * Player recording when its renderers are built.
+	 */
+	private static final class TimedPlayer extends ExoplayerWrapper {
+		long start;
+		volatile long time = -1;
+
+		TimedPlayer(RendererBuilder rendererBuilder) {
+			super(rendererBuilder);
+		}
+
+		@Override
+		public void onRenderers(TrackRenderer[] renderers, BandwidthMeter bandwidthMeter) {
+			time = SystemClock.elapsedRealtime() - start;
+			super.onRenderers(renderers, bandwidthMeter);
+		}
+	}
+}
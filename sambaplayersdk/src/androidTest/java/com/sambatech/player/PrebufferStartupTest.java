@@ -0,0 +1,160 @@
+package com.sambatech.player;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.ManifestCache;
+import com.sambatech.player.model.SambaMedia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Time to first frame of a player created cold against one whose media was prepared ahead
+ * by <code>prebuffer</code> (warm). Needs network access: plays a public HLS stream.
+ */
+public class PrebufferStartupTest extends ActivityInstrumentationTestCase2<Activity> {
+
+	private static final String URL = "https://devstreaming-cdn.apple.com/videos/streaming/examples/bipbop_4x3/gear%d/prog_index.m3u8";
+	private static final int RUNS = 5;
+	private static final long PREBUFFER_TIME = 5000;
+	private static final long TIMEOUT = 30000;
+
+	private SambaPlayer player;
+
+	public PrebufferStartupTest() {
+		super(Activity.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		destroy();
+		SambaPlayer.setPrebufferConfig(0, 0, 0);
+		super.tearDown();
+	}
+
+	public void testColdVersusWarm() {
+		final long[] cold = new long[RUNS];
+		final long[] warm = new long[RUNS];
+
+		SambaPlayer.setPrebufferConfig(1, PREBUFFER_TIME/1000f, 1);
+
+		// distinct outputs, so that no run finds the other's data in a cache
+		for (int i = 0; i < RUNS; ++i) {
+			cold[i] = measure(false, 1);
+			warm[i] = measure(true, 2);
+		}
+
+		Arrays.sort(cold);
+		Arrays.sort(warm);
+		Log.i(getClass().getSimpleName(), String.format(Locale.US,
+				"Time to first frame (median of %d): cold %d ms, warm %d ms", RUNS, cold[RUNS/2], warm[RUNS/2]));
+
+		assertTrue(cold[0] >= 0);
+		assertTrue(warm[0] >= 0);
+	}
+
+	/**
+	 * @param warm Whether the media is prebuffered before the player is created
+	 * @return Time to first frame in milliseconds
+	 */
+	private long measure(boolean warm, int output) {
+		final Activity activity = getActivity();
+		final SambaMedia media = createMedia(output);
+
+		destroy();
+
+		// the pool is all a warm player gets ahead
+		ManifestCache.getInstance().clear();
+
+		if (warm) {
+			SambaPlayer.prebuffer(activity, Arrays.asList(createMedia(0), media), 0);
+
+			// the time a user would spend on the visible media
+			SystemClock.sleep(PREBUFFER_TIME);
+		}
+		else SambaPlayer.prebuffer(activity, Collections.<SambaMedia>emptyList(), 0);
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player = new SambaPlayer(activity, null);
+				activity.setContentView(player);
+				player.setMedia(media);
+				player.play();
+			}
+		});
+
+		waitFor(new Condition() {
+			@Override
+			public boolean isMet() {
+				return player.getTimeToFirstFrame() != -1;
+			}
+		});
+
+		final long[] time = new long[1];
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				time[0] = player.getTimeToFirstFrame();
+			}
+		});
+
+		return time[0];
+	}
+
+	private void destroy() {
+		if (player == null)
+			return;
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player.destroy();
+				player = null;
+			}
+		});
+	}
+
+	private static SambaMedia createMedia(int output) {
+		final SambaMedia media = new SambaMedia();
+
+		media.type = "hls";
+		media.url = String.format(Locale.US, URL, output);
+		media.outputs = new ArrayList<>();
+		return media;
+	}
+
+	/**
+	 * Polls a condition on the main thread.
+	 */
+	private void waitFor(final Condition condition) {
+		final long end = SystemClock.elapsedRealtime() + TIMEOUT;
+		final boolean[] met = new boolean[1];
+
+		while (SystemClock.elapsedRealtime() < end) {
+			getInstrumentation().runOnMainSync(new Runnable() {
+				@Override
+				public void run() {
+					met[0] = condition.isMet();
+				}
+			});
+
+			if (met[0])
+				return;
+
+			SystemClock.sleep(20);
+		}
+
+		fail("Timed out");
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+}
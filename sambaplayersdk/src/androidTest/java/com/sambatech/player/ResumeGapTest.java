@@ -0,0 +1,153 @@
+package com.sambatech.player;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.sambatech.player.model.SambaMedia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Resume gap of a reload into the same player against destroying it and creating another
+ * (the path before the reload). Needs network access: plays a public HLS stream.
+ */
+public class ResumeGapTest extends ActivityInstrumentationTestCase2<Activity> {
+
+	private static final String URL = "https://devstreaming-cdn.apple.com/videos/streaming/examples/bipbop_4x3/gear%d/prog_index.m3u8";
+	private static final int RUNS = 5;
+	private static final long TIMEOUT = 30000;
+
+	private SambaPlayer player;
+
+	public ResumeGapTest() {
+		super(Activity.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final Activity activity = getActivity();
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				final SambaMedia media = new SambaMedia();
+
+				media.type = "hls";
+				media.url = getUrl(1);
+				media.outputs = new ArrayList<>();
+
+				player = new SambaPlayer(activity, null);
+				activity.setContentView(player);
+				player.setMedia(media);
+				player.play();
+			}
+		});
+
+		waitFor(new Condition() {
+			@Override
+			public boolean isMet() {
+				return player.getTimeToFirstFrame() != -1;
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player.destroy();
+			}
+		});
+
+		super.tearDown();
+	}
+
+	public void testReloadInPlaceVersusRecreate() {
+		final long[] inPlace = new long[RUNS];
+		final long[] recreated = new long[RUNS];
+
+		// switches between both outputs, alternating the paths
+		for (int i = 0; i < RUNS; ++i) {
+			inPlace[i] = measure(true, 2);
+			recreated[i] = measure(false, 1);
+		}
+
+		Arrays.sort(inPlace);
+		Arrays.sort(recreated);
+		Log.i(getClass().getSimpleName(), String.format(Locale.US,
+				"Resume gap (median of %d): in place %d ms, recreated %d ms", RUNS, inPlace[RUNS/2], recreated[RUNS/2]));
+
+		assertTrue(inPlace[0] >= 0);
+		assertTrue(recreated[0] >= 0);
+	}
+
+	/**
+	 * @return Resume gap of an output change in milliseconds
+	 */
+	private long measure(final boolean inPlace, final int output) {
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				player.getMedia().url = getUrl(output);
+				player.recreate(inPlace);
+			}
+		});
+
+		waitFor(new Condition() {
+			@Override
+			public boolean isMet() {
+				return player.getResumeGap() != -1;
+			}
+		});
+
+		final long[] gap = new long[1];
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				gap[0] = player.getResumeGap();
+			}
+		});
+
+		return gap[0];
+	}
+
+	private static String getUrl(int output) {
+		return String.format(Locale.US, URL, output);
+	}
+
+	/**
+	 * Polls a condition on the main thread.
+	 */
+	private void waitFor(final Condition condition) {
+		final long end = SystemClock.elapsedRealtime() + TIMEOUT;
+		final boolean[] met = new boolean[1];
+
+		while (SystemClock.elapsedRealtime() < end) {
+			getInstrumentation().runOnMainSync(new Runnable() {
+				@Override
+				public void run() {
+					met[0] = condition.isMet();
+				}
+			});
+
+			if (met[0])
+				return;
+
+			SystemClock.sleep(20);
+		}
+
+		fail("Timed out");
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+}
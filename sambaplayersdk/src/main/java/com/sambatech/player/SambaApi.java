@@ -1,31 +1,45 @@
 package com.sambatech.player;
 
 import android.app.Activity;
-import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import com.google.android.libraries.mediaframework.exoplayerextensions.DrmRequest;
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+import com.google.android.libraries.mediaframework.exoplayerextensions.OfflineLicenseStore;
 import com.sambatech.player.event.SambaApiCallback;
+import com.sambatech.player.model.AdsSettings;
 import com.sambatech.player.model.SambaMedia;
 import com.sambatech.player.model.SambaMediaConfig;
 import com.sambatech.player.model.SambaMediaRequest;
+import com.sambatech.player.utils.Base64UrlInputStream;
 import com.sambatech.player.utils.Helpers;
+import com.sambatech.player.utils.MediaCache;
 
-import org.jose4j.base64url.internal.apache.commons.codec.binary.Base64;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages media data request from server.
@@ -36,12 +50,40 @@ public class SambaApi {
 
 	private Activity activity;
 	private String accessToken;
+	private String endpoint;
+	private MediaCache cache;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private volatile long lastResponseTime = -1;
+
+	/**
+	 * Bounded pool shared by every media request (AsyncTask's default executor is serial)
+	 */
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4,
+			30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	/**
+	 * Callbacks waiting for each request in flight (main thread only)
+	 */
+	private static final HashMap<String, List<SambaApiCallback>> inFlight = new HashMap<>();
+
+	private static volatile int requestTimeout = 15000;
+
+	static {
+		executor.allowCoreThreadTimeOut(true);
+	}
 
 	/**
 	 * Output map
 	 */
 	private static final Map<String, Integer> outputMap = new HashMap<>();
 
+	/**
+	 * Top level keys read by <code>parseMedia</code>, any other is skipped while streaming
+	 */
+	private static final Set<String> MEDIA_KEYS = new HashSet<>(Arrays.asList("qualifier", "title", "id",
+			"categoryId", "project", "playerConfig", "apiConfig", "playerSecurity", "advertisings",
+			"deliveryRules", "liveOutput", "thumbnails", "captions"));
+
 	static {
 		outputMap.put("_raw", -1);
 		outputMap.put("abr", 0);
@@ -64,14 +106,148 @@ public class SambaApi {
 		this.accessToken = accessToken;
 	}
 
+	/**
+	 * SambaApi constructor of its own endpoint and cache (ex. tests against a local server).
+	 *
+	 * @param activity Reference to the current Activity
+	 * @param endpoint Base URL used instead of the environment's one
+	 * @param cache Media cache used instead of the shared one
+	 */
+	SambaApi(Activity activity, String endpoint, MediaCache cache) {
+		this.activity = activity;
+		this.endpoint = endpoint;
+		this.cache = cache;
+	}
+
 	/**
 	 * Requests a media from server.
 	 *
 	 * @param request Request data
 	 * @param callback Listener for server media response
 	 */
-	public void requestMedia(SambaMediaRequest request, SambaApiCallback callback) {
-		new RequestMediaTask(callback).execute(request);
+	public void requestMedia(final SambaMediaRequest request, final SambaApiCallback callback) {
+		final MediaCache.Entry entry = getCache().get(request);
+
+		if (entry == null) {
+			execute(request, callback, false);
+			return;
+		}
+
+		final long startTime = SystemClock.elapsedRealtime();
+
+		// served from memory, keeping the callback asynchronous
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				lastResponseTime = SystemClock.elapsedRealtime() - startTime;
+				callback.onMediaResponse(copyMedia(entry.media));
+			}
+		});
+
+		if (getCache().getState(request, entry.time) == MediaCache.State.STALE)
+			revalidate(request);
+	}
+
+	/**
+	 * Starts acquiring the DRM license of a media ahead of its playback (overlapping the manifest fetch),
+	 * if a license of it was seen before.
+	 * Must be called once its DRM request is complete (ex. authorization params added),
+	 * later changes to it are not seen by the acquisition.
+	 *
+	 * @param media The media (as received by <code>onMediaResponse</code>)
+	 */
+	public void prefetchLicense(SambaMedia media) {
+		if (Build.VERSION.SDK_INT >= 18 && media instanceof SambaMediaConfig &&
+				((SambaMediaConfig) media).drmRequest != null)
+			OfflineLicenseStore.getInstance(activity).prefetch(((SambaMediaConfig) media).drmRequest);
+	}
+
+	/**
+	 * Time from the latest media request (by this instance) to its <code>onMediaResponse</code>
+	 * (for a request joining another in flight, from the start of the latter).
+	 *
+	 * @return Time in milliseconds or -1 if no media has been delivered yet
+	 */
+	public long getLastResponseTime() {
+		return lastResponseTime;
+	}
+
+	/**
+	 * Retrieves the media metadata cache (hit/miss metrics, TTL configuration).
+	 *
+	 * @return The cache
+	 */
+	public MediaCache getCache() {
+		return cache != null ? cache : MediaCache.getInstance(activity);
+	}
+
+	/**
+	 * Refreshes a stale cache entry in background (no callback).
+	 */
+	private void revalidate(SambaMediaRequest request) {
+		execute(request, null, true);
+	}
+
+	/**
+	 * Runs a request on the shared executor, joining an identical one already in flight if any.
+	 * Must be called from the main thread.
+	 */
+	private void execute(SambaMediaRequest request, SambaApiCallback callback, boolean skipCache) {
+		final String key = MediaCache.getKey(request);
+		List<SambaApiCallback> callbacks = inFlight.get(key);
+
+		if (callbacks != null) {
+			if (callback != null)
+				callbacks.add(callback);
+
+			return;
+		}
+
+		callbacks = new ArrayList<>();
+
+		if (callback != null)
+			callbacks.add(callback);
+
+		inFlight.put(key, callbacks);
+		new RequestMediaTask(key, skipCache).executeOnExecutor(executor, request);
+	}
+
+	/**
+	 * Cached medias are shared, so every response gets its own copy (and tracking session).
+	 * Members apps or the player mutate (DRM params, outputs, etc.) are copied too,
+	 * so that changes made to a response never reach the cache or other responses.
+	 */
+	private static SambaMediaConfig copyMedia(SambaMediaConfig media) {
+		final SambaMediaConfig copy = new SambaMediaConfig(media);
+
+		copy.sessionId = Helpers.getSessionId();
+		copy.defaultOutputIndex = media.defaultOutputIndex;
+		copy.blockIfRooted = media.blockIfRooted;
+		copy.backupUrls = media.backupUrls.clone();
+		copy.adsSettings = new AdsSettings(media.adsSettings.vastLoadTimeout, media.adsSettings.maxRedirects);
+		copy.adsSettings.debugMode = media.adsSettings.debugMode;
+
+		if (media.drmRequest != null)
+			copy.drmRequest = new DrmRequest(media.drmRequest);
+
+		if (media.captions != null)
+			copy.captions = new ArrayList<>(media.captions);
+
+		if (media.outputs != null) {
+			copy.outputs = new ArrayList<>(media.outputs.size());
+
+			for (SambaMedia.Output output : media.outputs) {
+				final SambaMedia.Output o = new SambaMedia.Output();
+
+				o.url = output.url;
+				o.label = output.label;
+				o.isDefault = output.isDefault;
+				o.position = output.position;
+				copy.outputs.add(o);
+			}
+		}
+
+		return copy;
 	}
 
 	/**
@@ -81,43 +257,86 @@ public class SambaApi {
 	 * @param callback Listener for server media response
 	 */
 	public void requestMedia(final SambaMediaRequest[] requests, final SambaApiCallback callback) {
-		SambaApiCallback callbackReq = new SambaApiCallback() {
-			private int counter = 0;
-			private List<SambaMedia> mediaList = new ArrayList<>();
+		// responses are delivered as they complete, the list keeps the requests order
+		final SambaMedia[] results = new SambaMedia[requests.length];
+		final int[] counter = {0};
+
+		for (int i = 0; i < requests.length; ++i) {
+			final int index = i;
+
+			requestMedia(requests[i], new SambaApiCallback() {
+				@Override
+				public void onMediaResponse(SambaMedia media) {
+					results[index] = media;
+					callback.onMediaResponse(media);
+					checkLast();
+				}
 
-			@Override
-			public void onMediaResponse(SambaMedia media) {
-				callback.onMediaResponse(media);
-				mediaList.add(media);
-				checkLast();
-			}
+				@Override
+				public void onMediaResponseError(Exception e, SambaMediaRequest request) {
+					callback.onMediaResponseError(e, request);
+					checkLast();
+				}
 
-			@Override
-			public void onMediaResponseError(Exception e, SambaMediaRequest request) {
-				callback.onMediaResponseError(e, request);
-				checkLast();
-			}
+				private void checkLast() {
+					if (++counter[0] < requests.length)
+						return;
+
+					final List<SambaMedia> mediaList = new ArrayList<>();
+
+					for (SambaMedia media : results)
+						if (media != null)
+							mediaList.add(media);
 
-			private void checkLast() {
-				if (++counter == requests.length)
 					callback.onMediaListResponse(mediaList.toArray(new SambaMedia[mediaList.size()]));
-			}
-		};
+				}
+			});
+		}
+	}
 
-		for (SambaMediaRequest req : requests)
-			requestMedia(req, callbackReq);
+	/**
+	 * Sets how many media requests may run in parallel (shared by every instance).
+	 *
+	 * @param count Max concurrent requests
+	 */
+	public static void setMaxConcurrentRequests(int count) {
+		if (count < 1)
+			return;
+
+		// keeps core <= max at every step
+		if (count > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(count);
+			executor.setCorePoolSize(count);
+		}
+		else {
+			executor.setCorePoolSize(count);
+			executor.setMaximumPoolSize(count);
+		}
+	}
+
+	/**
+	 * Sets connect and read timeouts of each media request.
+	 *
+	 * @param millis Timeout in milliseconds (0 for none)
+	 */
+	public static void setRequestTimeout(int millis) {
+		requestTimeout = millis;
 	}
 
 	/**
 	 * Asynchronous request to the Samba Player API. Retrieves the media.
 	 */
 	private class RequestMediaTask extends AsyncTask<SambaMediaRequest, Void, SambaMedia> {
-		private final SambaApiCallback listener;
+		private final String key;
+		private final boolean skipCache;
+		private final long startTime = SystemClock.elapsedRealtime();
 		private SambaMediaRequest request;
 		private Exception exception;
+		private boolean isStale;
 
-		RequestMediaTask(SambaApiCallback listener) {
-			this.listener = listener;
+		RequestMediaTask(String key, boolean skipCache) {
+			this.key = key;
+			this.skipCache = skipCache;
 		}
 
 		@Override
@@ -126,39 +345,57 @@ public class SambaApi {
 
 			int delimiter = request.mediaId != null ? Integer.parseInt(request.mediaId.split("(?=\\d[a-zA-Z]*$)")[1].substring(0, 1)) : 0;
 
-			InputStream inputStream = null;
-			Scanner scanner = null;
-			Scanner scannerDelimited = null;
+			final MediaCache cache = getCache();
+			JsonReader reader = null;
 
 			exception = null;
 
-			try {
-				inputStream = new URL(getRequestUrl(request)).openStream();
-				scanner = new Scanner(inputStream);
-				scannerDelimited = scanner.useDelimiter("\\A");
-
-				if (scannerDelimited.hasNext()) {
-					String token = scannerDelimited.next();
-
-					token = token.substring(delimiter, token.length() - delimiter).replaceAll("-", "+").replaceAll("_", "/");
-
-					switch (token.length()%4) {
-						case 0:
-							break;
-						case 2:
-							token += "==";
-							break;
-						case 3:
-							token += "=";
-							break;
-						default:
+			if (!skipCache) {
+				final MediaCache.DiskEntry entry = cache.getFromDisk(request);
+
+				if (entry != null) {
+					try {
+						final SambaMediaConfig media = parseMedia(new JSONObject(entry.json), request);
+
+						if (media != null) {
+							cache.putMemory(request, media, entry.time);
+							isStale = cache.getState(request, entry.time) == MediaCache.State.STALE;
+							return copyMedia(media);
+						}
+					}
+					catch (JSONException e) {
+						Log.w(getClass().getSimpleName(), "Invalid cache entry", e);
 					}
+				}
+			}
+
+			cache.countMiss();
+
+			try {
+				// token is Base64-decoded as it arrives (no full copies of the payload), then tokenized into
+				// a JSONObject of the keys parseMedia reads (its fill steps depend on one another, so the
+				// media isn't filled straight from the stream)
+				// closing the reader releases the (pooled) connection
+				final HttpTransport.Response response = HttpTransport.get(getRequestUrl(request), requestTimeout);
+
+				if (!response.isSuccessful()) {
+					response.close();
+					throw new IOException("Server returned HTTP response code: " + response.getCode());
+				}
+
+				reader = new JsonReader(new InputStreamReader(new Base64UrlInputStream(
+						new BufferedInputStream(response), delimiter, delimiter), "UTF-8"));
 
-					byte[] tokenBytes = Base64.decodeBase64(token);
-					String jsonString = new String(tokenBytes);
-					JSONObject json = new JSONObject(jsonString);
+				if (reader.peek() != JsonToken.END_DOCUMENT) {
+					final JSONObject json = readObject(reader, MEDIA_KEYS);
+					final SambaMediaConfig media = parseMedia(json, request);
 
-					return parseMedia(json, request);
+					if (media != null && cache.isCacheable(request)) {
+						cache.put(request, media, json.toString());
+						return copyMedia(media);
+					}
+
+					return media;
 				}
 			}
 			catch (Exception e) {
@@ -167,14 +404,8 @@ public class SambaApi {
 			}
 			finally {
 				try {
-					if (inputStream != null)
-						inputStream.close();
-
-					if (scanner != null)
-						scanner.close();
-
-					if (scannerDelimited != null)
-						scannerDelimited.close();
+					if (reader != null)
+						reader.close();
 				}
 				catch (IOException e) {
 					exception = e;
@@ -185,25 +416,92 @@ public class SambaApi {
 			return null;
 		}
 
-		private String getRequestUrl(SambaMediaRequest request) {
-			String endpoint;
+		/**
+		 * Reads a JSON object from the stream.
+		 * @param reader Stream reader positioned at the object
+		 * @param keys Keys to keep (others are skipped without being materialized) or null for all
+		 * @return The object
+		 */
+		private JSONObject readObject(JsonReader reader, Set<String> keys) throws IOException, JSONException {
+			final JSONObject json = new JSONObject();
+			String name;
+
+			reader.beginObject();
+
+			while (reader.hasNext()) {
+				name = reader.nextName();
 
-			switch (request.environment) {
-				case LOCAL:
-					endpoint = activity.getString(R.string.player_endpoint_local);
-					break;
+				if (keys != null && !keys.contains(name)) {
+					reader.skipValue();
+					continue;
+				}
+
+				json.put(name, readValue(reader));
+			}
+
+			reader.endObject();
+			return json;
+		}
 
-				case DEV:
-					endpoint = activity.getString(R.string.player_endpoint_test);
-					break;
+		private Object readValue(JsonReader reader) throws IOException, JSONException {
+			switch (reader.peek()) {
+				case BEGIN_OBJECT:
+					return readObject(reader, null);
 
-				case STAGING:
-					endpoint = normalizeProtocol(activity.getString(R.string.player_endpoint_staging), request.protocol);
-					break;
+				case BEGIN_ARRAY:
+					final JSONArray array = new JSONArray();
+
+					reader.beginArray();
+
+					while (reader.hasNext())
+						array.put(readValue(reader));
+
+					reader.endArray();
+					return array;
+
+				case NUMBER:
+					final String n = reader.nextString();
+
+					try {
+						return Long.parseLong(n);
+					}
+					catch (NumberFormatException e) {
+						return Double.parseDouble(n);
+					}
+
+				case BOOLEAN:
+					return reader.nextBoolean();
+
+				case NULL:
+					reader.nextNull();
+					return JSONObject.NULL;
 
-				case PROD:
 				default:
-					endpoint = normalizeProtocol(activity.getString(R.string.player_endpoint_prod), request.protocol);
+					return reader.nextString();
+			}
+		}
+
+		private String getRequestUrl(SambaMediaRequest request) {
+			String endpoint = SambaApi.this.endpoint;
+
+			if (endpoint == null) {
+				switch (request.environment) {
+					case LOCAL:
+						endpoint = activity.getString(R.string.player_endpoint_local);
+						break;
+
+					case DEV:
+						endpoint = activity.getString(R.string.player_endpoint_test);
+						break;
+
+					case STAGING:
+						endpoint = normalizeProtocol(activity.getString(R.string.player_endpoint_staging), request.protocol);
+						break;
+
+					case PROD:
+					default:
+						endpoint = normalizeProtocol(activity.getString(R.string.player_endpoint_prod), request.protocol);
+				}
 			}
 
 			String url = String.format("%s%s/", endpoint, request.projectHash);
@@ -227,13 +525,28 @@ public class SambaApi {
 		 */
 		@Override
 		protected void onPostExecute(SambaMedia media) {
-			if (media == null) {
-				listener.onMediaResponseError(exception != null ? exception :
-						new Exception("Failed to load media data"), request);
+			final List<SambaApiCallback> callbacks = inFlight.remove(key);
+
+			if (isStale)
+				revalidate(request);
+
+			// background revalidation (no request joined it meanwhile)
+			if (callbacks == null || callbacks.isEmpty())
 				return;
-			}
 
-			listener.onMediaResponse(media);
+			if (media != null)
+				lastResponseTime = SystemClock.elapsedRealtime() - startTime;
+
+			for (int i = 0; i < callbacks.size(); ++i) {
+				if (media == null) {
+					callbacks.get(i).onMediaResponseError(exception != null ? exception :
+							new Exception("Failed to load media data"), request);
+					continue;
+				}
+
+				// joined requests get their own copy
+				callbacks.get(i).onMediaResponse(i == 0 ? media : copyMedia((SambaMediaConfig) media));
+			}
 		}
 
 		/**
@@ -241,7 +554,7 @@ public class SambaApi {
 		 * @param json Json Response
 		 * @return Samba Media object
 		 */
-		private SambaMedia parseMedia(JSONObject json, SambaMediaRequest request) {
+		private SambaMediaConfig parseMedia(JSONObject json, SambaMediaRequest request) {
 			try {
 				String qualifier = json.getString("qualifier").toLowerCase();
 
@@ -290,13 +603,15 @@ public class SambaApi {
 			return null;
 		}
 
-		private void fillThumb(JSONObject json, SambaMediaRequest request, SambaMediaConfig media) throws JSONException, IOException {
+		/**
+		 * Only the URL is kept, image is loaded on demand (<code>ThumbnailLoader</code>)
+		 * so that the response isn't held by a download.
+		 */
+		private void fillThumb(JSONObject json, SambaMediaRequest request, SambaMediaConfig media) throws JSONException {
 			JSONArray thumbs = json.optJSONArray("thumbnails");
 
-			if (thumbs != null && thumbs.length() > 0 && !thumbs.getJSONObject(0).isNull("url")) {
-				media.thumb = Drawable.createFromStream(new URL(normalizeProtocol(
-						thumbs.getJSONObject(0).getString("url"), request.protocol)).openStream(), "Thumbnail");
-			}
+			if (thumbs != null && thumbs.length() > 0 && !thumbs.getJSONObject(0).isNull("url"))
+				media.thumbUrl = normalizeProtocol(thumbs.getJSONObject(0).getString("url"), request.protocol);
 		}
 
 		private void fillAds(SambaMediaConfig media, JSONArray ads) throws JSONException {
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.MediaRouteButton;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
@@ -32,6 +33,10 @@ import com.google.android.gms.cast.framework.media.RemoteMediaClient;
 import com.google.android.gms.common.api.ResultCallbacks;
 import com.google.android.gms.common.api.Status;
 import com.google.android.libraries.mediaframework.exoplayerextensions.ExoplayerWrapper;
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+import com.google.android.libraries.mediaframework.exoplayerextensions.ManifestCache;
+import com.google.android.libraries.mediaframework.exoplayerextensions.MediaDataCache;
+import com.google.android.libraries.mediaframework.exoplayerextensions.PlayerPool;
 import com.google.android.libraries.mediaframework.exoplayerextensions.UnsupportedDrmException;
 import com.google.android.libraries.mediaframework.exoplayerextensions.Video;
 import com.google.android.libraries.mediaframework.layeredvideo.PlaybackControlLayer;
@@ -43,6 +48,8 @@ import com.sambatech.player.cast.CastObject;
 import com.sambatech.player.cast.CastOptionsProvider;
 import com.sambatech.player.cast.CastQuery;
 import com.sambatech.player.cast.SambaCast;
+import com.sambatech.player.event.ProgressEvent;
+import com.sambatech.player.event.ResizeEvent;
 import com.sambatech.player.event.SambaCastListener;
 import com.sambatech.player.event.SambaEvent;
 import com.sambatech.player.event.SambaEventBus;
@@ -53,15 +60,15 @@ import com.sambatech.player.model.SambaPlayerError;
 import com.sambatech.player.plugins.Captions;
 import com.sambatech.player.plugins.PluginManager;
 import com.sambatech.player.utils.Helpers;
+import com.sambatech.player.utils.PlaybackClock;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -87,7 +94,7 @@ public class SambaPlayer extends FrameLayout {
 
 	                        initOutputMenu();
 	                        destroyError();
-                            SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.START));
+                            eventBus.post(new SambaEvent(SambaPlayerListener.EventType.START));
 
 	                        // show controls
 							player.show();
@@ -124,7 +131,7 @@ public class SambaPlayer extends FrameLayout {
 					stopProgressTimer();
 					pause();
 					seek(0);
-					SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.FINISH));
+					eventBus.post(new SambaEvent(SambaPlayerListener.EventType.FINISH));
 					_hasFinished = true;
 					player.hideLoading();
 					break;
@@ -135,24 +142,22 @@ public class SambaPlayer extends FrameLayout {
 					// buffering timeout
 					final AtomicInteger secs = new AtomicInteger(20);
 
-					errorTimer = new Timer();
-					errorTimer.scheduleAtFixedRate(new TimerTask() {
+					errorTask = new PlaybackClock.Task() {
 						@Override
-						public void run() {
-							((Activity) getContext()).runOnUiThread(new Runnable() {
-								@Override
-								public void run() {
-									// on buffer timeout disable ABR (sets to lower)
-									if (secs.get() == 0) {
-										stopErrorTimer();
-										_initialOutput = 0;
-									}
-
-									secs.decrementAndGet();
-								}
-							});
+						public boolean onTick() {
+							// on buffer timeout disable ABR (sets to lower)
+							if (secs.get() == 0) {
+								errorTask = null;
+								_initialOutput = 0;
+								return false;
+							}
+
+							secs.decrementAndGet();
+							return true;
 						}
-					}, 0, 1000);
+					};
+
+					PlaybackClock.getInstance().schedule(errorTask, 1000);
 					break;
 			}
 		}
@@ -169,9 +174,17 @@ public class SambaPlayer extends FrameLayout {
 				_initialTime = getCurrentTime();
 
 			// misalignment
-			if (isBehindLiveWindowException)
+			if (isBehindLiveWindowException) {
 				_initialOutput = player.getTrackCount(ExoplayerWrapper.TYPE_VIDEO) - 1;
 
+				// possible network or streaming instability (misalignment, holes, etc.), try to recover
+				// reloading the stream into the same player
+				recreate();
+				dispatchError(SambaPlayerError.unknown.setValues(SambaPlayerError.unknown.getCode(),
+						"Instabilidade na rede ou no envio de dados.", SambaPlayerError.Severity.minor, e));
+				return;
+			}
+
 			_initialFullscreen = player.isFullscreen();
 
 			destroyInternal();
@@ -181,23 +194,14 @@ public class SambaPlayer extends FrameLayout {
 				msg = String.format("Você não tem permissão para %s", media.isAudioOnly ? "ouvir este áudio." : "assistir este vídeo.");
 				severity = SambaPlayerError.Severity.critical;
 			}
-			// possible network or streaming instability (misalignment, holes, etc.), try to recover
-			else if (isBehindLiveWindowException) {
-				msg = "Instabilidade na rede ou no envio de dados.";
-				severity = SambaPlayerError.Severity.minor;
-				create(false);
-			}
 			// URL not found
 			else if (Helpers.isNetworkAvailable(getContext())) {
 				msg = "Conectando...";
 				severity = SambaPlayerError.Severity.info;
 
 				try {
-					final HttpURLConnection con = (HttpURLConnection) new URL(String.format("%s://www.google.com",
-                            media.request.protocol)).openConnection();
-
-					con.setConnectTimeout(1000);
-                    con.setReadTimeout(1000);
+					final HttpURLConnection con = HttpTransport.open(String.format("%s://www.google.com",
+                            media.request.protocol), 1000);
 
 					Helpers.requestUrl(con, new Helpers.RequestCallback() {
 						@Override
@@ -241,27 +245,26 @@ public class SambaPlayer extends FrameLayout {
 
 				stopErrorTimer();
 
-				errorTimer = new Timer();
-				errorTimer.scheduleAtFixedRate(new TimerTask() {
+				errorTask = new PlaybackClock.Task() {
 					@Override
-					public void run() {
-						((Activity) getContext()).runOnUiThread(new Runnable() {
-							@Override
-							public void run() {
-								if (secs.get() == 0) {
-									stopErrorTimer();
-									create(false);
-								}
-
-								dispatchError(SambaPlayerError.unknown.setValues(SambaPlayerError.unknown.getCode(),
-										secs.get() > 0 ? String.format("Reconectando em %ss", secs) : "Conectando...",
-										SambaPlayerError.Severity.info, e, R.drawable.ic_nosignal_disable));
-
-								secs.decrementAndGet();
-							}
-						});
+					public boolean onTick() {
+						final boolean isDone = secs.get() == 0;
+
+						if (isDone) {
+							errorTask = null;
+							create(false);
+						}
+
+						dispatchError(SambaPlayerError.unknown.setValues(SambaPlayerError.unknown.getCode(),
+								secs.get() > 0 ? String.format("Reconectando em %ss", secs) : "Conectando...",
+								SambaPlayerError.Severity.info, e, R.drawable.ic_nosignal_disable));
+
+						secs.decrementAndGet();
+						return !isDone;
 					}
-				}, 0, 1000);
+				};
+
+				PlaybackClock.getInstance().schedule(errorTask, 1000);
 				return;
 			}
 
@@ -272,8 +275,7 @@ public class SambaPlayer extends FrameLayout {
 		@Override
 		public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
 			//Log.i("SambaPlayer", unappliedRotationDegrees+" "+width + " " + height);
-			SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.RESIZE, width, height,
-					unappliedRotationDegrees, pixelWidthHeightRatio));
+			eventBus.post(ResizeEvent.obtain(width, height, unappliedRotationDegrees, pixelWidthHeightRatio));
 		}
 	};
 
@@ -288,22 +290,23 @@ public class SambaPlayer extends FrameLayout {
 	private final PlaybackControlLayer.FullscreenCallback fullscreenListener = new PlaybackControlLayer.FullscreenCallback() {
 		@Override
 		public void onGoToFullscreen() {
-			SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.FULLSCREEN));
+			eventBus.post(new SambaEvent(SambaPlayerListener.EventType.FULLSCREEN));
 		}
 
 		@Override
 		public void onReturnFromFullscreen() {
 			_wasAutoFS = false;
-			SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.FULLSCREEN_EXIT));
+			eventBus.post(new SambaEvent(SambaPlayerListener.EventType.FULLSCREEN_EXIT));
 		}
 	};
 
-	private final Runnable progressDispatcher = new Runnable() {
+	private final PlaybackClock.Task progressTask = new PlaybackClock.Task() {
 		@Override
-		public void run() {
-			if (player == null) return;
+		public boolean onTick() {
+			if (player == null) return false;
 
-			SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.PROGRESS, getCurrentTime(), getDuration()));
+			eventBus.post(ProgressEvent.obtain(getCurrentTime(), getDuration()));
+			return true;
 		}
 	};
 
@@ -452,10 +455,27 @@ public class SambaPlayer extends FrameLayout {
 		}
 	};
 
+	private final ExoplayerWrapper.FirstFrameListener firstFrameListener = new ExoplayerWrapper.FirstFrameListener() {
+		@Override
+		public void onFirstFrame(long timeToFirstFrameMs) {
+			if (_isRecreating) {
+				_resumeGap = SystemClock.elapsedRealtime() - _resumeStart;
+				_isRecreating = false;
+				return;
+			}
+
+			_timeToFirstFrame = timeToFirstFrameMs;
+		}
+	};
+
+	private static int _prebufferCount = PlayerPool.DEFAULT_SIZE;
+	private static long _prebufferTime = 5000;
+	private static int _prefetchCount = 3;
+
+	private final SambaEventBus.EventBus eventBus = new SambaEventBus.EventBus(SambaEventBus.getDefault());
 	private SimpleVideoPlayer player;
 	private View errorScreen;
 	private @NonNull SambaMediaConfig media = new SambaMediaConfig();
-	private Timer progressTimer;
 	private boolean _hasStarted;
 	private boolean _hasFinished;
 	private OrientationEventListener orientationEventListener;
@@ -471,7 +491,11 @@ public class SambaPlayer extends FrameLayout {
 	private float _initialTime = 0f;
 	private int _initialOutput = -1;
 	private Boolean _initialFullscreen = null;
-	private Timer errorTimer;
+	private long _timeToFirstFrame = -1;
+	private long _resumeGap = -1;
+	private long _resumeStart;
+	private boolean _isRecreating;
+	private PlaybackClock.Task errorTask;
     private int _outputOffset;
     //private boolean wasPlaying;
 
@@ -564,7 +588,7 @@ public class SambaPlayer extends FrameLayout {
 		if (player == null) return;
 
 		player.stop();
-		SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.STOP));
+		eventBus.post(new SambaEvent(SambaPlayerListener.EventType.STOP));
 	}
 
 	/**
@@ -637,6 +661,82 @@ public class SambaPlayer extends FrameLayout {
 		_autoFsMode = flag;
 	}
 
+	/**
+	 * Configures the medias prepared ahead by <code>prebuffer</code> (call before preparing any media).
+	 * @param count How many medias after the visible one are prepared (0 disables it)
+	 * @param seconds How many seconds of each media are loaded
+	 * @param prefetchCount How many medias after the visible one get their manifests prefetched (prepared ones included)
+	 */
+	public static void setPrebufferConfig(int count, float seconds, int prefetchCount) {
+		_prebufferCount = count;
+		_prebufferTime = (long)(seconds*1000);
+		_prefetchCount = Math.max(count, prefetchCount);
+		PlayerPool.getInstance().setSize(count);
+	}
+
+	/**
+	 * Makes the players created from now on read their media data (manifests, segments) through a memory
+	 * and disk cache. Off by default: without it, seeking back, changing output or recovering from an error
+	 * downloads the data already played again.
+	 * @param context The context
+	 */
+	public static void enableMediaCache(@NonNull Context context) {
+		MediaDataCache.enable(context);
+	}
+
+	/**
+	 * Prepares the medias following the visible one in a list (ex. a feed), loading their first seconds,
+	 * so that the player displaying them starts right away. Players prepared for medias out of range are released.
+	 * The manifests of a few more medias are fetched and parsed as well.
+	 * Live medias are skipped, DRM protected ones only get their manifest prefetched.
+	 * @param context The context
+	 * @param medias The list of medias
+	 * @param index Index of the visible media
+	 */
+	public static void prebuffer(@NonNull Context context, @NonNull List<? extends SambaMedia> medias, int index) {
+		final List<Video> videos = new ArrayList<>();
+		SambaMedia media;
+		Video video;
+
+		for (int i = index + 1, n = 0; i < medias.size() && n < _prefetchCount; ++i) {
+			media = medias.get(i);
+
+			if (media.isLive || media.url == null || media.url.isEmpty())
+				continue;
+
+			video = new Video(media.url, getVideoType(media), null, media.abrStrategy);
+			++n;
+
+			if (videos.size() < _prebufferCount &&
+					!(media instanceof SambaMediaConfig && ((SambaMediaConfig)media).drmRequest != null))
+				videos.add(video);
+			else ManifestCache.getInstance().prefetch(context, video);
+		}
+
+		PlayerPool.getInstance().retain(videos.toArray(new Video[videos.size()]));
+
+		for (Video video : videos)
+			PlayerPool.getInstance().prebuffer(context, video, _prebufferTime);
+	}
+
+	/**
+	 * Gets the time from the player creation to its first rendered frame
+	 * (shorter when the media was prepared ahead by <code>prebuffer</code>).
+	 * @return Time to first frame in milliseconds or -1 if not rendered yet
+	 */
+	public long getTimeToFirstFrame() {
+		return _timeToFirstFrame;
+	}
+
+	/**
+	 * Gets the time from the last output change (or recovery from a transient error)
+	 * to the first frame rendered after it.
+	 * @return Resume gap in milliseconds or -1 if not rendered yet (or no output change happened)
+	 */
+	public long getResumeGap() {
+		return _resumeGap;
+	}
+
 	/**
 	 * Gets the current time on the video.
 	 * @return Float Current time
@@ -697,8 +797,7 @@ public class SambaPlayer extends FrameLayout {
 
 		media.url = output.url;
 
-		destroyInternal();
-		create(false);
+		recreate();
 		player.seek(currentPosition);
 	}
 
@@ -755,6 +854,16 @@ public class SambaPlayer extends FrameLayout {
 		setupCast();
 	}
 
+	/**
+	 * Retrieves the event bus scoped to this player.
+	 * Its listeners only receive this player's events (the global <code>SambaEventBus</code>
+	 * keeps receiving the events of every player).
+	 * @return The player event bus
+	 */
+	public SambaEventBus.EventBus getEventBus() {
+		return eventBus;
+	}
+
 	/**
 	 * Destroys the player and it's events.
 	 */
@@ -769,7 +878,7 @@ public class SambaPlayer extends FrameLayout {
 	public void destroy(SambaPlayerError error) {
 		PluginManager.getInstance().onDestroy();
 		destroyInternal();
-		SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.UNLOAD));
+		eventBus.post(new SambaEvent(SambaPlayerListener.EventType.UNLOAD));
 
 		if (error != null)
 			showError(error);
@@ -807,20 +916,12 @@ public class SambaPlayer extends FrameLayout {
 			return;
 		}
 
-		Video.VideoType videoType = Video.VideoType.OTHER;
-
-		switch (media.type.toLowerCase()) {
-			case "hls":
-				videoType = Video.VideoType.HLS;
-				break;
-			case "dash":
-				videoType = Video.VideoType.DASH;
-				break;
-		}
+		_timeToFirstFrame = -1;
+		_isRecreating = false;
 
 		// no autoplay if there's ad because ImaWrapper takes control of the player
 		player = new SimpleVideoPlayer((Activity)getContext(), this,
-				new Video(media.url, videoType, media.drmRequest), media.title,
+				new Video(media.url, getVideoType(media), media.drmRequest, media.abrStrategy), media.title,
 				!notify && isAutoPlay || isAutoPlay && (sambaCast == null || !sambaCast.isCasting())
                         && (media.adUrl == null || media.adUrl.isEmpty()),
 				media.isAudioOnly);
@@ -841,6 +942,7 @@ public class SambaPlayer extends FrameLayout {
 		}
 
 		player.addPlaybackListener(playbackListener);
+		player.setFirstFrameListener(firstFrameListener);
 		player.setPlayCallback(playListener);
 
 		if (media.isAudioOnly) {
@@ -868,7 +970,7 @@ public class SambaPlayer extends FrameLayout {
 						player.setFullscreen(false);
 					}
 
-					SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.PORTRAIT));
+					eventBus.post(new SambaEvent(SambaPlayerListener.EventType.PORTRAIT));
 				}
 				else {
 					final boolean isReverseLandscape = orientation >= 80 && orientation <= 100;
@@ -879,7 +981,7 @@ public class SambaPlayer extends FrameLayout {
 							player.setFullscreen(true, isReverseLandscape);
 						}
 
-						SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.LANDSCAPE));
+						eventBus.post(new SambaEvent(SambaPlayerListener.EventType.LANDSCAPE));
 					}
 				}
 			}
@@ -895,7 +997,7 @@ public class SambaPlayer extends FrameLayout {
 			PluginManager.getInstance().onInternalPlayerCreated(player);
 
 			if (notify)
-				SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.LOAD, this));
+				eventBus.post(new SambaEvent(SambaPlayerListener.EventType.LOAD, this));
 		}
 
 		/*player.addActionButton(ContextCompat.getDrawableRes(getContext(), R.drawable.share),
@@ -930,6 +1032,17 @@ public class SambaPlayer extends FrameLayout {
 		return dialog;
 	}
 
+	private static Video.VideoType getVideoType(SambaMedia media) {
+		switch (media.type.toLowerCase()) {
+			case "hls":
+				return Video.VideoType.HLS;
+			case "dash":
+				return Video.VideoType.DASH;
+			default:
+				return Video.VideoType.OTHER;
+		}
+	}
+
 	private void initOutputMenu() {
 		if (player == null)
 			return;
@@ -979,6 +1092,37 @@ public class SambaPlayer extends FrameLayout {
 		player.setCaptionMenu(captionMenu);
 	}
 
+	private void recreate() {
+		recreate(true);
+	}
+
+	/**
+	 * Reloads the media (ex. after an output change or a transient error) and measures the resume gap.
+	 * @param inPlace Whether to reload into the current player, keeping its views, surface and DRM session,
+	 *                or to destroy it and create another (the former path, kept for comparing both)
+	 */
+	void recreate(boolean inPlace) {
+		final long start = SystemClock.elapsedRealtime();
+
+		if (inPlace) {
+			stopProgressTimer();
+			stopErrorTimer();
+
+			_hasStarted = false;
+			_hasFinished = false;
+
+			player.recreate(new Video(media.url, getVideoType(media), media.drmRequest, media.abrStrategy));
+		}
+		else {
+			destroyInternal();
+			create(false);
+		}
+
+		_isRecreating = true;
+		_resumeStart = start;
+		_resumeGap = -1;
+	}
+
 	private void destroyInternal() {
 		stopProgressTimer();
 		stopErrorTimer();
@@ -1066,48 +1210,33 @@ public class SambaPlayer extends FrameLayout {
 	}
 
     private void startProgressTimer() {
-		if (progressTimer != null)
-			return;
-
-		progressTimer = new Timer();
-		progressTimer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				((Activity)getContext()).runOnUiThread(progressDispatcher);
-			}
-		}, 0, 250);
+		PlaybackClock.getInstance().schedule(progressTask, 250);
 	}
 
 	private void stopProgressTimer() {
-		if (progressTimer == null)
-			return;
-
-		progressTimer.cancel();
-		progressTimer.purge();
-		progressTimer = null;
+		PlaybackClock.getInstance().cancel(progressTask);
 	}
 
 	private void stopErrorTimer() {
-		if(errorTimer == null) return;
+		if(errorTask == null) return;
 
-		errorTimer.cancel();
-		errorTimer.purge();
-		errorTimer = null;
+		PlaybackClock.getInstance().cancel(errorTask);
+		errorTask = null;
 	}
 
 	private void dispatchPlay() {
-		SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
+		eventBus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
 		startProgressTimer();
 	}
 
 	private void dispatchPause() {
 		stopProgressTimer();
-		SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.PAUSE));
+		eventBus.post(new SambaEvent(SambaPlayerListener.EventType.PAUSE));
 	}
 
 	private void dispatchError(@NonNull SambaPlayerError error) {
 		// give user the chance to customize error message before showing it (in case of critical)
-		SambaEventBus.post(new SambaEvent(SambaPlayerListener.EventType.ERROR, error));
+		eventBus.post(new SambaEvent(SambaPlayerListener.EventType.ERROR, error));
 
 		switch (error.getSeverity()) {
 			case critical:
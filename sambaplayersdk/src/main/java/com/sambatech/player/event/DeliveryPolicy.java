@@ -0,0 +1,149 @@
+package com.sambatech.player.event;
+
+import android.os.SystemClock;
+
+/**
+ * Decides when a PROGRESS event is worth delivering to a listener.
+ *
+ * Declared at subscription time (<code>EventBus.subscribe(listener, policy)</code>),
+ * the bus skips PROGRESS dispatches to that listener until the policy is met.
+ * Other event types are always delivered.
+ *
+ * Policies hold per-listener state, so an instance must not be shared between listeners.
+ */
+public abstract class DeliveryPolicy {
+
+	/**
+	 * Delivers at most once every given interval.
+	 * @param millis Minimum interval between deliveries in milliseconds
+	 * @return A new policy
+	 */
+	public static DeliveryPolicy minInterval(long millis) {
+		return new MinInterval(millis);
+	}
+
+	/**
+	 * Delivers only when current time has moved at least the given amount (either direction)
+	 * since the last delivery.
+	 * @param seconds Minimum change in seconds
+	 * @return A new policy
+	 */
+	public static DeliveryPolicy minChange(float seconds) {
+		return new MinChange(seconds);
+	}
+
+	/**
+	 * Delivers only when current time leaves the window set by the listener
+	 * (e.g. the boundaries of the cue being shown).
+	 * @return A new policy
+	 */
+	public static Window window() {
+		return new Window();
+	}
+
+	/**
+	 * Whether the event must be delivered, updating the policy state if so.
+	 * @param e PROGRESS event
+	 * @return True to deliver
+	 */
+	abstract boolean accept(ProgressEvent e);
+
+	static class MinInterval extends DeliveryPolicy {
+
+		private final long interval;
+		private long last = Long.MIN_VALUE;
+
+		MinInterval(long interval) {
+			this.interval = interval;
+		}
+
+		/**
+		 * @return Current time in milliseconds
+		 */
+		long now() {
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		boolean accept(ProgressEvent e) {
+			final long now = now();
+
+			if (last != Long.MIN_VALUE && now - last < interval)
+				return false;
+
+			last = now;
+			return true;
+		}
+	}
+
+	private static final class MinChange extends DeliveryPolicy {
+
+		private final float threshold;
+		private float last = Float.NaN;
+
+		MinChange(float threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		boolean accept(ProgressEvent e) {
+			final float time = e.getCurrentTime();
+
+			if (!Float.isNaN(last) && Math.abs(time - last) < threshold)
+				return false;
+
+			last = time;
+			return true;
+		}
+	}
+
+	/**
+	 * Boundary policy: delivers while current time is outside <code>[start, end)</code>.
+	 * Listeners update the window from their handler once they know the next boundaries.
+	 */
+	public static final class Window extends DeliveryPolicy {
+
+		/**
+		 * Bounds replaced as a whole, so that a post from another thread never sees
+		 * the start of a window with the end of another (null means "no window").
+		 */
+		private volatile Range range;
+
+		private Window() {}
+
+		/**
+		 * Holds deliveries while current time stays inside <code>[start, end)</code>.
+		 * @param start Window start in seconds
+		 * @param end Window end in seconds
+		 */
+		public void set(float start, float end) {
+			range = new Range(start, end);
+		}
+
+		/**
+		 * Resumes delivering every event.
+		 */
+		public void reset() {
+			range = null;
+		}
+
+		@Override
+		boolean accept(ProgressEvent e) {
+			final Range range = this.range;
+			final float time = e.getCurrentTime();
+
+			return range == null || !(time >= range.start && time < range.end);
+		}
+
+		private static final class Range {
+
+			final float start;
+			final float end;
+
+			Range(float start, float end) {
+				this.start = start;
+				this.end = end;
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.sambatech.player.event;
+
+import android.support.v4.util.Pools;
+
+/**
+ * PROGRESS event carrying primitive time values.
+ *
+ * Instances are pooled and recycled by the event bus right after dispatch,
+ * so they must not be retained beyond the handler call.
+ */
+public final class ProgressEvent extends SambaEvent {
+
+	private static final Pools.SynchronizedPool<ProgressEvent> pool = new Pools.SynchronizedPool<>(4);
+
+	private float currentTime;
+	private float duration;
+	private boolean recycled;
+
+	private ProgressEvent() {
+		super(SambaPlayerListener.EventType.PROGRESS);
+	}
+
+	/**
+	 * Retrieves a PROGRESS event from the pool (or creates a new one if it's empty).
+	 * @param currentTime Current time in seconds
+	 * @param duration Total duration in seconds
+	 * @return A PROGRESS event
+	 */
+	public static ProgressEvent obtain(float currentTime, float duration) {
+		ProgressEvent e = pool.acquire();
+
+		if (e == null)
+			e = new ProgressEvent();
+
+		e.recycled = false;
+		e.currentTime = currentTime;
+		e.duration = duration;
+		return e;
+	}
+
+	/**
+	 * Get the current time
+	 * @return Current time in seconds
+	 */
+	public float getCurrentTime() {
+		return currentTime;
+	}
+
+	/**
+	 * Get the total duration
+	 * @return Duration in seconds
+	 */
+	public float getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Boxes the current time on demand (kept for compatibility).
+	 * @return Current time as a <code>Float</code>
+	 */
+	@Override
+	public Object getData() {
+		return currentTime;
+	}
+
+	/**
+	 * Boxes current time and duration on demand (kept for compatibility).
+	 * @return <code>[currentTime, duration]</code>
+	 */
+	@Override
+	public Object[] getDataAll() {
+		return new Object[]{currentTime, duration};
+	}
+
+	@Override
+	void recycle() {
+		if (recycled)
+			return;
+
+		recycled = true;
+		pool.release(this);
+	}
+}
@@ -0,0 +1,89 @@
+package com.sambatech.player.event;
+
+import android.support.v4.util.Pools;
+
+/**
+ * RESIZE event carrying primitive video size values.
+ *
+ * Instances are pooled and recycled by the event bus right after dispatch,
+ * so they must not be retained beyond the handler call.
+ */
+public final class ResizeEvent extends SambaEvent {
+
+	private static final Pools.SynchronizedPool<ResizeEvent> pool = new Pools.SynchronizedPool<>(2);
+
+	private int width;
+	private int height;
+	private int unappliedRotationDegrees;
+	private float pixelWidthHeightRatio;
+	private boolean recycled;
+
+	private ResizeEvent() {
+		super(SambaPlayerListener.EventType.RESIZE);
+	}
+
+	/**
+	 * Retrieves a RESIZE event from the pool (or creates a new one if it's empty).
+	 * @param width Video width in pixels
+	 * @param height Video height in pixels
+	 * @param unappliedRotationDegrees Clockwise rotation the video must be rendered with
+	 * @param pixelWidthHeightRatio Pixel aspect ratio
+	 * @return A RESIZE event
+	 */
+	public static ResizeEvent obtain(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+		ResizeEvent e = pool.acquire();
+
+		if (e == null)
+			e = new ResizeEvent();
+
+		e.recycled = false;
+		e.width = width;
+		e.height = height;
+		e.unappliedRotationDegrees = unappliedRotationDegrees;
+		e.pixelWidthHeightRatio = pixelWidthHeightRatio;
+		return e;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getUnappliedRotationDegrees() {
+		return unappliedRotationDegrees;
+	}
+
+	public float getPixelWidthHeightRatio() {
+		return pixelWidthHeightRatio;
+	}
+
+	/**
+	 * Boxes the width on demand (kept for compatibility).
+	 * @return Width as an <code>Integer</code>
+	 */
+	@Override
+	public Object getData() {
+		return width;
+	}
+
+	/**
+	 * Boxes all values on demand (kept for compatibility).
+	 * @return <code>[width, height, unappliedRotationDegrees, pixelWidthHeightRatio]</code>
+	 */
+	@Override
+	public Object[] getDataAll() {
+		return new Object[]{width, height, unappliedRotationDegrees, pixelWidthHeightRatio};
+	}
+
+	@Override
+	void recycle() {
+		if (recycled)
+			return;
+
+		recycled = true;
+		pool.release(this);
+	}
+}
@@ -5,16 +5,23 @@ package com.sambatech.player.event;
  */
 public class SambaEvent {
 
+	private static final Object[] NO_DATA = new Object[0];
+
 	private final SambaEventType type;
 	private final Object data;
 	private final Object[] dataAll;
 
+	/**
+	 * Posts of this event in progress (a handler may post it again).
+	 */
+	private int dispatchCount;
+
 	/**
 	 * SambaEvent default constructor
 	 * @param type {@link SambaPlayerListener.EventType}
 	 */
 	public SambaEvent(SambaEventType type) {
-		this(type, new Object[]{});
+		this(type, NO_DATA);
 	}
 
 	/**
@@ -52,5 +59,27 @@ public class SambaEvent {
 	public Object[] getDataAll() {
 		return dataAll;
 	}
+
+	/**
+	 * Marks the start of a post of this event.
+	 */
+	synchronized void retain() {
+		++dispatchCount;
+	}
+
+	/**
+	 * Marks the end of a post of this event, recycling it once no post is in progress anymore,
+	 * so that a re-entrant post doesn't recycle it under the outer one.
+	 */
+	synchronized void release() {
+		if (--dispatchCount == 0)
+			recycle();
+	}
+
+	/**
+	 * Releases the event back to its pool (if any) once it has been dispatched.
+	 * Called by the event bus, pooled events must not be retained by listeners.
+	 */
+	void recycle() {}
 }
 
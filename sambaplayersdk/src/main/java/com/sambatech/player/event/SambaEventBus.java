@@ -1,20 +1,29 @@
 package com.sambatech.player.event;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Process-wide player event bus.
+ *
+ * Listeners subscribed here receive the events of every player in the process.
+ * To listen to a single player prefer its own bus (<code>SambaPlayer.getEventBus()</code>),
+ * whose dispatch cost doesn't grow with the number of players.
+ *
+ * Thread-safe: listeners may subscribe, unsubscribe and post from any thread,
+ * including from inside a handler, at any nesting depth.
+ *
  * @author Leandro Zanol - 10/12/15
  */
 public class SambaEventBus {
 
-	private static EventBus _eventBus = new EventBus();
+	private static EventBus _eventBus = new EventBus(null);
 
 	private SambaEventBus() {}
 
@@ -26,6 +35,15 @@ public class SambaEventBus {
 		_eventBus.subscribe(listener);
 	}
 
+	/**
+	 * Registers an event with a PROGRESS delivery policy.
+	 * @param listener listener object
+	 * @param policy when to deliver PROGRESS events to the listener
+	 */
+	public static void subscribe(Object listener, DeliveryPolicy policy) {
+		_eventBus.subscribe(listener, policy);
+	}
+
 	/**
 	 * Unregisters an event.
 	 * @param listener listener object
@@ -42,94 +60,304 @@ public class SambaEventBus {
 		_eventBus.post(e);
 	}
 
-	private static class EventBus {
-		private HashMap<String, List<Object>> listeners = new HashMap<>();
-		private List<Object> postponedUnsubscribes;
+	/**
+	 * Triggers an event on the main thread.
+	 * Dispatches synchronously if already on it, otherwise marshals the call to the main Looper.
+	 * @param e a particular event
+	 */
+	public static void postOnUiThread(SambaEvent e) {
+		_eventBus.postOnUiThread(e);
+	}
+
+	/**
+	 * Retrieves the process-wide bus, parent of every player scoped bus.
+	 * @return The global bus
+	 */
+	public static EventBus getDefault() {
+		return _eventBus;
+	}
+
+	/**
+	 * Event bus instance.
+	 * A player owns one of these, chained to the global bus for compatibility.
+	 */
+	public static class EventBus {
+
+		private static final SambaPlayerListener.EventType[] TYPES = SambaPlayerListener.EventType.values();
 
+		/**
+		 * Handler names indexed by event type ordinal (e.g. FULLSCREEN_EXIT -> "onFullscreenExit"),
+		 * resolved once so that no strings are built at post time.
+		 */
+		private static final String[] HANDLER_NAMES = new String[TYPES.length];
+
+		static {
+			StringBuilder sb = new StringBuilder();
+
+			for (SambaPlayerListener.EventType type : TYPES) {
+				sb.setLength(0);
+				sb.append("on");
+
+				for (String s : type.name().toLowerCase().split("_"))
+					sb.append(Character.toUpperCase(s.charAt(0))).append(s.substring(1));
+
+				HANDLER_NAMES[type.ordinal()] = sb.toString();
+			}
+		}
+
+		private static final SambaPlayerListener[] EMPTY = new SambaPlayerListener[0];
+
+		/**
+		 * Dispatch table: copy-on-write listener arrays indexed by event type ordinal.
+		 * Only listeners that actually override a handler are registered for its type.
+		 * Arrays are never mutated once published, so posting needs no locking.
+		 */
+		private final AtomicReferenceArray<SambaPlayerListener[]> listeners =
+				new AtomicReferenceArray<>(TYPES.length);
+
+		/**
+		 * Bumped on every change of the matching listeners array, so a dispatch in progress
+		 * can tell whether its snapshot is stale (e.g. a listener unsubscribed another one).
+		 */
+		private final AtomicIntegerArray versions = new AtomicIntegerArray(TYPES.length);
+
+		/**
+		 * PROGRESS delivery policies by listener (listeners without one get every event).
+		 */
+		private final ConcurrentHashMap<SambaPlayerListener, DeliveryPolicy> policies = new ConcurrentHashMap<>();
+
+		private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+		/**
+		 * Bus that also gets notified of every event posted to this one (if any).
+		 */
+		private final EventBus parent;
+
+		/**
+		 * Creates a bus.
+		 * @param parent Bus that will also dispatch the events posted to this one (nullable)
+		 */
+		public EventBus(EventBus parent) {
+			this.parent = parent;
+		}
+
+		/**
+		 * Registers a listener on this bus only.
+		 * @param listener listener object
+		 */
 		public void subscribe(Object listener) {
-			String type = listener.getClass().getSuperclass().getSimpleName();
-			String k;
+			if (!(listener instanceof SambaPlayerListener)) {
+				Log.w(getClass().getSimpleName(), "Unsupported listener: " + listener);
+				return;
+			}
 
-			for (Method m : listener.getClass().getDeclaredMethods()) {
-				if (!Modifier.isPublic(m.getModifiers()))
+			final SambaPlayerListener ltn = (SambaPlayerListener) listener;
+			SambaPlayerListener[] current;
+			SambaPlayerListener[] next;
+			int i;
+
+			for (SambaPlayerListener.EventType type : TYPES) {
+				if (!overridesHandler(ltn.getClass(), HANDLER_NAMES[type.ordinal()]))
 					continue;
 
-				k = String.format("%s:%s", type, m.getName().substring(2)); // rm "on"
+				i = type.ordinal();
+
+				do {
+					current = listeners.get(i);
 
-				if (!listeners.containsKey(k))
-					listeners.put(k, new ArrayList<>());
+					if (current == null)
+						current = EMPTY;
+					else if (indexOf(current, ltn) != -1)
+						break;
 
-				listeners.get(k).add(listener);
+					next = Arrays.copyOf(current, current.length + 1);
+					next[current.length] = ltn;
+				}
+				while (!compareAndSet(i, current, next));
 			}
 		}
 
+		/**
+		 * Registers a listener on this bus only, coalescing its PROGRESS events.
+		 * @param listener listener object
+		 * @param policy when to deliver PROGRESS events to the listener
+		 */
+		public void subscribe(Object listener, DeliveryPolicy policy) {
+			if (policy != null && listener instanceof SambaPlayerListener)
+				policies.put((SambaPlayerListener) listener, policy);
+
+			subscribe(listener);
+		}
+
+		/**
+		 * Unregisters a listener from this bus.
+		 * @param listener listener object
+		 */
 		public void unsubscribe(Object listener) {
-			if (postponedUnsubscribes != null) {
-				postponedUnsubscribes.add(listener);
+			if (listener == null)
 				return;
-			}
 
-			String type = listener.getClass().getSuperclass().getSimpleName();
-			String k;
-			List<Object> ltnList;
+			policies.remove(listener);
 
-			for (Method m : listener.getClass().getDeclaredMethods()) {
-				k = String.format("%s:%s", type, m.getName().substring(2));
+			SambaPlayerListener[] current;
+			SambaPlayerListener[] next;
+			int index;
 
-				if (listeners.containsKey(k)) {
-					ltnList = listeners.get(k);
+			for (int i = 0, l = TYPES.length; i < l; ++i) {
+				do {
+					current = listeners.get(i);
 
-					if (ltnList.contains(listener))
-						ltnList.remove(listener);
+					if (current == null || (index = indexOf(current, listener)) == -1)
+						break;
 
-					if (ltnList.size() == 0)
-						listeners.remove(k);
+					if (current.length == 1)
+						next = null;
+					else {
+						next = new SambaPlayerListener[current.length - 1];
+						System.arraycopy(current, 0, next, 0, index);
+						System.arraycopy(current, index + 1, next, index, next.length - index);
+					}
 				}
+				while (!compareAndSet(i, current, next));
 			}
 		}
 
+		/**
+		 * Triggers an event on this bus' listeners, then on its parent's.
+		 * @param e a particular event
+		 */
 		public void post(SambaEvent e) {
-			final String[] types = e.getType().toString().toLowerCase().split("_");
-			String t = "";
+			e.retain();
 
-			for (String type : types)
-				t += type.substring(0, 1).toUpperCase() + type.substring(1);
+			try {
+				if (e.getType() instanceof SambaPlayerListener.EventType) {
+					final SambaPlayerListener.EventType type = (SambaPlayerListener.EventType) e.getType();
 
-			final String k = String.format("%s:%s", e.getType().getClass().getEnclosingClass().getSimpleName(), t);
+					for (EventBus bus = this; bus != null; bus = bus.parent)
+						bus.dispatchAll(type, e);
+				}
+			}
+			finally {
+				// pooled events go back to their pool once every listener has been notified
+				// (by the outermost post when a handler posts the event again)
+				e.release();
+			}
+		}
+
+		private void dispatchAll(SambaPlayerListener.EventType type, SambaEvent e) {
+			final int i = type.ordinal();
+			final SambaPlayerListener[] ltnList = listeners.get(i);
 
-			if (!listeners.containsKey(k))
+			if (ltnList == null)
 				return;
 
-			try {
-				// postpone call for lock purposes
-				postponedUnsubscribes = new ArrayList<>();
+			final int version = versions.get(i);
+			SambaPlayerListener ltn;
 
-                Object listener;
-				Method m;
+			for (int j = 0; j < ltnList.length; ++j) {
+				ltn = ltnList[j];
 
-				for (ListIterator<Object> iterator = listeners.get(k).listIterator(); iterator.hasNext();) {
-                    listener = iterator.next();
-					m = listener.getClass().getDeclaredMethod("on" + t, SambaEvent.class);
+				// snapshot is stale: skip listeners removed meanwhile (at any nesting depth)
+				if (versions.get(i) != version && indexOf(listeners.get(i), ltn) == -1)
+					continue;
 
-					if (m != null)
-						m.invoke(listener, e);
-                }
+				if (type == SambaPlayerListener.EventType.PROGRESS && !shouldDeliver(ltn, e))
+					continue;
 
-				List<Object> unsubs = postponedUnsubscribes;
+				try {
+					dispatch(ltn, type, e);
+				}
+				catch (Exception exp) {
+					Log.e(getClass().getSimpleName(), "Error dispatching event " + type + ".", exp);
+				}
+			}
+		}
 
-				// release locker
-				postponedUnsubscribes = null;
+		/**
+		 * Triggers an event on the main thread.
+		 * @param e a particular event
+		 */
+		public void postOnUiThread(final SambaEvent e) {
+			if (Looper.myLooper() == Looper.getMainLooper()) {
+				post(e);
+				return;
+			}
 
-				if (unsubs != null && unsubs.size() > 0) {
-					for (Object ltn : unsubs)
-						unsubscribe(ltn);
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					post(e);
+				}
+			});
+		}
+
+		private boolean shouldDeliver(SambaPlayerListener listener, SambaEvent e) {
+			if (policies.isEmpty() || !(e instanceof ProgressEvent))
+				return true;
+
+			final DeliveryPolicy policy = policies.get(listener);
+
+			return policy == null || policy.accept((ProgressEvent) e);
+		}
+
+		private boolean compareAndSet(int i, SambaPlayerListener[] expected, SambaPlayerListener[] value) {
+			// an empty array is stored as null, so compare against what is actually there
+			if (!listeners.compareAndSet(i, expected == EMPTY ? null : expected, value))
+				return false;
+
+			versions.incrementAndGet(i);
+			return true;
+		}
 
-					unsubs.clear();
+		private static int indexOf(SambaPlayerListener[] ltnList, Object listener) {
+			if (ltnList == null)
+				return -1;
+
+			for (int i = 0; i < ltnList.length; ++i)
+				if (ltnList[i] == listener)
+					return i;
+
+			return -1;
+		}
+
+		/**
+		 * Whether the given listener class (or any ancestor below <code>SambaPlayerListener</code>)
+		 * declares the given handler.
+		 */
+		private static boolean overridesHandler(Class<?> cls, String name) {
+			for (Class<?> c = cls; c != null && c != SambaPlayerListener.class; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod(name, SambaEvent.class);
+					return true;
+				}
+				catch (NoSuchMethodException e) {
+					// keep looking up the hierarchy
 				}
 			}
-			catch (Exception exp) {
-				// it's okay not finding the methods in current class instance (getDeclaredMethod())
-				Log.i(getClass().getSimpleName(), "Error trying to lookup or invoke method.", exp);
+
+			return false;
+		}
+
+		/**
+		 * Direct virtual call to the handler matching the event type (no reflection).
+		 */
+		private static void dispatch(SambaPlayerListener listener, SambaPlayerListener.EventType type, SambaEvent e) {
+			switch (type) {
+				case LOAD: listener.onLoad(e); break;
+				case UNLOAD: listener.onUnload(e); break;
+				case START: listener.onStart(e); break;
+				case PLAY: listener.onPlay(e); break;
+				case PAUSE: listener.onPause(e); break;
+				case STOP: listener.onStop(e); break;
+				case PROGRESS: listener.onProgress(e); break;
+				case FULLSCREEN: listener.onFullscreen(e); break;
+				case FULLSCREEN_EXIT: listener.onFullscreenExit(e); break;
+				case FINISH: listener.onFinish(e); break;
+				case RESIZE: listener.onResize(e); break;
+				case CLICK: listener.onClick(e); break;
+				case ERROR: listener.onError(e); break;
+				case PORTRAIT: listener.onPortrait(e); break;
+				case LANDSCAPE: listener.onLandscape(e); break;
 			}
 		}
 	}
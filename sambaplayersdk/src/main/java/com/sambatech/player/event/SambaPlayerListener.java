@@ -3,6 +3,9 @@ package com.sambatech.player.event;
 /**
  * Listener for player events.
  *
+ * Events must not be retained beyond the handler call: PROGRESS and RESIZE events are pooled
+ * and reused for later events once dispatched. Copy the values needed afterwards instead.
+ *
  * @author Leandro Zanol - 9/12/15
  */
 public abstract class SambaPlayerListener {
@@ -66,7 +69,7 @@ public abstract class SambaPlayerListener {
 
 	/**
 	 * OnProgress player fired as the player is watched.
-	 * @param event PROGRESS EventType.event
+	 * @param event PROGRESS EventType.event ({@link ProgressEvent}, not to be retained)
 	 */
 	public void onProgress(SambaEvent event) {}
 
@@ -90,7 +93,7 @@ public abstract class SambaPlayerListener {
 
 	/**
 	 * OnResize player fired when the player is resized.
-	 * @param event RESIZE EventType.event
+	 * @param event RESIZE EventType.event ({@link ResizeEvent}, not to be retained)
 	 */
 	public void onResize(SambaEvent event) {}
 
@@ -3,6 +3,8 @@ package com.sambatech.player.model;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 
+import com.google.android.libraries.mediaframework.exoplayerextensions.AbrStrategy;
+
 import java.util.ArrayList;
 
 /**
@@ -17,7 +19,13 @@ public class SambaMedia {
 	public String type = "";
 	public String adUrl;
 	public @NonNull AdsSettings adsSettings = new AdsSettings();
+	/**
+	 * @deprecated Not filled by <code>SambaApi</code> anymore (always null), load <code>thumbUrl</code>
+	 * through <code>ThumbnailLoader</code> instead.
+	 */
+	@Deprecated
 	public Drawable thumb;
+	public String thumbUrl;
 	public float initialTime = 0f;
 	public float duration = 0f;
 	public boolean isLive;
@@ -27,6 +35,11 @@ public class SambaMedia {
 	public ArrayList<Caption> captions;
 	public @NonNull CaptionsConfig captionsConfig = new CaptionsConfig();
 	public String drmToken;
+	/**
+	 * Selects the renditions of adaptive streams (ex. <code>HybridAbrStrategy.FACTORY</code>),
+	 * null for the player's default (throughput only).
+	 */
+	public AbrStrategy.Factory abrStrategy;
 
 	public SambaMedia() {}
 
@@ -37,6 +50,7 @@ public class SambaMedia {
 		adUrl = media.adUrl;
 		adsSettings = media.adsSettings;
 		thumb = media.thumb;
+		thumbUrl = media.thumbUrl;
 		initialTime = media.initialTime;
 		duration = media.duration;
 		isLive = media.isLive;
@@ -46,6 +60,7 @@ public class SambaMedia {
 		captions = media.captions;
 		captionsConfig = media.captionsConfig;
 		drmToken = media.drmToken;
+		abrStrategy = media.abrStrategy;
 	}
 
 	public static class Output {
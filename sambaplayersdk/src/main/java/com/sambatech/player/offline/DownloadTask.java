@@ -0,0 +1,720 @@
+package com.sambatech.player.offline;
+
+import android.util.Log;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads one media output (worker thread), fetching its pieces in parallel.
+ *
+ * Progressive files are split in byte ranges written in place, whose progress is kept
+ * in a side file; HLS playlists are rewritten to point to their segments (and keys), each one
+ * stored in its own file. Either way, an interrupted piece resumes with a range request.
+ */
+final class DownloadTask implements Runnable {
+
+	private static final int PIECE_SIZE = 2*1024*1024;
+	private static final int MAX_RETRIES = 3;
+	private static final int TIMEOUT = 15000;
+	private static final byte TS_SYNC_BYTE = 0x47;
+	private static final int TS_PACKET_SIZE = 188;
+
+	private final SambaDownloadManager manager;
+	private final SambaDownload download;
+	private final ExecutorService pool;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile boolean cancelled;
+
+	// a failed piece stops the others
+	private volatile boolean aborted;
+
+	DownloadTask(SambaDownloadManager manager, SambaDownload download, ExecutorService pool) {
+		this.manager = manager;
+		this.download = download;
+		this.pool = pool;
+	}
+
+	SambaDownload getDownload() {
+		return download;
+	}
+
+	/**
+	 * Stops the download as soon as possible.
+	 * @return True if it hadn't started yet (and never will)
+	 */
+	boolean cancel() {
+		cancelled = true;
+		return started.compareAndSet(false, true);
+	}
+
+	@Override
+	public void run() {
+		if (!started.compareAndSet(false, true))
+			return;
+
+		download.state = SambaDownload.State.RUNNING;
+		manager.onStateChanged(download);
+
+		try {
+			if (!download.dir.exists() && !download.dir.mkdirs())
+				throw new IOException("Failed to create download directory");
+
+			if (download.type == SambaDownload.Type.HLS)
+				runHls();
+			else {
+				try {
+					runProgressive();
+				}
+				catch (SourceChangedException e) {
+					// restarts once from scratch, a second change fails the download
+					Log.w(getClass().getSimpleName(), "Media changed on server, restarting download");
+					new File(download.dir, "pieces").delete();
+					download.getLocalFile().delete();
+					download.bytesTotal = -1;
+					download.bytesDownloaded.set(0);
+					runProgressive();
+				}
+			}
+
+			download.state = cancelled ? SambaDownload.State.PAUSED : SambaDownload.State.COMPLETED;
+		}
+		catch (IOException e) {
+			if (cancelled)
+				download.state = SambaDownload.State.PAUSED;
+			else {
+				Log.w(getClass().getSimpleName(), "Download failed: " + download.url, e);
+				download.error = e;
+				download.state = SambaDownload.State.FAILED;
+			}
+		}
+
+		manager.onTaskFinished(this);
+	}
+
+	/**
+	 * Progressive download in fixed size ranges.
+	 */
+	private void runProgressive() throws IOException {
+		final File file = download.getLocalFile();
+		final File stateFile = new File(download.dir, "pieces");
+		long[] done = download.bytesTotal > 0 && file.exists() ? readState(stateFile) : null;
+
+		// first run (or lost state), probes size, range support and validator
+		if (done == null) {
+			final HttpURLConnection con = HttpTransport.open(download.url, TIMEOUT);
+
+			con.setRequestProperty("Range", "bytes=0-0");
+
+			final HttpTransport.Response response = HttpTransport.execute(con);
+			final boolean ranged = response.getCode() == 206;
+			final long total;
+
+			try {
+				if (ranged)
+					total = parseContentRangeTotal(con.getHeaderField("Content-Range"));
+				else if (response.isSuccessful())
+					total = con.getContentLength();
+				else throw new IOException("Server returned HTTP response code: " + response.getCode());
+
+				if (total <= 0)
+					throw new IOException("Unknown media size");
+
+				download.validator = ranged ? getValidator(con) : null;
+			}
+			finally {
+				response.close();
+			}
+
+			manager.reserve(download, total);
+			download.bytesTotal = total;
+			download.bytesDownloaded.set(0);
+
+			// without range support it can only be fetched as a whole
+			done = new long[ranged ? getPieceCount(total) : 1];
+			writeState(stateFile, done);
+			manager.onStateChanged(download);
+		}
+
+		final long total = download.bytesTotal;
+		final int count = done.length;
+		long stored = 0;
+
+		for (long d : done)
+			stored += d;
+
+		// the index may lag behind the pieces state
+		download.bytesDownloaded.set(stored);
+
+		final long pieceSize = count == 1 ? total : PIECE_SIZE;
+		final AtomicLongArray progress = new AtomicLongArray(done);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.setLength(total);
+
+			final FileChannel channel = raf.getChannel();
+			final List<Callable<Void>> pieces = new ArrayList<>();
+
+			for (int i = 0; i < count; ++i) {
+				final int index = i;
+				final long offset = i*pieceSize;
+				final long length = Math.min(pieceSize, total - offset);
+
+				if (progress.get(i) >= length)
+					continue;
+
+				pieces.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						fetchRange(channel, index, offset, length, count > 1, progress);
+						writeState(stateFile, progress);
+						return null;
+					}
+				});
+			}
+
+			runAll(pieces);
+			writeState(stateFile, progress);
+		}
+		finally {
+			raf.close();
+		}
+
+		if (cancelled)
+			return;
+
+		if (file.length() != total)
+			throw new IOException("Downloaded size mismatch");
+
+		stateFile.delete();
+	}
+
+	private void fetchRange(FileChannel channel, int index, long offset, long length, boolean ranged,
+							AtomicLongArray progress) throws IOException {
+		IOException error = null;
+
+		for (int attempt = 0; attempt <= MAX_RETRIES && !isStopped(); ++attempt) {
+			if (attempt > 0)
+				sleep(1000L << (attempt - 1));
+
+			// without range support every attempt starts over
+			if (!ranged)
+				addProgress(-progress.getAndSet(index, 0));
+
+			final long from = offset + progress.get(index);
+			final long to = offset + length - 1;
+			final HttpURLConnection con = HttpTransport.open(download.url, TIMEOUT);
+
+			if (ranged) {
+				con.setRequestProperty("Range", "bytes=" + from + "-" + to);
+
+				if (download.validator != null)
+					con.setRequestProperty("If-Range", download.validator);
+			}
+
+			try {
+				final HttpTransport.Response response = HttpTransport.execute(con);
+
+				try {
+					if (ranged && response.getCode() == 200)
+						throw new SourceChangedException();
+
+					if (ranged ? response.getCode() != 206 : !response.isSuccessful())
+						throw new IOException("Server returned HTTP response code: " + response.getCode());
+
+					if (ranged && parseContentRangeStart(con.getHeaderField("Content-Range")) != from)
+						throw new IOException("Unexpected range: " + con.getHeaderField("Content-Range"));
+
+					final byte[] buffer = new byte[16*1024];
+					long position = from;
+					int n;
+
+					while (!isStopped() && position <= to && (n = response.read(buffer, 0, (int) Math.min(buffer.length, to - position + 1))) != -1) {
+						channel.write(ByteBuffer.wrap(buffer, 0, n), position);
+						position += n;
+						progress.addAndGet(index, n);
+						addProgress(n);
+					}
+
+					if (!isStopped() && position <= to)
+						throw new IOException("Truncated response");
+
+					return;
+				}
+				finally {
+					response.close();
+				}
+			}
+			catch (SourceChangedException | SambaDownloadManager.QuotaExceededException e) {
+				throw e;
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to fetch range, retrying", e);
+				error = e;
+			}
+		}
+
+		if (error != null && !isStopped())
+			throw error;
+	}
+
+	/**
+	 * HLS download, a media playlist plus its segments.
+	 */
+	private void runHls() throws IOException {
+		String playlistUrl = download.url;
+		String playlist = fetchText(playlistUrl);
+		long bandwidth = -1;
+
+		// master playlist, picks the highest quality rendition
+		if (playlist.contains("#EXT-X-STREAM-INF")) {
+			final String[] lines = playlist.split("\n");
+			String variant = null;
+			long value = -1;
+
+			for (String line : lines) {
+				line = line.trim();
+
+				if (line.startsWith("#EXT-X-STREAM-INF"))
+					value = parseLong(getAttribute(line, "BANDWIDTH"));
+				else if (!line.isEmpty() && !line.startsWith("#") && value != -1) {
+					if (value > bandwidth) {
+						bandwidth = value;
+						variant = line;
+					}
+
+					value = -1;
+				}
+			}
+
+			if (variant == null)
+				throw new IOException("No rendition found");
+
+			playlistUrl = new URL(new URL(playlistUrl), variant).toString();
+			playlist = fetchText(playlistUrl);
+		}
+
+		if (!playlist.contains("#EXT-X-ENDLIST"))
+			throw new IOException("Only VOD playlists can be downloaded");
+
+		final StringBuilder local = new StringBuilder();
+		final List<String[]> files = new ArrayList<>();
+		double duration = 0;
+		String uri;
+		String name;
+
+		for (String line : playlist.split("\n")) {
+			line = line.trim();
+
+			if (line.startsWith("#EXTINF:"))
+				duration += parseDouble(line.substring(8, line.indexOf(',') != -1 ? line.indexOf(',') : line.length()));
+
+			// keys and initialization segments
+			if ((line.startsWith("#EXT-X-KEY") || line.startsWith("#EXT-X-MAP")) && (uri = getAttribute(line, "URI")) != null) {
+				name = (line.startsWith("#EXT-X-KEY") ? "key_" : "init_") + files.size();
+				files.add(new String[]{new URL(new URL(playlistUrl), uri).toString(), name});
+				line = line.replace("URI=\"" + uri + "\"", "URI=\"" + name + "\"");
+			}
+			else if (!line.isEmpty() && !line.startsWith("#")) {
+				name = String.format("seg_%05d%s", files.size(), getExtension(line));
+				files.add(new String[]{new URL(new URL(playlistUrl), line).toString(), name});
+				line = name;
+			}
+
+			local.append(line).append('\n');
+		}
+
+		long stored = 0;
+
+		for (String[] f : files) {
+			stored += new File(download.dir, f[1]).length();
+			stored += new File(download.dir, f[1] + ".part").length();
+		}
+
+		download.bytesDownloaded.set(stored);
+
+		if (bandwidth > 0 && duration > 0) {
+			download.bytesTotal = (long) (bandwidth*duration/8);
+			manager.reserve(download, download.bytesTotal);
+		}
+
+		manager.onStateChanged(download);
+
+		final List<Callable<Void>> pieces = new ArrayList<>();
+
+		for (final String[] f : files) {
+			if (new File(download.dir, f[1]).exists())
+				continue;
+
+			pieces.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					fetchFile(f[0], new File(download.dir, f[1]));
+					return null;
+				}
+			});
+		}
+
+		runAll(pieces);
+
+		if (cancelled)
+			return;
+
+		// the playlist is written last, its existence means the download is complete
+		final File tmp = new File(download.dir, "index.m3u8.tmp");
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+		try {
+			writer.write(local.toString());
+		}
+		finally {
+			writer.close();
+		}
+
+		if (!tmp.renameTo(download.getLocalFile()))
+			throw new IOException("Failed to write playlist");
+
+		download.bytesTotal = download.bytesDownloaded.get();
+	}
+
+	/**
+	 * Fetches a whole file, resuming a partial one.
+	 */
+	private void fetchFile(String url, File file) throws IOException {
+		final File part = new File(file.getPath() + ".part");
+		IOException error = null;
+
+		for (int attempt = 0; attempt <= MAX_RETRIES && !isStopped(); ++attempt) {
+			if (attempt > 0)
+				sleep(1000L << (attempt - 1));
+
+			final long from = part.length();
+			final HttpURLConnection con = HttpTransport.open(url, TIMEOUT);
+
+			if (from > 0)
+				con.setRequestProperty("Range", "bytes=" + from + "-");
+
+			try {
+				final HttpTransport.Response response = HttpTransport.execute(con);
+				final OutputStream out;
+				long expected;
+
+				try {
+					if (!response.isSuccessful())
+						throw new IOException("Server returned HTTP response code: " + response.getCode());
+
+					// range ignored, starts over
+					if (from > 0 && response.getCode() != 206) {
+						addProgress(-from);
+						out = new FileOutputStream(part, false);
+						expected = con.getContentLength();
+					}
+					else {
+						if (from > 0 && parseContentRangeStart(con.getHeaderField("Content-Range")) != from)
+							throw new IOException("Unexpected range: " + con.getHeaderField("Content-Range"));
+
+						out = new FileOutputStream(part, from > 0);
+						expected = con.getContentLength() >= 0 ? from + con.getContentLength() : -1;
+					}
+
+					try {
+						final byte[] buffer = new byte[16*1024];
+						int n;
+
+						while (!isStopped() && (n = response.read(buffer)) != -1) {
+							out.write(buffer, 0, n);
+							addProgress(n);
+						}
+					}
+					finally {
+						out.close();
+					}
+				}
+				finally {
+					response.close();
+				}
+
+				if (isStopped())
+					return;
+
+				if (expected >= 0 && part.length() != expected)
+					throw new IOException("Truncated response");
+
+				if (file.getName().endsWith(".ts") && !isTransportStream(part)) {
+					addProgress(-part.length());
+					part.delete();
+					throw new IOException("Corrupted segment");
+				}
+
+				if (!part.renameTo(file))
+					throw new IOException("Failed to store segment");
+
+				return;
+			}
+			catch (SambaDownloadManager.QuotaExceededException e) {
+				throw e;
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to fetch " + url + ", retrying", e);
+				error = e;
+			}
+		}
+
+		if (error != null && !isStopped())
+			throw error;
+	}
+
+	/**
+	 * Runs pieces on the pool, failing (and stopping the others) on the first error.
+	 * Returns only once every piece is done, so none outlives the download state.
+	 */
+	private void runAll(List<Callable<Void>> pieces) throws IOException {
+		final List<Future<Void>> futures = new ArrayList<>();
+
+		for (Callable<Void> piece : pieces)
+			futures.add(pool.submit(piece));
+
+		IOException error = null;
+		boolean interrupted = false;
+
+		for (int i = 0; i < futures.size(); ++i) {
+			try {
+				futures.get(i).get();
+			}
+			catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+
+					// the others return as soon as they see it (queued ones right away)
+					aborted = true;
+				}
+			}
+			catch (InterruptedException e) {
+				// stops the pieces but still waits for them
+				interrupted = true;
+				cancelled = true;
+				--i;
+			}
+		}
+
+		aborted = false;
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (error == null || cancelled)
+			return;
+
+		throw error;
+	}
+
+	private boolean isStopped() {
+		return cancelled || aborted;
+	}
+
+	private void addProgress(long bytes) throws IOException {
+		download.bytesDownloaded.addAndGet(bytes);
+
+		if (bytes > 0) {
+			manager.checkQuota();
+			manager.onProgress(download);
+		}
+	}
+
+	private String fetchText(String url) throws IOException {
+		final HttpTransport.Response response = HttpTransport.get(url, TIMEOUT);
+
+		try {
+			if (!response.isSuccessful())
+				throw new IOException("Server returned HTTP response code: " + response.getCode());
+
+			return response.readString().replace("\r\n", "\n");
+		}
+		finally {
+			response.close();
+		}
+	}
+
+	private int getPieceCount(long total) {
+		return (int) ((total + PIECE_SIZE - 1)/PIECE_SIZE);
+	}
+
+	private static long[] readState(File file) {
+		if (!file.exists())
+			return null;
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+
+			final long[] done = new long[in.readInt()];
+
+			for (int i = 0; i < done.length; ++i)
+				done[i] = in.readLong();
+
+			return done;
+		}
+		catch (IOException e) {
+			return null;
+		}
+		finally {
+			try {
+				if (in != null)
+					in.close();
+			}
+			catch (IOException ignored) {}
+		}
+	}
+
+	private static void writeState(File file, long[] done) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+
+		try {
+			out.writeInt(done.length);
+
+			for (long d : done)
+				out.writeLong(d);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static synchronized void writeState(File file, AtomicLongArray progress) throws IOException {
+		final long[] done = new long[progress.length()];
+
+		for (int i = 0; i < done.length; ++i)
+			done[i] = progress.get(i);
+
+		writeState(file, done);
+	}
+
+	/**
+	 * Checks the MPEG-TS sync bytes of the first packets.
+	 */
+	private static boolean isTransportStream(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			for (long p = 0; p < Math.min(raf.length(), 4*TS_PACKET_SIZE); p += TS_PACKET_SIZE) {
+				raf.seek(p);
+
+				if (raf.readByte() != TS_SYNC_BYTE)
+					return false;
+			}
+
+			return raf.length() > 0;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static String getValidator(HttpURLConnection con) {
+		final String etag = con.getHeaderField("ETag");
+
+		// weak validators can't be used with If-Range
+		return etag != null && !etag.startsWith("W/") ? etag : con.getHeaderField("Last-Modified");
+	}
+
+	/**
+	 * "bytes 0-0/1234" to 1234.
+	 */
+	private static long parseContentRangeTotal(String header) {
+		if (header == null || header.indexOf('/') == -1)
+			return -1;
+
+		return parseLong(header.substring(header.indexOf('/') + 1));
+	}
+
+	/**
+	 * "bytes 100-199/1234" to 100.
+	 */
+	private static long parseContentRangeStart(String header) {
+		if (header == null || header.indexOf('-') == -1)
+			return -1;
+
+		return parseLong(header.substring(header.indexOf(' ') + 1, header.indexOf('-')));
+	}
+
+	private static String getAttribute(String line, String name) {
+		final int i = line.indexOf(name + "=");
+
+		if (i == -1)
+			return null;
+
+		int start = i + name.length() + 1;
+		int end;
+
+		if (start < line.length() && line.charAt(start) == '"')
+			end = line.indexOf('"', ++start);
+		else end = line.indexOf(',', start);
+
+		return line.substring(start, end != -1 ? end : line.length());
+	}
+
+	private static String getExtension(String uri) {
+		final int query = uri.indexOf('?');
+		final String path = query != -1 ? uri.substring(0, query) : uri;
+		final int dot = path.lastIndexOf('.');
+
+		return dot != -1 && dot > path.lastIndexOf('/') && path.length() - dot <= 5 ? path.substring(dot) : "";
+	}
+
+	private static long parseLong(String s) {
+		try {
+			return Long.parseLong(s.trim());
+		}
+		catch (NumberFormatException | NullPointerException e) {
+			return -1;
+		}
+	}
+
+	private static double parseDouble(String s) {
+		try {
+			return Double.parseDouble(s.trim());
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelled = true;
+		}
+	}
+
+	/**
+	 * The file changed on the server (validator mismatch) while resuming.
+	 */
+	private static final class SourceChangedException extends IOException {}
+}
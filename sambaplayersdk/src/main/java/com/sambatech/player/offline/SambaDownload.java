@@ -0,0 +1,126 @@
+package com.sambatech.player.offline;
+
+import android.net.Uri;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline copy of a media output, managed by <code>SambaDownloadManager</code>.
+ */
+public final class SambaDownload {
+
+	public enum State {
+		QUEUED,
+		RUNNING,
+		PAUSED,
+		COMPLETED,
+		FAILED
+	}
+
+	public enum Type {
+		PROGRESSIVE,
+		HLS
+	}
+
+	public final String id;
+	public final String url;
+	public final String title;
+	public final Type type;
+
+	final File dir;
+	volatile State state = State.QUEUED;
+	// updated concurrently by the pieces
+	final AtomicLong bytesDownloaded = new AtomicLong();
+	volatile long bytesTotal = -1;
+	volatile Exception error;
+
+	/**
+	 * Entity tag or last modified date of a progressive file, sent on resumed ranges
+	 * so that a changed file is never stitched with the previous one.
+	 */
+	volatile String validator;
+
+	SambaDownload(String id, String url, String title, Type type, File dir) {
+		this.id = id;
+		this.url = url;
+		this.title = title;
+		this.type = type;
+		this.dir = dir;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Amount of bytes stored so far
+	 */
+	public long getBytesDownloaded() {
+		return bytesDownloaded.get();
+	}
+
+	/**
+	 * @return Total size in bytes (estimated for HLS) or -1 if unknown yet
+	 */
+	public long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	/**
+	 * @return Progress between 0 and 1 (0 if total is unknown)
+	 */
+	public float getProgress() {
+		return state == State.COMPLETED ? 1f : bytesTotal > 0 ? Math.min(bytesDownloaded.get()/(float) bytesTotal, .99f) : 0f;
+	}
+
+	/**
+	 * @return Cause of the last failure or null
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * @return URL of the local copy (only playable when completed)
+	 */
+	public String getLocalUrl() {
+		return Uri.fromFile(getLocalFile()).toString();
+	}
+
+	File getLocalFile() {
+		return new File(dir, type == Type.HLS ? "index.m3u8" : "media");
+	}
+
+	JSONObject toJson() throws JSONException {
+		final JSONObject json = new JSONObject();
+
+		json.put("id", id);
+		json.put("url", url);
+		json.put("title", title);
+		json.put("type", type.name());
+		json.put("dir", dir.getPath());
+		json.put("state", state.name());
+		json.put("bytesDownloaded", bytesDownloaded.get());
+		json.put("bytesTotal", bytesTotal);
+
+		if (validator != null)
+			json.put("validator", validator);
+
+		return json;
+	}
+
+	static SambaDownload fromJson(JSONObject json) throws JSONException {
+		final SambaDownload download = new SambaDownload(json.getString("id"), json.getString("url"),
+				json.optString("title"), Type.valueOf(json.getString("type")), new File(json.getString("dir")));
+
+		download.state = State.valueOf(json.getString("state"));
+		download.bytesDownloaded.set(json.optLong("bytesDownloaded"));
+		download.bytesTotal = json.optLong("bytesTotal", -1);
+		download.validator = json.optString("validator", null);
+		return download;
+	}
+}
@@ -0,0 +1,435 @@
+package com.sambatech.player.offline;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.RendererBuilderFactory;
+import com.sambatech.player.model.SambaMedia;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores VOD media outputs (progressive or HLS) for offline playback.
+ *
+ * Downloads run one at a time, their pieces (byte ranges or HLS segments) are fetched
+ * in parallel on a bounded pool, resuming from where they stopped (even across process restarts)
+ * and checked for integrity. Completed downloads are played transparently by any player
+ * (the manager resolves remote URLs to local copies once instantiated).
+ *
+ * Must be used from the main thread.
+ */
+public final class SambaDownloadManager implements RendererBuilderFactory.UrlResolver {
+
+	/**
+	 * Download events listener (dispatched on the main thread).
+	 */
+	public interface Listener {
+		/**
+		 * Dispatched at most twice per second while downloading.
+		 */
+		void onProgress(SambaDownload download);
+
+		/**
+		 * Dispatched when a download gets queued, starts, pauses, completes or fails.
+		 */
+		void onStateChanged(SambaDownload download);
+	}
+
+	/**
+	 * Raised when a download doesn't fit in the storage quota.
+	 */
+	public static final class QuotaExceededException extends IOException {
+		QuotaExceededException(long required, long available) {
+			super(String.format("Storage quota exceeded (%s bytes required, %s available)", required, available));
+		}
+	}
+
+	private static final String DIR_NAME = "samba_downloads";
+	private static final int MAX_PARALLEL_PIECES = 3;
+	private static final long PROGRESS_INTERVAL = 500;
+
+	private static SambaDownloadManager instance;
+
+	private final File dir;
+	private final File indexFile;
+	private final LinkedHashMap<String, SambaDownload> downloads = new LinkedHashMap<>();
+	private final HashMap<String, DownloadTask> tasks = new HashMap<>();
+	private final List<Listener> listeners = new ArrayList<>();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	// one download at a time, pieces in parallel
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final ThreadPoolExecutor piecePool = new ThreadPoolExecutor(MAX_PARALLEL_PIECES, MAX_PARALLEL_PIECES,
+			30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private volatile long quota = Long.MAX_VALUE;
+	private long lastProgress;
+
+	private SambaDownloadManager(Context context) {
+		this(new File(getRoot(context), DIR_NAME));
+	}
+
+	/**
+	 * @param dir Downloads directory
+	 */
+	SambaDownloadManager(File dir) {
+		this.dir = dir;
+		indexFile = new File(dir, "index.json");
+		piecePool.allowCoreThreadTimeOut(true);
+		loadIndex();
+	}
+
+	/**
+	 * Retrieves the manager, registering it to resolve downloaded URLs for playback.
+	 */
+	public static synchronized SambaDownloadManager getInstance(Context context) {
+		if (instance == null) {
+			instance = new SambaDownloadManager(context.getApplicationContext());
+			RendererBuilderFactory.setUrlResolver(instance);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Sets the maximum storage used by all downloads.
+	 * @param bytes Quota in bytes
+	 */
+	public void setQuota(long bytes) {
+		quota = bytes;
+	}
+
+	/**
+	 * @return Storage used by all downloads in bytes
+	 */
+	public synchronized long getUsedSpace() {
+		long used = 0;
+
+		for (SambaDownload download : downloads.values())
+			used += download.bytesDownloaded.get();
+
+		return used;
+	}
+
+	public void addListener(Listener listener) {
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Downloads a media output (resumes it if already known).
+	 * @param media The media (VOD only)
+	 * @param output One of <code>media.outputs</code> or null for <code>media.url</code>
+	 * @return The download
+	 */
+	public SambaDownload download(SambaMedia media, SambaMedia.Output output) {
+		if (media.isLive)
+			throw new IllegalArgumentException("Live medias can't be downloaded.");
+
+		final String type = media.type.toLowerCase();
+
+		if ("dash".equals(type))
+			throw new IllegalArgumentException("DASH medias can't be downloaded.");
+
+		return download(output != null ? output.url : media.url, media.title,
+				"hls".equals(type) ? SambaDownload.Type.HLS : SambaDownload.Type.PROGRESSIVE);
+	}
+
+	SambaDownload download(String url, String title, SambaDownload.Type type) {
+		final String id = Integer.toHexString(url.hashCode()) + Integer.toHexString(url.length());
+		SambaDownload download;
+
+		synchronized (this) {
+			download = downloads.get(id);
+
+			if (download == null) {
+				download = new SambaDownload(id, url, title, type, new File(dir, id));
+				downloads.put(id, download);
+			}
+		}
+
+		resume(id);
+		return download;
+	}
+
+	/**
+	 * Resumes a paused or failed download.
+	 * @param id Download ID
+	 */
+	public void resume(String id) {
+		final SambaDownload download = getDownload(id);
+
+		if (download == null || download.state == SambaDownload.State.COMPLETED || tasks.containsKey(id))
+			return;
+
+		final DownloadTask task = new DownloadTask(this, download, piecePool);
+
+		download.error = null;
+		download.state = SambaDownload.State.QUEUED;
+		tasks.put(id, task);
+		executor.execute(task);
+		onStateChanged(download);
+	}
+
+	/**
+	 * Pauses a download, keeping what was stored so far.
+	 * @param id Download ID
+	 */
+	public void pause(String id) {
+		final DownloadTask task = tasks.get(id);
+
+		if (task == null)
+			return;
+
+		// not started yet
+		if (task.cancel())
+			onTaskFinished(task);
+	}
+
+	/**
+	 * Cancels (if running) and deletes a download.
+	 * @param id Download ID
+	 */
+	public void remove(String id) {
+		pause(id);
+
+		// the stopping task no longer blocks a new download of the same output
+		tasks.remove(id);
+
+		final SambaDownload download;
+
+		synchronized (this) {
+			download = downloads.remove(id);
+		}
+
+		if (download == null)
+			return;
+
+		// a running task might still be writing, so files are removed after it stops
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				delete(download.dir);
+			}
+		});
+
+		saveIndex();
+	}
+
+	public synchronized SambaDownload getDownload(String id) {
+		return downloads.get(id);
+	}
+
+	public synchronized List<SambaDownload> getDownloads() {
+		return new ArrayList<>(downloads.values());
+	}
+
+	/**
+	 * Whether a completed local copy of the URL exists.
+	 * @param url Remote URL
+	 */
+	public boolean isDownloaded(String url) {
+		return resolve(url) != null;
+	}
+
+	@Override
+	public String resolve(String url) {
+		final SambaDownload download;
+
+		synchronized (this) {
+			download = downloads.get(Integer.toHexString(url.hashCode()) + Integer.toHexString(url.length()));
+		}
+
+		return download != null && download.url.equals(url) && download.state == SambaDownload.State.COMPLETED &&
+				download.getLocalFile().exists() ? download.getLocalUrl() : null;
+	}
+
+	/**
+	 * Checks whether a download of the given size fits in the quota (worker thread).
+	 */
+	void reserve(SambaDownload download, long bytes) throws QuotaExceededException {
+		final long available = quota - (getUsedSpace() - download.bytesDownloaded.get());
+
+		if (bytes > available)
+			throw new QuotaExceededException(bytes, available);
+	}
+
+	/**
+	 * Checks whether the storage used so far fits in the quota (worker threads).
+	 */
+	void checkQuota() throws QuotaExceededException {
+		final long used = getUsedSpace();
+
+		if (used > quota)
+			throw new QuotaExceededException(used, quota);
+	}
+
+	void onStateChanged(final SambaDownload download) {
+		saveIndex();
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (Listener listener : new ArrayList<>(listeners))
+					listener.onStateChanged(download);
+			}
+		});
+	}
+
+	void onProgress(final SambaDownload download) {
+		final long now = SystemClock.uptimeMillis();
+
+		synchronized (this) {
+			if (now - lastProgress < PROGRESS_INTERVAL)
+				return;
+
+			lastProgress = now;
+		}
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (Listener listener : new ArrayList<>(listeners))
+					listener.onProgress(download);
+			}
+		});
+	}
+
+	/**
+	 * Dispatched by a task once it stops (worker thread) or when cancelled before starting.
+	 */
+	void onTaskFinished(final DownloadTask task) {
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				final String id = task.getDownload().id;
+
+				if (tasks.get(id) == task)
+					tasks.remove(id);
+			}
+		});
+
+		if (task.getDownload().state == SambaDownload.State.QUEUED)
+			task.getDownload().state = SambaDownload.State.PAUSED;
+
+		onStateChanged(task.getDownload());
+	}
+
+	private void loadIndex() {
+		if (!indexFile.exists())
+			return;
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+
+			final StringBuilder s = new StringBuilder();
+
+			for (String line; (line = reader.readLine()) != null;)
+				s.append(line);
+
+			final JSONArray json = new JSONArray(s.toString());
+			SambaDownload download;
+
+			for (int i = 0; i < json.length(); ++i) {
+				download = SambaDownload.fromJson(json.getJSONObject(i));
+
+				// interrupted by the process end, resumable
+				if (download.state == SambaDownload.State.QUEUED || download.state == SambaDownload.State.RUNNING)
+					download.state = SambaDownload.State.PAUSED;
+
+				downloads.put(download.id, download);
+			}
+		}
+		catch (IOException | JSONException e) {
+			Log.w(getClass().getSimpleName(), "Failed to load downloads index", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close downloads index", e);
+			}
+		}
+	}
+
+	private synchronized void saveIndex() {
+		if (!dir.exists() && !dir.mkdirs())
+			return;
+
+		final File tmp = new File(indexFile.getPath() + ".tmp");
+		Writer writer = null;
+
+		try {
+			final JSONArray json = new JSONArray();
+
+			for (SambaDownload download : downloads.values())
+				json.put(download.toJson());
+
+			writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			writer.write(json.toString());
+			writer.close();
+			writer = null;
+
+			if (!tmp.renameTo(indexFile))
+				Log.w(getClass().getSimpleName(), "Failed to replace downloads index");
+		}
+		catch (IOException | JSONException e) {
+			Log.w(getClass().getSimpleName(), "Failed to save downloads index", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close downloads index", e);
+			}
+		}
+	}
+
+	private static File getRoot(Context context) {
+		final File root = context.getExternalFilesDir(null);
+
+		return root != null ? root : context.getFilesDir();
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+
+		if (files != null)
+			for (File f : files)
+				delete(f);
+
+		file.delete();
+	}
+}
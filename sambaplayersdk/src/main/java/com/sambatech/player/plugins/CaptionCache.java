@@ -0,0 +1,382 @@
+package com.sambatech.player.plugins;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads and caches parsed captions per URL, shared by every player.
+ *
+ * Parsed cue indexes are kept in a memory LRU bounded by bytes, raw files are optionally
+ * kept on disk (written while downloading), so switching back and forth between languages
+ * (or prefetched ones) doesn't hit the network.
+ * Concurrent loads of the same URL are joined.
+ */
+final class CaptionCache {
+
+	/**
+	 * Load listener (dispatched on the main thread).
+	 */
+	interface Listener {
+		/**
+		 * @param cues Cues parsed so far (or all of them)
+		 * @param complete Whether the whole file has been parsed
+		 */
+		void onCues(CueIndex cues, boolean complete);
+	}
+
+	private static final String DIR_NAME = "samba_captions";
+	private static final long MAX_DISK_SIZE = 5*1024*1024;
+	private static final int FIRST_PUBLISH = 16;
+
+	private static CaptionCache instance;
+
+	private static int memorySize = 4*1024*1024;
+	private static boolean diskEnabled = true;
+
+	private final LruCache<String, CueIndex> memory;
+	private final File dir;
+	private final Executor executor;
+	private final Executor mainExecutor;
+
+	// main thread only
+	private final HashMap<String, List<Listener>> inFlight = new HashMap<>();
+
+	private CaptionCache(Context context) {
+		this(new File(context.getCacheDir(), DIR_NAME), Executors.newFixedThreadPool(2), new Executor() {
+			private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+			@Override
+			public void execute(Runnable command) {
+				mainHandler.post(command);
+			}
+		});
+	}
+
+	/**
+	 * @param dir Disk tier directory
+	 * @param executor Runs the loads
+	 * @param mainExecutor Runs on the thread calling <code>load</code> (listeners)
+	 */
+	CaptionCache(File dir, Executor executor, Executor mainExecutor) {
+		memory = new LruCache<String, CueIndex>(memorySize) {
+			@Override
+			protected int sizeOf(String key, CueIndex value) {
+				return (int) Math.min(value.getByteCount(), Integer.MAX_VALUE);
+			}
+		};
+
+		this.dir = dir;
+		this.executor = executor;
+		this.mainExecutor = mainExecutor;
+	}
+
+	static synchronized CaptionCache getInstance(Context context) {
+		if (instance == null)
+			instance = new CaptionCache(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Configures the cache, must be called before any player is loaded.
+	 * @param memoryBytes Memory budget for parsed captions in bytes
+	 * @param disk Whether raw files are kept on disk
+	 */
+	static synchronized void configure(int memoryBytes, boolean disk) {
+		memorySize = memoryBytes;
+		diskEnabled = disk;
+	}
+
+	/**
+	 * Looks up the memory tier.
+	 * @param url Captions URL
+	 * @return The parsed captions or null
+	 */
+	CueIndex get(String url) {
+		return memory.get(url);
+	}
+
+	/**
+	 * Whether prefetching more captions would start evicting loaded ones.
+	 */
+	boolean isFull() {
+		return memory.size() >= memory.maxSize()*3/4;
+	}
+
+	/**
+	 * Loads captions, from memory right away if available. Must be called from the main thread.
+	 * @param url Captions URL
+	 * @param listener Result listener or null (prefetch)
+	 */
+	void load(final String url, Listener listener) {
+		final CueIndex cached = memory.get(url);
+
+		if (cached != null) {
+			if (listener != null)
+				listener.onCues(cached, true);
+
+			return;
+		}
+
+		List<Listener> listeners = inFlight.get(url);
+
+		if (listeners != null) {
+			if (listener != null)
+				listeners.add(listener);
+
+			return;
+		}
+
+		listeners = new ArrayList<>();
+
+		if (listener != null)
+			listeners.add(listener);
+
+		inFlight.put(url, listeners);
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final CueIndex cues = fetch(url);
+
+				if (cues != null)
+					memory.put(url, cues);
+
+				publish(url, cues != null ? cues : new CueIndex.Builder().build(), true);
+			}
+		});
+	}
+
+	/**
+	 * Stops notifying a listener (the load itself goes on and is cached).
+	 * @param url Captions URL
+	 * @param listener The listener
+	 */
+	void cancel(String url, Listener listener) {
+		final List<Listener> listeners = inFlight.get(url);
+
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+
+	/**
+	 * Removes every entry from both tiers.
+	 */
+	void clear() {
+		memory.evictAll();
+
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+	}
+
+	private void publish(final String url, final CueIndex cues, final boolean complete) {
+		mainExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<Listener> listeners = complete ? inFlight.remove(url) : inFlight.get(url);
+
+				if (listeners == null)
+					return;
+
+				for (Listener listener : new ArrayList<>(listeners))
+					listener.onCues(cues, complete);
+			}
+		});
+	}
+
+	/**
+	 * Parses from disk or network (worker thread).
+	 * @return The captions or null on failure
+	 */
+	private CueIndex fetch(String url) {
+		final File file = getFile(url);
+		final CueIndex.Builder cues = new CueIndex.Builder();
+
+		if (diskEnabled && file.exists()) {
+			try {
+				if (parse(url, openFile(url, file), cues))
+					return cues.build();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to read cached captions", e);
+			}
+
+			file.delete();
+		}
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		boolean saved = false;
+
+		try {
+			final HttpTransport.Response response = HttpTransport.get(url, HttpTransport.DEFAULT_TIMEOUT);
+
+			if (!response.isSuccessful()) {
+				response.close();
+				throw new IOException("Server returned HTTP response code: " + response.getCode());
+			}
+
+			InputStream in = response;
+
+			if (diskEnabled && (dir.exists() || dir.mkdirs())) {
+				final OutputStream out = new FileOutputStream(tmp);
+
+				out.write((url + '\n').getBytes("UTF-8"));
+				in = new TeeInputStream(response, out);
+			}
+
+			saved = parse(url, new InputStreamReader(in, "UTF-8"), cues) && diskEnabled;
+			return cues.build();
+		}
+		catch (IOException e) {
+			Log.e(getClass().getSimpleName(), "Failed to load captions: " + url, e);
+			return null;
+		}
+		finally {
+			if (saved && tmp.renameTo(file))
+				trimDisk();
+			else tmp.delete();
+		}
+	}
+
+	/**
+	 * Parses a document, publishing the cues parsed so far on a doubling schedule
+	 * (keeps the copies linear on the file size).
+	 * @return Whether the document was fully read
+	 */
+	private boolean parse(String url, Reader reader, CueIndex.Builder cues) throws IOException {
+		try {
+			final CaptionParser parser = new CaptionParser(reader);
+			int nextPublish = FIRST_PUBLISH;
+
+			while (parser.next(cues)) {
+				if (cues.size() == nextPublish) {
+					publish(url, cues.build(), false);
+					nextPublish *= 2;
+				}
+			}
+
+			return true;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Opens a cached file positioned after its URL header.
+	 */
+	private Reader openFile(String url, File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+		// hash collision
+		if (!url.equals(reader.readLine())) {
+			reader.close();
+			throw new IOException("Cached captions URL mismatch");
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Removes the least recently downloaded files while the cache exceeds its size cap.
+	 */
+	private synchronized void trimDisk() {
+		final File[] files = dir.listFiles();
+
+		if (files == null)
+			return;
+
+		long size = 0;
+
+		for (File f : files)
+			size += f.length();
+
+		if (size <= MAX_DISK_SIZE)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				return lhs.lastModified() < rhs.lastModified() ? -1 : lhs.lastModified() == rhs.lastModified() ? 0 : 1;
+			}
+		});
+
+		for (int i = 0; i < files.length && size > MAX_DISK_SIZE; ++i) {
+			size -= files[i].length();
+			files[i].delete();
+		}
+	}
+
+	private File getFile(String url) {
+		return new File(dir, Integer.toHexString(url.hashCode()) + Integer.toHexString(url.length()));
+	}
+
+	/**
+	 * Copies everything read to an output (closed along with the input).
+	 */
+	private static final class TeeInputStream extends FilterInputStream {
+
+		private final OutputStream out;
+
+		TeeInputStream(InputStream in, OutputStream out) {
+			super(in);
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+
+			if (b != -1)
+				out.write(b);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+
+			if (n > 0)
+				out.write(b, off, n);
+
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				out.close();
+			}
+			finally {
+				super.close();
+			}
+		}
+	}
+}
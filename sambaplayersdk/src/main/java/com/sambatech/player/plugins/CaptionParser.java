@@ -0,0 +1,311 @@
+package com.sambatech.player.plugins;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass SRT and WebVTT parser, reading cue by cue from a stream.
+ *
+ * Cue identifiers, WebVTT headers, cue settings and NOTE/STYLE/REGION blocks are skipped,
+ * styling tags (<code>&lt;b&gt;</code>, <code>&lt;c.class&gt;</code>, <code>{\an8}</code>, etc.)
+ * are stripped and multi-line texts are joined by spaces.
+ * An optional leading BOM is ignored.
+ */
+final class CaptionParser {
+
+	private static final String TIMING_SEPARATOR = "-->";
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	private boolean started;
+
+	// reused between cues
+	private final StringBuilder line = new StringBuilder();
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * @param reader Caption document (callers should buffer it at will, the parser reads in chunks)
+	 */
+	CaptionParser(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Parses the next cue into the builder.
+	 * @param cues Destination
+	 * @return False at the end of the document
+	 */
+	boolean next(CueIndex.Builder cues) throws IOException {
+		long start;
+		long end;
+
+		while (true) {
+			// skips blank lines between blocks
+			do {
+				if (!readLine())
+					return false;
+			}
+			while (isBlank(line));
+
+			// WebVTT header or comment/style blocks
+			if (startsWith(line, "WEBVTT") || startsWith(line, "NOTE") ||
+					startsWith(line, "STYLE") || startsWith(line, "REGION")) {
+				skipBlock();
+				continue;
+			}
+
+			// optional identifier (SRT index or WebVTT cue id)
+			if (indexOf(line, TIMING_SEPARATOR) == -1) {
+				if (!readLine())
+					return false;
+
+				if (isBlank(line))
+					continue;
+
+				if (indexOf(line, TIMING_SEPARATOR) == -1) {
+					skipBlock();
+					continue;
+				}
+			}
+
+			final int separator = indexOf(line, TIMING_SEPARATOR);
+
+			start = parseTime(line, 0, separator);
+			end = parseTime(line, separator + TIMING_SEPARATOR.length(), line.length());
+
+			if (start == -1 || end == -1) {
+				skipBlock();
+				continue;
+			}
+
+			text.setLength(0);
+
+			while (readLine() && !isBlank(line)) {
+				if (text.length() > 0)
+					text.append(' ');
+
+				appendStripped(line, text);
+			}
+
+			cues.add(start, end, text);
+			return true;
+		}
+	}
+
+	/**
+	 * Parses a "[hh:]mm:ss[.,]mmm" timestamp, ignoring surrounding spaces and anything after it
+	 * (cue settings).
+	 * @return Time in milliseconds or -1 if malformed
+	 */
+	static long parseTime(CharSequence s, int from, int to) {
+		int i = from;
+
+		while (i < to && (s.charAt(i) == ' ' || s.charAt(i) == '\t'))
+			++i;
+
+		long time = 0;
+		long group;
+		int digits;
+		int groups = 0;
+		char c;
+
+		while (true) {
+			group = 0;
+			digits = 0;
+
+			for (; i < to && (c = s.charAt(i)) >= '0' && c <= '9'; ++i, ++digits)
+				group = group*10 + c - '0';
+
+			if (digits == 0)
+				return -1;
+
+			time = time*60 + group;
+			++groups;
+
+			if (i < to && s.charAt(i) == ':') {
+				++i;
+				continue;
+			}
+
+			break;
+		}
+
+		if (groups < 2 || groups > 3)
+			return -1;
+
+		time *= 1000;
+
+		// fraction, normalized to milliseconds
+		if (i < to && (s.charAt(i) == ',' || s.charAt(i) == '.')) {
+			int scale = 100;
+
+			for (++i; i < to && (c = s.charAt(i)) >= '0' && c <= '9'; ++i, scale /= 10)
+				time += (c - '0')*scale;
+		}
+
+		return time;
+	}
+
+	/**
+	 * Appends a text line without styling tags and with basic entities decoded.
+	 */
+	private static void appendStripped(CharSequence s, StringBuilder out) {
+		final int length = s.length();
+		char c;
+		int end;
+
+		for (int i = 0; i < length; ++i) {
+			c = s.charAt(i);
+
+			// HTML-like tags (<b>, </i>, <c.yellow>, <v Speaker>, <00:01.000>, <font ...>)
+			if (c == '<' && (end = indexOf(s, ">", i + 1)) != -1) {
+				i = end;
+				continue;
+			}
+
+			// SSA override tags ({\an8}, {\i1})
+			if (c == '{' && i + 1 < length && s.charAt(i + 1) == '\\' && (end = indexOf(s, "}", i + 2)) != -1) {
+				i = end;
+				continue;
+			}
+
+			if (c == '&') {
+				if (regionMatches(s, i, "&amp;")) {
+					out.append('&');
+					i += 4;
+					continue;
+				}
+
+				if (regionMatches(s, i, "&lt;")) {
+					out.append('<');
+					i += 3;
+					continue;
+				}
+
+				if (regionMatches(s, i, "&gt;")) {
+					out.append('>');
+					i += 3;
+					continue;
+				}
+
+				if (regionMatches(s, i, "&nbsp;")) {
+					out.append(' ');
+					i += 5;
+					continue;
+				}
+			}
+
+			out.append(c);
+		}
+	}
+
+	/**
+	 * Skips the current block up to the next blank line.
+	 */
+	private void skipBlock() throws IOException {
+		while (readLine() && !isBlank(line)) {}
+	}
+
+	/**
+	 * Reads the next line (CR, LF or CRLF terminated) into <code>line</code>.
+	 * @return False at the end of the stream
+	 */
+	private boolean readLine() throws IOException {
+		line.setLength(0);
+
+		int c;
+		boolean read = false;
+
+		while ((c = read()) != -1) {
+			read = true;
+
+			if (c == '\n')
+				return true;
+
+			if (c == '\r') {
+				// CRLF
+				if (peek() == '\n')
+					++position;
+
+				return true;
+			}
+
+			line.append((char) c);
+		}
+
+		return read;
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+
+		return buffer[position++];
+	}
+
+	private int peek() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+
+		return buffer[position];
+	}
+
+	private boolean fill() throws IOException {
+		limit = reader.read(buffer, 0, buffer.length);
+		position = 0;
+
+		if (limit <= 0) {
+			limit = 0;
+			return false;
+		}
+
+		// BOM
+		if (!started) {
+			started = true;
+
+			if (buffer[0] == '\uFEFF')
+				position = 1;
+
+			return position < limit || fill();
+		}
+
+		return true;
+	}
+
+	private static boolean isBlank(CharSequence s) {
+		for (int i = 0, l = s.length(); i < l; ++i)
+			if (s.charAt(i) > ' ')
+				return false;
+
+		return true;
+	}
+
+	private static boolean startsWith(CharSequence s, String prefix) {
+		return regionMatches(s, 0, prefix);
+	}
+
+	private static boolean regionMatches(CharSequence s, int offset, String part) {
+		if (offset + part.length() > s.length())
+			return false;
+
+		for (int i = 0, l = part.length(); i < l; ++i)
+			if (s.charAt(offset + i) != part.charAt(i))
+				return false;
+
+		return true;
+	}
+
+	private static int indexOf(CharSequence s, String part) {
+		return indexOf(s, part, 0);
+	}
+
+	private static int indexOf(CharSequence s, String part, int from) {
+		for (int i = from, l = s.length() - part.length(); i <= l; ++i)
+			if (regionMatches(s, i, part))
+				return i;
+
+		return -1;
+	}
+}
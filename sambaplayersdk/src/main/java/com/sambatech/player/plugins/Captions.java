@@ -11,14 +11,12 @@ import com.google.android.libraries.mediaframework.layeredvideo.SubtitleLayer;
 import com.sambatech.player.R;
 import com.sambatech.player.SambaPlayer;
 import com.sambatech.player.adapter.CaptionsAdapter;
+import com.sambatech.player.event.DeliveryPolicy;
 import com.sambatech.player.event.SambaEvent;
-import com.sambatech.player.event.SambaEventBus;
 import com.sambatech.player.event.SambaPlayerListener;
 import com.sambatech.player.model.SambaMedia;
-import com.sambatech.player.utils.Helpers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * Plugin responsible for managing captions.
@@ -31,25 +29,17 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 	private SambaPlayer _player;
 	private @NonNull ArrayList<SambaMedia.Caption> _captionsRequest = new ArrayList<>();
 	private SambaMedia.CaptionsConfig _config;
-	private HashMap<Integer, Caption[]> _captionsMap;
-	private Caption _currentCaption;
+	private CueIndex _cues;
+	private final CueIndex.Cursor _cursor = new CueIndex.Cursor();
 	private int _currentIndex = -1;
 	private boolean _parsed;
 	private SimpleVideoPlayer _internalPlayer;
+	private CaptionCache _cache;
+	private CaptionCache.Listener _captionListener;
+	private String _captionUrl;
 
-	private static final class Caption {
-		final int index;
-		final float startTime;
-		final float endTime;
-		final String text;
-
-		public Caption(int index, float startTime, float endTime, String text) {
-			this.index = index;
-			this.startTime = startTime;
-			this.endTime = endTime;
-			this.text = text;
-		}
-	}
+	// subtitles only change on cue boundaries, so progress is held while inside the current cue (or gap)
+	private final DeliveryPolicy.Window _progressPolicy = DeliveryPolicy.window();
 
 	public void changeCaption(int index) {
 		if (index == _currentIndex || index >= _captionsRequest.size())
@@ -60,8 +50,11 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 		changeMenuItem(index);
 
 		// clean up
+		cancelLoad();
+
 		_parsed = false;
-		_currentCaption = null;
+		_cursor.reset();
+		_progressPolicy.reset();
 		_subtitleLayer.onText("");
 
 		SambaMedia.Caption captionRequest = _captionsRequest.get(index);
@@ -69,26 +62,38 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 		// disabled
 		if (captionRequest.url == null || captionRequest.url.isEmpty()) return;
 
-		// some caption
-		Helpers.requestUrl(captionRequest.url, new Helpers.RequestCallback() {
-			@Override
-			public void onSuccess(String response) {
-				Log.i("SambaPlayer::captions", "parsing...");
-				// skip BOM UTF-8 markers
-				parse(response.substring(1));
-			}
+		// some caption (right away if already loaded or prefetched)
+		final String url = captionRequest.url;
 
+		_captionListener = new CaptionCache.Listener() {
 			@Override
-			public void onError(Exception e, String response) {
-				Log.e("SambaPlayer::captions", response, e);
+			public void onCues(CueIndex cues, boolean complete) {
+				if (_captionListener != this)
+					return;
+
+				if (complete)
+					_captionListener = null;
+
+				setCues(cues);
 			}
-		});
+		};
+		_captionUrl = url;
+		_cache.load(url, _captionListener);
 	}
 
 	public int getCurrentIndex() {
 		return _currentIndex;
 	}
 
+	/**
+	 * Configures the captions cache shared by every player (call before loading any media).
+	 * @param memoryBytes Memory budget for parsed captions in bytes
+	 * @param diskCache Whether downloaded files are also kept on disk
+	 */
+	public static void setCacheConfig(int memoryBytes, boolean diskCache) {
+		CaptionCache.configure(memoryBytes, diskCache);
+	}
+
 	// on data available
 	@Override
 	public void onLoad(@NonNull SambaPlayer player) {
@@ -102,8 +107,9 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 
 			_captionsRequest = media.captions;
 			_config = media.captionsConfig;
+			_cache = CaptionCache.getInstance(player.getContext());
 
-			SambaEventBus.subscribe(this);
+			_player.getEventBus().subscribe(this, _progressPolicy);
 		}
 		finally {
 			PluginManager.getInstance().notifyPluginLoaded(this);
@@ -145,39 +151,37 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 
 	@Override
 	public void onDestroy() {
-		SambaEventBus.unsubscribe(this);
+		if (_player != null)
+			_player.getEventBus().unsubscribe(this);
+
+		cancelLoad();
 	}
 
+	/**
+	 * Prefetches every language (while within the cache budget), so switching is instant.
+	 */
 	@Override
-	public void onProgress(SambaEvent event) {
-		if (_subtitleLayer == null || !_parsed) return;
-
-		final float time = _player.getCurrentTime();
-		final int m = (int)(time/60f);
-
-		if (!_captionsMap.containsKey(m)) return;
+	public void onStart(SambaEvent event) {
+		for (SambaMedia.Caption c : _captionsRequest) {
+			if (_cache.isFull())
+				break;
 
-		final Caption[] captions = _captionsMap.get(m);
-		boolean notFound = true;
+			if (c.url != null && !c.url.isEmpty())
+				_cache.load(c.url, null);
+		}
+	}
 
-		for (Caption caption : captions) {
-			if (time < caption.startTime || time > caption.endTime) continue;
+	@Override
+	public void onProgress(SambaEvent event) {
+		if (_subtitleLayer == null || !_parsed) return;
 
-			notFound = false;
+		_cues.seek((long)(_player.getCurrentTime()*1000), _cursor);
 
-			// if caption has changed
-			if (_currentCaption == null || _currentCaption.index != caption.index) {
-				_subtitleLayer.onText(caption.text);
-				_currentCaption = caption;
-			}
+		// holds progress until the active cues change (cue or gap boundary)
+		_progressPolicy.set(_cursor.from/1000f, _cursor.to/1000f);
 
-			break;
-		}
-
-		if (notFound) {
-			_subtitleLayer.onText("");
-			_currentCaption = null;
-		}
+		if (_cursor.changed)
+			_subtitleLayer.onText(_cursor.text);
 	}
 
 	private void changeMenuItem(int index) {
@@ -190,93 +194,23 @@ public final class Captions extends SambaPlayerListener implements Plugin {
 			((CaptionsAdapter)((ListView)captionsMenu.findViewById(R.id.menu_list)).getAdapter()).currentIndex = index;
 	}
 
-	private void parse(String captionsText) {
-		_parsed = false;
-		_captionsMap = new HashMap<>();
-
-		ArrayList<Caption> captions = new ArrayList<>();
-		int index = -1;
-		float startTime = 0f;
-		float endTime = 0f;
-		String text = "";
-		int count = 0;
-		int mLast = 0;
-		int m;
-		String[] time;
-
-		for (String s : captionsText.split("[\\r\\n]+")) {
-			// matches caption index
-			if (s.matches("^\\d+$")) {
-				// skip first time or wrong index
-				if (index != -1) {
-					m = (int)(startTime/60);
-
-					if (m != mLast) {
-						_captionsMap.put(mLast, captions.toArray(new Caption[captions.size()]));
-						captions = new ArrayList<>();
-						mLast = m;
-					}
-
-					captions.add(new Caption(index, startTime, endTime, text));
-				}
-
-				try { index = Integer.parseInt(s); }
-				catch(Exception e) { index = -1; }
-
-				startTime = 0f;
-				endTime = 0f;
-				text = "";
-				count = 1;
-				//System.out.println(index);
-				continue;
-			}
-
-			switch (count) {
-				// time interval
-				case 1:
-					time = s.split("\\D+");
-					startTime = extractTime(time);
-					endTime = extractTime(time, 4);
-					//System.out.println(startTime + " >> " + endTime);
-					break;
-				// text
-				default:
-					text += (count > 2 ? " " : "") + s;
-					//System.out.println(text);
-			}
-
-			++count;
-		}
-
-		// adding last caption entry
-		if (index != -1) {
-			captions.add(new Caption(index, startTime, endTime, text));
-			_captionsMap.put(mLast, captions.toArray(new Caption[captions.size()]));
-		}
+	/**
+	 * Stops listening to a pending load (the load goes on and is cached).
+	 */
+	private void cancelLoad() {
+		if (_captionListener == null)
+			return;
 
-		_parsed = true;
+		_cache.cancel(_captionUrl, _captionListener);
+		_captionListener = null;
+		_captionUrl = null;
 	}
 
-	private Float extractTime(String[] timeInterval, int offset) {
-		if (timeInterval.length == 0 && (timeInterval.length + offset)%4 != 0)
-			return 0f;
-
-		try {
-			// parse time
-			int h = Integer.parseInt(timeInterval[offset]);
-			int m = Integer.parseInt(timeInterval[1 + offset]);
-			int s = Integer.parseInt(timeInterval[2 + offset]);
-			int ms = Integer.parseInt(timeInterval[3 + offset]);
-
-			return h*3600 + m*60 + s + ms/1000f;
-		}
-		catch(Exception e) {
-			return 0f;
-		}
-	}
+	private void setCues(CueIndex cues) {
+		_cues = cues;
+		_parsed = true;
 
-	// convenience method
-	private Float extractTime(String[] timeInterval) {
-		return extractTime(timeInterval, 0);
+		// the window may have been computed over a partial index
+		_progressPolicy.reset();
 	}
 }
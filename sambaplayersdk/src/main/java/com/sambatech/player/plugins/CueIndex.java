@@ -0,0 +1,272 @@
+package com.sambatech.player.plugins;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable index of caption cues, queried by time.
+ *
+ * Cues are kept sorted by start time in primitive arrays (times in milliseconds,
+ * texts as ranges of one shared char buffer), along with the running maximum end time,
+ * so the cues active at a given time (overlapping or not) are found by binary search
+ * plus a short backwards scan.
+ */
+final class CueIndex {
+
+	private final int size;
+	private final long[] starts;
+	private final long[] ends;
+
+	// max(ends[0..i]), bounds the backwards scan
+	private final long[] maxEnds;
+
+	// text of cue i is text[textOffsets[i], textOffsets[i + 1])
+	private final int[] textOffsets;
+	private final char[] text;
+
+	private CueIndex(int size, long[] starts, long[] ends, int[] textOffsets, char[] text) {
+		this.size = size;
+		this.starts = starts;
+		this.ends = ends;
+		this.textOffsets = textOffsets;
+		this.text = text;
+
+		maxEnds = new long[size];
+
+		for (int i = 0; i < size; ++i)
+			maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+	}
+
+	/**
+	 * @return Amount of cues
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return Approximate memory footprint in bytes (arrays only)
+	 */
+	long getByteCount() {
+		return 8L*3*starts.length + 4L*textOffsets.length + 2L*text.length;
+	}
+
+	/**
+	 * Moves the cursor to the given time, filling in the active cues text and the interval
+	 * during which they remain the same.
+	 * Returns right away while time stays inside the cursor's current interval.
+	 * @param time Time in milliseconds
+	 * @param cursor Lookup state (one per consumer)
+	 */
+	void seek(long time, Cursor cursor) {
+		if (cursor.index == this && time >= cursor.from && time < cursor.to) {
+			cursor.changed = false;
+			return;
+		}
+
+		// last cue starting at or before time
+		int lo = 0;
+		int hi = size - 1;
+		int mid;
+
+		while (lo <= hi) {
+			mid = (lo + hi) >>> 1;
+
+			if (starts[mid] <= time)
+				lo = mid + 1;
+			else hi = mid - 1;
+		}
+
+		long from = hi >= 0 ? starts[hi] : Long.MIN_VALUE;
+		long to = hi + 1 < size ? starts[hi + 1] : Long.MAX_VALUE;
+		int count = 0;
+		int j = hi;
+
+		// collects active cues (reverse start order), no earlier cue ends after maxEnds[j]
+		for (; j >= 0 && maxEnds[j] > time; --j) {
+			if (ends[j] > time) {
+				cursor.ensureCapacity(count + 1);
+				cursor.scratch[count++] = j;
+				to = Math.min(to, ends[j]);
+			}
+			else from = Math.max(from, ends[j]);
+		}
+
+		if (j >= 0)
+			from = Math.max(from, maxEnds[j]);
+
+		cursor.from = from;
+		cursor.to = to;
+
+		boolean changed = cursor.index != this || count != cursor.count;
+
+		for (int i = 0; !changed && i < count; ++i)
+			changed = cursor.scratch[i] != cursor.active[i];
+
+		cursor.index = this;
+		cursor.changed = changed;
+
+		if (!changed)
+			return;
+
+		cursor.count = count;
+		System.arraycopy(cursor.scratch, 0, cursor.active, 0, count);
+
+		// overlapping cues are stacked by start time
+		final StringBuilder s = new StringBuilder();
+
+		for (int i = count; i-- > 0;) {
+			if (s.length() > 0)
+				s.append('\n');
+
+			j = cursor.active[i];
+			s.append(text, textOffsets[j], textOffsets[j + 1] - textOffsets[j]);
+		}
+
+		cursor.text = s.toString();
+	}
+
+	/**
+	 * Lookup state of a consumer.
+	 */
+	static final class Cursor {
+
+		/**
+		 * Interval (ms) in which the active cues don't change, <code>[from, to)</code>.
+		 */
+		long from;
+		long to;
+
+		/**
+		 * Text of the active cues (empty if none).
+		 */
+		String text = "";
+
+		/**
+		 * Whether the last seek changed the active cues.
+		 */
+		boolean changed;
+
+		private CueIndex index;
+		private int count;
+		private int[] active = new int[4];
+		private int[] scratch = new int[4];
+
+		void reset() {
+			index = null;
+			count = 0;
+			text = "";
+			changed = false;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity <= scratch.length)
+				return;
+
+			scratch = Arrays.copyOf(scratch, capacity*2);
+			active = Arrays.copyOf(active, capacity*2);
+		}
+	}
+
+	/**
+	 * Accumulates cues in any order.
+	 */
+	static final class Builder {
+
+		private int size;
+		private long[] starts = new long[64];
+		private long[] ends = new long[64];
+		private int[] textOffsets = new int[65];
+		private char[] text = new char[2048];
+		private int textLength;
+		private boolean sorted = true;
+
+		/**
+		 * @param start Start time in milliseconds
+		 * @param end End time in milliseconds (exclusive)
+		 * @param cueText Cue text
+		 */
+		Builder add(long start, long end, CharSequence cueText) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size*2);
+				ends = Arrays.copyOf(ends, size*2);
+				textOffsets = Arrays.copyOf(textOffsets, size*2 + 1);
+			}
+
+			final int length = cueText.length();
+
+			if (textLength + length > text.length)
+				text = Arrays.copyOf(text, Math.max(text.length*2, textLength + length));
+
+			for (int i = 0; i < length; ++i)
+				text[textLength + i] = cueText.charAt(i);
+
+			if (size > 0 && start < starts[size - 1])
+				sorted = false;
+
+			starts[size] = start;
+			ends[size] = end;
+			textOffsets[size] = textLength;
+			textLength += length;
+			textOffsets[++size] = textLength;
+			return this;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * @return The index (arrays trimmed to size)
+		 */
+		CueIndex build() {
+			if (!sorted)
+				sort();
+
+			return new CueIndex(size, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size),
+					Arrays.copyOf(textOffsets, size + 1), Arrays.copyOf(text, textLength));
+		}
+
+		/**
+		 * Stable sort by start time, rebuilding the text buffer in the new order.
+		 */
+		private void sort() {
+			final Integer[] order = new Integer[size];
+
+			for (int i = 0; i < size; ++i)
+				order[i] = i;
+
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer lhs, Integer rhs) {
+					return starts[lhs] < starts[rhs] ? -1 : starts[lhs] == starts[rhs] ? 0 : 1;
+				}
+			});
+
+			final long[] sortedStarts = new long[starts.length];
+			final long[] sortedEnds = new long[ends.length];
+			final int[] sortedOffsets = new int[textOffsets.length];
+			final char[] sortedText = new char[text.length];
+			int length = 0;
+			int k;
+			int n;
+
+			for (int i = 0; i < size; ++i) {
+				k = order[i];
+				n = textOffsets[k + 1] - textOffsets[k];
+				sortedStarts[i] = starts[k];
+				sortedEnds[i] = ends[k];
+				sortedOffsets[i] = length;
+				System.arraycopy(text, textOffsets[k], sortedText, length, n);
+				length += n;
+			}
+
+			sortedOffsets[size] = length;
+			starts = sortedStarts;
+			ends = sortedEnds;
+			textOffsets = sortedOffsets;
+			text = sortedText;
+			sorted = true;
+		}
+	}
+}
@@ -89,6 +89,7 @@ public class ImaWrapper implements Plugin {
 	private AdsManager adsManager;
 
 	private AdListener adListener;
+	private SambaEventBus.EventBus eventBus;
 
 	/**
 	 * These callbacks are notified when the video is played and when it ends. The IMA SDK uses this
@@ -398,7 +399,8 @@ public class ImaWrapper implements Plugin {
 			}
 		};
 
-		SambaEventBus.subscribe(playerListener);
+		eventBus = player.getEventBus();
+		eventBus.subscribe(playerListener);
 		PluginManager.getInstance().notifyPluginLoaded(this);
 	}
 
@@ -412,7 +414,7 @@ public class ImaWrapper implements Plugin {
 		//Main player reference destruction
 		contentPlayer = null;
 
-		SambaEventBus.unsubscribe(playerListener);
+		eventBus.unsubscribe(playerListener);
 		destroyAdPlayer();
 		release();
 	}
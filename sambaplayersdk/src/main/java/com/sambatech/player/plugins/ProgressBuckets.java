@@ -0,0 +1,90 @@
+package com.sambatech.player.plugins;
+
+/**
+ * Progress and retention percent buckets (0-99) of a playback pending report, as 100-bit sets
+ * (2 longs each), so that tracking a tick costs a couple of bit operations.
+ *
+ * Progress buckets are reported every time they are watched, retention buckets only once
+ * per playback.
+ */
+final class ProgressBuckets {
+
+	private final long[] progresses = new long[2];
+	private final long[] retentions = new long[2];
+	private final long[] trackedRetentions = new long[2];
+
+	/**
+	 * Marks the bucket of the given time as watched.
+	 * @param time Current time in seconds
+	 * @param duration Total duration in seconds
+	 */
+	void track(float time, float duration) {
+		int p = (int)(100*time/duration);
+
+		if (p > 99)
+			p = 99;
+		else if (p < 0)
+			p = 0;
+
+		final int i = p >> 6;
+		final long bit = 1L << p; // shift distance is taken mod 64
+
+		progresses[i] |= bit;
+
+		if ((trackedRetentions[i] & bit) == 0) {
+			trackedRetentions[i] |= bit;
+			retentions[i] |= bit;
+		}
+	}
+
+	/**
+	 * @return Amount of targets pending report
+	 */
+	int getPendingCount() {
+		return Long.bitCount(progresses[0]) + Long.bitCount(progresses[1]) +
+				Long.bitCount(retentions[0]) + Long.bitCount(retentions[1]);
+	}
+
+	/**
+	 * Appends pending buckets as comma separated targets (progresses then retentions, ascending),
+	 * clearing them.
+	 * @param targets Targets to append to (comma separated)
+	 * @return Whether anything was appended
+	 */
+	boolean collect(StringBuilder targets) {
+		if ((progresses[0] | progresses[1] | retentions[0] | retentions[1]) == 0)
+			return false;
+
+		if (targets.length() > 0)
+			targets.append(',');
+
+		final int start = targets.length();
+
+		append(targets, 'p', progresses);
+		append(targets, 'r', retentions);
+
+		// drops the leading comma
+		targets.deleteCharAt(start);
+		return true;
+	}
+
+	/**
+	 * Appends ",<prefix><2-digit bucket>" for every bit set, clearing them.
+	 */
+	private static void append(StringBuilder targets, char prefix, long[] buckets) {
+		long word;
+		int p;
+
+		for (int i = 0; i < buckets.length; ++i) {
+			word = buckets[i];
+
+			while (word != 0) {
+				p = (i << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				targets.append(',').append(prefix).append((char) ('0' + p/10)).append((char) ('0' + p%10));
+			}
+
+			buckets[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,551 @@
+package com.sambatech.player.plugins;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Persistent upload queue for STTM beacons, shared by every player.
+ *
+ * The main thread only appends to a lock-free ring buffer, a single worker thread spools it
+ * to an append-only journal on disk and uploads the journal in order, in batches sized by the
+ * network type: an upload starts once a batch is pending or the oldest pending beacon waited
+ * {@link #FLUSH_DELAY}. Beacons survive offline periods and process restarts (replayed on next use),
+ * failed uploads back off exponentially and the journal is capped (oldest beacons dropped).
+ */
+final class SttmQueue {
+
+	private static final int RING_SIZE = 256;
+	private static final int RING_MASK = RING_SIZE - 1;
+	private static final long MAX_DISK_SIZE = 256*1024;
+	private static final int BATCH_SIZE_WIFI = 50;
+	private static final int BATCH_SIZE_MOBILE = 10;
+	private static final long MIN_BACKOFF = 5000;
+	private static final long MAX_BACKOFF = 5*60*1000;
+	private static final long FLUSH_DELAY = 30*1000;
+
+	/**
+	 * Targets merged into a single request are limited to keep URLs short.
+	 */
+	private static final int MAX_TARGETS_LENGTH = 1500;
+
+	/**
+	 * Network state as seen by the queue.
+	 */
+	interface NetworkProbe {
+		boolean isOnline();
+
+		/**
+		 * @return Whether the network is unmetered (Wi-Fi, ethernet), for bigger batches
+		 */
+		boolean isUnmetered();
+	}
+
+	private static SttmQueue instance;
+
+	private final File journal;
+	private final File offsetFile;
+	private final ScheduledExecutorService worker;
+	private final NetworkProbe network;
+
+	// single producer (main thread), single consumer (worker)
+	private final AtomicReferenceArray<String> ring = new AtomicReferenceArray<>(RING_SIZE);
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicBoolean signalled = new AtomicBoolean();
+
+	// worker state
+	private long offset = -1;
+	private int failures;
+	private boolean retryPending;
+	private boolean flushPending;
+	private Future<?> retryFuture;
+	private Future<?> flushFuture;
+
+	/**
+	 * Beacons spooled since the last upload.
+	 */
+	private int pending;
+
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			signalled.set(false);
+			pending += spool();
+
+			// nothing new or a retry is due (it will upload everything)
+			if (retryPending || pending == 0)
+				return;
+
+			if (pending >= getBatchSize()) {
+				if (flushFuture != null)
+					flushFuture.cancel(false);
+
+				flushPending = false;
+				upload();
+			}
+			else if (!flushPending) {
+				flushPending = true;
+				flushFuture = worker.schedule(flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+	};
+
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flushPending = false;
+
+			if (!retryPending)
+				upload();
+		}
+	};
+
+	private final Runnable retry = new Runnable() {
+		@Override
+		public void run() {
+			retryPending = false;
+			upload();
+		}
+	};
+
+	private SttmQueue(final Context context) {
+		this(new File(context.getFilesDir(), "samba_sttm"), Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "SttmQueue");
+			}
+		}), new NetworkProbe() {
+			@Override
+			public boolean isOnline() {
+				final NetworkInfo info = getNetworkInfo();
+				return info != null && info.isConnected();
+			}
+
+			@Override
+			public boolean isUnmetered() {
+				final NetworkInfo info = getNetworkInfo();
+
+				return info != null && (info.getType() == ConnectivityManager.TYPE_WIFI ||
+						info.getType() == ConnectivityManager.TYPE_ETHERNET);
+			}
+
+			private NetworkInfo getNetworkInfo() {
+				return ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
+			}
+		});
+	}
+
+	/**
+	 * @param dir Directory of the journal
+	 * @param worker Single thread running the spooling and uploads
+	 * @param network Network state
+	 */
+	SttmQueue(File dir, ScheduledExecutorService worker, NetworkProbe network) {
+		journal = new File(dir, "journal");
+		offsetFile = new File(dir, "offset");
+		this.worker = worker;
+		this.network = network;
+
+		// replays what was left by previous sessions
+		scheduleRetry(0);
+	}
+
+	static synchronized SttmQueue getInstance(Context context) {
+		if (instance == null)
+			instance = new SttmQueue(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Enqueues a beacon. Must be called from the main thread.
+	 * @param url STTM endpoint
+	 * @param params Query parameters but the targets (already encoded)
+	 * @param targets Comma separated targets
+	 */
+	void offer(String url, String params, String targets) {
+		final long h = head.get();
+
+		if (h - tail.get() == RING_SIZE) {
+			Log.w(getClass().getSimpleName(), "Queue full, beacon dropped: " + targets);
+			return;
+		}
+
+		ring.set((int) (h & RING_MASK), url + '\t' + params + '\t' + targets);
+		head.lazySet(h + 1);
+
+		if (signalled.compareAndSet(false, true))
+			worker.execute(drain);
+	}
+
+	/**
+	 * Appends the ring buffer contents to the journal (worker thread).
+	 * Slots are released only once written, a failed write leaves them for the next spool.
+	 * @return The amount of beacons spooled
+	 */
+	private int spool() {
+		final long start = tail.get();
+		final long end = head.get();
+
+		if (start == end)
+			return 0;
+
+		if (!journal.getParentFile().exists() && !journal.getParentFile().mkdirs()) {
+			Log.w(getClass().getSimpleName(), "Failed to create journal directory");
+			return 0;
+		}
+
+		Writer writer = null;
+		int count = 0;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(journal, true), "UTF-8");
+
+			String line;
+
+			for (long t = start; t != end; ++t) {
+				line = ring.get((int) (t & RING_MASK));
+
+				if (line == null)
+					continue;
+
+				writer.write(line);
+				writer.write('\n');
+				++count;
+			}
+
+			writer.close();
+			writer = null;
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to write journal", e);
+			return 0;
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close journal", e);
+			}
+		}
+
+		for (long t = start; t != end; ++t)
+			ring.set((int) (t & RING_MASK), null);
+
+		tail.lazySet(end);
+
+		if (journal.length() > MAX_DISK_SIZE)
+			compact(MAX_DISK_SIZE/2);
+
+		return count;
+	}
+
+	/**
+	 * Uploads the next batch of the journal, scheduling the following one (worker thread).
+	 */
+	private void upload() {
+		// nothing to send, no need to wait for the network
+		if (getOffset() >= journal.length()) {
+			compact(0);
+			failures = 0;
+			pending = 0;
+			return;
+		}
+
+		if (!network.isOnline()) {
+			backoff();
+			return;
+		}
+
+		final long offset = getOffset();
+		final List<String> batch = new ArrayList<>();
+		final List<Integer> sizes = new ArrayList<>();
+
+		read(offset, getBatchSize(), batch, sizes);
+
+		if (batch.isEmpty()) {
+			compact(0);
+			return;
+		}
+
+		long position = offset;
+		String[] first;
+		String[] entry;
+		StringBuilder targets;
+		int i = 0;
+		int j;
+		int status;
+
+		while (i < batch.size()) {
+			first = batch.get(i).split("\t", 3);
+
+			// merges consecutive beacons of the same session into one request
+			targets = new StringBuilder(first.length == 3 ? first[2] : "");
+			j = i + 1;
+
+			for (; j < batch.size(); ++j) {
+				entry = batch.get(j).split("\t", 3);
+
+				if (first.length != 3 || entry.length != 3 || !entry[0].equals(first[0]) || !entry[1].equals(first[1]) ||
+						targets.length() + entry[2].length() >= MAX_TARGETS_LENGTH)
+					break;
+
+				targets.append(',').append(entry[2]);
+			}
+
+			// malformed entries are skipped
+			status = first.length == 3 ? send(first[0] + "?sttmm=" + targets + "&" + first[1]) : 200;
+
+			// client errors won't succeed on retry
+			if (status == -1 || status >= 500 || status == 408 || status == 429) {
+				backoff();
+				return;
+			}
+
+			for (; i < j; ++i)
+				position += sizes.get(i);
+
+			setOffset(position);
+		}
+
+		failures = 0;
+		pending = Math.max(pending - batch.size(), 0);
+
+		// keeps going until the journal is empty
+		scheduleRetry(0);
+	}
+
+	/**
+	 * @return The response status or -1 on network failure
+	 */
+	private int send(String url) {
+		try {
+			final HttpURLConnection con = HttpTransport.open(url, HttpTransport.DEFAULT_TIMEOUT);
+
+			con.setRequestProperty("http.agent", "chrome");
+
+			final HttpTransport.Response response = HttpTransport.execute(con);
+
+			response.close();
+			return response.getCode();
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to upload beacon", e);
+			return -1;
+		}
+	}
+
+	private void backoff() {
+		final long delay = Math.min(MIN_BACKOFF << Math.min(failures++, 10), MAX_BACKOFF);
+
+		retryPending = true;
+		scheduleRetry(delay);
+	}
+
+	/**
+	 * Replaces the pending retry (if any).
+	 */
+	private void scheduleRetry(long delay) {
+		if (retryFuture != null)
+			retryFuture.cancel(false);
+
+		retryFuture = worker.schedule(retry, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reads up to <code>count</code> entries from the given journal position.
+	 */
+	private void read(long position, int count, List<String> entries, List<Integer> sizes) {
+		if (!journal.exists())
+			return;
+
+		BufferedReader reader = null;
+
+		try {
+			final FileInputStream in = new FileInputStream(journal);
+
+			if (in.skip(position) != position) {
+				in.close();
+				return;
+			}
+
+			reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+			for (String line; entries.size() < count && (line = reader.readLine()) != null;) {
+				entries.add(line);
+				sizes.add(line.getBytes("UTF-8").length + 1);
+			}
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to read journal", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the journal without the uploaded entries, keeping at most the newest
+	 * <code>maxSize</code> bytes (0 only cleans it up when fully uploaded).
+	 */
+	private void compact(long maxSize) {
+		final long offset = getOffset();
+		final long length = journal.length();
+
+		if (offset >= length) {
+			journal.delete();
+			offsetFile.delete();
+			this.offset = 0;
+			return;
+		}
+
+		if (maxSize == 0)
+			return;
+
+		final List<String> entries = new ArrayList<>();
+		final List<Integer> sizes = new ArrayList<>();
+
+		read(offset, Integer.MAX_VALUE, entries, sizes);
+
+		long size = length - offset;
+		int first = 0;
+
+		while (size > maxSize && first < entries.size())
+			size -= sizes.get(first++);
+
+		if (first > 0)
+			Log.w(getClass().getSimpleName(), String.format("Journal full, %s beacons dropped", first));
+
+		final File tmp = new File(journal.getPath() + ".tmp");
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+			for (int i = first; i < entries.size(); ++i) {
+				writer.write(entries.get(i));
+				writer.write('\n');
+			}
+
+			writer.close();
+			writer = null;
+
+			if (tmp.renameTo(journal))
+				setOffset(0);
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to compact journal", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close journal", e);
+			}
+
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Position of the first entry not uploaded yet.
+	 */
+	private long getOffset() {
+		if (offset != -1)
+			return offset;
+
+		offset = 0;
+
+		if (!offsetFile.exists())
+			return offset;
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(offsetFile), "UTF-8"));
+			offset = Long.parseLong(reader.readLine());
+		}
+		catch (IOException | NumberFormatException e) {
+			Log.w(getClass().getSimpleName(), "Invalid journal offset", e);
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close journal offset", e);
+			}
+		}
+
+		return offset;
+	}
+
+	private void setOffset(long offset) {
+		this.offset = offset;
+
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(offsetFile), "UTF-8");
+			writer.write(String.valueOf(offset));
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to write journal offset", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close journal offset", e);
+			}
+		}
+	}
+
+	private int getBatchSize() {
+		return network.isUnmetered() ? BATCH_SIZE_WIFI : BATCH_SIZE_MOBILE;
+	}
+}
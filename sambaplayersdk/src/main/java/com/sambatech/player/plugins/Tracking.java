@@ -1,27 +1,17 @@
 package com.sambatech.player.plugins;
 
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.android.libraries.mediaframework.layeredvideo.SimpleVideoPlayer;
 import com.sambatech.player.SambaPlayer;
+import com.sambatech.player.event.DeliveryPolicy;
+import com.sambatech.player.event.ProgressEvent;
 import com.sambatech.player.event.SambaEvent;
 import com.sambatech.player.event.SambaEventBus;
 import com.sambatech.player.event.SambaPlayerListener;
 import com.sambatech.player.model.SambaMediaConfig;
-
-import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TreeSet;
+import com.sambatech.player.utils.PlaybackClock;
 
 /**
  * Plugin responsible for sending different kinds of player media tracking data.
@@ -31,7 +21,12 @@ import java.util.TreeSet;
 class Tracking implements Plugin {
 
 	private SambaMediaConfig media;
+	private SambaEventBus.EventBus eventBus;
+
+	// only the percent bucket matters, so progress is delivered once per bucket
+	private final DeliveryPolicy.Window progressPolicy = DeliveryPolicy.window();
 	private Sttm sttm;
+	private SttmQueue queue;
 
 	private SambaPlayerListener playerListener = new SambaPlayerListener() {
 		@Override
@@ -45,8 +40,19 @@ class Tracking implements Plugin {
 
 		@Override
 		public void onProgress(SambaEvent event) {
-			if (sttm != null)
-				sttm.trackProgress((float) event.getDataAll()[0], (float) event.getDataAll()[1]);
+			if (sttm == null || !(event instanceof ProgressEvent))
+				return;
+
+			final ProgressEvent e = (ProgressEvent) event;
+			final float bucket = e.getDuration()/100f;
+
+			sttm.trackProgress(e.getCurrentTime(), e.getDuration());
+
+			if (bucket > 0f) {
+				final float start = (int)(e.getCurrentTime()/bucket)*bucket;
+				progressPolicy.set(start, start + bucket);
+			}
+			else progressPolicy.reset();
 		}
 
 		@Override
@@ -58,19 +64,36 @@ class Tracking implements Plugin {
 
 	public void onLoad(@NonNull SambaPlayer player) {
 		Log.i("track", "load");
-		media = (SambaMediaConfig)player.getMedia();
+		load((SambaMediaConfig)player.getMedia(), player.getEventBus(), SttmQueue.getInstance(player.getContext()));
+		PluginManager.getInstance().notifyPluginLoaded(this);
+	}
 
-		if (media.projectHash != null && media.id != null)
-			SambaEventBus.subscribe(playerListener);
+	/**
+	 * Starts tracking a media.
+	 * @param media The media
+	 * @param eventBus Bus of the player playing it
+	 * @param queue Where beacons are sent to
+	 */
+	void load(SambaMediaConfig media, SambaEventBus.EventBus eventBus, SttmQueue queue) {
+		this.media = media;
+		this.eventBus = eventBus;
+		this.queue = queue;
 
-		PluginManager.getInstance().notifyPluginLoaded(this);
+		// the bucket of the previous media would hold back the first ones of this one
+		progressPolicy.reset();
+
+		if (media.projectHash != null && media.id != null)
+			eventBus.subscribe(playerListener, progressPolicy);
 	}
 
 	public void onInternalPlayerCreated(@NonNull SimpleVideoPlayer internalPlayer) {}
 
 	public void onDestroy() {
 		Log.i("track", "destroy");
-		SambaEventBus.unsubscribe(playerListener);
+		if (eventBus != null)
+			eventBus.unsubscribe(playerListener);
+
+		progressPolicy.reset();
 
 		if (sttm != null) {
 			sttm.destroy();
@@ -83,96 +106,73 @@ class Tracking implements Plugin {
 			sttm = new Sttm();
 	}
 
-	private class UrlTracker extends AsyncTask<String, Void, Void> {
-
-		@Override
-		protected Void doInBackground(String... params) {
-			try {
-				Log.i(getClass().getSimpleName(), params[0]);
-
-				for (String url : params) {
-					URL myURL = new URL(url);
-					URLConnection conn = myURL.openConnection();
-					conn.setRequestProperty("http.agent", "chrome");
-					conn.setDoOutput(false);
-					conn.setDoInput(true);
-					conn.getInputStream();
-				}
-			}
-			catch (IOException e) {
-				Log.e(getClass().getSimpleName(), "Failed to fetch URL", e);
-			}
-
-			return null;
-		}
-	}
+	private class Sttm implements PlaybackClock.Task {
 
-	private class Sttm extends TimerTask {
+		private final String params = String.format("sttmk=%s&sttms=%s&sttmu=123&sttmw=%s",
+				media.sttmKey, media.sessionId,
+				String.format("pid:%s/cat:%s/mid:%s", media.projectId, media.categoryId, media.id));
 
-		private List<String> targets = new ArrayList<>();
-		private Timer sttmTimer;
-		private TreeSet<String> progresses = new TreeSet<>();
-		private HashSet<Integer> trackedRetentions = new HashSet<>();
+		// comma separated targets pending flush (reused)
+		private final StringBuilder targets = new StringBuilder();
 
-		Sttm() {
-			sttmTimer = new Timer();
-			sttmTimer.scheduleAtFixedRate(this, 0, 5000);
-		}
+		private final ProgressBuckets buckets = new ProgressBuckets();
 
+		/**
+		 * Flushes pending targets, unscheduling itself once there's nothing left to send
+		 * (so an idle player causes no wakeups).
+		 */
 		@Override
-		public void run() {
-			if (targets.size() == 0)
-				return;
+		public boolean onTick() {
+			if (targets.length() == 0)
+				return false;
 
 			// TODO: add version to STTM (BuildConfig.VERSION_NAME)
-			new UrlTracker().execute(String.format("%s?sttmm=%s&sttmk=%s&sttms=%s&sttmu=123&sttmw=%s",
-					media.sttmUrl, TextUtils.join(",", targets), media.sttmKey, media.sessionId,
-					String.format("pid:%s/cat:%s/mid:%s", media.projectId, media.categoryId, media.id)));
+			// persisted and uploaded in background (survives offline periods)
+			queue.offer(media.sttmUrl, params, targets.toString());
 
-
-			targets.clear();
+			targets.setLength(0);
+			return true;
 		}
 
 		void trackStart() {
-			targets.add("play");
+			addTarget("play");
 		}
 
 		void trackComplete() {
 			collectProgress();
-			targets.add("complete");
+			addTarget("complete");
 		}
 
 		void trackProgress(float time, float duration) {
-			int p = (int)(100*time/duration);
-
-			if (p > 99)
-				p = 99;
+			buckets.track(time, duration);
 
-			progresses.add(String.format(Locale.getDefault(), "p%02d", p));
-
-			if (!trackedRetentions.contains(p))
-				progresses.add(String.format(Locale.getDefault(), "r%02d", p));
-
-			trackedRetentions.add(p);
-
-			if (progresses.size() >= 5)
+			if (buckets.getPendingCount() >= 5)
 				collectProgress();
 		}
 
+		/**
+		 * Hands pending targets over to the queue instead of dropping them.
+		 */
 		void destroy() {
-			if (sttmTimer != null) {
-				sttmTimer.cancel();
-				sttmTimer.purge();
-				sttmTimer = null;
-			}
+			collectProgress();
+			onTick();
+			PlaybackClock.getInstance().cancel(this);
 		}
 
+		/**
+		 * Appends pending buckets as one target.
+		 */
 		private void collectProgress() {
-			if (progresses.size() == 0)
-				return;
+			if (buckets.collect(targets))
+				PlaybackClock.getInstance().schedule(this, 5000);
+		}
+
+		private void addTarget(String target) {
+			if (targets.length() > 0)
+				targets.append(',');
 
-			targets.add(TextUtils.join(",", progresses));
-			progresses.clear();
+			targets.append(target);
+			PlaybackClock.getInstance().schedule(this, 5000);
 		}
 	}
 }
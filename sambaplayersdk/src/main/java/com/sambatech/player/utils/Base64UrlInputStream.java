@@ -0,0 +1,193 @@
+package com.sambatech.player.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an URL-safe Base64 stream (RFC 4648 section 5, padding optional) on the fly,
+ * optionally ignoring a given amount of leading and trailing characters.
+ *
+ * Avoids holding the whole token (and its decoded copy) in memory.
+ */
+public final class Base64UrlInputStream extends FilterInputStream {
+
+	private static final int[] DECODE_TABLE = new int[128];
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; ++i)
+			DECODE_TABLE[i] = -1;
+
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+		for (int i = 0; i < alphabet.length(); ++i)
+			DECODE_TABLE[alphabet.charAt(i)] = i;
+
+		// URL-safe and standard alphabets are both accepted
+		DECODE_TABLE['-'] = DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['_'] = DECODE_TABLE['/'] = 63;
+	}
+
+	private int skipHead;
+
+	/**
+	 * Held back input so that the last <code>tail.length</code> characters are never decoded.
+	 */
+	private final int[] tail;
+	private int tailPos;
+	private int tailCount;
+
+	private final byte[] decoded = new byte[3];
+	private int decodedPos;
+	private int decodedLen;
+	private boolean eof;
+
+	/**
+	 * @param in Encoded input
+	 * @param skipHead Amount of leading characters to ignore
+	 * @param skipTail Amount of trailing characters to ignore
+	 */
+	public Base64UrlInputStream(InputStream in, int skipHead, int skipTail) {
+		super(in);
+		this.skipHead = skipHead;
+		this.tail = new int[Math.max(skipTail, 0)];
+	}
+
+	public Base64UrlInputStream(InputStream in) {
+		this(in, 0, 0);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (decodedPos == decodedLen && !decodeNext())
+			return -1;
+
+		return decoded[decodedPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+
+		int n = 0;
+
+		while (n < len) {
+			if (decodedPos == decodedLen && !decodeNext())
+				break;
+
+			final int count = Math.min(decodedLen - decodedPos, len - n);
+
+			System.arraycopy(decoded, decodedPos, b, off + n, count);
+			decodedPos += count;
+			n += count;
+		}
+
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+
+		while (skipped < n && read() != -1)
+			++skipped;
+
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return decodedLen - decodedPos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Decodes the next quantum (up to 4 characters into up to 3 bytes).
+	 * @return False on end of stream
+	 */
+	private boolean decodeNext() throws IOException {
+		if (eof)
+			return false;
+
+		int bits = 0;
+		int count = 0;
+		int c;
+		int v;
+
+		while (count < 4) {
+			c = readChar();
+
+			// end of stream or padding
+			if (c == -1 || c == '=') {
+				eof = true;
+				break;
+			}
+
+			// ignores line breaks or any other char out of the alphabet
+			if (c >= DECODE_TABLE.length || (v = DECODE_TABLE[c]) == -1)
+				continue;
+
+			bits = bits << 6 | v;
+			++count;
+		}
+
+		decodedPos = 0;
+
+		switch (count) {
+			case 4:
+				decoded[0] = (byte) (bits >> 16);
+				decoded[1] = (byte) (bits >> 8);
+				decoded[2] = (byte) bits;
+				decodedLen = 3;
+				break;
+			case 3:
+				decoded[0] = (byte) (bits >> 10);
+				decoded[1] = (byte) (bits >> 2);
+				decodedLen = 2;
+				break;
+			case 2:
+				decoded[0] = (byte) (bits >> 4);
+				decodedLen = 1;
+				break;
+			default:
+				decodedLen = 0;
+		}
+
+		return decodedLen > 0;
+	}
+
+	/**
+	 * Reads the next char, skipping the head and holding back the tail.
+	 */
+	private int readChar() throws IOException {
+		for (; skipHead > 0; --skipHead)
+			if (in.read() == -1)
+				return -1;
+
+		if (tail.length == 0)
+			return in.read();
+
+		int c;
+
+		while (tailCount < tail.length) {
+			if ((c = in.read()) == -1)
+				return -1;
+
+			tail[(tailPos + tailCount++)%tail.length] = c;
+		}
+
+		if ((c = in.read()) == -1)
+			return -1;
+
+		final int next = tail[tailPos];
+
+		tail[tailPos] = c;
+		tailPos = (tailPos + 1)%tail.length;
+		return next;
+	}
+}
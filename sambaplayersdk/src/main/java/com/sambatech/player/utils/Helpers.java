@@ -5,17 +5,15 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.AsyncTask;
 
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
 import com.sambatech.player.model.SambaMedia;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Comparator;
-import java.util.Scanner;
 
 /**
  * Useful stuff for whole SambaPlayer project.
@@ -68,8 +66,18 @@ public final class Helpers {
 	}
 
 	public static void requestUrl(String url, RequestCallback callback) {
+		requestUrl(url, HttpTransport.DEFAULT_TIMEOUT, callback);
+	}
+
+	/**
+	 * Requests an URL in background through the shared (keep-alive) transport.
+	 * @param url The URL
+	 * @param timeout Connect and read timeout in milliseconds
+	 * @param callback Result listener (dispatched on the main thread)
+	 */
+	public static void requestUrl(String url, int timeout, RequestCallback callback) {
 		try {
-			requestUrl((HttpURLConnection)new URL(url).openConnection(), callback);
+			requestUrl(HttpTransport.open(url, timeout), callback);
 		}
 		catch (IOException e) {
 			e.printStackTrace();
@@ -80,39 +88,25 @@ public final class Helpers {
 		new AsyncTask<HttpURLConnection, Void, Response>() {
 			@Override
 			protected Response doInBackground(HttpURLConnection... params) {
-				HttpURLConnection con = params[0];
-				InputStream inputStream = null;
-				Scanner scanner = null;
-				Scanner scannerDelimited = null;
+				HttpTransport.Response response = null;
 
 				try {
-					con.connect();
-
-					/*System.out.println("Request method: " + con.getRequestMethod());
-					System.out.println("Permission: " + con.getPermission());
-					System.out.println("Response code: " + con.getResponseCode());
-					System.out.println("Response msg: " + con.getResponseMessage());
+					response = HttpTransport.execute(params[0]);
 
-					s = "";
-					for (Map.Entry<String, List<String>> kv : con.getHeaderFields().entrySet())
-						s += kv.getKey() + ": " + kv.getValue() + "\n";
-					System.out.println(s);*/
+					final String body = response.readString();
 
-					inputStream = con.getInputStream();
-					scanner = new Scanner(inputStream);
-					scannerDelimited = scanner.useDelimiter("\\A");
+					if (!response.isSuccessful())
+						return new Response(body, new IOException("Server returned HTTP response code: " + response.getCode()));
 
-					return new Response(scannerDelimited.hasNext() ? scannerDelimited.next() : "", null);
+					return new Response(body, null);
 				}
 				catch (Exception e) {
 					return new Response(null, e);
 				}
 				finally {
 					try {
-						if (con != null) con.disconnect();
-						if (inputStream != null) inputStream.close();
-						if (scanner != null) scanner.close();
-						if (scannerDelimited != null) scannerDelimited.close();
+						// gives the connection back to the pool (never disconnected)
+						if (response != null) response.close();
 					}
 					catch (Exception e) {
 						e.printStackTrace();
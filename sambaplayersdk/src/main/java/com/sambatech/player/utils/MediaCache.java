@@ -0,0 +1,339 @@
+package com.sambatech.player.utils;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.sambatech.player.model.SambaMediaConfig;
+import com.sambatech.player.model.SambaMediaRequest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-tier cache (memory LRU + disk) for media metadata responses.
+ *
+ * Memory keeps parsed medias, disk keeps the (already decoded) JSON documents,
+ * parsed again on load. Entries older than the TTL are still served while younger
+ * than TTL + max stale, so that callers can revalidate them in background.
+ *
+ * Live requests use their own TTL (0 by default, i.e. never cached).
+ */
+public final class MediaCache {
+
+	/**
+	 * Freshness of an entry.
+	 */
+	public enum State {
+		FRESH,
+		STALE,
+		EXPIRED
+	}
+
+	/**
+	 * Cached parsed media.
+	 */
+	public static final class Entry {
+		public final SambaMediaConfig media;
+		public final long time;
+
+		Entry(SambaMediaConfig media, long time) {
+			this.media = media;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Cached JSON document.
+	 */
+	public static final class DiskEntry {
+		public final String json;
+		public final long time;
+
+		DiskEntry(String json, long time) {
+			this.json = json;
+			this.time = time;
+		}
+	}
+
+	private static final String DIR_NAME = "samba_media";
+	private static final int MEMORY_ENTRIES = 64;
+
+	private static MediaCache instance;
+
+	private final LruCache<String, Entry> memory = new LruCache<>(MEMORY_ENTRIES);
+	private final File dir;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger staleHits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private volatile long ttl = 5*60*1000;
+	private volatile long liveTtl = 0;
+	private volatile long maxStale = 24*60*60*1000;
+
+	/**
+	 * Creates a cache apart from the shared one (ex. tests).
+	 * @param dir Directory of the disk tier
+	 */
+	public MediaCache(File dir) {
+		this.dir = dir;
+	}
+
+	private MediaCache(Context context) {
+		this(new File(context.getCacheDir(), DIR_NAME));
+	}
+
+	public static synchronized MediaCache getInstance(Context context) {
+		if (instance == null)
+			instance = new MediaCache(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Configures entries lifetime.
+	 * @param ttl Time (ms) a VOD entry is considered fresh
+	 * @param liveTtl Time (ms) a live entry is considered fresh (0 disables caching for live)
+	 * @param maxStale Time (ms) an entry is still served after expiring while it's revalidated
+	 */
+	public void setTtl(long ttl, long liveTtl, long maxStale) {
+		this.ttl = ttl;
+		this.liveTtl = liveTtl;
+		this.maxStale = maxStale;
+	}
+
+	/**
+	 * Whether the request may be served from cache at all.
+	 * @param request The media request
+	 * @return False if caching is disabled for it
+	 */
+	public boolean isCacheable(SambaMediaRequest request) {
+		return getTtl(request) > 0;
+	}
+
+	/**
+	 * Retrieves the freshness of an entry created at the given time.
+	 * @param request The media request
+	 * @param time Entry creation time
+	 * @return The entry state
+	 */
+	public State getState(SambaMediaRequest request, long time) {
+		final long age = System.currentTimeMillis() - time;
+		final long ttl = getTtl(request);
+
+		if (age < ttl)
+			return State.FRESH;
+
+		// live entries are never served stale
+		return !isLive(request) && age < ttl + maxStale ? State.STALE : State.EXPIRED;
+	}
+
+	/**
+	 * Looks up the memory tier.
+	 * @param request The media request
+	 * @return A fresh or stale entry, or null
+	 */
+	public Entry get(SambaMediaRequest request) {
+		if (!isCacheable(request))
+			return null;
+
+		final String key = getKey(request);
+		final Entry entry = memory.get(key);
+
+		if (entry == null)
+			return null;
+
+		switch (getState(request, entry.time)) {
+			case FRESH:
+				hits.incrementAndGet();
+				return entry;
+			case STALE:
+				staleHits.incrementAndGet();
+				return entry;
+			default:
+				memory.remove(key);
+				return null;
+		}
+	}
+
+	/**
+	 * Looks up the disk tier (blocking).
+	 * @param request The media request
+	 * @return A fresh or stale entry, or null
+	 */
+	public DiskEntry getFromDisk(SambaMediaRequest request) {
+		if (!isCacheable(request))
+			return null;
+
+		final String key = getKey(request);
+		final File file = getFile(key);
+
+		if (!file.exists())
+			return null;
+
+		final long time = file.lastModified();
+		final State state = getState(request, time);
+
+		if (state == State.EXPIRED) {
+			file.delete();
+			return null;
+		}
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+			// hash collision
+			if (!key.equals(reader.readLine()))
+				return null;
+
+			final String json = reader.readLine();
+
+			if (json == null)
+				return null;
+
+			if (state == State.FRESH)
+				hits.incrementAndGet();
+			else staleHits.incrementAndGet();
+
+			return new DiskEntry(json, time);
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to read cache entry", e);
+			return null;
+		}
+		finally {
+			try {
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close cache entry", e);
+			}
+		}
+	}
+
+	/**
+	 * Stores a media in memory only (e.g. loaded from disk).
+	 * @param request The media request
+	 * @param media Parsed media
+	 * @param time Entry creation time
+	 */
+	public void putMemory(SambaMediaRequest request, SambaMediaConfig media, long time) {
+		if (isCacheable(request))
+			memory.put(getKey(request), new Entry(media, time));
+	}
+
+	/**
+	 * Stores a media in both tiers (blocking).
+	 * @param request The media request
+	 * @param media Parsed media
+	 * @param json Source JSON document
+	 */
+	public void put(SambaMediaRequest request, SambaMediaConfig media, String json) {
+		if (!isCacheable(request))
+			return;
+
+		final String key = getKey(request);
+		final long time = System.currentTimeMillis();
+
+		memory.put(key, new Entry(media, time));
+
+		if (!dir.exists() && !dir.mkdirs())
+			return;
+
+		final File file = getFile(key);
+		Writer writer = null;
+
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write(key);
+			writer.write('\n');
+			writer.write(json);
+		}
+		catch (IOException e) {
+			Log.w(getClass().getSimpleName(), "Failed to write cache entry", e);
+		}
+		finally {
+			try {
+				if (writer != null)
+					writer.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close cache entry", e);
+			}
+		}
+
+		file.setLastModified(time);
+	}
+
+	/**
+	 * Notifies a request was served by the network.
+	 */
+	public void countMiss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Removes every entry from both tiers.
+	 */
+	public void clear() {
+		memory.evictAll();
+
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+	}
+
+	/**
+	 * @return Amount of requests served fresh from cache
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Amount of requests served stale from cache (and revalidated)
+	 */
+	public int getStaleHitCount() {
+		return staleHits.get();
+	}
+
+	/**
+	 * @return Amount of requests served by the network
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	private long getTtl(SambaMediaRequest request) {
+		return isLive(request) ? liveTtl : ttl;
+	}
+
+	private File getFile(String key) {
+		return new File(dir, Integer.toHexString(key.hashCode()) + ".json");
+	}
+
+	private static boolean isLive(SambaMediaRequest request) {
+		return request.liveChannelId != null || request.streamName != null || request.streamUrl != null;
+	}
+
+	/**
+	 * Identifies a request by the fields that select its response.
+	 * @param request The media request
+	 * @return The key
+	 */
+	public static String getKey(SambaMediaRequest request) {
+		return String.format("%s|%s|%s|%s|%s|%s|%s", request.environment.name(), request.protocol,
+				request.projectHash, request.mediaId, request.liveChannelId, request.streamName, request.streamUrl);
+	}
+}
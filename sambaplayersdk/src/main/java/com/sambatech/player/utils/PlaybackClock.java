@@ -0,0 +1,260 @@
+package com.sambatech.player.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Single clock on the main Looper driving every periodic task of every player
+ * (progress, buffering timeout, retry countdown, tracking flushes).
+ *
+ * Replaces one <code>java.util.Timer</code> thread per task: a task scheduled with the interval
+ * of one already running joins its wakeups and the clock stops posting when no task is scheduled
+ * (e.g. no player is playing). Joining only ever defers a tick and late ticks aren't caught up.
+ *
+ * Must be used from the main thread only.
+ */
+public final class PlaybackClock {
+
+	/**
+	 * Periodic task.
+	 */
+	public interface Task {
+		/**
+		 * Dispatched on the main thread on every tick.
+		 * @return Whether the task should keep running
+		 */
+		boolean onTick();
+	}
+
+	/**
+	 * Time source and tick poster (the main Looper, a virtual clock in tests).
+	 */
+	interface Scheduler {
+		long now();
+		void postAt(Runnable tick, long time);
+		void remove(Runnable tick);
+	}
+
+	private static final PlaybackClock instance = new PlaybackClock(new Scheduler() {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+
+		@Override
+		public long now() {
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		public void postAt(Runnable tick, long time) {
+			handler.postAtTime(tick, time);
+		}
+
+		@Override
+		public void remove(Runnable tick) {
+			handler.removeCallbacks(tick);
+		}
+	});
+
+	private final Scheduler scheduler;
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	private long scheduledTime = Long.MAX_VALUE;
+
+	/**
+	 * Entry whose task is ticking (if any).
+	 */
+	private Entry running;
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			scheduledTime = Long.MAX_VALUE;
+
+			final long now = scheduler.now();
+			Entry entry;
+
+			// tasks may cancel or schedule others while ticking, so restart the scan after each run
+			// (a task that ran is either rescheduled ahead or removed)
+			for (int i = 0; i < entries.size(); ++i) {
+				entry = entries.get(i);
+
+				if (entry.nextTime > now)
+					continue;
+
+				entry.nextTime = getNextTime(entry, now);
+				running = entry;
+
+				final boolean keep = runTask(entry);
+
+				running = null;
+
+				// only this entry is removed: the task may have scheduled itself again meanwhile
+				if (!keep)
+					entries.remove(entry);
+
+				i = -1;
+			}
+
+			reschedule();
+		}
+	};
+
+	PlaybackClock(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public static PlaybackClock getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Schedules a task to run periodically (no-op if it's already scheduled, unless called
+	 * from its own tick, which replaces its schedule whatever the tick returns).
+	 * @param task The task
+	 * @param interval Interval between ticks in milliseconds
+	 * @param delay Delay before the first tick in milliseconds (0 means right away)
+	 */
+	public void schedule(Task task, long interval, long delay) {
+		final int index = indexOf(task);
+
+		if (index != -1) {
+			if (entries.get(index) != running)
+				return;
+
+			entries.remove(index);
+		}
+
+		final Entry entry = new Entry(task, interval, scheduler.now() + delay);
+
+		// joins the wakeups of the tasks already running at this interval (if any)
+		for (int i = 0, l = entries.size(); i < l; ++i) {
+			if (entries.get(i).interval == interval) {
+				entry.peer = entries.get(i);
+				break;
+			}
+		}
+
+		entries.add(entry);
+		reschedule();
+	}
+
+	/**
+	 * Schedules a task to run periodically starting right away.
+	 * @param task The task
+	 * @param interval Interval between ticks in milliseconds
+	 */
+	public void schedule(Task task, long interval) {
+		schedule(task, interval, 0);
+	}
+
+	/**
+	 * Stops running a task.
+	 * @param task The task
+	 */
+	public void cancel(Task task) {
+		if (task == null || !remove(task))
+			return;
+
+		reschedule();
+	}
+
+	/**
+	 * Indicates whether a task is scheduled.
+	 * @param task The task
+	 * @return True if scheduled
+	 */
+	public boolean isScheduled(Task task) {
+		return indexOf(task) != -1;
+	}
+
+	private boolean remove(Task task) {
+		final int i = indexOf(task);
+
+		if (i == -1)
+			return false;
+
+		entries.remove(i);
+		return true;
+	}
+
+	private int indexOf(Task task) {
+		for (int i = 0, l = entries.size(); i < l; ++i)
+			if (entries.get(i).task == task)
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * Posts the next tick for the earliest task or stops ticking when there's none.
+	 */
+	private void reschedule() {
+		long next = Long.MAX_VALUE;
+
+		for (int i = 0, l = entries.size(); i < l; ++i)
+			next = Math.min(next, entries.get(i).nextTime);
+
+		if (next == scheduledTime)
+			return;
+
+		scheduler.remove(tick);
+		scheduledTime = next;
+
+		if (next != Long.MAX_VALUE)
+			scheduler.postAt(tick, next);
+	}
+
+	/**
+	 * One interval after the tick (or after now if late), except for the first repeat of a task
+	 * joining a peer, deferred (never advanced) to the peer's next tick.
+	 */
+	private long getNextTime(Entry entry, long now) {
+		long next = entry.nextTime + entry.interval;
+
+		if (next <= now)
+			next = now + entry.interval;
+
+		final Entry peer = entry.peer;
+
+		if (peer != null) {
+			entry.peer = null;
+
+			if (entries.contains(peer))
+				next += ((peer.nextTime - next)%entry.interval + entry.interval)%entry.interval;
+		}
+
+		return next;
+	}
+
+	/**
+	 * @return Whether the task should keep running (a task that throws is dropped)
+	 */
+	private static boolean runTask(Entry entry) {
+		try {
+			return entry.task.onTick();
+		}
+		catch (Exception e) {
+			Log.e(PlaybackClock.class.getSimpleName(), "Error running task " + entry.task, e);
+			return false;
+		}
+	}
+
+	private static final class Entry {
+		final Task task;
+		final long interval;
+		long nextTime;
+
+		/**
+		 * Task already running at the same interval whose wakeups this one joins (until it does).
+		 */
+		Entry peer;
+
+		Entry(Task task, long interval, long nextTime) {
+			this.task = task;
+			this.interval = interval;
+			this.nextTime = nextTime;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.sambatech.player.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.google.android.libraries.mediaframework.exoplayerextensions.HttpTransport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads media thumbnails lazily, off the media request path.
+ *
+ * Images are cached on disk as downloaded and decoded downsampled to the target size,
+ * decoded bitmaps are kept in a memory LRU bounded by bytes.
+ */
+public final class ThumbnailLoader {
+
+	/**
+	 * Thumbnail load listener (dispatched on the main thread).
+	 */
+	public interface Callback {
+		void onThumbnailLoaded(Bitmap bitmap);
+		void onThumbnailError(Exception e);
+	}
+
+	/**
+	 * Pending load, may be cancelled.
+	 */
+	public static final class Request {
+		private volatile boolean cancelled;
+		private Future<?> future;
+
+		public void cancel() {
+			cancelled = true;
+
+			if (future != null)
+				future.cancel(false);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private static final String DIR_NAME = "samba_thumbs";
+	private static final long MAX_DISK_SIZE = 20*1024*1024;
+
+	private static ThumbnailLoader instance;
+
+	private final LruCache<String, Bitmap> memory;
+	private final File dir;
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final WeakHashMap<ImageView, Request> viewRequests = new WeakHashMap<>();
+
+	private ThumbnailLoader(Context context) {
+		// 1/16 of the app heap
+		memory = new LruCache<String, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory()/16, Integer.MAX_VALUE)) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getByteCount();
+			}
+		};
+
+		dir = new File(context.getCacheDir(), DIR_NAME);
+	}
+
+	public static synchronized ThumbnailLoader getInstance(Context context) {
+		if (instance == null)
+			instance = new ThumbnailLoader(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Loads a thumbnail into a view, cancelling any previous load for the same view.
+	 * Must be called from the main thread.
+	 * @param url Thumbnail URL (e.g. <code>SambaMedia.thumbUrl</code>)
+	 * @param view Target view, its size (or layout params) drives the downsampling
+	 * @return The pending request (null if served from memory)
+	 */
+	public Request load(String url, final ImageView view) {
+		final Request previous = viewRequests.remove(view);
+
+		if (previous != null)
+			previous.cancel();
+
+		final int width = view.getWidth() > 0 ? view.getWidth() :
+				view.getLayoutParams() != null ? view.getLayoutParams().width : 0;
+		final int height = view.getHeight() > 0 ? view.getHeight() :
+				view.getLayoutParams() != null ? view.getLayoutParams().height : 0;
+
+		final Request request = load(url, width, height, new Callback() {
+			@Override
+			public void onThumbnailLoaded(Bitmap bitmap) {
+				viewRequests.remove(view);
+				view.setImageBitmap(bitmap);
+			}
+
+			@Override
+			public void onThumbnailError(Exception e) {
+				viewRequests.remove(view);
+			}
+		});
+
+		if (request != null)
+			viewRequests.put(view, request);
+
+		return request;
+	}
+
+	/**
+	 * Loads a thumbnail decoded to (at least) the given size.
+	 * Must be called from the main thread.
+	 * @param url Thumbnail URL (e.g. <code>SambaMedia.thumbUrl</code>)
+	 * @param width Target width in pixels (0 or less for the original size)
+	 * @param height Target height in pixels (0 or less for the original size)
+	 * @param callback Result listener
+	 * @return The pending request (null if served from memory)
+	 */
+	public Request load(final String url, final int width, final int height, final Callback callback) {
+		final String key = getKey(url, width, height);
+		final Bitmap cached = memory.get(key);
+
+		if (cached != null) {
+			callback.onThumbnailLoaded(cached);
+			return null;
+		}
+
+		final Request request = new Request();
+
+		request.future = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				Bitmap bitmap = null;
+				Exception error = null;
+
+				try {
+					final File file = getFile(url);
+
+					if (!file.exists())
+						download(url, file, request);
+
+					if (!request.isCancelled())
+						bitmap = decode(file, width, height);
+
+					if (bitmap == null && !request.isCancelled())
+						error = new IOException("Failed to decode thumbnail: " + url);
+				}
+				catch (IOException e) {
+					error = e;
+				}
+
+				final Bitmap result = bitmap;
+				final Exception exception = error;
+
+				if (result != null)
+					memory.put(key, result);
+
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (request.isCancelled())
+							return;
+
+						if (result != null)
+							callback.onThumbnailLoaded(result);
+						else callback.onThumbnailError(exception);
+					}
+				});
+			}
+		});
+
+		return request;
+	}
+
+	private void download(String url, File file, Request request) throws IOException {
+		if (!dir.exists() && !dir.mkdirs())
+			throw new IOException("Failed to create thumbnails cache directory");
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		HttpTransport.Response in = null;
+		OutputStream out = null;
+
+		try {
+			in = HttpTransport.get(url, HttpTransport.DEFAULT_TIMEOUT);
+
+			if (!in.isSuccessful())
+				throw new IOException("Server returned HTTP response code: " + in.getCode());
+
+			out = new FileOutputStream(tmp);
+
+			final byte[] buffer = new byte[8192];
+			int n;
+
+			while ((n = in.read(buffer)) != -1) {
+				if (request.isCancelled())
+					break;
+
+				out.write(buffer, 0, n);
+			}
+		}
+		finally {
+			try {
+				if (in != null)
+					in.close();
+
+				if (out != null)
+					out.close();
+			}
+			catch (IOException e) {
+				Log.w(getClass().getSimpleName(), "Failed to close thumbnail streams", e);
+			}
+		}
+
+		if (request.isCancelled() || !tmp.renameTo(file))
+			tmp.delete();
+		else trimDisk();
+	}
+
+	/**
+	 * Removes the least recently downloaded images while the cache exceeds its size cap.
+	 */
+	private synchronized void trimDisk() {
+		final File[] files = dir.listFiles();
+
+		if (files == null)
+			return;
+
+		long size = 0;
+
+		for (File f : files)
+			size += f.length();
+
+		if (size <= MAX_DISK_SIZE)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				return lhs.lastModified() < rhs.lastModified() ? -1 : lhs.lastModified() == rhs.lastModified() ? 0 : 1;
+			}
+		});
+
+		for (int i = 0; i < files.length && size > MAX_DISK_SIZE; ++i) {
+			size -= files[i].length();
+			files[i].delete();
+		}
+	}
+
+	/**
+	 * Decodes the image with the largest power of 2 subsampling that keeps it above the target size.
+	 */
+	private static Bitmap decode(File file, int width, int height) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+
+		int sampleSize = 1;
+
+		if (width > 0 && height > 0)
+			while (options.outWidth/(sampleSize*2) >= width && options.outHeight/(sampleSize*2) >= height)
+				sampleSize *= 2;
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeFile(file.getPath(), options);
+	}
+
+	private File getFile(String url) {
+		return new File(dir, Integer.toHexString(url.hashCode()) + Integer.toHexString(url.length()));
+	}
+
+	private static String getKey(String url, int width, int height) {
+		return url + '@' + width + 'x' + height;
+	}
+}
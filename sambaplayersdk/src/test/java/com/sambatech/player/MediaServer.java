@@ -0,0 +1,127 @@
+package com.sambatech.player;
+
+import android.util.Base64;
+
+import com.sambatech.player.model.SambaMediaRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local Player API: answers every media ID with a VOD media titled after it, encoded as
+ * the API does, and counts the requests and the peak of concurrent ones.
+ */
+final class MediaServer {
+
+	private static final String PROJECT_HASH = "project";
+
+	private static final String MEDIA = "{\"qualifier\":\"VIDEO\",\"id\":\"%1$s\",\"title\":\"%1$s\"," +
+			"\"project\":{\"id\":1,\"playerHash\":\"" + PROJECT_HASH + "\",\"defaultOutput\":\"abr\"}," +
+			"\"playerConfig\":{},\"apiConfig\":{},\"deliveryRules\":[{\"urlType\":\"HLS\",\"outputs\":[" +
+			"{\"outputName\":\"abr_hls\",\"url\":\"http://127.0.0.1/%1$s.m3u8\",\"fileInfo\":{\"duration\":60000}}]}]}";
+
+	final AtomicInteger requests = new AtomicInteger();
+	final AtomicInteger peak = new AtomicInteger();
+
+	/**
+	 * Response time of every request, unless one of its own is set in <code>delays</code>.
+	 */
+	volatile long delay;
+	final Map<String, Long> delays = new ConcurrentHashMap<>();
+	volatile int status = 200;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	MediaServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final String path = exchange.getRequestURI().getPath();
+				final String mediaId = path.substring(path.lastIndexOf('/') + 1);
+				final int count = active.incrementAndGet();
+
+				requests.incrementAndGet();
+
+				synchronized (peak) {
+					if (count > peak.get())
+						peak.set(count);
+				}
+
+				try {
+					final Long time = delays.get(mediaId);
+
+					Thread.sleep(time != null ? time : delay);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				active.decrementAndGet();
+
+				final byte[] body = status == 200 ? encode(String.format(MEDIA, mediaId), getDelimiter(mediaId)) : new byte[0];
+
+				exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return Base URL of the API
+	 */
+	String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param mediaId A media ID ending in a digit (and optionally letters), as the API's ones
+	 * @return A request of the media
+	 */
+	static SambaMediaRequest request(String mediaId) {
+		return new SambaMediaRequest(PROJECT_HASH, mediaId);
+	}
+
+	/**
+	 * Token is padded with as many characters as the last digit of the media ID on both ends.
+	 */
+	private static byte[] encode(String json, int delimiter) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < delimiter; ++i)
+			sb.append('x');
+
+		sb.append(Base64.encodeToString(json.getBytes("UTF-8"), Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING));
+
+		for (int i = 0; i < delimiter; ++i)
+			sb.append('x');
+
+		return sb.toString().getBytes("US-ASCII");
+	}
+
+	private static int getDelimiter(String mediaId) {
+		return Integer.parseInt(mediaId.split("(?=\\d[a-zA-Z]*$)")[1].substring(0, 1));
+	}
+}
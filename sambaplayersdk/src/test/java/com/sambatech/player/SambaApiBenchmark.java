@@ -0,0 +1,74 @@
+package com.sambatech.player;
+
+import com.sambatech.player.model.SambaMediaRequest;
+import com.sambatech.player.utils.Bench;
+import com.sambatech.player.utils.MediaCache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of a batch request (to its <code>onMediaListResponse</code>) of 1 to 64 medias, each answered
+ * in 20ms by a local server, one request at a time (as AsyncTask's serial executor did) and on the shared pool.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SambaApiBenchmark {
+
+	private static final long RESPONSE_TIME = 20;
+
+	@Test
+	public void batchLatency() throws IOException {
+		final MediaServer server = new MediaServer();
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "media" + System.nanoTime());
+		final MediaCache cache = new MediaCache(dir);
+		final SambaApi api = new SambaApi(null, server.getEndpoint(), cache);
+
+		server.delay = RESPONSE_TIME;
+
+		try {
+			for (int n = 1; n <= 64; n *= 2) {
+				final SambaMediaRequest[] requests = new SambaMediaRequest[n];
+
+				for (int i = 0; i < n; ++i)
+					requests[i] = MediaServer.request("media" + n + "x" + i + "a1");
+
+				final Runnable batch = new Runnable() {
+					@Override
+					public void run() {
+						final SambaApiTest.Recorder recorder = new SambaApiTest.Recorder();
+
+						// every run goes to the network
+						cache.clear();
+						api.requestMedia(requests, recorder);
+						SambaApiTest.await(recorder, requests.length);
+					}
+				};
+
+				SambaApi.setMaxConcurrentRequests(1);
+				final Bench serial = Bench.median(n + " medias, serial", 5, batch);
+
+				SambaApi.setMaxConcurrentRequests(4);
+				final Bench pooled = Bench.median(n + " medias, 4 at a time", 5, batch);
+
+				System.out.println(serial);
+				System.out.println(pooled);
+
+				if (n >= 4)
+					assertTrue(pooled.nsPerOp < serial.nsPerOp);
+			}
+		}
+		finally {
+			SambaApi.setMaxConcurrentRequests(4);
+			server.stop();
+			SambaApiTest.delete(dir);
+		}
+	}
+}
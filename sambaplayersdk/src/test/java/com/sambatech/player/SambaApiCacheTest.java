@@ -0,0 +1,131 @@
+package com.sambatech.player;
+
+import com.sambatech.player.model.SambaMediaRequest;
+import com.sambatech.player.utils.MediaCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SambaApiCacheTest {
+
+	private static final SambaMediaRequest REQUEST = MediaServer.request("media1");
+
+	private MediaServer server;
+	private File dir;
+	private MediaCache cache;
+	private SambaApi api;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new MediaServer();
+		dir = new File(System.getProperty("java.io.tmpdir"), "media" + System.nanoTime());
+		cache = new MediaCache(dir);
+		api = new SambaApi(null, server.getEndpoint(), cache);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		SambaApiTest.delete(dir);
+	}
+
+	@Test
+	public void memoryHit() {
+		final SambaApiTest.Recorder recorder = new SambaApiTest.Recorder();
+
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 1);
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 2);
+
+		assertEquals(1, server.requests.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals("media1", recorder.responses.get(1).title);
+		assertNotSame(recorder.responses.get(0), recorder.responses.get(1));
+	}
+
+	@Test
+	public void diskHitAfterRestart() {
+		final SambaApiTest.Recorder recorder = new SambaApiTest.Recorder();
+
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 1);
+
+		// cold memory tier, as after a process restart
+		final MediaCache restarted = new MediaCache(dir);
+
+		new SambaApi(null, server.getEndpoint(), restarted).requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 2);
+
+		assertEquals(1, server.requests.get());
+		assertEquals(0, restarted.getMissCount());
+		assertEquals(1, restarted.getHitCount());
+		assertEquals("media1", recorder.responses.get(1).title);
+
+		// loaded into memory
+		assertNotNull(restarted.get(REQUEST));
+	}
+
+	@Test
+	public void expiredEntryIsRefetched() throws InterruptedException {
+		final SambaApiTest.Recorder recorder = new SambaApiTest.Recorder();
+
+		cache.setTtl(50, 0, 0);
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 1);
+		Thread.sleep(100);
+
+		// neither tier serves it
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 2);
+
+		assertEquals(2, server.requests.get());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getHitCount() + cache.getStaleHitCount());
+	}
+
+	@Test
+	public void staleEntryIsRevalidatedWithoutCallback() throws InterruptedException {
+		final SambaApiTest.Recorder recorder = new SambaApiTest.Recorder();
+
+		cache.setTtl(50, 0, 60*60*1000);
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 1);
+
+		final long time = cache.get(REQUEST).time;
+
+		Thread.sleep(100);
+
+		// served stale right away, refreshed in background
+		api.requestMedia(REQUEST, recorder);
+		SambaApiTest.await(recorder, 2);
+		assertEquals(1, cache.getStaleHitCount());
+
+		SambaApiTest.await(new SambaApiTest.Condition() {
+			@Override
+			public boolean isMet() {
+				return cache.get(REQUEST).time > time;
+			}
+		});
+
+		// lets the revalidation complete
+		Thread.sleep(50);
+		Robolectric.flushForegroundThreadScheduler();
+
+		assertEquals(2, server.requests.get());
+		assertEquals(2, recorder.responses.size());
+	}
+}
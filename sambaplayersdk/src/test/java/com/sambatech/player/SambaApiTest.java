@@ -0,0 +1,197 @@
+package com.sambatech.player;
+
+import com.sambatech.player.event.SambaApiCallback;
+import com.sambatech.player.model.SambaMedia;
+import com.sambatech.player.model.SambaMediaRequest;
+import com.sambatech.player.utils.MediaCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// JsonReader and Base64 of the request path, main looper of the responses
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SambaApiTest {
+
+	private static final long TIMEOUT = 10000;
+
+	private MediaServer server;
+	private File dir;
+	private SambaApi api;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new MediaServer();
+		dir = new File(System.getProperty("java.io.tmpdir"), "media" + System.nanoTime());
+		api = new SambaApi(null, server.getEndpoint(), new MediaCache(dir));
+	}
+
+	@After
+	public void tearDown() {
+		SambaApi.setMaxConcurrentRequests(4);
+		server.stop();
+		delete(dir);
+	}
+
+	@Test
+	public void joinsRequestInFlight() {
+		final Recorder recorder = new Recorder();
+
+		server.delay = 50;
+		api.requestMedia(MediaServer.request("media1"), recorder);
+		api.requestMedia(MediaServer.request("media1"), recorder);
+		await(recorder, 2);
+
+		assertEquals(1, server.requests.get());
+		assertEquals("media1", recorder.responses.get(0).title);
+		assertEquals("media1", recorder.responses.get(1).title);
+
+		// each one gets its own copy
+		assertNotSame(recorder.responses.get(0), recorder.responses.get(1));
+	}
+
+	@Test
+	public void listKeepsRequestsOrder() {
+		final Recorder recorder = new Recorder();
+		final SambaMediaRequest[] requests = new SambaMediaRequest[4];
+
+		// the first request is the last to complete
+		for (int i = 0; i < requests.length; ++i) {
+			requests[i] = MediaServer.request("media" + i + "a1");
+			server.delays.put(requests[i].mediaId, 50L*(requests.length - i));
+		}
+
+		api.requestMedia(requests, recorder);
+		await(recorder, requests.length);
+		assertEquals("media3a1", recorder.responses.get(0).title);
+		assertNotNull(recorder.list);
+		assertEquals(requests.length, recorder.list.length);
+
+		for (int i = 0; i < requests.length; ++i)
+			assertEquals(requests[i].mediaId, recorder.list[i].title);
+	}
+
+	@Test
+	public void boundsConcurrentRequests() throws InterruptedException {
+		for (int count : new int[] {1, 3}) {
+			final Recorder recorder = new Recorder();
+			final SambaMediaRequest[] requests = new SambaMediaRequest[8];
+
+			for (int i = 0; i < requests.length; ++i)
+				requests[i] = MediaServer.request("media" + count + "x" + i + "a1");
+
+			SambaApi.setMaxConcurrentRequests(count);
+
+			// idle threads beyond a lowered bound exit as they're interrupted, a request queued meanwhile may still run on one
+			Thread.sleep(50);
+
+			server.delay = 50;
+			server.peak.set(0);
+			api.requestMedia(requests, recorder);
+			await(recorder, requests.length);
+
+			assertEquals(count, server.peak.get());
+		}
+	}
+
+	@Test
+	public void errorReachesEveryWaitingCallback() {
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+
+		server.status = 500;
+		server.delay = 50;
+
+		// requests in flight are shared by every instance
+		api.requestMedia(MediaServer.request("media1"), first);
+		new SambaApi(null, server.getEndpoint(), new MediaCache(dir)).requestMedia(MediaServer.request("media1"), second);
+		await(first, 1);
+		await(second, 1);
+
+		assertEquals(1, server.requests.get());
+		assertTrue(first.responses.isEmpty());
+		assertTrue(second.responses.isEmpty());
+		assertEquals(1, first.errors.size());
+		assertEquals(1, second.errors.size());
+		assertTrue(first.errors.get(0) instanceof IOException);
+	}
+
+	/**
+	 * Runs the main thread tasks (responses) until a recorder got the given amount of them.
+	 */
+	static void await(final Recorder recorder, final int count) {
+		await(new Condition() {
+			@Override
+			public boolean isMet() {
+				return recorder.responses.size() + recorder.errors.size() >= count;
+			}
+		});
+	}
+
+	static void await(Condition condition) {
+		final long end = System.currentTimeMillis() + TIMEOUT;
+
+		while (System.currentTimeMillis() < end) {
+			Robolectric.flushForegroundThreadScheduler();
+
+			if (condition.isMet())
+				return;
+
+			try {
+				Thread.sleep(5);
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		fail("Timed out");
+	}
+
+	static void delete(File dir) {
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+
+		dir.delete();
+	}
+
+	interface Condition {
+		boolean isMet();
+	}
+
+	static final class Recorder extends SambaApiCallback {
+		final List<SambaMedia> responses = new ArrayList<>();
+		final List<Exception> errors = new ArrayList<>();
+		SambaMedia[] list;
+
+		@Override
+		public void onMediaResponse(SambaMedia media) {
+			responses.add(media);
+		}
+
+		@Override
+		public void onMediaListResponse(SambaMedia[] medias) {
+			list = medias;
+		}
+
+		@Override
+		public void onMediaResponseError(Exception e, SambaMediaRequest request) {
+			errors.add(e);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.sambatech.player.event;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeliveryPolicyTest {
+
+	@Test
+	public void minIntervalDeliversOncePerInterval() {
+		final long[] clock = {0};
+		final DeliveryPolicy policy = new DeliveryPolicy.MinInterval(1000) {
+			@Override
+			long now() {
+				return clock[0];
+			}
+		};
+
+		assertTrue(policy.accept(progress(0f)));
+
+		clock[0] = 500;
+		assertFalse(policy.accept(progress(1f)));
+
+		clock[0] = 999;
+		assertFalse(policy.accept(progress(2f)));
+
+		clock[0] = 1000;
+		assertTrue(policy.accept(progress(3f)));
+
+		// measured from the last delivery, not the last event
+		clock[0] = 1500;
+		assertFalse(policy.accept(progress(4f)));
+
+		clock[0] = 5000;
+		assertTrue(policy.accept(progress(5f)));
+	}
+
+	@Test
+	public void minChangeDeliversOnMovesEitherWay() {
+		final DeliveryPolicy policy = DeliveryPolicy.minChange(1f);
+
+		assertTrue(policy.accept(progress(10f)));
+		assertFalse(policy.accept(progress(10.5f)));
+		assertFalse(policy.accept(progress(10.99f)));
+		assertTrue(policy.accept(progress(11f)));
+
+		// a seek back
+		assertTrue(policy.accept(progress(2f)));
+		assertFalse(policy.accept(progress(1.5f)));
+	}
+
+	@Test
+	public void windowHoldsInsideBounds() {
+		final DeliveryPolicy.Window policy = DeliveryPolicy.window();
+
+		assertTrue(policy.accept(progress(15f)));
+
+		policy.set(10f, 20f);
+		assertTrue(policy.accept(progress(9.9f)));
+		assertFalse(policy.accept(progress(10f)));
+		assertFalse(policy.accept(progress(19.9f)));
+		assertTrue(policy.accept(progress(20f)));
+
+		policy.reset();
+		assertTrue(policy.accept(progress(15f)));
+	}
+
+	@Test
+	public void windowNeverMixesBounds() throws InterruptedException {
+		final DeliveryPolicy.Window policy = DeliveryPolicy.window();
+		final ProgressEvent e = progress(50f);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger held = new AtomicInteger();
+
+		// neither window contains 50s, only a mix of both would ([0, 101))
+		final Thread setter = new Thread() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					policy.set(0f, 1f);
+					policy.set(100f, 101f);
+				}
+			}
+		};
+
+		setter.start();
+
+		final long end = System.nanoTime() + 300000000;
+
+		while (System.nanoTime() < end)
+			for (int i = 0; i < 1000000; ++i)
+				if (!policy.accept(e))
+					held.incrementAndGet();
+
+		done.set(true);
+		setter.join();
+
+		assertEquals(0, held.get());
+	}
+
+	@Test
+	public void busAppliesListenerPolicy() {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final DeliveryPolicy.Window policy = DeliveryPolicy.window();
+		final int[] count = new int[2];
+
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onProgress(SambaEvent event) {
+				final float time = ((ProgressEvent) event).getCurrentTime();
+
+				++count[0];
+				policy.set((int) time, (int) time + 1);
+			}
+		}, policy);
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onProgress(SambaEvent event) {
+				++count[1];
+			}
+		});
+
+		// 4 ticks per second for 10s
+		for (int i = 0; i < 40; ++i)
+			bus.post(ProgressEvent.obtain(i*.25f, 100f));
+
+		assertEquals(10, count[0]);
+		assertEquals(40, count[1]);
+	}
+
+	private static ProgressEvent progress(float time) {
+		return ProgressEvent.obtain(time, 100f);
+	}
+}
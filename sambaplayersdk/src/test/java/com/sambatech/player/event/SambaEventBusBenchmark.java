@@ -0,0 +1,150 @@
+package com.sambatech.player.event;
+
+import com.sambatech.player.utils.Bench;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of a post: the ordinal-indexed dispatch table against the former reflective lookup,
+ * and player scoped buses against every player listening on the global one.
+ */
+public class SambaEventBusBenchmark {
+
+	private static final int POSTS = 2000000;
+
+	@Test
+	public void tableVersusReflection() {
+		final Counter counter = new Counter();
+		final ReflectiveBus reflectiveBus = new ReflectiveBus();
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final SambaEvent play = new SambaEvent(SambaPlayerListener.EventType.PLAY);
+
+		reflectiveBus.subscribe(counter);
+		bus.subscribe(counter);
+
+		final Bench reflective = Bench.run("reflective", POSTS, new Runnable() {
+			@Override
+			public void run() {
+				reflectiveBus.post(play);
+			}
+		});
+		final Bench table = Bench.run("table", POSTS, new Runnable() {
+			@Override
+			public void run() {
+				bus.post(play);
+			}
+		});
+
+		System.out.println(reflective);
+		System.out.println(table);
+		assertEquals(4L*POSTS, counter.count);
+	}
+
+	@Test
+	public void scopedVersusGlobalBus() {
+		for (int players : new int[] {1, 4, 16}) {
+			final Counter counter = new Counter();
+			final SambaEventBus.EventBus global = new SambaEventBus.EventBus(null);
+			final SambaEventBus.EventBus parent = new SambaEventBus.EventBus(null);
+			final SambaEventBus.EventBus[] scoped = new SambaEventBus.EventBus[players];
+			final SambaEvent play = new SambaEvent(SambaPlayerListener.EventType.PLAY);
+
+			// one listener per player, either on the global bus or on its player's
+			for (int i = 0; i < players; ++i) {
+				global.subscribe(new Counter());
+				scoped[i] = new SambaEventBus.EventBus(parent);
+				scoped[i].subscribe(i == 0 ? counter : new Counter());
+			}
+
+			System.out.println(Bench.run(players + " players, global", POSTS/2, new Runnable() {
+				@Override
+				public void run() {
+					global.post(play);
+				}
+			}));
+			System.out.println(Bench.run(players + " players, scoped", POSTS/2, new Runnable() {
+				@Override
+				public void run() {
+					scoped[0].post(play);
+				}
+			}));
+			assertEquals(POSTS, counter.count);
+		}
+	}
+
+	public static final class Counter extends SambaPlayerListener {
+		long count;
+
+		@Override
+		public void onPlay(SambaEvent event) {
+			++count;
+		}
+	}
+
+	/**
+	 * The bus before the dispatch table: a string key per post, handlers looked up by reflection.
+	 */
+	private static final class ReflectiveBus {
+		private HashMap<String, List<Object>> listeners = new HashMap<>();
+		private List<Object> postponedUnsubscribes;
+
+		void subscribe(Object listener) {
+			String type = listener.getClass().getSuperclass().getSimpleName();
+			String k;
+
+			for (Method m : listener.getClass().getDeclaredMethods()) {
+				if (!Modifier.isPublic(m.getModifiers()))
+					continue;
+
+				k = String.format("%s:%s", type, m.getName().substring(2));
+
+				if (!listeners.containsKey(k))
+					listeners.put(k, new ArrayList<>());
+
+				listeners.get(k).add(listener);
+			}
+		}
+
+		void post(SambaEvent e) {
+			final String[] types = e.getType().toString().toLowerCase().split("_");
+			String t = "";
+
+			for (String type : types)
+				t += type.substring(0, 1).toUpperCase() + type.substring(1);
+
+			final String k = String.format("%s:%s", e.getType().getClass().getEnclosingClass().getSimpleName(), t);
+
+			if (!listeners.containsKey(k))
+				return;
+
+			try {
+				postponedUnsubscribes = new ArrayList<>();
+
+				Object listener;
+				Method m;
+
+				for (ListIterator<Object> iterator = listeners.get(k).listIterator(); iterator.hasNext();) {
+					listener = iterator.next();
+					m = listener.getClass().getDeclaredMethod("on" + t, SambaEvent.class);
+
+					if (m != null)
+						m.invoke(listener, e);
+				}
+
+				postponedUnsubscribes = null;
+			}
+			catch (Exception exp) {
+				throw new AssertionError(exp);
+			}
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package com.sambatech.player.event;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class SambaEventBusTest {
+
+	/**
+	 * Empties the event pools, which may hold events released by earlier tests
+	 * (a full pool drops the events released to it).
+	 */
+	@Before
+	public void setUp() {
+		for (int i = 0; i < 16; ++i) {
+			ProgressEvent.obtain(0f, 0f);
+			ResizeEvent.obtain(0, 0, 0, 1f);
+		}
+	}
+
+	@Test
+	public void reentrantPostDoesNotRecycleUnderOuterListeners() {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final List<Float> seen = new ArrayList<>();
+		final int[] count = new int[1];
+		final ProgressEvent e = ProgressEvent.obtain(10f, 100f);
+
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onProgress(SambaEvent event) {
+				// posts the same event again from inside a handler
+				if (count[0]++ == 0)
+					bus.post(event);
+			}
+		});
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onProgress(SambaEvent event) {
+				// would get the event back if the inner post had recycled it
+				final ProgressEvent other = ProgressEvent.obtain(99f, 99f);
+
+				assertNotSame(event, other);
+				seen.add(((ProgressEvent) event).getCurrentTime());
+			}
+		});
+
+		bus.post(e);
+
+		assertEquals(2, count[0]);
+		assertEquals(Arrays.asList(10f, 10f), seen);
+		// released to the pool by the outer post
+		assertSame(e, ProgressEvent.obtain(1f, 2f));
+	}
+
+	@Test
+	public void steadyStateProgressReusesPooledEvents() {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final int[] count = new int[1];
+
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onProgress(SambaEvent event) {
+				++count[0];
+			}
+		});
+
+		final ProgressEvent first = ProgressEvent.obtain(0f, 100f);
+
+		bus.post(first);
+
+		for (int i = 1; i < 1000; ++i) {
+			final ProgressEvent e = ProgressEvent.obtain(i, 100f);
+
+			assertSame(first, e);
+			bus.post(e);
+		}
+
+		assertEquals(1000, count[0]);
+	}
+
+	@Test
+	public void resizeReusesPooledEvents() {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final List<Integer> widths = new ArrayList<>();
+
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onResize(SambaEvent event) {
+				widths.add(((ResizeEvent) event).getWidth());
+			}
+		});
+
+		final ResizeEvent first = ResizeEvent.obtain(640, 360, 0, 1f);
+
+		bus.post(first);
+
+		final ResizeEvent second = ResizeEvent.obtain(1280, 720, 0, 1f);
+
+		assertSame(first, second);
+		bus.post(second);
+		assertEquals(Arrays.asList(640, 1280), widths);
+	}
+
+	@Test
+	public void childBusNotifiesParent() {
+		final SambaEventBus.EventBus parent = new SambaEventBus.EventBus(null);
+		final SambaEventBus.EventBus child = new SambaEventBus.EventBus(parent);
+		final int[] count = new int[2];
+
+		parent.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPlay(SambaEvent event) {
+				++count[0];
+			}
+		});
+		child.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPlay(SambaEvent event) {
+				++count[1];
+			}
+		});
+
+		child.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
+		parent.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
+
+		assertEquals(2, count[0]);
+		assertEquals(1, count[1]);
+	}
+
+	@Test
+	public void siblingBusesAreIsolated() {
+		final SambaEventBus.EventBus parent = new SambaEventBus.EventBus(null);
+		final SambaEventBus.EventBus first = new SambaEventBus.EventBus(parent);
+		final SambaEventBus.EventBus second = new SambaEventBus.EventBus(parent);
+		final List<String> seen = new ArrayList<>();
+
+		parent.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPause(SambaEvent event) {
+				seen.add("parent:" + event.getData());
+			}
+		});
+		first.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPause(SambaEvent event) {
+				seen.add("first:" + event.getData());
+			}
+		});
+		second.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPause(SambaEvent event) {
+				seen.add("second:" + event.getData());
+			}
+		});
+
+		first.post(new SambaEvent(SambaPlayerListener.EventType.PAUSE, 1));
+		second.post(new SambaEvent(SambaPlayerListener.EventType.PAUSE, 2));
+
+		assertEquals(Arrays.asList("first:1", "parent:1", "second:2", "parent:2"), seen);
+	}
+
+	@Test
+	public void concurrentPostsAndSubscriptions() throws InterruptedException {
+		final int posters = 4;
+		final int churners = 4;
+		final int posts = 50000;
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final AtomicIntegerArray[] seen = new AtomicIntegerArray[3];
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger churned = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<>();
+
+		// registered the whole time
+		for (int i = 0; i < seen.length; ++i) {
+			final AtomicIntegerArray ids = seen[i] = new AtomicIntegerArray(posters*posts);
+
+			bus.subscribe(new SambaPlayerListener() {
+				@Override
+				public void onPlay(SambaEvent event) {
+					ids.incrementAndGet((Integer) event.getData());
+				}
+			});
+		}
+
+		for (int t = 0; t < posters; ++t) {
+			final int first = t*posts;
+
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					await(start);
+
+					for (int i = 0; i < posts; ++i)
+						bus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY, first + i));
+				}
+			});
+		}
+
+		for (int t = 0; t < churners; ++t) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					await(start);
+
+					while (!done.get()) {
+						final SambaPlayerListener listener = new SambaPlayerListener() {
+							@Override
+							public void onPlay(SambaEvent event) {}
+
+							@Override
+							public void onPause(SambaEvent event) {}
+						};
+
+						bus.subscribe(listener);
+						bus.unsubscribe(listener);
+						churned.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+
+		start.countDown();
+
+		for (Thread thread : threads.subList(0, posters))
+			thread.join();
+
+		done.set(true);
+
+		for (Thread thread : threads.subList(posters, threads.size()))
+			thread.join();
+
+		assertTrue(churned.get() > 0);
+
+		// no delivery lost nor duplicated
+		for (AtomicIntegerArray ids : seen)
+			for (int id = 0; id < ids.length(); ++id)
+				assertEquals(1, ids.get(id));
+	}
+
+	@Test
+	public void listenerUnsubscribedDuringDispatchGetsNothing() {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final int[] count = new int[1];
+		final SambaPlayerListener removed = new SambaPlayerListener() {
+			@Override
+			public void onPlay(SambaEvent event) {
+				++count[0];
+			}
+		};
+
+		bus.subscribe(new SambaPlayerListener() {
+			@Override
+			public void onPlay(SambaEvent event) {
+				bus.unsubscribe(removed);
+			}
+		});
+		bus.subscribe(removed);
+
+		bus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
+		bus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY));
+
+		assertEquals(0, count[0]);
+	}
+
+	@Test
+	public void listenerUnsubscribedFromOtherThreadGetsNoLaterPost() throws InterruptedException {
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+		final AtomicBoolean unsubscribed = new AtomicBoolean();
+		final AtomicInteger late = new AtomicInteger();
+		final AtomicInteger received = new AtomicInteger();
+		final SambaPlayerListener listener = new SambaPlayerListener() {
+			@Override
+			public void onPlay(SambaEvent event) {
+				received.incrementAndGet();
+
+				// the post started after unsubscribe() returned
+				if ((Boolean) event.getData())
+					late.incrementAndGet();
+			}
+		};
+		final Thread[] posters = new Thread[4];
+
+		bus.subscribe(listener);
+
+		for (int t = 0; t < posters.length; ++t) {
+			posters[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50000; ++i)
+						bus.post(new SambaEvent(SambaPlayerListener.EventType.PLAY, unsubscribed.get()));
+				}
+			};
+			posters[t].start();
+		}
+
+		while (received.get() == 0)
+			Thread.yield();
+
+		bus.unsubscribe(listener);
+		unsubscribed.set(true);
+
+		for (Thread poster : posters)
+			poster.join();
+
+		assertEquals(0, late.get());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
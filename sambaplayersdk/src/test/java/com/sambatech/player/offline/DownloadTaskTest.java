@@ -0,0 +1,305 @@
+package com.sambatech.player.offline;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DownloadTaskTest {
+
+	// three 2MB pieces, the last one partial
+	private static final int MEDIA_SIZE = 5*1024*1024 + 123;
+
+	private HttpServer server;
+	private String base;
+	private File root;
+	private ExecutorService pool;
+
+	/** Served files by path. */
+	private final Map<String, byte[]> files = new HashMap<>();
+	private volatile String etag = "\"1\"";
+
+	/** Files (plus range end) whose first response was cut in half (playlists never are). */
+	private final Set<String> truncated = new HashSet<>();
+	private volatile boolean truncate;
+
+	/** Replaces the media (and its validator) on every piece request. */
+	private volatile boolean unstable;
+
+	private final AtomicInteger probes = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		root = new File(System.getProperty("java.io.tmpdir"), "downloads" + System.nanoTime());
+		pool = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		pool.shutdownNow();
+		delete(root);
+	}
+
+	@Test
+	public void progressiveResumesTruncatedPieces() throws IOException {
+		final byte[] media = random(MEDIA_SIZE, 1);
+
+		files.put("/media.mp4", media);
+		truncate = true;
+
+		final SambaDownload download = run(SambaDownload.Type.PROGRESSIVE, "/media.mp4");
+
+		assertEquals(SambaDownload.State.COMPLETED, download.getState());
+		assertArrayEquals(media, read(download.getLocalFile()));
+		assertEquals(MEDIA_SIZE, download.getBytesDownloaded());
+		assertEquals(MEDIA_SIZE, download.getBytesTotal());
+		assertFalse(new File(download.dir, "pieces").exists());
+	}
+
+	@Test
+	public void progressiveRestartsOnChangedSource() throws IOException {
+		files.put("/media.mp4", random(MEDIA_SIZE, 1));
+
+		final SambaDownload download = run(SambaDownload.Type.PROGRESSIVE, "/media.mp4");
+
+		assertEquals(SambaDownload.State.COMPLETED, download.getState());
+
+		// interrupted halfway through the first piece, then replaced on the server
+		final byte[] changed = random(MEDIA_SIZE - 1000, 2);
+
+		writeState(new File(download.dir, "pieces"), 1024*1024, 0, 0);
+		download.state = SambaDownload.State.PAUSED;
+		download.bytesDownloaded.set(1024*1024);
+		files.put("/media.mp4", changed);
+		etag = "\"2\"";
+		probes.set(0);
+
+		new DownloadTask(new SambaDownloadManager(root), download, pool).run();
+
+		assertEquals(SambaDownload.State.COMPLETED, download.getState());
+		assertEquals(1, probes.get());
+		assertArrayEquals(changed, read(download.getLocalFile()));
+		assertEquals(changed.length, download.getBytesDownloaded());
+		assertEquals(changed.length, download.getBytesTotal());
+	}
+
+	@Test
+	public void progressiveFailsOnUnstableSource() throws IOException {
+		files.put("/media.mp4", random(MEDIA_SIZE, 1));
+		unstable = true;
+
+		final SambaDownload download = run(SambaDownload.Type.PROGRESSIVE, "/media.mp4");
+
+		assertEquals(SambaDownload.State.FAILED, download.getState());
+		assertNotNull(download.getError());
+		assertEquals(2, probes.get());
+	}
+
+	@Test
+	public void hlsResumesTruncatedSegments() throws IOException {
+		files.put("/master.m3u8", ("#EXTM3U\n" +
+				"#EXT-X-STREAM-INF:BANDWIDTH=200000\nlow/index.m3u8\n" +
+				"#EXT-X-STREAM-INF:BANDWIDTH=800000\nhigh/index.m3u8\n").getBytes("UTF-8"));
+		files.put("/high/index.m3u8", ("#EXTM3U\n#EXT-X-TARGETDURATION:4\n" +
+				"#EXT-X-KEY:METHOD=AES-128,URI=\"../key\"\n" +
+				"#EXTINF:4.0,\na.ts\n#EXTINF:4.0,\nb.ts?v=1\n#EXTINF:2.5,\nc.ts\n#EXT-X-ENDLIST\n").getBytes("UTF-8"));
+		files.put("/key", random(16, 3));
+		files.put("/high/a.ts", segment(300, 4));
+		files.put("/high/b.ts", segment(500, 5));
+		files.put("/high/c.ts", segment(100, 6));
+		truncate = true;
+
+		final SambaDownload download = run(SambaDownload.Type.HLS, "/master.m3u8");
+
+		assertEquals(SambaDownload.State.COMPLETED, download.getState());
+
+		final String playlist = new String(read(download.getLocalFile()), "UTF-8");
+
+		assertTrue(playlist.contains("URI=\"key_0\""));
+		assertTrue(playlist.contains("\nseg_00001.ts\n"));
+		assertTrue(playlist.contains("\nseg_00002.ts\n"));
+		assertTrue(playlist.contains("\nseg_00003.ts\n"));
+		assertArrayEquals(files.get("/key"), read(new File(download.dir, "key_0")));
+		assertArrayEquals(files.get("/high/a.ts"), read(new File(download.dir, "seg_00001.ts")));
+		assertArrayEquals(files.get("/high/b.ts"), read(new File(download.dir, "seg_00002.ts")));
+		assertArrayEquals(files.get("/high/c.ts"), read(new File(download.dir, "seg_00003.ts")));
+		assertEquals(download.getBytesDownloaded(), download.getBytesTotal());
+	}
+
+	@Test
+	public void removeAllowsImmediateDownload() throws Exception {
+		files.put("/media.mp4", random(1000, 1));
+
+		final SambaDownloadManager manager = new SambaDownloadManager(root);
+		final SambaDownload removed = manager.download(base + "/media.mp4", "", SambaDownload.Type.PROGRESSIVE);
+
+		manager.remove(removed.id);
+
+		final SambaDownload download = manager.download(base + "/media.mp4", "", SambaDownload.Type.PROGRESSIVE);
+
+		assertNotSame(removed, download);
+
+		for (int i = 0; i < 100 && download.getState() != SambaDownload.State.COMPLETED; ++i)
+			Thread.sleep(50);
+
+		assertEquals(SambaDownload.State.COMPLETED, download.getState());
+		assertArrayEquals(files.get("/media.mp4"), read(download.getLocalFile()));
+	}
+
+	private SambaDownload run(SambaDownload.Type type, String path) {
+		final SambaDownload download = new SambaDownload("a", base + path, "", type, new File(root, "a"));
+
+		new DownloadTask(new SambaDownloadManager(root), download, pool).run();
+		return download;
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		final boolean probe = "bytes=0-0".equals(range);
+
+		if (probe)
+			probes.incrementAndGet();
+		else if (unstable)
+			etag = "\"" + System.nanoTime() + "\"";
+
+		final byte[] body = files.get(path);
+
+		if (body == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		exchange.getResponseHeaders().set("ETag", etag);
+
+		int from = 0;
+		int to = body.length - 1;
+		boolean partial = range != null && (ifRange == null || ifRange.equals(etag));
+
+		if (partial) {
+			final String[] bounds = range.substring(6).split("-", -1);
+
+			from = Integer.parseInt(bounds[0]);
+
+			if (!bounds[1].isEmpty())
+				to = Math.min(to, Integer.parseInt(bounds[1]));
+
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + body.length);
+		}
+
+		final int length = to - from + 1;
+		boolean cut;
+
+		synchronized (truncated) {
+			cut = truncate && !probe && !path.endsWith(".m3u8") && length > 1 && truncated.add(path + "@" + to);
+		}
+
+		exchange.sendResponseHeaders(partial ? 206 : 200, length);
+
+		final OutputStream out = exchange.getResponseBody();
+
+		try {
+			out.write(body, from, cut ? length/2 : length);
+			out.flush();
+		}
+		finally {
+			// an incomplete fixed length body drops the connection
+			try {
+				exchange.close();
+			}
+			catch (RuntimeException ignored) {}
+		}
+	}
+
+	private static void writeState(File file, long... done) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+
+		try {
+			out.writeInt(done.length);
+
+			for (long d : done)
+				out.writeLong(d);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static byte[] random(int size, long seed) {
+		final byte[] bytes = new byte[size];
+
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * MPEG-TS like payload (sync byte every packet).
+	 */
+	private static byte[] segment(int packets, long seed) {
+		final byte[] bytes = random(packets*188, seed);
+
+		for (int i = 0; i < bytes.length; i += 188)
+			bytes[i] = 0x47;
+
+		return bytes;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			final byte[] bytes = new byte[(int) raf.length()];
+
+			raf.readFully(bytes);
+			return bytes;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+
+		if (children != null)
+			for (File f : children)
+				delete(f);
+
+		file.delete();
+	}
+}
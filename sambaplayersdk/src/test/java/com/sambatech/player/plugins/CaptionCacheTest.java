@@ -0,0 +1,162 @@
+package com.sambatech.player.plugins;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CaptionCacheTest {
+
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private File dir;
+	private String ptUrl;
+	private String enUrl;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+
+				final String lang = exchange.getRequestURI().getPath().substring(1, 3);
+				final byte[] body = ("WEBVTT\n\n00:00:01.000 --> 00:00:02.000\n" + lang + " 1\n\n" +
+						"00:00:03.000 --> 00:00:04.000\n" + lang + " 2\n").getBytes("UTF-8");
+
+				exchange.sendResponseHeaders(200, body.length);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+
+		final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		ptUrl = base + "/pt.vtt";
+		enUrl = base + "/en.vtt";
+		dir = new File(System.getProperty("java.io.tmpdir"), "captions" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+
+		dir.delete();
+	}
+
+	@Test
+	public void reswitchMakesNoRequests() {
+		final CaptionCache cache = new CaptionCache(dir, DIRECT, DIRECT);
+		final Recorder recorder = new Recorder();
+
+		cache.load(ptUrl, recorder);
+		cache.load(enUrl, recorder);
+		assertEquals(2, requests.get());
+
+		for (int i = 0; i < 10; ++i) {
+			cache.load(ptUrl, recorder);
+			cache.load(enUrl, recorder);
+		}
+
+		assertEquals(2, requests.get());
+		assertEquals(22, recorder.completed.size());
+		assertEquals("pt 1", text(recorder.completed.get(20), 1500));
+		assertEquals("en 2", text(recorder.completed.get(21), 3500));
+	}
+
+	@Test
+	public void diskTierSurvivesMemory() {
+		new CaptionCache(dir, DIRECT, DIRECT).load(ptUrl, null);
+		assertEquals(1, requests.get());
+
+		// cold memory tier, as after a process restart
+		final CaptionCache cache = new CaptionCache(dir, DIRECT, DIRECT);
+		final Recorder recorder = new Recorder();
+
+		cache.load(ptUrl, recorder);
+		assertEquals(1, requests.get());
+		assertEquals("pt 2", text(recorder.completed.get(0), 3500));
+		assertNotNull(cache.get(ptUrl));
+	}
+
+	@Test
+	public void concurrentLoadsShareRequest() {
+		final List<Runnable> queued = new ArrayList<>();
+		final CaptionCache cache = new CaptionCache(dir, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queued.add(command);
+			}
+		}, DIRECT);
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+
+		cache.load(enUrl, first);
+		cache.load(enUrl, second);
+		assertEquals(1, queued.size());
+
+		queued.get(0).run();
+		assertEquals(1, requests.get());
+		assertEquals(1, first.completed.size());
+		assertEquals(1, second.completed.size());
+	}
+
+	@Test
+	public void clearRefetches() {
+		final CaptionCache cache = new CaptionCache(dir, DIRECT, DIRECT);
+
+		cache.load(ptUrl, null);
+		cache.clear();
+		cache.load(ptUrl, null);
+		assertEquals(2, requests.get());
+	}
+
+	private static String text(CueIndex cues, long time) {
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		cues.seek(time, cursor);
+		return cursor.text;
+	}
+
+	private static final class Recorder implements CaptionCache.Listener {
+		final List<CueIndex> completed = new ArrayList<>();
+
+		@Override
+		public void onCues(CueIndex cues, boolean complete) {
+			if (complete)
+				completed.add(cues);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.sambatech.player.plugins;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class CaptionParserTest {
+
+	private static final String SRT = "1\r\n" +
+			"00:00:01,000 --> 00:00:02,500\r\n" +
+			"<b>Hello</b>\r\n" +
+			"world\r\n" +
+			"\r\n" +
+			"2\r\n" +
+			"00:00:03,000 --> 00:00:04,000\r\n" +
+			"{\\an8}Tom &amp; Jerry\r\n";
+
+	private static final String VTT = "WEBVTT - Some title\n" +
+			"Kind: captions\n" +
+			"\n" +
+			"NOTE a comment\n" +
+			"spanning lines\n" +
+			"\n" +
+			"STYLE\n" +
+			"::cue { color: yellow }\n" +
+			"\n" +
+			"intro\n" +
+			"00:01.000 --> 00:02.000 align:start position:10%\n" +
+			"<v Roger>Hi <c.yellow>there</c> &lt;3\n" +
+			"\n" +
+			"01:00:00.5 --> 01:00:01.25 line:0\n" +
+			"<00:00:00.750>Later\n";
+
+	@Test
+	public void parsesSrt() throws IOException {
+		final CueIndex index = parse(new StringReader(SRT));
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		assertEquals(2, index.size());
+
+		index.seek(1000, cursor);
+		assertEquals("Hello world", cursor.text);
+		assertEquals(2500, cursor.to);
+
+		index.seek(3500, cursor);
+		assertEquals("Tom & Jerry", cursor.text);
+	}
+
+	@Test
+	public void parsesVttSkippingHeaderSettingsAndBlocks() throws IOException {
+		final CueIndex index = parse(new StringReader(VTT));
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		assertEquals(2, index.size());
+
+		index.seek(1500, cursor);
+		assertEquals("Hi there <3", cursor.text);
+		assertEquals(1000, cursor.from);
+		assertEquals(2000, cursor.to);
+
+		index.seek(3600600, cursor);
+		assertEquals("Later", cursor.text);
+		assertEquals(3600500, cursor.from);
+		assertEquals(3601250, cursor.to);
+	}
+
+	@Test
+	public void ignoresBom() throws IOException {
+		assertEquals(2, parse(new StringReader('\uFEFF' + VTT)).size());
+		assertEquals(2, parse(new StringReader('\uFEFF' + SRT)).size());
+	}
+
+	@Test
+	public void sameCuesWhenDeliveredCharByChar() throws IOException {
+		for (String doc : new String[]{SRT, VTT, '\uFEFF' + SRT}) {
+			final CueIndex whole = parse(new StringReader(doc));
+			final CueIndex trickled = parse(new TrickleReader(doc));
+			final CueIndex.Cursor a = new CueIndex.Cursor();
+			final CueIndex.Cursor b = new CueIndex.Cursor();
+
+			assertEquals(whole.size(), trickled.size());
+
+			for (long time = 0; time < 3602000; time += 250) {
+				whole.seek(time, a);
+				trickled.seek(time, b);
+				assertEquals(a.text, b.text);
+			}
+		}
+	}
+
+	@Test
+	public void skipsMalformedCues() throws IOException {
+		final String doc = "1\n00:00:01,000 --> nonsense\nlost\n\n" +
+				"garbage line\nmore garbage\n\n" +
+				"00:00:05,000 --> 00:00:06,000\nkept\n";
+		final CueIndex index = parse(new StringReader(doc));
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		assertEquals(1, index.size());
+		index.seek(5000, cursor);
+		assertEquals("kept", cursor.text);
+	}
+
+	@Test
+	public void parsesTimestamps() {
+		assertEquals(1500, CaptionParser.parseTime("00:01.5", 0, 7));
+		assertEquals(3723004, CaptionParser.parseTime(" 01:02:03,004 ", 0, 14));
+		assertEquals(61000, CaptionParser.parseTime("1:01", 0, 4));
+		assertEquals(-1, CaptionParser.parseTime("12", 0, 2));
+		assertEquals(-1, CaptionParser.parseTime("1:2:3:4", 0, 7));
+		assertEquals(-1, CaptionParser.parseTime("ab:cd", 0, 5));
+	}
+
+	private static CueIndex parse(Reader reader) throws IOException {
+		final CaptionParser parser = new CaptionParser(reader);
+		final CueIndex.Builder builder = new CueIndex.Builder();
+
+		while (parser.next(builder)) {}
+
+		return builder.build();
+	}
+
+	/**
+	 * Delivers one char per read (splits CRLF pairs and the BOM from the content).
+	 */
+	private static final class TrickleReader extends Reader {
+
+		private final String s;
+		private int position;
+
+		TrickleReader(String s) {
+			this.s = s;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (position == s.length())
+				return -1;
+
+			buffer[offset] = s.charAt(position++);
+			return 1;
+		}
+
+		@Override
+		public void close() {}
+	}
+}
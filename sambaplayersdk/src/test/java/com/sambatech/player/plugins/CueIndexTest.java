@@ -0,0 +1,196 @@
+package com.sambatech.player.plugins;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CueIndexTest {
+
+	@Test
+	public void sequentialCues() {
+		final CueIndex index = new CueIndex.Builder()
+				.add(1000, 2000, "a")
+				.add(3000, 4000, "b")
+				.build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		index.seek(500, cursor);
+		assertEquals("", cursor.text);
+		assertEquals(Long.MIN_VALUE, cursor.from);
+		assertEquals(1000, cursor.to);
+
+		index.seek(1000, cursor);
+		assertEquals("a", cursor.text);
+		assertTrue(cursor.changed);
+		assertEquals(1000, cursor.from);
+		assertEquals(2000, cursor.to);
+
+		// end is exclusive
+		index.seek(2000, cursor);
+		assertEquals("", cursor.text);
+		assertEquals(2000, cursor.from);
+		assertEquals(3000, cursor.to);
+
+		index.seek(5000, cursor);
+		assertEquals("", cursor.text);
+		assertEquals(4000, cursor.from);
+		assertEquals(Long.MAX_VALUE, cursor.to);
+	}
+
+	@Test
+	public void overlappingCuesAreStackedByStart() {
+		final CueIndex index = new CueIndex.Builder()
+				.add(2000, 3000, "second")
+				.add(1000, 5000, "first")
+				.build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		index.seek(2500, cursor);
+		assertEquals("first\nsecond", cursor.text);
+		assertEquals(2000, cursor.from);
+		assertEquals(3000, cursor.to);
+
+		index.seek(3500, cursor);
+		assertEquals("first", cursor.text);
+		assertEquals(3000, cursor.from);
+		assertEquals(5000, cursor.to);
+	}
+
+	@Test
+	public void longCueCrossesLaterBoundaries() {
+		// a long cue still active after several shorter ones started and ended
+		final CueIndex index = new CueIndex.Builder()
+				.add(0, 10000, "long")
+				.add(1000, 2000, "x")
+				.add(3000, 4000, "y")
+				.build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		index.seek(2500, cursor);
+		assertEquals("long", cursor.text);
+		assertEquals(2000, cursor.from);
+		assertEquals(3000, cursor.to);
+
+		index.seek(3500, cursor);
+		assertEquals("long\ny", cursor.text);
+
+		index.seek(9000, cursor);
+		assertEquals("long", cursor.text);
+		assertEquals(4000, cursor.from);
+		assertEquals(10000, cursor.to);
+	}
+
+	@Test
+	public void cursorSkipsLookupInsideInterval() {
+		final CueIndex index = new CueIndex.Builder().add(1000, 2000, "a").build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		index.seek(1200, cursor);
+		assertTrue(cursor.changed);
+
+		index.seek(1900, cursor);
+		assertFalse(cursor.changed);
+		assertEquals("a", cursor.text);
+
+		// same cues after a lookup, not reported as a change
+		cursor.from = cursor.to = 0;
+		index.seek(1500, cursor);
+		assertFalse(cursor.changed);
+	}
+
+	@Test
+	public void emptyIndex() {
+		final CueIndex index = new CueIndex.Builder().build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		index.seek(1000, cursor);
+		assertEquals(0, index.size());
+		assertEquals("", cursor.text);
+		assertEquals(Long.MIN_VALUE, cursor.from);
+		assertEquals(Long.MAX_VALUE, cursor.to);
+	}
+
+	@Test
+	public void matchesLinearScan() {
+		final Random random = new Random(42);
+		final int n = 300;
+		final long[] starts = new long[n];
+		final long[] ends = new long[n];
+		final CueIndex.Builder builder = new CueIndex.Builder();
+
+		for (int i = 0; i < n; ++i) {
+			starts[i] = random.nextInt(100000);
+			ends[i] = starts[i] + 1 + random.nextInt(random.nextInt(10) == 0 ? 20000 : 3000);
+			builder.add(starts[i], ends[i], String.valueOf(i));
+		}
+
+		final CueIndex index = builder.build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+
+		for (long time = 0; time < 125000; time += 37) {
+			index.seek(time, cursor);
+
+			final String expected = scan(starts, ends, time);
+
+			assertEquals("at " + time, expected, sorted(cursor.text));
+			assertTrue(cursor.from <= time && time < cursor.to);
+
+			// same cues over the whole interval
+			if (cursor.from != Long.MIN_VALUE)
+				assertEquals(expected, scan(starts, ends, cursor.from));
+
+			if (cursor.to != Long.MAX_VALUE)
+				assertEquals(expected, scan(starts, ends, cursor.to - 1));
+		}
+	}
+
+	@Test
+	public void twoHoursOf3000Cues() {
+		final CueIndex.Builder builder = new CueIndex.Builder();
+
+		// a cue every 2.4 s over 2 hours, 40 chars each
+		for (int i = 0; i < 3000; ++i)
+			builder.add(i*2400L, i*2400L + 2000, "Caption line number " + (i + 100000) + " of the file.");
+
+		final CueIndex index = builder.build();
+		final CueIndex.Cursor cursor = new CueIndex.Cursor();
+		int changes = 0;
+
+		// 4 lookups per second, as the progress ticks
+		for (long time = 0; time < 2*60*60*1000L; time += 250) {
+			index.seek(time, cursor);
+
+			if (cursor.changed)
+				++changes;
+		}
+
+		assertEquals(3000, index.size());
+		// every cue shown and hidden once
+		assertEquals(6000, changes);
+		// 3 longs and an int per cue plus the text
+		assertTrue(index.getByteCount() < 3000*(28 + 2*40));
+	}
+
+	private static String scan(long[] starts, long[] ends, long time) {
+		final StringBuilder s = new StringBuilder();
+
+		for (int i = 0; i < starts.length; ++i)
+			if (starts[i] <= time && time < ends[i])
+				s.append(i).append('\n');
+
+		return sorted(s.toString());
+	}
+
+	private static String sorted(String text) {
+		if (text.isEmpty())
+			return "";
+
+		final String[] lines = text.trim().split("\n");
+
+		Arrays.sort(lines);
+		return Arrays.toString(lines);
+	}
+}
@@ -0,0 +1,163 @@
+package com.sambatech.player.plugins;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread scheduler on a virtual clock: tasks run on the calling thread,
+ * only when the test advances the time.
+ */
+final class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+	private long now;
+	private long sequence;
+
+	/**
+	 * Runs the tasks due by now (including the ones they schedule).
+	 */
+	void runDue() {
+		advance(0);
+	}
+
+	/**
+	 * Moves the clock forward, running the tasks due meanwhile in order.
+	 * @param millis Amount of time in milliseconds
+	 */
+	void advance(long millis) {
+		final long target = now + millis;
+		Task task;
+
+		while ((task = tasks.peek()) != null && task.time <= target) {
+			tasks.poll();
+			now = Math.max(now, task.time);
+
+			if (!task.cancelled) {
+				task.done = true;
+				task.command.run();
+			}
+		}
+
+		now = target;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		final Task task = new Task(command, now + unit.toMillis(delay), sequence++);
+
+		tasks.add(task);
+		return task;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void shutdown() {
+		tasks.clear();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		tasks.clear();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return false;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return false;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return true;
+	}
+
+	private final class Task implements ScheduledFuture<Object> {
+
+		final Runnable command;
+		final long time;
+		final long order;
+		boolean cancelled;
+		boolean done;
+
+		Task(Runnable command, long time, long order) {
+			this.command = command;
+			this.time = time;
+			this.order = order;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - now, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			final Task task = (Task) other;
+
+			if (time != task.time)
+				return time < task.time ? -1 : 1;
+
+			return order < task.order ? -1 : order == task.order ? 0 : 1;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (done)
+				return false;
+
+			cancelled = true;
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done || cancelled;
+		}
+
+		@Override
+		public Object get() {
+			return null;
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.sambatech.player.plugins;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProgressBucketsTest {
+
+	@Test
+	public void collectsProgressThenRetentionAscending() {
+		final ProgressBuckets buckets = new ProgressBuckets();
+		final StringBuilder targets = new StringBuilder();
+
+		buckets.track(70f, 100f);
+		buckets.track(5f, 100f);
+		buckets.track(5.5f, 100f);
+		buckets.track(63f, 100f);
+		buckets.track(64f, 100f);
+
+		assertEquals(8, buckets.getPendingCount());
+		assertTrue(buckets.collect(targets));
+		assertEquals("p05,p63,p64,p70,r05,r63,r64,r70", targets.toString());
+		assertEquals(0, buckets.getPendingCount());
+	}
+
+	@Test
+	public void retentionIsReportedOncePerPlayback() {
+		final ProgressBuckets buckets = new ProgressBuckets();
+		final StringBuilder targets = new StringBuilder();
+
+		buckets.track(10f, 100f);
+		buckets.collect(targets);
+		targets.setLength(0);
+
+		// seek back: progress is reported again, retention isn't
+		buckets.track(10f, 100f);
+		buckets.collect(targets);
+
+		assertEquals("p10", targets.toString());
+	}
+
+	@Test
+	public void appendsAfterPendingTargets() {
+		final ProgressBuckets buckets = new ProgressBuckets();
+		final StringBuilder targets = new StringBuilder("play");
+
+		assertFalse(buckets.collect(targets));
+		assertEquals("play", targets.toString());
+
+		buckets.track(0f, 100f);
+		buckets.collect(targets);
+
+		assertEquals("play,p00,r00", targets.toString());
+	}
+
+	@Test
+	public void clampsToBucketRange() {
+		final ProgressBuckets buckets = new ProgressBuckets();
+		final StringBuilder targets = new StringBuilder();
+
+		buckets.track(100f, 100f);
+		buckets.track(250f, 100f);
+		buckets.track(-1f, 100f);
+		buckets.collect(targets);
+
+		assertEquals("p00,p99,r00,r99", targets.toString());
+	}
+
+	@Test
+	public void everyBucketOnce() {
+		final ProgressBuckets buckets = new ProgressBuckets();
+		final StringBuilder targets = new StringBuilder();
+
+		for (int t = 0; t < 6000; ++t)
+			buckets.track(t/10f, 600f);
+
+		assertEquals(200, buckets.getPendingCount());
+		buckets.collect(targets);
+
+		final String[] split = targets.toString().split(",");
+
+		assertEquals(200, split.length);
+		assertEquals("p00", split[0]);
+		assertEquals("p99", split[99]);
+		assertEquals("r00", split[100]);
+		assertEquals("r99", split[199]);
+	}
+}
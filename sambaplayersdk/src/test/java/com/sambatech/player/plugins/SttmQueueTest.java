@@ -0,0 +1,254 @@
+package com.sambatech.player.plugins;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SttmQueueTest {
+
+	private static final long FLUSH_DELAY = 30*1000;
+
+	/** Longer than the longest backoff. */
+	private static final long MAX_WAIT = 6*60*1000;
+
+	private HttpServer server;
+	private String url;
+	private File dir;
+	private final ManualScheduler scheduler = new ManualScheduler();
+	private final Probe probe = new Probe();
+
+	/** Targets of the accepted requests, prefixed by their session. */
+	private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+	private volatile int attempts;
+	private volatile boolean down;
+
+	/** Attempts (1-based) answered with a server error. */
+	private final Set<Integer> failing = Collections.synchronizedSet(new HashSet<Integer>());
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/sttm", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final int attempt = ++attempts;
+
+				if (down || failing.contains(attempt)) {
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+
+				String targets = null;
+				String session = null;
+
+				for (String kv : exchange.getRequestURI().getRawQuery().split("&")) {
+					if (kv.startsWith("sttmm="))
+						targets = kv.substring(6);
+					else if (kv.startsWith("sttms="))
+						session = kv.substring(6);
+				}
+
+				received.add(session + ":" + targets);
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/sttm";
+		dir = new File(System.getProperty("java.io.tmpdir"), "sttm" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+
+		dir.delete();
+	}
+
+	@Test
+	public void offlineThenOnline() {
+		final SttmQueue queue = newQueue(scheduler);
+
+		probe.online = false;
+		queue.offer(url, params("a"), "play");
+		queue.offer(url, params("a"), "p00,r00");
+		scheduler.advance(MAX_WAIT);
+
+		assertEquals(0, attempts);
+		assertTrue(new File(dir, "journal").length() > 0);
+
+		probe.online = true;
+		scheduler.advance(MAX_WAIT);
+
+		assertEquals(Arrays.asList("a:play,p00,r00"), received);
+		assertFalse(new File(dir, "journal").exists());
+	}
+
+	@Test
+	public void collectorDownThenRecovers() {
+		final SttmQueue queue = newQueue(scheduler);
+
+		down = true;
+		queue.offer(url, params("a"), "play");
+		scheduler.advance(FLUSH_DELAY);
+
+		assertEquals(1, attempts);
+		assertTrue(received.isEmpty());
+
+		// backs off instead of hammering the collector
+		scheduler.advance(4000);
+		assertEquals(1, attempts);
+
+		down = false;
+		scheduler.advance(MAX_WAIT);
+
+		assertEquals(Arrays.asList("a:play"), received);
+		assertEquals(2, attempts);
+	}
+
+	@Test
+	public void replaysJournalAfterRestart() {
+		probe.online = false;
+		newQueue(scheduler).offer(url, params("a"), "play");
+		scheduler.runDue();
+
+		assertEquals(0, attempts);
+
+		// a new process: the journal left behind is uploaded right away
+		final ManualScheduler restarted = new ManualScheduler();
+
+		probe.online = true;
+		newQueue(restarted);
+		restarted.runDue();
+
+		assertEquals(Arrays.asList("a:play"), received);
+	}
+
+	@Test
+	public void keepsOrderWithoutDuplicates() {
+		final SttmQueue queue = newQueue(scheduler);
+
+		// sessions alternate, so that every beacon is a request of its own
+		for (int i = 1; i <= 3; ++i) {
+			queue.offer(url, params("a"), "a" + i);
+			queue.offer(url, params("b"), "b" + i);
+		}
+
+		failing.add(3);
+		scheduler.advance(FLUSH_DELAY);
+
+		assertEquals(Arrays.asList("a:a1", "b:b1"), received);
+
+		// restarts from the persisted offset, past the uploaded beacons
+		final ManualScheduler restarted = new ManualScheduler();
+
+		newQueue(restarted);
+		restarted.runDue();
+
+		assertEquals(Arrays.asList("a:a1", "b:b1", "a:a2", "b:b2", "a:a3", "b:b3"), received);
+		assertEquals(7, attempts);
+	}
+
+	@Test
+	public void capsJournal() {
+		final SttmQueue queue = newQueue(scheduler);
+		final StringBuilder padding = new StringBuilder();
+		final int count = 100;
+
+		while (padding.length() < 3000)
+			padding.append('x');
+
+		probe.online = false;
+
+		for (int i = 0; i < count; ++i) {
+			queue.offer(url, params("a"), i + padding.toString());
+
+			// the ring buffer holds up to 256 beacons between spools
+			if (i%50 == 49)
+				scheduler.runDue();
+		}
+
+		scheduler.runDue();
+
+		final long length = new File(dir, "journal").length();
+
+		// compacted down to half the cap once over it
+		assertTrue(length <= 256*1024);
+		assertTrue(length > 64*1024);
+
+		probe.online = true;
+		scheduler.advance(MAX_WAIT);
+
+		// the oldest beacons were dropped, the rest is uploaded in order
+		final List<Integer> ids = new ArrayList<>();
+
+		for (String beacon : received)
+			for (String target : beacon.substring(2).split(","))
+				ids.add(Integer.parseInt(target.substring(0, target.indexOf('x'))));
+
+		assertTrue(ids.get(0) > 0);
+		assertEquals(count - 1, (int) ids.get(ids.size() - 1));
+
+		for (int i = 1; i < ids.size(); ++i)
+			assertEquals(ids.get(i - 1) + 1, (int) ids.get(i));
+	}
+
+	@Test
+	public void mergesConsecutiveBeaconsOfSession() {
+		final SttmQueue queue = newQueue(scheduler);
+
+		queue.offer(url, params("a"), "play");
+		queue.offer(url, params("a"), "p00,r00");
+		queue.offer(url, params("b"), "play");
+		queue.offer(url, params("a"), "complete");
+		scheduler.advance(FLUSH_DELAY);
+
+		assertEquals(Arrays.asList("a:play,p00,r00", "b:play", "a:complete"), received);
+	}
+
+	private SttmQueue newQueue(ManualScheduler worker) {
+		return new SttmQueue(dir, worker, probe);
+	}
+
+	private static String params(String session) {
+		return "sttmk=key&sttms=" + session + "&sttmu=123";
+	}
+
+	private static final class Probe implements SttmQueue.NetworkProbe {
+		volatile boolean online = true;
+
+		@Override
+		public boolean isOnline() {
+			return online;
+		}
+
+		@Override
+		public boolean isUnmetered() {
+			return true;
+		}
+	}
+}
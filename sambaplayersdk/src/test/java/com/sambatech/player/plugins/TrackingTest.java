@@ -0,0 +1,120 @@
+package com.sambatech.player.plugins;
+
+import com.sambatech.player.event.ProgressEvent;
+import com.sambatech.player.event.SambaEvent;
+import com.sambatech.player.event.SambaEventBus;
+import com.sambatech.player.event.SambaPlayerListener;
+import com.sambatech.player.model.SambaMediaConfig;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackingTest {
+
+	private final File dir = new File(System.getProperty("java.io.tmpdir"), "tracking" + System.nanoTime());
+	private final ManualScheduler scheduler = new ManualScheduler();
+
+	// offline, so that beacons stay in the journal
+	private final SttmQueue queue = new SttmQueue(dir, scheduler, new SttmQueue.NetworkProbe() {
+		@Override
+		public boolean isOnline() {
+			return false;
+		}
+
+		@Override
+		public boolean isUnmetered() {
+			return false;
+		}
+	});
+
+	@After
+	public void tearDown() {
+		final File[] files = dir.listFiles();
+
+		if (files != null)
+			for (File file : files)
+				file.delete();
+
+		dir.delete();
+	}
+
+	@Test
+	public void secondMediaTracksFirstBuckets() throws IOException {
+		final Tracking tracking = new Tracking();
+		final SambaEventBus.EventBus bus = new SambaEventBus.EventBus(null);
+
+		// watched up to the end, then sought back to the start
+		tracking.load(media("first"), bus, queue);
+		bus.post(new SambaEvent(SambaPlayerListener.EventType.START));
+
+		for (float time = 0; time < 600; time += .25f)
+			bus.post(ProgressEvent.obtain(time, 600));
+
+		bus.post(ProgressEvent.obtain(0, 600));
+		tracking.onDestroy();
+
+		// the first 10 buckets of a 60s media fall within the last window of the previous one
+		tracking.load(media("second"), bus, queue);
+		bus.post(new SambaEvent(SambaPlayerListener.EventType.START));
+
+		for (float time = 0; time < 6; time += .25f)
+			bus.post(ProgressEvent.obtain(time, 60));
+
+		tracking.onDestroy();
+		scheduler.runDue();
+
+		final List<String> targets = getTargets("second");
+
+		for (int p = 0; p < 10; ++p) {
+			assertTrue(targets.contains(String.format("p%02d", p)));
+			assertTrue(targets.contains(String.format("r%02d", p)));
+		}
+
+		assertEquals("play", targets.get(0));
+		assertFalse(targets.contains("p10"));
+	}
+
+	private static SambaMediaConfig media(String id) {
+		final SambaMediaConfig media = new SambaMediaConfig();
+
+		media.id = id;
+		media.projectHash = "hash";
+		media.sttmUrl = "http://127.0.0.1/sttm";
+		media.sttmKey = "key";
+		return media;
+	}
+
+	/**
+	 * @return Targets of the beacons journaled for a media, in order
+	 */
+	private List<String> getTargets(String id) throws IOException {
+		final List<String> targets = new ArrayList<>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(dir, "journal")), "UTF-8"));
+
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				final String[] entry = line.split("\t");
+
+				if (entry[1].contains("mid:" + id))
+					targets.addAll(Arrays.asList(entry[2].split(",")));
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		return targets;
+	}
+}
@@ -0,0 +1,98 @@
+package com.sambatech.player.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class Base64UrlInputStreamTest {
+
+	@Test
+	public void decodesPaddedAndUnpadded() throws IOException {
+		assertEquals("", decode("", 0, 0));
+		assertEquals("f", decode("Zg==", 0, 0));
+		assertEquals("fo", decode("Zm8", 0, 0));
+		assertEquals("foo", decode("Zm9v", 0, 0));
+		assertEquals("foobar", decode("Zm9vYmFy", 0, 0));
+	}
+
+	@Test
+	public void acceptsBothAlphabets() throws IOException {
+		// 0xFB 0xFF 0xBF
+		assertArrayEquals(new byte[]{(byte) 0xFB, (byte) 0xFF, (byte) 0xBF}, decodeBytes("-_-_", 0, 0));
+		assertArrayEquals(new byte[]{(byte) 0xFB, (byte) 0xFF, (byte) 0xBF}, decodeBytes("+/+/", 0, 0));
+	}
+
+	@Test
+	public void ignoresLineBreaks() throws IOException {
+		assertEquals("foobar", decode("Zm9v\r\nYmFy\n", 0, 0));
+	}
+
+	@Test
+	public void skipsHeadAndTail() throws IOException {
+		// obfuscation chars at both ends, as in player API responses
+		assertEquals("{\"a\":1}", decode("3eyJhIjoxfQ3", 1, 1));
+		assertEquals("{\"a\":1}", decode("xyzeyJhIjoxfQxyz", 3, 3));
+	}
+
+	@Test
+	public void tailLongerThanInput() throws IOException {
+		assertEquals("", decode("Zm9v", 0, 8));
+	}
+
+	@Test
+	public void bulkAndSingleReadsAgree() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < 1000; ++i)
+			sb.append("Zm9vYmFy");
+
+		final InputStream in = new Base64UrlInputStream(new ByteArrayInputStream(sb.toString().getBytes("US-ASCII")));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[7];
+		int b;
+
+		// alternates odd-sized bulk reads with single byte reads
+		while (true) {
+			final int n = in.read(buffer, 0, buffer.length);
+
+			if (n == -1)
+				break;
+
+			out.write(buffer, 0, n);
+
+			if ((b = in.read()) == -1)
+				break;
+
+			out.write(b);
+		}
+
+		final StringBuilder expected = new StringBuilder();
+
+		for (int i = 0; i < 1000; ++i)
+			expected.append("foobar");
+
+		assertEquals(expected.toString(), out.toString("UTF-8"));
+	}
+
+	private static String decode(String encoded, int skipHead, int skipTail) throws IOException {
+		return new String(decodeBytes(encoded, skipHead, skipTail), "UTF-8");
+	}
+
+	private static byte[] decodeBytes(String encoded, int skipHead, int skipTail) throws IOException {
+		final InputStream in = new Base64UrlInputStream(new ByteArrayInputStream(encoded.getBytes("US-ASCII")),
+				skipHead, skipTail);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64];
+		int n;
+
+		while ((n = in.read(buffer, 0, buffer.length)) != -1)
+			out.write(buffer, 0, n);
+
+		return out.toByteArray();
+	}
+}
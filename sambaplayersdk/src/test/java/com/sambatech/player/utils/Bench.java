@@ -0,0 +1,90 @@
+package com.sambatech.player.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times an operation on the JVM, after a warm-up, and reports its cost per call.
+ * Allocations are measured where the JVM supports it (HotSpot), otherwise reported as NaN.
+ */
+public final class Bench {
+
+	public final String name;
+	public final double nsPerOp;
+	public final double bytesPerOp;
+
+	private Bench(String name, double nsPerOp, double bytesPerOp) {
+		this.name = name;
+		this.nsPerOp = nsPerOp;
+		this.bytesPerOp = bytesPerOp;
+	}
+
+	/**
+	 * @param name Label of the operation
+	 * @param ops Calls timed (as many are made before, as a warm-up)
+	 * @param op The operation
+	 * @return The cost per call
+	 */
+	public static Bench run(String name, int ops, Runnable op) {
+		for (int i = 0; i < ops; ++i)
+			op.run();
+
+		final long bytes = getAllocatedBytes();
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < ops; ++i)
+			op.run();
+
+		final long elapsed = System.nanoTime() - start;
+		final long allocated = getAllocatedBytes() - bytes;
+
+		return new Bench(name, (double) elapsed/ops, bytes == -1 ? Double.NaN : (double) allocated/ops);
+	}
+
+	/**
+	 * Runs an operation a few times and reports the median duration of a call (for slow operations,
+	 * ex. network round-trips, where the allocations aren't meaningful).
+	 * @param name Label of the operation
+	 * @param ops Calls timed (one more is made before, as a warm-up)
+	 * @param op The operation
+	 * @return The cost per call
+	 */
+	public static Bench median(String name, int ops, Runnable op) {
+		final long[] times = new long[ops];
+
+		op.run();
+
+		for (int i = 0; i < ops; ++i) {
+			final long start = System.nanoTime();
+
+			op.run();
+			times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		return new Bench(name, times[ops/2], Double.NaN);
+	}
+
+	public double getMillis() {
+		return nsPerOp/1000000;
+	}
+
+	@Override
+	public String toString() {
+		if (nsPerOp >= 100000)
+			return String.format(Locale.US, "%s: %.2f ms", name, getMillis());
+
+		return String.format(Locale.US, "%s: %.1f ns/op, %.1f B/op", name, nsPerOp, bytesPerOp);
+	}
+
+	private static long getAllocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
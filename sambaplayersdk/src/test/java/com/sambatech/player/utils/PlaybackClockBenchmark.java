@@ -0,0 +1,96 @@
+package com.sambatech.player.utils;
+
+import org.junit.Test;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * The shared clock against the former <code>java.util.Timer</code> per task:
+ * cost of starting and stopping a task, and wakeups of playing players.
+ */
+public class PlaybackClockBenchmark {
+
+	private static final long MINUTE = 60*1000;
+
+	@Test
+	public void startStopVersusTimer() {
+		final PlaybackClock clock = new PlaybackClock(new VirtualScheduler());
+		final PlaybackClock.Task task = new PlaybackClock.Task() {
+			@Override
+			public boolean onTick() {
+				return true;
+			}
+		};
+
+		// as on every play/pause before the clock (a new thread per start)
+		System.out.println(Bench.run("timer", 2000, new Runnable() {
+			@Override
+			public void run() {
+				final Timer timer = new Timer();
+
+				timer.scheduleAtFixedRate(new TimerTask() {
+					@Override
+					public void run() {}
+				}, 250, 250);
+				timer.cancel();
+				timer.purge();
+			}
+		}));
+		System.out.println(Bench.run("clock", 200000, new Runnable() {
+			@Override
+			public void run() {
+				clock.schedule(task, 250);
+				clock.cancel(task);
+			}
+		}));
+	}
+
+	@Test
+	public void wakeupsVersusTimers() {
+		for (int players : new int[] {1, 4, 16}) {
+			final VirtualScheduler scheduler = new VirtualScheduler();
+			final PlaybackClock clock = new PlaybackClock(scheduler);
+			final int[] ticks = {0};
+			final PlaybackClock.Task task = new PlaybackClock.Task() {
+				@Override
+				public boolean onTick() {
+					++ticks[0];
+					return true;
+				}
+			};
+
+			// progress and tracking of each player, started 37ms apart
+			for (int i = 0; i < players; ++i) {
+				clock.schedule(new Forward(task), 250);
+				clock.schedule(new Forward(task), 5000);
+				scheduler.advance(37);
+			}
+
+			scheduler.advance(MINUTE);
+
+			// a timer thread wakes up for each of its ticks
+			System.out.println(String.format("%d players: %d timer threads, %d wakeups; clock: %d wakeups",
+					players, 2*players, ticks[0], scheduler.wakeups.size()));
+			assertTrue(scheduler.wakeups.size() < ticks[0]);
+		}
+	}
+
+	/**
+	 * Distinct task per player, counted by a shared one.
+	 */
+	private static final class Forward implements PlaybackClock.Task {
+		private final PlaybackClock.Task task;
+
+		Forward(PlaybackClock.Task task) {
+			this.task = task;
+		}
+
+		@Override
+		public boolean onTick() {
+			return task.onTick();
+		}
+	}
+}
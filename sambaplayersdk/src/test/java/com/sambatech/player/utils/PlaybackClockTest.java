@@ -0,0 +1,151 @@
+package com.sambatech.player.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlaybackClockTest {
+
+	private final VirtualScheduler scheduler = new VirtualScheduler();
+	private final PlaybackClock clock = new PlaybackClock(scheduler);
+
+	@Test
+	public void reschedulingFromOwnTickReplacesSchedule() {
+		// ends its 1s schedule, switching to 500ms
+		final Recorder task = new Recorder() {
+			@Override
+			public boolean onTick() {
+				super.onTick();
+
+				if (ticks.size() > 1)
+					return true;
+
+				clock.schedule(this, 500, 500);
+				return false;
+			}
+		};
+
+		clock.schedule(task, 1000);
+		scheduler.advance(2000);
+
+		assertTrue(clock.isScheduled(task));
+		assertEquals(Arrays.asList(0L, 500L, 1000L, 1500L, 2000L), task.ticks);
+	}
+
+	@Test
+	public void reschedulingFromOtherTaskIsIgnored() {
+		final Recorder task = new Recorder();
+
+		clock.schedule(task, 1000);
+		scheduler.advance(0);
+
+		// already scheduled
+		clock.schedule(task, 100);
+		scheduler.advance(2000);
+
+		assertEquals(Arrays.asList(0L, 1000L, 2000L), task.ticks);
+	}
+
+	@Test
+	public void peerJoinsWakeups() {
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+
+		clock.schedule(first, 1000);
+		scheduler.advance(300);
+		clock.schedule(second, 1000);
+		scheduler.advance(2700);
+
+		assertEquals(Arrays.asList(0L, 1000L, 2000L, 3000L), first.ticks);
+
+		// deferred to the peer's tick at 2s rather than advanced to 1s, 300ms after the first one
+		assertEquals(Arrays.asList(300L, 2000L, 3000L), second.ticks);
+		assertEquals(Arrays.asList(0L, 300L, 1000L, 2000L, 3000L), scheduler.wakeups);
+	}
+
+	@Test
+	public void joiningNeverShortensInterval() {
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+
+		clock.schedule(first, 1000);
+		scheduler.advance(900);
+		clock.schedule(second, 1000);
+		scheduler.advance(3100);
+
+		// the peer ticks 100ms later: the repeat is deferred by 100ms rather than advanced by 900ms
+		assertEquals(Arrays.asList(900L, 2000L, 3000L, 4000L), second.ticks);
+
+		for (int i = 1; i < second.ticks.size(); ++i)
+			assertTrue(second.ticks.get(i) - second.ticks.get(i - 1) >= 1000);
+	}
+
+	@Test
+	public void lateTickIsNotCaughtUp() {
+		final Recorder task = new Recorder();
+
+		clock.schedule(task, 1000);
+		scheduler.advance(0);
+		scheduler.delayNextTick(2500);
+		scheduler.advance(5000);
+
+		// a single late tick instead of a burst for the missed ones, then one interval after it
+		assertEquals(Arrays.asList(0L, 3500L, 4500L), task.ticks);
+	}
+
+	@Test
+	public void throwingTaskIsDropped() {
+		final Recorder task = new Recorder();
+		final PlaybackClock.Task failing = new PlaybackClock.Task() {
+			@Override
+			public boolean onTick() {
+				throw new IllegalStateException();
+			}
+		};
+
+		clock.schedule(failing, 1000);
+		clock.schedule(task, 1000);
+		scheduler.advance(1000);
+
+		assertFalse(clock.isScheduled(failing));
+		assertEquals(Arrays.asList(0L, 1000L), task.ticks);
+	}
+
+	@Test
+	public void stopsPostingWhenIdle() {
+		final Recorder task = new Recorder();
+		final Recorder once = new Recorder() {
+			@Override
+			public boolean onTick() {
+				super.onTick();
+				return false;
+			}
+		};
+
+		clock.schedule(task, 250);
+		clock.schedule(once, 5000, 1000);
+		scheduler.advance(1000);
+
+		assertEquals(Arrays.asList(1000L), once.ticks);
+		assertFalse(clock.isScheduled(once));
+		assertEquals(1250L, scheduler.getPostedTime());
+
+		clock.cancel(task);
+
+		assertEquals(Long.MAX_VALUE, scheduler.getPostedTime());
+	}
+
+	private class Recorder implements PlaybackClock.Task {
+		final List<Long> ticks = new ArrayList<>();
+
+		@Override
+		public boolean onTick() {
+			ticks.add(scheduler.now());
+			return true;
+		}
+	}
+}
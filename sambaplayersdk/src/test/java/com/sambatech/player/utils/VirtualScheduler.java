@@ -0,0 +1,75 @@
+package com.sambatech.player.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clock scheduler on a virtual time: the posted tick runs on the calling thread,
+ * only when the test advances the time.
+ */
+final class VirtualScheduler implements PlaybackClock.Scheduler {
+
+	/** Times at which the tick ran. */
+	final List<Long> wakeups = new ArrayList<>();
+
+	private Runnable tick;
+	private long time = Long.MAX_VALUE;
+	private long now;
+	private long lag;
+
+	/**
+	 * Makes the next tick run late (ex. the main thread was busy).
+	 * @param millis Delay in milliseconds
+	 */
+	void delayNextTick(long millis) {
+		lag = millis;
+	}
+
+	/**
+	 * Moves the clock forward, running the ticks due meanwhile.
+	 * @param millis Amount of time in milliseconds
+	 */
+	void advance(long millis) {
+		final long target = now + millis;
+
+		while (tick != null && time + lag <= target) {
+			final Runnable current = tick;
+
+			now = Math.max(now, time + lag);
+			tick = null;
+			time = Long.MAX_VALUE;
+			lag = 0;
+			wakeups.add(now);
+			current.run();
+		}
+
+		now = target;
+	}
+
+	/**
+	 * @return Time of the pending tick (<code>Long.MAX_VALUE</code> if none)
+	 */
+	long getPostedTime() {
+		return time;
+	}
+
+	@Override
+	public long now() {
+		return now;
+	}
+
+	@Override
+	public void postAt(Runnable tick, long time) {
+		this.tick = tick;
+		this.time = time;
+	}
+
+	@Override
+	public void remove(Runnable tick) {
+		if (this.tick != tick)
+			return;
+
+		this.tick = null;
+		time = Long.MAX_VALUE;
+	}
+}